@@ -18,8 +18,10 @@ package github.ankushsachdeva.emojicon;
 import android.content.Context;
 import android.graphics.drawable.Drawable;
 import android.text.Spannable;
+import android.text.Spanned;
 import android.text.style.DynamicDrawableSpan;
 import android.text.style.ImageSpan;
+import android.util.SparseArray;
 import android.util.SparseIntArray;
 
 /**
@@ -32,6 +34,11 @@ public final class EmojiconHandler {
     private static final SparseIntArray sEmojisMap = new SparseIntArray(846);
     private static final SparseIntArray sSoftbanksMap = new SparseIntArray(471);
 
+    /**
+     * Drawables shared between spans, by size and by resource.
+     */
+    private static final SparseArray<SparseArray<Drawable>> sDrawables = new SparseArray<SparseArray<Drawable>>();
+
     static {
         // People
         sEmojisMap.put(0x1f604, R.drawable.emoji_1f604);
@@ -1374,6 +1381,47 @@ public final class EmojiconHandler {
         return sSoftbanksMap.get(c);
     }
 
+    /**
+     * Returns drawable with given size shared between all spans.
+     * Must be called from the UI thread.
+     */
+    private static Drawable getDrawable(Context context, int icon, int size) {
+        SparseArray<Drawable> drawables = sDrawables.get(size);
+        if (drawables == null) {
+            drawables = new SparseArray<Drawable>();
+            sDrawables.put(size, drawables);
+        }
+        Drawable drawable = drawables.get(icon);
+        if (drawable == null) {
+            drawable = context.getResources().getDrawable(icon);
+            drawable.setBounds(0, 0, size, size);
+            drawables.put(icon, drawable);
+        }
+        return drawable;
+    }
+
+    /**
+     * Whether emojis have been already added to the given text with the same parameters.
+     *
+     * @param text
+     * @param emojiSize
+     * @param index
+     * @param length
+     */
+    public static boolean hasEmojis(CharSequence text, int emojiSize, int index, int length) {
+        if (!(text instanceof Spanned)) {
+            return false;
+        }
+        Spanned spanned = (Spanned) text;
+        for (EmojisMarker marker : spanned.getSpans(0, spanned.length(), EmojisMarker.class)) {
+            if (marker.mSize == emojiSize && marker.mIndex == index && marker.mLength == length
+                    && spanned.getSpanStart(marker) == 0 && spanned.getSpanEnd(marker) == spanned.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Convert emoji characters of the given Spannable to the according emojicon.
      *
@@ -1404,6 +1452,16 @@ public final class EmojiconHandler {
         for (int i = 0; i < oldSpans.length; i++) {
             text.removeSpan(oldSpans[i]);
         }
+        EmojiImageSpan[] oldImageSpans = text.getSpans(0, textLength, EmojiImageSpan.class);
+        for (int i = 0; i < oldImageSpans.length; i++) {
+            text.removeSpan(oldImageSpans[i]);
+        }
+        EmojisMarker[] oldMarkers = text.getSpans(0, textLength, EmojisMarker.class);
+        for (int i = 0; i < oldMarkers.length; i++) {
+            text.removeSpan(oldMarkers[i]);
+        }
+        text.setSpan(new EmojisMarker(emojiSize, index, length), 0, textLength,
+                Spannable.SPAN_INCLUSIVE_INCLUSIVE);
 
         int skip;
         for (int i = index; i < textLengthToProcess; i += skip) {
@@ -1509,11 +1567,30 @@ public final class EmojiconHandler {
             }
 
             if (icon > 0) {
-                Drawable myIcon = context.getResources().getDrawable(icon);
-                myIcon.setBounds(0, 0, emojiSize, emojiSize);
-                text.setSpan(new ImageSpan(myIcon, DynamicDrawableSpan.ALIGN_BOTTOM),
+                text.setSpan(new EmojiImageSpan(getDrawable(context, icon, emojiSize)),
                         i, i + skip, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
             }
         }
     }
+
+    private static class EmojiImageSpan extends ImageSpan {
+        EmojiImageSpan(Drawable drawable) {
+            super(drawable, DynamicDrawableSpan.ALIGN_BOTTOM);
+        }
+    }
+
+    /**
+     * Marks text which emojis have been added to.
+     */
+    private static class EmojisMarker {
+        private final int mSize;
+        private final int mIndex;
+        private final int mLength;
+
+        EmojisMarker(int size, int index, int length) {
+            mSize = size;
+            mIndex = index;
+            mLength = length;
+        }
+    }
 }
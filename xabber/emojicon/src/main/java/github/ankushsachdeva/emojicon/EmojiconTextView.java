@@ -18,6 +18,7 @@ package github.ankushsachdeva.emojicon;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 import android.util.AttributeSet;
 import android.widget.TextView;
@@ -60,11 +61,23 @@ public class EmojiconTextView extends TextView {
 
     @Override
     public void setText(CharSequence text, BufferType type) {
+        if (EmojiconHandler.hasEmojis(text, mEmojiconSize, mTextStart, mTextLength)) {
+            super.setText(text, type);
+            return;
+        }
         SpannableStringBuilder builder = new SpannableStringBuilder(text);
         EmojiconHandler.addEmojis(getContext(), builder, mEmojiconSize, mTextStart, mTextLength);
         super.setText(builder, type);
     }
 
+    /**
+     * Adds emojis to the given text the same way {@link #setText(CharSequence)} does, so it
+     * can be cached and set without processing.
+     */
+    public void addEmojis(Spannable text) {
+        EmojiconHandler.addEmojis(getContext(), text, mEmojiconSize, mTextStart, mTextLength);
+    }
+
     /**
      * Set the size of emojicon in pixels.
      */
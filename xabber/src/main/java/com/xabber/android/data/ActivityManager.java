@@ -191,9 +191,13 @@ public class ActivityManager implements OnUnloadListener {
         if (LOG)
             LogManager.i(activity, "onResume");
         if (!application.isInitialized() && !(activity instanceof LoadActivity)) {
-            if (LOG)
-                LogManager.i(this, "Wait for loading");
-            activity.startActivity(LoadActivity.createIntent(activity));
+            // Contact list can be shown before all data will be loaded.
+            boolean contactList = activity instanceof ContactList;
+            if (!contactList || !application.isContactListLoaded()) {
+                if (LOG)
+                    LogManager.i(this, "Wait for loading");
+                activity.startActivity(LoadActivity.createIntent(activity, contactList));
+            }
         }
         if (onErrorListener != null) {
             application.removeUIListener(OnErrorListener.class, onErrorListener);
@@ -18,6 +18,7 @@ import android.app.Activity;
 import android.content.pm.PackageManager;
 import android.content.res.TypedArray;
 import android.os.Handler;
+import android.os.SystemClock;
 
 import com.xabber.android.R;
 import com.xabber.android.service.XabberService;
@@ -28,14 +29,12 @@ import org.jivesoftware.smack.provider.ProviderManager;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
 
 /**
  * Base entry point.
@@ -44,12 +43,30 @@ import java.util.concurrent.ThreadFactory;
  */
 public class Application extends android.app.Application {
 
+    /**
+     * Maximum time in milliseconds to wait for tasks in each lane before
+     * process will be killed.
+     */
+    private static final long UNLOAD_TIMEOUT = 5000;
+
+    /**
+     * Lanes in order of shutdown. Tasks in each lane can submit tasks to the
+     * following lanes, so database lane is the last one.
+     */
+    private static final BackgroundLane[] UNLOAD_LANES = new BackgroundLane[]{
+            BackgroundLane.packet, BackgroundLane.otr, BackgroundLane.decode,
+            BackgroundLane.io, BackgroundLane.read, BackgroundLane.database};
+
     private static Application instance;
     private final ArrayList<Object> registeredManagers;
     /**
-     * Thread to execute tasks in background..
+     * Class names of managers required to show contact list.
      */
-    private final ExecutorService backgroundExecutor;
+    private final ArrayList<String> contactListManagers;
+    /**
+     * Executors to run tasks in background for each lane.
+     */
+    private final Map<BackgroundLane, BackgroundExecutor> backgroundExecutors;
     /**
      * Handler to execute runnable in UI thread.
      */
@@ -68,6 +85,10 @@ public class Application extends android.app.Application {
      * Whether application was initialized.
      */
     private boolean initialized;
+    /**
+     * Whether data required to show contact list was loaded.
+     */
+    private boolean contactListLoaded;
     /**
      * Whether user was notified about some action in contact list activity
      * after application initialization.
@@ -96,28 +117,30 @@ public class Application extends android.app.Application {
      * Future for loading process.
      */
     private Future<Void> loadFuture;
+    private LoadScheduler loadScheduler;
+    /**
+     * Time when data load was requested.
+     */
+    private long loadStarted;
 
     public Application() {
         instance = this;
         serviceStarted = false;
         initialized = false;
+        contactListLoaded = false;
         notified = false;
         closing = false;
         closed = false;
         uiListeners = new HashMap<>();
         managerInterfaces = new HashMap<>();
         registeredManagers = new ArrayList<>();
+        contactListManagers = new ArrayList<>();
 
         handler = new Handler();
-        backgroundExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable runnable) {
-                Thread thread = new Thread(runnable, "Background executor service");
-                thread.setPriority(Thread.MIN_PRIORITY);
-                thread.setDaemon(true);
-                return thread;
-                }
-            });
+        backgroundExecutors = new EnumMap<>(BackgroundLane.class);
+        for (BackgroundLane lane : BackgroundLane.values()) {
+            backgroundExecutors.put(lane, new BackgroundExecutor(lane));
+        }
     }
 
     public static Application getInstance() {
@@ -134,16 +157,31 @@ public class Application extends android.app.Application {
         return initialized;
     }
 
-    private void onLoad() {
+    /**
+     * Whether data required to show contact list was loaded. Application
+     * can be not initialized yet.
+     */
+    public boolean isContactListLoaded() {
+        return contactListLoaded;
+    }
+
+    private void onLoad() throws Exception {
         ProviderManager.addLoader(new ProviderFileLoader(getResources().openRawResource(R.raw.smack)));
 
-        for (OnLoadListener listener : getManagers(OnLoadListener.class)) {
-            LogManager.i(listener, "onLoad");
-            listener.onLoad();
+        loadScheduler.load();
+    }
+
+    private void onContactListLoaded() {
+        LogManager.i(this, "onContactListLoaded in " + (SystemClock.elapsedRealtime() - loadStarted) + " ms");
+        contactListLoaded = true;
+        for (OnContactListLoadedListener listener : getUIListeners(OnContactListLoadedListener.class)) {
+            listener.onContactListLoaded();
         }
     }
 
     private void onInitialized() {
+        LogManager.i(this, "onLoad completed in " + (SystemClock.elapsedRealtime() - loadStarted)
+                + " ms\n" + loadScheduler.getReport());
         for (OnInitializedListener listener : getManagers(OnInitializedListener.class)) {
             LogManager.i(listener, "onInitialized");
             listener.onInitialized();
@@ -163,8 +201,27 @@ public class Application extends android.app.Application {
         closed = true;
     }
 
+    /**
+     * Completes tasks in all lanes and kills the process.
+     * <p/>
+     * CALL THIS METHOD FROM BACKGROUND THREAD OUTSIDE OF LANES ONLY.
+     */
     private void onUnload() {
         LogManager.i(this, "onUnload");
+        for (BackgroundLane lane : UNLOAD_LANES) {
+            BackgroundExecutor executor = getBackgroundExecutor(lane);
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(UNLOAD_TIMEOUT)) {
+                    LogManager.w(this, "Unload timeout in " + lane);
+                }
+            } catch (InterruptedException e) {
+                LogManager.exception(this, e);
+            }
+        }
+        for (BackgroundExecutor executor : backgroundExecutors.values()) {
+            LogManager.i(this, executor.toString());
+        }
         for (Object manager : registeredManagers) {
             if (manager instanceof OnUnloadListener) {
                 ((OnUnloadListener) manager).onUnload();
@@ -196,7 +253,15 @@ public class Application extends android.app.Application {
         }
         serviceStarted = true;
         LogManager.i(this, "onStart");
-        loadFuture = backgroundExecutor.submit(new Callable<Void>() {
+        loadStarted = SystemClock.elapsedRealtime();
+        loadScheduler = new LoadScheduler(getManagers(OnLoadListener.class), contactListManagers,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        onContactListLoaded();
+                    }
+                });
+        loadFuture = getBackgroundExecutor(BackgroundLane.database).submit(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 try {
@@ -217,7 +282,7 @@ public class Application extends android.app.Application {
                 }
                 return null;
             }
-        });
+        }, TaskPriority.high);
     }
 
     /**
@@ -274,6 +339,12 @@ public class Application extends android.app.Application {
         }
         managerClasses.recycle();
 
+        TypedArray contactListManagerClasses = getResources().obtainTypedArray(R.array.contact_list_managers);
+        for (int index = 0; index < contactListManagerClasses.length(); index++) {
+            contactListManagers.add(contactListManagerClasses.getString(index));
+        }
+        contactListManagerClasses.recycle();
+
         TypedArray tableClasses = getResources().obtainTypedArray(R.array.tables);
         for (int index = 0; index < tableClasses.length(); index++) {
             try {
@@ -293,6 +364,14 @@ public class Application extends android.app.Application {
         super.onLowMemory();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        for (OnTrimMemoryListener listener : getManagers(OnTrimMemoryListener.class)) {
+            listener.onTrimMemory(level);
+        }
+        super.onTrimMemory(level);
+    }
+
     /**
      * Service have been destroyed.
      */
@@ -301,12 +380,14 @@ public class Application extends android.app.Application {
             return;
         }
         onClose();
-        runInBackground(new Runnable() {
+        // Pending tasks in all lanes must be completed before process will be
+        // killed, so wait for them outside of lanes.
+        new Thread(new Runnable() {
             @Override
             public void run() {
                 onUnload();
             }
-        });
+        }, "Unload").start();
     }
 
     @Override
@@ -356,7 +437,7 @@ public class Application extends android.app.Application {
      * Request to clear application data.
      */
     public void requestToClear() {
-        runInBackground(new Runnable() {
+        runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 clear();
@@ -376,7 +457,7 @@ public class Application extends android.app.Application {
      * Request to wipe all sensitive application data.
      */
     public void requestToWipe() {
-        runInBackground(new Runnable() {
+        runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 clear();
@@ -448,11 +529,19 @@ public class Application extends android.app.Application {
         onError(networkException.getResourceId());
     }
 
+    /**
+     * Submits request to be executed in background with normal priority.
+     */
+    public void runInBackground(BackgroundLane lane, final Runnable runnable) {
+        runInBackground(lane, TaskPriority.normal, runnable);
+    }
+
     /**
      * Submits request to be executed in background.
      */
-    public void runInBackground(final Runnable runnable) {
-        backgroundExecutor.submit(new Runnable() {
+    public void runInBackground(BackgroundLane lane, TaskPriority priority,
+                                final Runnable runnable) {
+        getBackgroundExecutor(lane).submit(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -461,7 +550,14 @@ public class Application extends android.app.Application {
                     LogManager.exception(runnable, e);
                 }
             }
-        });
+        }, priority);
+    }
+
+    /**
+     * @return Executor for the lane. Can be used to get queue statistics.
+     */
+    public BackgroundExecutor getBackgroundExecutor(BackgroundLane lane) {
+        return backgroundExecutors.get(lane);
     }
 
     /**
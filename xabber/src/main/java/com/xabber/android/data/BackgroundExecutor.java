@@ -0,0 +1,242 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor for the single {@link BackgroundLane}.
+ * <p/>
+ * Tasks are ordered by {@link TaskPriority} and then by submission order.
+ * Tasks in ordered lanes are executed in submission order only.
+ * <p/>
+ * Tasks submitted after {@link #shutdown()} are cancelled.
+ */
+public class BackgroundExecutor {
+
+    private final BackgroundLane lane;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Submission counter used to keep FIFO order inside the priority.
+     */
+    private final AtomicLong sequence;
+
+    /**
+     * Statistics.
+     */
+    private final AtomicLong submittedCount;
+    private final AtomicLong executedCount;
+    private final AtomicLong totalWait;
+    private final AtomicLong maxWait;
+    private final AtomicInteger maxQueueSize;
+
+    BackgroundExecutor(final BackgroundLane lane) {
+        this.lane = lane;
+        sequence = new AtomicLong();
+        submittedCount = new AtomicLong();
+        executedCount = new AtomicLong();
+        totalWait = new AtomicLong();
+        maxWait = new AtomicLong();
+        maxQueueSize = new AtomicInteger();
+        executor = new ThreadPoolExecutor(lane.getThreads(), lane.getThreads(),
+                0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger number = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "Background " + lane
+                                + " executor " + number.incrementAndGet());
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                        LogManager.w(BackgroundExecutor.this, "Rejected in " + lane);
+                        ((PrioritizedTask<?>) runnable).cancel(false);
+                    }
+                });
+    }
+
+    /**
+     * Submits task for execution.
+     */
+    public Future<?> submit(Runnable runnable, TaskPriority priority) {
+        return execute(new PrioritizedTask<>(runnable, null, priority));
+    }
+
+    /**
+     * Submits task for execution.
+     */
+    public <T> Future<T> submit(Callable<T> callable, TaskPriority priority) {
+        return execute(new PrioritizedTask<>(callable, priority));
+    }
+
+    private <T> Future<T> execute(PrioritizedTask<T> task) {
+        submittedCount.incrementAndGet();
+        executor.execute(task);
+        int size = executor.getQueue().size();
+        int max;
+        do {
+            max = maxQueueSize.get();
+        } while (size > max && !maxQueueSize.compareAndSet(max, size));
+        return task;
+    }
+
+    private void onStarted(PrioritizedTask<?> task) {
+        long wait = SystemClock.elapsedRealtime() - task.submitted;
+        executedCount.incrementAndGet();
+        totalWait.addAndGet(wait);
+        long max;
+        do {
+            max = maxWait.get();
+        } while (wait > max && !maxWait.compareAndSet(max, wait));
+    }
+
+    /**
+     * Stops accepting new tasks. Already submitted tasks will be executed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for submitted tasks to be completed after {@link #shutdown()}.
+     *
+     * @return <code>false</code> if timeout elapsed.
+     */
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+        return executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    public BackgroundLane getLane() {
+        return lane;
+    }
+
+    /**
+     * @return Number of tasks waiting for execution.
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return Maximum observed number of tasks waiting for execution.
+     */
+    public int getMaxQueueSize() {
+        return maxQueueSize.get();
+    }
+
+    /**
+     * @return Number of submitted tasks.
+     */
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    /**
+     * @return Number of started tasks.
+     */
+    public long getExecutedCount() {
+        return executedCount.get();
+    }
+
+    /**
+     * @return Average time in milliseconds task was waiting in queue.
+     */
+    public long getAverageWait() {
+        long count = executedCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        return totalWait.get() / count;
+    }
+
+    /**
+     * @return Maximum time in milliseconds task was waiting in queue.
+     */
+    public long getMaxWait() {
+        return maxWait.get();
+    }
+
+    @Override
+    public String toString() {
+        return lane + " submitted: " + getSubmittedCount() + ", executed: " + getExecutedCount()
+                + ", queue: " + getQueueSize() + ", max queue: " + getMaxQueueSize()
+                + ", average wait: " + getAverageWait() + ", max wait: " + getMaxWait();
+    }
+
+    private class PrioritizedTask<T> extends FutureTask<T>
+            implements Comparable<PrioritizedTask<?>> {
+
+        private final TaskPriority priority;
+
+        private final long order;
+
+        /**
+         * Time when task was submitted.
+         */
+        private final long submitted;
+
+        PrioritizedTask(Callable<T> callable, TaskPriority priority) {
+            super(callable);
+            this.priority = priority;
+            order = sequence.getAndIncrement();
+            submitted = SystemClock.elapsedRealtime();
+        }
+
+        PrioritizedTask(Runnable runnable, T result, TaskPriority priority) {
+            super(runnable, result);
+            this.priority = priority;
+            order = sequence.getAndIncrement();
+            submitted = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void run() {
+            onStarted(this);
+            super.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask<?> another) {
+            if (!lane.isOrdered()) {
+                int result = priority.compareTo(another.priority);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return order < another.order ? -1 : (order == another.order ? 0 : 1);
+        }
+
+    }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data;
+
+/**
+ * Lane of background execution.
+ * <p/>
+ * Each lane has its own threads and queue, so long tasks in one lane don't
+ * delay tasks in another one.
+ */
+public enum BackgroundLane {
+
+    /**
+     * Database and other storage writes. Tasks are executed one by one
+     * strictly in order of submission.
+     */
+    database(1, true),
+
+    /**
+     * Database reads which shouldn't wait for queued writes, like history
+     * pages. Tasks with higher {@link TaskPriority} are executed first.
+     */
+    read(1, false),
+
+    /**
+     * CPU bound tasks like bitmap decoding.
+     */
+    decode(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)), false),
+
+    /**
+     * Network and file I/O which can be executed in parallel.
+     */
+    io(4, false),
+
+    /**
+     * Processing of incoming packets. Packets of each connection are
+     * processed by one task at a time.
+     */
+    packet(2, false),
+
+    /**
+     * Off-the-record encryption. The single thread keeps operations for each
+     * session in order of submission.
+     */
+    otr(1, true);
+
+    private final int threads;
+
+    private final boolean ordered;
+
+    BackgroundLane(int threads, boolean ordered) {
+        this.threads = threads;
+        this.ordered = ordered;
+    }
+
+    /**
+     * @return Number of threads in the lane.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return Whether tasks are executed in order of submission regardless of
+     * {@link TaskPriority}.
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data;
+
+/**
+ * {@link OnLoadListener} which loads data only after other managers.
+ * <p/>
+ * Managers without dependencies are loaded concurrently, so manager which
+ * needs database schema or expects data of another manager to be posted to
+ * the UI thread before its own data MUST declare it here.
+ */
+public interface LoadDependent extends OnLoadListener {
+
+    /**
+     * @return Classes of managers which {@link OnLoadListener#onLoad()} must
+     * be completed before this manager will be loaded. Not registered
+     * managers are ignored.
+     */
+    Class<?>[] getLoadDependencies();
+
+}
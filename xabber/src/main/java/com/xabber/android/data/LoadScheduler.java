@@ -0,0 +1,299 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link OnLoadListener#onLoad()} of registered managers.
+ * <p/>
+ * Managers are loaded concurrently. Manager declared as {@link LoadDependent}
+ * is loaded only when all its dependencies have been loaded, so data posted by
+ * dependencies to the UI thread will be processed before its own one.
+ * <p/>
+ * Load time of each manager is recorded for the start up report.
+ */
+class LoadScheduler {
+
+    /**
+     * Number of threads to load data.
+     */
+    private static final int THREADS = Math.max(2,
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private final Object lock;
+
+    private final Collection<OnLoadListener> listeners;
+
+    /**
+     * Managers waiting for each manager to be loaded.
+     */
+    private final Map<OnLoadListener, Collection<OnLoadListener>> dependents;
+
+    /**
+     * Number of not loaded dependencies for each manager.
+     */
+    private final Map<OnLoadListener, Integer> pending;
+
+    /**
+     * Not loaded managers required by the milestone.
+     */
+    private final Set<OnLoadListener> milestone;
+
+    /**
+     * Will be posted to the UI thread when all managers required by the
+     * milestone have been loaded.
+     */
+    private final Runnable milestoneRunnable;
+
+    private final List<Timing> timings;
+
+    private ExecutorService executor;
+
+    /**
+     * Time when load was started.
+     */
+    private long started;
+
+    /**
+     * Number of not loaded managers.
+     */
+    private int remaining;
+
+    /**
+     * Error thrown by any manager.
+     */
+    private Throwable error;
+
+    /**
+     * @param listeners          managers to be loaded.
+     * @param milestoneManagers  class names of managers required by the
+     *                           milestone.
+     * @param milestoneRunnable  will be executed in UI thread when required
+     *                           managers have been loaded.
+     */
+    LoadScheduler(Collection<OnLoadListener> listeners, Collection<String> milestoneManagers,
+                  Runnable milestoneRunnable) {
+        this.listeners = listeners;
+        this.milestoneRunnable = milestoneRunnable;
+        lock = new Object();
+        dependents = new HashMap<>();
+        pending = new HashMap<>();
+        milestone = new HashSet<>();
+        timings = new ArrayList<>();
+        for (OnLoadListener listener : listeners) {
+            dependents.put(listener, new ArrayList<OnLoadListener>());
+            if (milestoneManagers.contains(listener.getClass().getName())) {
+                milestone.add(listener);
+            }
+        }
+        for (OnLoadListener listener : listeners) {
+            int count = 0;
+            if (listener instanceof LoadDependent) {
+                for (Class<?> cls : ((LoadDependent) listener).getLoadDependencies()) {
+                    for (OnLoadListener dependency : listeners) {
+                        if (dependency != listener && cls.isInstance(dependency)) {
+                            dependents.get(dependency).add(listener);
+                            count += 1;
+                        }
+                    }
+                }
+            }
+            pending.put(listener, count);
+        }
+        checkCycles();
+    }
+
+    /**
+     * Throws exception if some managers depend on each other.
+     */
+    private void checkCycles() {
+        Map<OnLoadListener, Integer> counts = new HashMap<>(pending);
+        List<OnLoadListener> ready = new ArrayList<>();
+        for (OnLoadListener listener : listeners) {
+            if (counts.get(listener) == 0) {
+                ready.add(listener);
+            }
+        }
+        int loaded = 0;
+        while (!ready.isEmpty()) {
+            OnLoadListener listener = ready.remove(ready.size() - 1);
+            loaded += 1;
+            for (OnLoadListener dependent : dependents.get(listener)) {
+                int count = counts.get(dependent) - 1;
+                counts.put(dependent, count);
+                if (count == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (loaded != listeners.size()) {
+            throw new IllegalStateException("Cyclic load dependencies");
+        }
+    }
+
+    /**
+     * Loads all managers and waits for completion.
+     * <p/>
+     * CALL THIS METHOD FROM BACKGROUND THREAD ONLY.
+     *
+     * @throws Exception thrown by any manager.
+     */
+    void load() throws Exception {
+        executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            private final AtomicInteger number = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Load executor " + number.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            synchronized (lock) {
+                started = SystemClock.elapsedRealtime();
+                remaining = listeners.size();
+                if (milestone.isEmpty()) {
+                    Application.getInstance().runOnUiThread(milestoneRunnable);
+                }
+                for (OnLoadListener listener : listeners) {
+                    if (pending.get(listener) == 0) {
+                        submit(listener);
+                    }
+                }
+                while (remaining > 0 && error == null) {
+                    lock.wait();
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        if (error instanceof Exception) {
+            throw (Exception) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error != null) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    private void submit(final OnLoadListener listener) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                execute(listener);
+            }
+        });
+    }
+
+    private void execute(OnLoadListener listener) {
+        LogManager.i(listener, "onLoad");
+        long start = SystemClock.elapsedRealtime();
+        try {
+            listener.onLoad();
+        } catch (Throwable e) {
+            synchronized (lock) {
+                if (error == null) {
+                    error = e;
+                }
+                lock.notifyAll();
+            }
+            return;
+        }
+        long end = SystemClock.elapsedRealtime();
+        synchronized (lock) {
+            timings.add(new Timing(listener.getClass().getSimpleName(), start - started,
+                    end - start, Thread.currentThread().getName()));
+            remaining -= 1;
+            if (milestone.remove(listener) && milestone.isEmpty()) {
+                Application.getInstance().runOnUiThread(milestoneRunnable);
+            }
+            if (error == null) {
+                for (OnLoadListener dependent : dependents.get(listener)) {
+                    int count = pending.get(dependent) - 1;
+                    pending.put(dependent, count);
+                    if (count == 0) {
+                        submit(dependent);
+                    }
+                }
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return Start offset and duration of each manager's load.
+     */
+    String getReport() {
+        List<Timing> timings;
+        synchronized (lock) {
+            timings = new ArrayList<>(this.timings);
+        }
+        Collections.sort(timings, new Comparator<Timing>() {
+            @Override
+            public int compare(Timing lhs, Timing rhs) {
+                return lhs.start < rhs.start ? -1 : (lhs.start == rhs.start ? 0 : 1);
+            }
+        });
+        StringBuilder builder = new StringBuilder();
+        for (Timing timing : timings) {
+            if (builder.length() > 0) {
+                builder.append("\n");
+            }
+            builder.append(timing.manager).append(": start ").append(timing.start)
+                    .append(" ms, load ").append(timing.duration)
+                    .append(" ms, ").append(timing.thread);
+        }
+        return builder.toString();
+    }
+
+    private static class Timing {
+
+        private final String manager;
+
+        /**
+         * Time in milliseconds from the start of load.
+         */
+        private final long start;
+
+        private final long duration;
+
+        private final String thread;
+
+        Timing(String manager, long start, long duration, String thread) {
+            this.manager = manager;
+            this.start = start;
+            this.duration = duration;
+            this.thread = thread;
+        }
+
+    }
+
+}
@@ -0,0 +1,28 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data;
+
+/**
+ * Listen for data required to show contact list to be loaded.
+ */
+public interface OnContactListLoadedListener extends BaseUIListener {
+
+    /**
+     * Called before application will be initialized, when all managers
+     * required to show contact list have posted their data.
+     */
+    void onContactListLoaded();
+
+}
@@ -39,10 +39,7 @@ import com.xabber.android.ui.color.ColorManager;
 import com.xabber.android.utils.Emoticons;
 import com.xabber.xmpp.carbon.CarbonManager;
 
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.Map;
-import java.util.regex.Pattern;
 
 /**
  * Manage operations with common settings.
@@ -417,6 +414,11 @@ public class SettingsManager implements OnInitializedListener,
                 R.bool.connection_load_images_default);
     }
 
+    public static boolean connectionDownsampleImages() {
+        return getBoolean(R.string.connection_downsample_images_key,
+                R.bool.connection_downsample_images_default);
+    }
+
     public static boolean connectionUseCarbons() {
         return getBoolean(R.string.connection_use_carbons_key,
                 R.bool.connection_use_carbons_default);
@@ -478,12 +480,12 @@ public class SettingsManager implements OnInitializedListener,
         }
     }
 
-    public static Map<Pattern, Integer> interfaceSmiles() {
+    public static Emoticons.Dictionary interfaceSmiles() {
         String value = getString(R.string.interface_smiles_key, R.string.interface_smiles_default);
         if (Application.getInstance().getString(R.string.interface_smiles_none_value).equals(value)) {
-            return Collections.unmodifiableMap(Emoticons.NONE_EMOTICONS);
+            return Emoticons.NONE_EMOTICONS;
         } else if (Application.getInstance().getString(R.string.interface_smiles_android_value).equals(value)) {
-            return Collections.unmodifiableMap(Emoticons.ANDROID_EMOTICONS);
+            return Emoticons.ANDROID_EMOTICONS;
         } else {
             throw new IllegalStateException();
         }
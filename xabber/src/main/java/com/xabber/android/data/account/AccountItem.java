@@ -426,6 +426,12 @@ public class AccountItem extends ConnectionItem {
         AccountManager.getInstance().onAccountChanged(account);
     }
 
+    @Override
+    protected void onResumed(ConnectionThread connectionThread) {
+        super.onResumed(connectionThread);
+        AccountManager.getInstance().onAccountChanged(account);
+    }
+
     @Override
     protected void onClose(ConnectionThread connectionThread) {
         super.onClose(connectionThread);
@@ -21,8 +21,10 @@ import android.support.annotation.NonNull;
 
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.LoadDependent;
 import com.xabber.android.data.NetworkException;
-import com.xabber.android.data.OnLoadListener;
 import com.xabber.android.data.OnWipeListener;
 import com.xabber.android.data.SettingsManager;
 import com.xabber.android.data.connection.ConnectionSettings;
@@ -60,7 +62,7 @@ import java.util.Map;
  *
  * @author alexander.ivanov
  */
-public class AccountManager implements OnLoadListener, OnWipeListener {
+public class AccountManager implements LoadDependent, OnWipeListener {
 
     private final static AccountManager instance;
 
@@ -143,6 +145,11 @@ public class AccountManager implements OnLoadListener, OnWipeListener {
         return instance;
     }
 
+    @Override
+    public Class<?>[] getLoadDependencies() {
+        return new Class<?>[]{DatabaseManager.class};
+    }
+
     @Override
     public void onLoad() {
         final Collection<SavedStatus> savedStatuses = new ArrayList<>();
@@ -271,7 +278,7 @@ public class AccountManager implements OnLoadListener, OnWipeListener {
      * @param accountItem
      */
     void requestToWriteAccount(final AccountItem accountItem) {
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 accountItem.setId(AccountTable.getInstance().write(accountItem.getId(), accountItem));
@@ -446,7 +453,7 @@ public class AccountManager implements OnLoadListener, OnWipeListener {
             }
             onAccountDisabled(accountItem);
         }
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 AccountTable.getInstance().remove(account, accountItem.getId());
@@ -1038,7 +1045,7 @@ public class AccountManager implements OnLoadListener, OnWipeListener {
             return;
         }
         savedStatuses.add(savedStatus);
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 StatusTable.getInstance().write(statusMode, statusText);
@@ -1053,7 +1060,7 @@ public class AccountManager implements OnLoadListener, OnWipeListener {
         if (!savedStatuses.remove(savedStatus)) {
             return;
         }
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 StatusTable.getInstance().remove(savedStatus.getStatusMode(),
@@ -1067,7 +1074,7 @@ public class AccountManager implements OnLoadListener, OnWipeListener {
      */
     public void clearSavedStatuses() {
         savedStatuses.clear();
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 StatusTable.getInstance().clear();
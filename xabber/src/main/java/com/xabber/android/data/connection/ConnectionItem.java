@@ -21,6 +21,7 @@ import com.xabber.android.data.account.AccountProtocol;
 
 import org.jivesoftware.smack.AbstractXMPPConnection;
 import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
 
 /**
  * Abstract connection.
@@ -59,6 +60,17 @@ public abstract class ConnectionItem {
      */
     private boolean registerNewAccount;
 
+    /**
+     * Closed connection thread whose stream can be resumed (XEP-0198).
+     */
+    private ConnectionThread suspendedThread;
+
+    /**
+     * Whether listeners were not notified about disconnection of the
+     * suspended stream yet.
+     */
+    private boolean disconnectPending;
+
     public ConnectionItem(AccountProtocol protocol, boolean custom,
                           String host, int port, String serverName, String userName,
                           String resource, boolean storePassword, String password,
@@ -72,6 +84,8 @@ public abstract class ConnectionItem {
         isConnectionRequestedByUser = false;
         disconnectionRequested = false;
         connectionThread = null;
+        suspendedThread = null;
+        disconnectPending = false;
         state = ConnectionState.offline;
     }
 
@@ -155,14 +169,24 @@ public abstract class ConnectionItem {
                     isConnectionRequestedByUser = false;
                 }
                 if (connectionThread != null) {
-                    disconnect(connectionThread);
+                    if (available && connectionThread.isResumable()) {
+                        suspend(connectionThread);
+                    } else {
+                        disconnect(connectionThread);
+                    }
                     // Force remove managed connection thread.
                     onClose(connectionThread);
                     connectionThread = null;
                 }
             } else if (state == target) {
+                if (!available) {
+                    finishSuspend();
+                }
                 return false;
             }
+            if (!available) {
+                finishSuspend();
+            }
             state = target;
             return true;
         } else {
@@ -170,8 +194,18 @@ public abstract class ConnectionItem {
                 if (userRequest) {
                     isConnectionRequestedByUser = true;
                 }
+                ConnectionThread resumedThread = null;
+                if (suspendedThread != null && suspendedThread.isResumable()) {
+                    resumedThread = suspendedThread;
+                } else {
+                    finishSuspend();
+                }
+                suspendedThread = null;
                 state = ConnectionState.connecting;
                 connectionThread = new ConnectionThread(this);
+                if (resumedThread != null) {
+                    connectionThread.resume(resumedThread);
+                }
 
                 boolean useSRVLookup;
                 String fullyQualifiedDomainName;
@@ -233,6 +267,57 @@ public abstract class ConnectionItem {
         thread.start();
     }
 
+    /**
+     * Closes connection in another thread without closing its stream, so it
+     * can be resumed later.
+     */
+    private void suspend(final ConnectionThread connectionThread) {
+        Thread thread = new Thread("Suspension thread for " + this) {
+            @Override
+            public void run() {
+                AbstractXMPPConnection xmppConnection = connectionThread.getXMPPConnection();
+                if (xmppConnection instanceof XMPPTCPConnection)
+                    try {
+                        ((XMPPTCPConnection) xmppConnection).instantShutdown();
+                    } catch (RuntimeException e) {
+                        // connectionClose() in smack can fail.
+                    }
+            }
+
+        };
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return Whether there is closed connection whose stream can be resumed.
+     */
+    public boolean isResumable() {
+        return suspendedThread != null && suspendedThread.isResumable();
+    }
+
+    /**
+     * @return Whether stream of closed connection is waiting to be resumed.
+     */
+    public boolean isSuspended() {
+        return disconnectPending;
+    }
+
+    /**
+     * Drops suspended stream and notifies listeners about disconnection.
+     */
+    public void finishSuspend() {
+        if (suspendedThread != null) {
+            ConnectionManager.getInstance().onStreamEnded(suspendedThread);
+            suspendedThread = null;
+        }
+        if (disconnectPending) {
+            disconnectPending = false;
+            ConnectionManager.getInstance().onSuspendFinished(this);
+        }
+    }
+
     /**
      * @param connectionThread
      * @return Whether thread is managed by connection.
@@ -294,6 +379,19 @@ public abstract class ConnectionItem {
      */
     protected void onAuthorized(ConnectionThread connectionThread) {
         if (isManaged(connectionThread)) {
+            // Listeners must be notified about previous session first.
+            finishSuspend();
+            state = ConnectionState.connected;
+        }
+    }
+
+    /**
+     * Stream was resumed, so session is the same as before disconnection.
+     */
+    protected void onResumed(ConnectionThread connectionThread) {
+        if (isManaged(connectionThread)) {
+            suspendedThread = null;
+            disconnectPending = false;
             state = ConnectionState.connected;
         }
     }
@@ -314,7 +412,20 @@ public abstract class ConnectionItem {
                             + xmppConnection.getConnectionCounter() + ", " + acceptable);
         }
 
-        ConnectionManager.getInstance().onDisconnect(connectionThread);
+        if (acceptable && connectionThread.isResumable()) {
+            // Listeners will be notified only if stream won't be resumed.
+            LogManager.i(this, "onClose suspended");
+            ConnectionManager.getInstance().onSuspend(connectionThread);
+            suspendedThread = connectionThread;
+            disconnectPending = true;
+        } else {
+            if (acceptable) {
+                suspendedThread = null;
+                disconnectPending = false;
+                ConnectionManager.getInstance().onStreamEnded(connectionThread);
+            }
+            ConnectionManager.getInstance().onDisconnect(connectionThread);
+        }
         if (acceptable) {
             connectionThread.shutdown();
         }
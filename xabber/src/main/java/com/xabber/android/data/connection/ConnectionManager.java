@@ -24,16 +24,18 @@ import com.xabber.android.data.OnTimerListener;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.entity.NestedMap;
-import com.xabber.xmpp.address.Jid;
 
 import org.jivesoftware.smack.ConnectionCreationListener;
 import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPConnectionRegistry;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.IQ.Type;
 import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smack.tcp.sm.StreamManagementException;
 import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
 import org.jivesoftware.smackx.ping.PingFailedListener;
@@ -41,7 +43,9 @@ import org.jivesoftware.smackx.ping.PingFailedListener;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Map.Entry;
 
 /**
@@ -87,11 +91,17 @@ public class ConnectionManager implements OnInitializedListener, OnCloseListener
      * Request holders for its packet id in accounts.
      */
     private final NestedMap<RequestHolder> requests;
+    /**
+     * Callbacks for stanzas not acknowledged by server yet (XEP-0198) for its
+     * id in connections.
+     */
+    private final Map<XMPPConnection, Map<String, Runnable>> notAcknowledged;
 
     private ConnectionManager() {
         LogManager.i(this, "ConnectionManager");
         managedConnections = new ArrayList<>();
         requests = new NestedMap<>();
+        notAcknowledged = new HashMap<>();
         org.jivesoftware.smackx.ping.PingManager.setDefaultPingInterval(PING_INTERVAL_SECONDS);
     }
 
@@ -156,6 +166,86 @@ public class ConnectionManager implements OnInitializedListener, OnCloseListener
      */
     public void sendStanza(String account, Stanza stanza)
             throws NetworkException {
+        XMPPConnection xmppConnection = getConnection(account);
+
+        try {
+            xmppConnection.sendStanza(stanza);
+        } catch (SmackException.NotConnectedException e) {
+            e.printStackTrace();
+            throw new NetworkException(R.string.XMPP_EXCEPTION);
+        }
+    }
+
+    /**
+     * Send stanza to authenticated connection and request to be notified when
+     * server acknowledges it (XEP-0198).
+     *
+     * @param account
+     * @param stanza
+     * @param onAcknowledged    will be executed in UI thread when server
+     *                          acknowledges the stanza.
+     * @param onNotAcknowledged will be executed in UI thread if stream was
+     *                          closed and can't be resumed before server
+     *                          acknowledged the stanza.
+     * @return Whether acknowledgement will be reported. <code>false</code> if
+     * stream management is not enabled, so stanza can be treated as received
+     * by the server.
+     */
+    public boolean sendStanza(String account, Stanza stanza, final Runnable onAcknowledged,
+                              Runnable onNotAcknowledged) throws NetworkException {
+        final XMPPConnection xmppConnection = getConnection(account);
+        final String stanzaId = stanza.getStanzaId();
+        XMPPTCPConnection tcpConnection = null;
+        if (stanzaId != null && xmppConnection instanceof XMPPTCPConnection
+                && ((XMPPTCPConnection) xmppConnection).isSmEnabled()) {
+            tcpConnection = (XMPPTCPConnection) xmppConnection;
+            try {
+                tcpConnection.addStanzaIdAcknowledgedListener(stanzaId, new StanzaListener() {
+                    @Override
+                    public void processPacket(Stanza packet) {
+                        Application.getInstance().runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Map<String, Runnable> callbacks = notAcknowledged.get(xmppConnection);
+                                if (callbacks == null || callbacks.remove(stanzaId) == null) {
+                                    return;
+                                }
+                                onAcknowledged.run();
+                            }
+                        });
+                    }
+                });
+            } catch (StreamManagementException.StreamManagementNotEnabledException e) {
+                tcpConnection = null;
+            }
+        }
+
+        try {
+            xmppConnection.sendStanza(stanza);
+        } catch (SmackException.NotConnectedException e) {
+            LogManager.exception(this, e);
+            if (tcpConnection != null) {
+                tcpConnection.removeStanzaIdAcknowledgedListener(stanzaId);
+            }
+            throw new NetworkException(R.string.XMPP_EXCEPTION);
+        }
+        if (tcpConnection == null) {
+            return false;
+        }
+        Map<String, Runnable> callbacks = notAcknowledged.get(xmppConnection);
+        if (callbacks == null) {
+            callbacks = new HashMap<>();
+            notAcknowledged.put(xmppConnection, callbacks);
+        }
+        callbacks.put(stanzaId, onNotAcknowledged);
+        return true;
+    }
+
+    /**
+     * @return Authenticated connection for the account.
+     * @throws NetworkException if there is no such connection.
+     */
+    private XMPPConnection getConnection(String account) throws NetworkException {
         ConnectionThread connectionThread = null;
         for (ConnectionThread check : managedConnections) {
             if (check.getConnectionItem() instanceof AccountItem
@@ -167,14 +257,7 @@ public class ConnectionManager implements OnInitializedListener, OnCloseListener
         if (connectionThread == null || !connectionThread.getConnectionItem().getState().isConnected()) {
             throw new NetworkException(R.string.NOT_CONNECTED);
         }
-        XMPPConnection xmppConnection = connectionThread.getXMPPConnection();
-
-        try {
-            xmppConnection.sendStanza(stanza);
-        } catch (SmackException.NotConnectedException e) {
-            e.printStackTrace();
-            throw new NetworkException(R.string.XMPP_EXCEPTION);
-        }
+        return connectionThread.getXMPPConnection();
     }
 
     /**
@@ -223,12 +306,71 @@ public class ConnectionManager implements OnInitializedListener, OnCloseListener
         LogManager.i(this, "onAuthorized: finished");
     }
 
+    /**
+     * Stream of authorized connection was resumed.
+     */
+    public void onResumed(ConnectionThread connectionThread) {
+        LogManager.i(this, "onResumed");
+        if (!managedConnections.contains(connectionThread)) {
+            return;
+        }
+        for (OnResumedListener listener : Application.getInstance().getManagers(OnResumedListener.class)) {
+            listener.onResumed(connectionThread.getConnectionItem());
+        }
+    }
+
+    /**
+     * Connection was closed, but its stream can be resumed. Listeners will be
+     * notified by {@link #onSuspendFinished(ConnectionItem)} if stream won't
+     * be resumed.
+     */
+    public void onSuspend(ConnectionThread connectionThread) {
+        LogManager.i(this, "onSuspend");
+        if (!managedConnections.remove(connectionThread)) {
+            return;
+        }
+        for (OnSuspendedListener listener : Application.getInstance().getManagers(OnSuspendedListener.class)) {
+            listener.onSuspended(connectionThread.getConnectionItem());
+        }
+    }
+
+    /**
+     * Stream of the closed connection won't be resumed, so stanzas sent to it
+     * and not acknowledged by server will never be acknowledged.
+     */
+    public void onStreamEnded(ConnectionThread connectionThread) {
+        XMPPConnection xmppConnection = connectionThread.getXMPPConnection();
+        if (xmppConnection instanceof XMPPTCPConnection) {
+            ((XMPPTCPConnection) xmppConnection).removeAllStanzaIdAcknowledgedListeners();
+        }
+        Map<String, Runnable> callbacks = notAcknowledged.remove(xmppConnection);
+        if (callbacks == null) {
+            return;
+        }
+        LogManager.i(this, "onStreamEnded not acknowledged " + callbacks.size());
+        for (Runnable onNotAcknowledged : callbacks.values()) {
+            onNotAcknowledged.run();
+        }
+    }
+
+    /**
+     * Stream of suspended connection can't be resumed any more.
+     */
+    public void onSuspendFinished(ConnectionItem connectionItem) {
+        LogManager.i(this, "onSuspendFinished");
+        onDisconnect(connectionItem);
+    }
+
     public void onDisconnect(ConnectionThread connectionThread) {
         LogManager.i(this, "onDisconnect");
         if (!managedConnections.remove(connectionThread)) {
             return;
         }
-        ConnectionItem connectionItem = connectionThread.getConnectionItem();
+        LogManager.i(this, "onDisconnect packets " + connectionThread.getPacketDispatcher());
+        onDisconnect(connectionThread.getConnectionItem());
+    }
+
+    private void onDisconnect(ConnectionItem connectionItem) {
         if (connectionItem instanceof AccountItem) {
             String account = ((AccountItem) connectionItem).getAccount();
             for (Entry<String, RequestHolder> entry : requests.getNested(account).entrySet()) {
@@ -237,11 +379,19 @@ public class ConnectionManager implements OnInitializedListener, OnCloseListener
             requests.clear(account);
         }
         for (OnDisconnectListener listener : Application.getInstance().getManagers(OnDisconnectListener.class)) {
-            listener.onDisconnect(connectionThread.getConnectionItem());
+            listener.onDisconnect(connectionItem);
         }
     }
 
-    public void processPacket(ConnectionThread connectionThread, Stanza stanza) {
+    /**
+     * Passes processed packet to the listeners.
+     *
+     * @param bareAddress bare address of the sender.
+     * @param changes     results of {@link OnPacketProcessListener}s to be
+     *                    applied after listeners.
+     */
+    public void processPacket(ConnectionThread connectionThread, Stanza stanza, String bareAddress,
+                              Collection<Runnable> changes) {
         if (!managedConnections.contains(connectionThread)) {
             return;
         }
@@ -262,7 +412,10 @@ public class ConnectionManager implements OnInitializedListener, OnCloseListener
             }
         }
         for (OnPacketListener listener : Application.getInstance().getManagers(OnPacketListener.class)) {
-            listener.onPacket(connectionItem, Jid.getBareAddress(stanza.getFrom()), stanza);
+            listener.onPacket(connectionItem, bareAddress, stanza);
+        }
+        for (Runnable change : changes) {
+            change.run();
         }
     }
 
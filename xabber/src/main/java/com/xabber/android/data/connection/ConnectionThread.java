@@ -14,6 +14,8 @@
  */
 package com.xabber.android.data.connection;
 
+import android.net.TrafficStats;
+import android.os.Process;
 import android.widget.Toast;
 
 import com.xabber.android.R;
@@ -26,6 +28,7 @@ import com.xabber.android.data.account.AccountProtocol;
 import com.xabber.android.data.account.OAuthManager;
 import com.xabber.android.data.account.OAuthResult;
 import com.xabber.android.data.roster.AccountRosterListener;
+import com.xabber.android.data.roster.RosterManager;
 
 import org.jivesoftware.smack.AbstractXMPPConnection;
 import org.jivesoftware.smack.ConnectionListener;
@@ -40,6 +43,7 @@ import org.jivesoftware.smack.packet.StreamError;
 import org.jivesoftware.smack.parsing.ExceptionLoggingCallback;
 import org.jivesoftware.smack.roster.Roster;
 import org.jivesoftware.smack.sasl.provided.SASLPlainMechanism;
+import org.jivesoftware.smack.sm.predicates.Predicate;
 import org.jivesoftware.smack.tcp.XMPPTCPConnection;
 import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
 import org.jivesoftware.smack.util.TLSUtils;
@@ -76,6 +80,12 @@ public class ConnectionThread implements
 
     private static Pattern ADDRESS_AND_PORT = Pattern.compile("^(.*):(\\d+)$");
 
+    /**
+     * Preferred time in seconds to keep stream resumable after connection
+     * lost (XEP-0198).
+     */
+    private static final int RESUMPTION_TIME = 300;
+
     /**
      * Filter to process all packets.
      */
@@ -93,6 +103,11 @@ public class ConnectionThread implements
      */
     private final ExecutorService executorService;
 
+    /**
+     * Queue of incoming packets to be processed in UI thread.
+     */
+    private final PacketDispatcher packetDispatcher;
+
     private final AccountProtocol protocol;
 
     private final String serverName;
@@ -126,6 +141,16 @@ public class ConnectionThread implements
 
     private boolean registerNewAccount;
 
+    /**
+     * Previous connection thread whose stream should be resumed.
+     */
+    private ConnectionThread resumedThread;
+
+    /**
+     * Traffic of the application when connection was started.
+     */
+    private long startTraffic;
+
     public ConnectionThread(final ConnectionItem connectionItem) {
         LogManager.i(this, "NEW connection thread " + connectionItem.getRealJid());
 
@@ -143,6 +168,7 @@ public class ConnectionThread implements
                         return thread;
                     }
                 });
+        packetDispatcher = new PacketDispatcher(this);
         ConnectionManager.getInstance().onConnection(this);
         ConnectionSettings connectionSettings = connectionItem.getConnectionSettings();
         protocol = connectionSettings.getProtocol();
@@ -173,6 +199,10 @@ public class ConnectionThread implements
         return connectionItem;
     }
 
+    public PacketDispatcher getPacketDispatcher() {
+        return packetDispatcher;
+    }
+
     private void createConnection(String fqdn, int port, boolean useSRVLookup) {
         XMPPTCPConnectionConfiguration.Builder builder = XMPPTCPConnectionConfiguration.builder();
         if (useSRVLookup) {
@@ -209,22 +239,78 @@ public class ConnectionThread implements
 
         setUpSASL();
 
-        xmppConnection = new XMPPTCPConnection(builder.build());
-        xmppConnection.addAsyncStanzaListener(this, ACCEPT_ALL);
-        xmppConnection.addConnectionListener(this);
-
-        // by default Smack disconnects in case of parsing errors
-        xmppConnection.setParsingExceptionCallback(new ExceptionLoggingCallback());
-
-        AccountRosterListener rosterListener = new AccountRosterListener(((AccountItem)connectionItem).getAccount());
+        XMPPTCPConnection tcpConnection = new XMPPTCPConnection(builder.build());
+        tcpConnection.setUseStreamManagement(true);
+        tcpConnection.setUseStreamManagementResumption(true);
+        tcpConnection.setPreferredResumptionTime(RESUMPTION_TIME);
+        // Request acknowledgement for each message to report its delivery early.
+        tcpConnection.addRequestAckPredicate(Predicate.forMessagesOrAfter5Stanzas());
+        xmppConnection = tcpConnection;
+        attach();
+
+        final String account = ((AccountItem) connectionItem).getAccount();
+        AccountRosterListener rosterListener = new AccountRosterListener(account);
         final Roster roster = Roster.getInstanceFor(xmppConnection);
         roster.addRosterListener(rosterListener);
         roster.addRosterLoadedListener(rosterListener);
         roster.setSubscriptionMode(Roster.SubscriptionMode.manual);
+        // Server will send only changes since saved version.
+        roster.setRosterStore(RosterManager.getInstance().getRosterStore(account));
+
+        connectionItem.onSRVResolved(this);
+        startConnection();
+    }
+
+    /**
+     * Takes connection from the previous thread to resume its stream.
+     */
+    private void resumeConnection() {
+        xmppConnection = resumedThread.xmppConnection;
+        resumedThread.detach();
+        if (xmppConnection.isConnected()) {
+            // Suspension can be still in progress.
+            ((XMPPTCPConnection) xmppConnection).instantShutdown();
+        }
+        attach();
+        LogManager.i(this, "resume stream " + connectionItem.getRealJid());
+        startConnection();
+    }
+
+    /**
+     * Registers listeners of this thread in the connection.
+     */
+    private void attach() {
+        // sync listener is called in the single thread, so packets keep their order
+        xmppConnection.addSyncStanzaListener(this, ACCEPT_ALL);
+        xmppConnection.addConnectionListener(this);
+
+        // by default Smack disconnects in case of parsing errors
+        xmppConnection.setParsingExceptionCallback(new ExceptionLoggingCallback());
 
         org.jivesoftware.smackx.ping.PingManager.getInstanceFor(xmppConnection).registerPingFailedListener(this);
+    }
 
-        connectionItem.onSRVResolved(this);
+    /**
+     * Removes listeners of this thread from the connection.
+     */
+    private void detach() {
+        xmppConnection.removeSyncStanzaListener(this);
+        xmppConnection.removeConnectionListener(this);
+        org.jivesoftware.smackx.ping.PingManager.getInstanceFor(xmppConnection).unregisterPingFailedListener(this);
+    }
+
+    /**
+     * @return Whether connection was authorized and its stream can be resumed.
+     */
+    boolean isResumable() {
+        return xmppConnection instanceof XMPPTCPConnection
+                && ((XMPPTCPConnection) xmppConnection).isSmResumptionPossible();
+    }
+
+    /**
+     * Requests password if needed and starts connection.
+     */
+    private void startConnection() {
         final String password = OAuthManager.getInstance().getPassword(protocol, token);
         if (password != null) {
             runOnConnectionThread(new Runnable() {
@@ -333,6 +419,7 @@ public class ConnectionThread implements
      * @param password
      */
     private void connect(final String password) {
+        startTraffic = getTraffic();
         try {
             xmppConnection.connect();
         } catch (SmackException | IOException | XMPPException e) {
@@ -523,18 +610,33 @@ public class ConnectionThread implements
 //            return;
 //        }
 
+        final boolean resumed = xmppConnection instanceof XMPPTCPConnection
+                && ((XMPPTCPConnection) xmppConnection).streamWasResumed();
+        final long traffic = startTraffic < 0 ? -1 : getTraffic() - startTraffic;
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                onAuthorized();
+                onAuthorized(resumed, traffic);
             }
         });
     }
 
     /**
      * Authorization passed.
+     *
+     * @param resumed Whether previous stream was resumed.
+     * @param traffic Number of bytes used to connect or -1 if unknown.
      */
-    private void onAuthorized() {
+    private void onAuthorized(boolean resumed, long traffic) {
+        ReconnectionManager.getInstance().onLogin(connectionItem, resumedThread != null,
+                resumed, traffic);
+        resumedThread = null;
+        if (resumed) {
+            connectionItem.onResumed(this);
+            ConnectionManager.getInstance().onResumed(this);
+            shutdown();
+            return;
+        }
         connectionItem.onAuthorized(this);
         ConnectionManager.getInstance().onAuthorized(this);
         if (connectionItem instanceof AccountItem) {
@@ -598,12 +700,7 @@ public class ConnectionThread implements
 
     @Override
     public void processPacket(final Stanza packet) throws SmackException.NotConnectedException {
-        Application.getInstance().runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                ConnectionManager.getInstance().processPacket(ConnectionThread.this, packet);
-            }
-        });
+        packetDispatcher.enqueue(packet);
     }
 
     @Override
@@ -612,6 +709,20 @@ public class ConnectionThread implements
         getConnectionItem().forceReconnect();
     }
 
+    /**
+     * @return Number of bytes sent and received by the application or -1 if
+     * not supported.
+     */
+    private static long getTraffic() {
+        int uid = Process.myUid();
+        long received = TrafficStats.getUidRxBytes(uid);
+        long sent = TrafficStats.getUidTxBytes(uid);
+        if (received == TrafficStats.UNSUPPORTED || sent == TrafficStats.UNSUPPORTED) {
+            return -1;
+        }
+        return received + sent;
+    }
+
     /**
      * Filter to accept all packets.
      *
@@ -645,11 +756,28 @@ public class ConnectionThread implements
         runOnConnectionThread(new Runnable() {
             @Override
             public void run() {
-                createConnection(fqdn, port, useSRVLookup);
+                if (resumedThread == null) {
+                    createConnection(fqdn, port, useSRVLookup);
+                } else {
+                    resumeConnection();
+                }
             }
         });
     }
 
+    /**
+     * Requests to resume stream of the previous connection thread instead of
+     * new connection.
+     * <p/>
+     * MUST BE CALLED BEFORE START.
+     *
+     * @param connectionThread previous connection thread with resumable
+     *                         stream.
+     */
+    void resume(ConnectionThread connectionThread) {
+        resumedThread = connectionThread;
+    }
+
     /**
      * Stop connection.
      * <p/>
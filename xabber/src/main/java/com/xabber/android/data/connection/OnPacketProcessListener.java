@@ -0,0 +1,42 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.connection;
+
+import com.xabber.android.data.BaseManagerInterface;
+
+import org.jivesoftware.smack.packet.Stanza;
+
+/**
+ * Listener for incoming packet processed in background.
+ * <p/>
+ * Called before {@link OnPacketListener}s in the packet lane. Listener must
+ * not change state shared with UI thread, such changes must be returned to
+ * be applied in UI thread.
+ */
+public interface OnPacketProcessListener extends BaseManagerInterface {
+
+    /**
+     * Process packet from connection in background.
+     *
+     * @param connection
+     * @param bareAddress
+     * @param packet
+     * @return Changes to be applied in UI thread after
+     * {@link OnPacketListener}s for this packet. <code>null</code> if there
+     * is nothing to be applied.
+     */
+    Runnable onPacketProcess(ConnectionItem connection, String bareAddress, Stanza packet);
+
+}
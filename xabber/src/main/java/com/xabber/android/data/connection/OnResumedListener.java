@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.connection;
+
+import com.xabber.android.data.BaseManagerInterface;
+
+/**
+ * Listener for resumption of the stream (XEP-0198).
+ */
+public interface OnResumedListener extends BaseManagerInterface {
+
+    /**
+     * Stream was resumed after connection lost.
+     * <p/>
+     * Listeners were not notified about disconnection and authorization, so
+     * session state on the server is the same as it was before.
+     *
+     * @param connection
+     */
+    void onResumed(ConnectionItem connection);
+
+}
@@ -0,0 +1,313 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.connection;
+
+import android.os.SystemClock;
+
+import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
+import com.xabber.android.data.LogManager;
+import com.xabber.xmpp.address.Jid;
+
+import org.jivesoftware.smack.packet.Stanza;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Queue of incoming packets for the single connection.
+ * <p/>
+ * Packets are accepted from SMACK's listener thread and processed by
+ * {@link OnPacketProcessListener}s in {@link BackgroundLane#packet}. Processed
+ * packets and resulting changes are passed to {@link ConnectionManager} in UI
+ * thread in time limited batches. Only one runnable per connection is pending
+ * in the lane and in UI thread at any time, so packets are processed in order
+ * and packet flood doesn't starve input and drawing events.
+ * <p/>
+ * Number of not dispatched packets is bounded: listener thread will wait
+ * while UI thread is busy. Packet lane never waits, so busy connection can't
+ * hold lane threads shared with other connections.
+ */
+public class PacketDispatcher {
+
+    /**
+     * Maximum number of not dispatched packets.
+     */
+    private static final int CAPACITY = 1024;
+
+    /**
+     * Maximum number of packets processed in single pass, so that other
+     * connections can use the packet lane.
+     */
+    private static final int PROCESS_BATCH = 64;
+
+    /**
+     * Time in milliseconds UI thread can spend in single dispatch pass.
+     */
+    private static final long DISPATCH_QUANTUM = 8;
+
+    private final ConnectionThread connectionThread;
+
+    /**
+     * Listeners registered when connection was created.
+     */
+    private final Collection<OnPacketProcessListener> processListeners;
+
+    /**
+     * Packets to be processed in background.
+     */
+    private final Queue<QueuedPacket> queue;
+
+    /**
+     * Processed packets to be dispatched in UI thread.
+     */
+    private final Queue<QueuedPacket> processed;
+
+    /**
+     * Permits for packets to be accepted until queued ones will be
+     * dispatched.
+     */
+    private final Semaphore capacity;
+
+    /**
+     * Whether process runnable was submitted to the packet lane.
+     */
+    private final AtomicBoolean processScheduled;
+
+    /**
+     * Whether dispatch runnable was posted to the UI thread.
+     */
+    private final AtomicBoolean scheduled;
+
+    private final Runnable processRunnable = new Runnable() {
+        @Override
+        public void run() {
+            process();
+        }
+    };
+
+    private final Runnable dispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    /**
+     * Statistics.
+     * <p/>
+     * MUST BE ACCESSED FROM UI THREAD ONLY.
+     */
+    private long dispatchedCount;
+    private long totalLatency;
+    private long maxLatency;
+    private int maxQueueSize;
+
+    PacketDispatcher(ConnectionThread connectionThread) {
+        this.connectionThread = connectionThread;
+        processListeners = Application.getInstance().getManagers(OnPacketProcessListener.class);
+        queue = new ConcurrentLinkedQueue<>();
+        processed = new ConcurrentLinkedQueue<>();
+        capacity = new Semaphore(CAPACITY);
+        processScheduled = new AtomicBoolean(false);
+        scheduled = new AtomicBoolean(false);
+        dispatchedCount = 0;
+        totalLatency = 0;
+        maxLatency = 0;
+        maxQueueSize = 0;
+    }
+
+    /**
+     * Adds packet to the queue. Blocks while there are too many not
+     * dispatched packets.
+     * <p/>
+     * Called from SMACK's listener thread.
+     *
+     * @param stanza
+     */
+    void enqueue(Stanza stanza) {
+        try {
+            capacity.acquire();
+        } catch (InterruptedException e) {
+            LogManager.exception(this, e);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        queue.add(new QueuedPacket(stanza, SystemClock.elapsedRealtime()));
+        scheduleProcess();
+    }
+
+    private void scheduleProcess() {
+        if (processScheduled.compareAndSet(false, true)) {
+            Application.getInstance().runInBackground(BackgroundLane.packet, processRunnable);
+        }
+    }
+
+    /**
+     * Processes queued packets in background and passes them to UI thread.
+     */
+    private void process() {
+        QueuedPacket packet;
+        int count = 0;
+        while (count < PROCESS_BATCH && (packet = queue.poll()) != null) {
+            count += 1;
+            Stanza stanza = packet.getStanza();
+            String bareAddress = Jid.getBareAddress(stanza.getFrom());
+            Collection<Runnable> changes = new ArrayList<>();
+            for (OnPacketProcessListener listener : processListeners) {
+                Runnable change = listener.onPacketProcess(connectionThread.getConnectionItem(),
+                        bareAddress, stanza);
+                if (change != null) {
+                    changes.add(change);
+                }
+            }
+            packet.onProcessed(bareAddress, changes);
+            processed.add(packet);
+            schedule();
+        }
+        processScheduled.set(false);
+        if (!queue.isEmpty()) {
+            scheduleProcess();
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            Application.getInstance().runOnUiThread(dispatchRunnable);
+        }
+    }
+
+    /**
+     * Dispatches queued packets until queue become empty or time quantum
+     * expires.
+     */
+    private void dispatch() {
+        maxQueueSize = Math.max(maxQueueSize, queue.size() + processed.size());
+        long start = SystemClock.uptimeMillis();
+        QueuedPacket packet;
+        while ((packet = processed.poll()) != null) {
+            long latency = SystemClock.elapsedRealtime() - packet.getReceived();
+            dispatchedCount += 1;
+            totalLatency += latency;
+            maxLatency = Math.max(maxLatency, latency);
+            capacity.release();
+            ConnectionManager.getInstance().processPacket(connectionThread, packet.getStanza(),
+                    packet.getBareAddress(), packet.getChanges());
+            if (SystemClock.uptimeMillis() - start >= DISPATCH_QUANTUM) {
+                break;
+            }
+        }
+        scheduled.set(false);
+        if (!processed.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * @return Number of packets waiting for processing and dispatch.
+     */
+    public int getQueueSize() {
+        return queue.size() + processed.size();
+    }
+
+    /**
+     * @return Maximum observed number of packets waiting for dispatch.
+     */
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * @return Number of dispatched packets.
+     */
+    public long getDispatchedCount() {
+        return dispatchedCount;
+    }
+
+    /**
+     * @return Average time in milliseconds between packet receiving and its
+     * dispatching.
+     */
+    public long getAverageLatency() {
+        if (dispatchedCount == 0) {
+            return 0;
+        }
+        return totalLatency / dispatchedCount;
+    }
+
+    /**
+     * @return Maximum time in milliseconds between packet receiving and its
+     * dispatching.
+     */
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "dispatched: " + dispatchedCount + ", queue: " + getQueueSize()
+                + ", max queue: " + maxQueueSize + ", average latency: " + getAverageLatency()
+                + ", max latency: " + maxLatency;
+    }
+
+    private static class QueuedPacket {
+
+        private final Stanza stanza;
+
+        /**
+         * Time when packet was received.
+         */
+        private final long received;
+
+        /**
+         * Set in packet lane before packet is passed to UI thread.
+         */
+        private String bareAddress;
+
+        private Collection<Runnable> changes;
+
+        QueuedPacket(Stanza stanza, long received) {
+            this.stanza = stanza;
+            this.received = received;
+        }
+
+        void onProcessed(String bareAddress, Collection<Runnable> changes) {
+            this.bareAddress = bareAddress;
+            this.changes = changes;
+        }
+
+        String getBareAddress() {
+            return bareAddress;
+        }
+
+        Collection<Runnable> getChanges() {
+            return changes;
+        }
+
+        Stanza getStanza() {
+            return stanza;
+        }
+
+        long getReceived() {
+            return received;
+        }
+
+    }
+
+}
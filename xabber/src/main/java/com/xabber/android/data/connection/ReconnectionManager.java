@@ -18,6 +18,7 @@ import java.util.HashMap;
 import java.util.Map.Entry;
 
 import com.xabber.android.data.Application;
+import com.xabber.android.data.LogManager;
 import com.xabber.android.data.OnTimerListener;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
@@ -33,11 +34,40 @@ public class ReconnectionManager implements OnConnectionListener,
      */
     private final static int RECONNECT_AFTER[] = new int[]{2, 10, 30, 60};
 
+    /**
+     * Intervals in seconds to be used for attempt to resume stream. Values are
+     * used the same way as {@link #RECONNECT_AFTER}, but are shorter to resume
+     * stream before server drops it.
+     */
+    private final static int RESUME_AFTER[] = new int[]{1, 2, 4, 8, 16, 30};
+
     /**
      * Managed connections.
      */
     private final HashMap<ConnectionItem, ReconnectionInfo> connections;
 
+    /**
+     * Number of attempts to resume stream.
+     */
+    private int resumeAttempts;
+
+    /**
+     * Number of successfully resumed streams.
+     */
+    private int resumeSuccesses;
+
+    /**
+     * Number of logins with new session and traffic used by them.
+     */
+    private int loginCount;
+    private long loginTraffic;
+
+    /**
+     * Number of resumed streams with known traffic and traffic used by them.
+     */
+    private int resumeCount;
+    private long resumeTraffic;
+
     private final static ReconnectionManager instance;
 
     static {
@@ -60,11 +90,21 @@ public class ReconnectionManager implements OnConnectionListener,
             ReconnectionInfo reconnectionInfo = entry.getValue();
             ConnectionItem connectionItem = entry.getKey();
             if (connectionItem.getState() == ConnectionState.waiting) {
+                if (connectionItem.isSuspended() && !connectionItem.isResumable()) {
+                    // Stream can't be resumed any more.
+                    connectionItem.finishSuspend();
+                }
+                int[] intervals;
+                if (connectionItem.isResumable())
+                    // Try to resume stream before server drops it.
+                    intervals = RESUME_AFTER;
+                else
+                    intervals = RECONNECT_AFTER;
                 int reconnectAfter;
-                if (reconnectionInfo.reconnectAttempts < RECONNECT_AFTER.length)
-                    reconnectAfter = RECONNECT_AFTER[reconnectionInfo.reconnectAttempts];
+                if (reconnectionInfo.reconnectAttempts < intervals.length)
+                    reconnectAfter = intervals[reconnectionInfo.reconnectAttempts];
                 else
-                    reconnectAfter = RECONNECT_AFTER[RECONNECT_AFTER.length - 1];
+                    reconnectAfter = intervals[intervals.length - 1];
                 if (reconnectionInfo.reconnectCounter >= reconnectAfter) {
                     reconnectionInfo.reconnectCounter = 0;
                     reconnectionInfo.reconnectAttempts += 1;
@@ -99,6 +139,57 @@ public class ReconnectionManager implements OnConnectionListener,
         info.reconnectCounter = 0;
     }
 
+    /**
+     * Login has been completed.
+     *
+     * @param connection
+     * @param resumeRequested whether stream resumption was requested.
+     * @param resumed         whether stream was resumed.
+     * @param traffic         number of bytes used to connect and login or
+     *                        -1 if unknown.
+     */
+    void onLogin(ConnectionItem connection, boolean resumeRequested, boolean resumed,
+                 long traffic) {
+        if (resumeRequested) {
+            resumeAttempts += 1;
+            if (resumed) {
+                resumeSuccesses += 1;
+            }
+        }
+        if (traffic >= 0) {
+            if (resumed) {
+                resumeCount += 1;
+                resumeTraffic += traffic;
+            } else {
+                loginCount += 1;
+                loginTraffic += traffic;
+            }
+        }
+        LogManager.i(this, "Login " + connection + (resumed ? " resumed" : "")
+                + ", resumed " + resumeSuccesses + " of " + resumeAttempts
+                + ", ~" + getSavedTraffic() + " bytes saved");
+    }
+
+    /**
+     * @return Part of successful attempts to resume stream or 0 if there were
+     * no attempts.
+     */
+    public float getResumeSuccessRate() {
+        if (resumeAttempts == 0)
+            return 0;
+        return (float) resumeSuccesses / resumeAttempts;
+    }
+
+    /**
+     * @return Estimated number of bytes saved by resumed streams comparing
+     * with average login with new session.
+     */
+    public long getSavedTraffic() {
+        if (loginCount == 0 || resumeCount == 0)
+            return 0;
+        return Math.max(0, resumeCount * (loginTraffic / loginCount) - resumeTraffic);
+    }
+
     @Override
     public void onAccountRemoved(AccountItem accountItem) {
         connections.remove(accountItem);
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.entity;
+
+import com.xabber.android.data.Application;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Collects changed entities and delivers them to the UI thread as single
+ * batch per frame.
+ * <p/>
+ * Entities can be reported from any thread. Each entity can be additionally
+ * marked (e.g. as chat with new incoming message). Change of unspecified
+ * entities is reported with {@link #onAllChanged()} and is kept until
+ * delivery regardless of entities reported later.
+ */
+public abstract class EntityChangeAggregator {
+
+    /**
+     * Time in milliseconds to collect changes before delivery.
+     */
+    public static final long FRAME_DELAY = 16;
+
+    private final Object lock;
+
+    /**
+     * Changed entities.
+     */
+    private Set<BaseEntity> entities;
+
+    /**
+     * Changed entities with mark.
+     */
+    private Set<BaseEntity> marked;
+
+    /**
+     * Whether unspecified entities were changed.
+     */
+    private boolean allChanged;
+
+    /**
+     * Whether delivery was posted to the UI thread.
+     */
+    private boolean scheduled;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public EntityChangeAggregator() {
+        lock = new Object();
+        entities = new LinkedHashSet<>();
+        marked = new LinkedHashSet<>();
+        allChanged = false;
+        scheduled = false;
+    }
+
+    /**
+     * Reports changed entity.
+     *
+     * @param account
+     * @param user
+     * @param mark    whether entity should be marked.
+     */
+    public void onChanged(String account, String user, boolean mark) {
+        BaseEntity entity = new BaseEntity(account, user);
+        synchronized (lock) {
+            entities.add(entity);
+            if (mark) {
+                marked.add(entity);
+            }
+            schedule();
+        }
+    }
+
+    /**
+     * Reports changed entities.
+     * <p/>
+     * Nothing will be delivered if collection is empty.
+     *
+     * @param changed
+     */
+    public void onChanged(Collection<? extends BaseEntity> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        synchronized (lock) {
+            for (BaseEntity entity : changed) {
+                entities.add(new BaseEntity(entity.getAccount(), entity.getUser()));
+            }
+            schedule();
+        }
+    }
+
+    /**
+     * Reports that unspecified entities were changed.
+     */
+    public void onAllChanged() {
+        synchronized (lock) {
+            allChanged = true;
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        if (scheduled) {
+            return;
+        }
+        scheduled = true;
+        Application.getInstance().runOnUiThreadDelay(flushRunnable, FRAME_DELAY);
+    }
+
+    private void flush() {
+        Collection<BaseEntity> changed;
+        Collection<BaseEntity> changedMarked;
+        boolean changedAll;
+        synchronized (lock) {
+            changed = Collections.unmodifiableCollection(entities);
+            changedMarked = Collections.unmodifiableCollection(marked);
+            changedAll = allChanged;
+            entities = new LinkedHashSet<>();
+            marked = new LinkedHashSet<>();
+            allChanged = false;
+            scheduled = false;
+        }
+        onFlush(changed, changedMarked, changedAll);
+    }
+
+    /**
+     * Delivers collected changes.
+     * <p/>
+     * Called from UI thread.
+     *
+     * @param entities   changed entities.
+     * @param marked     changed entities that were marked.
+     * @param allChanged whether unspecified entities were changed too.
+     */
+    protected abstract void onFlush(Collection<BaseEntity> entities, Collection<BaseEntity> marked,
+                                    boolean allChanged);
+
+}
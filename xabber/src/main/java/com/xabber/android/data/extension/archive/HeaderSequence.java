@@ -16,8 +16,12 @@ package com.xabber.android.data.extension.archive;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.Set;
 
 import com.xabber.xmpp.archive.CollectionHeader;
 
@@ -53,8 +57,29 @@ public class HeaderSequence {
      */
     private String next;
 
+    /**
+     * Chat headers whose messages have been requested.
+     */
+    private final Set<CollectionHeader> requested;
+
+    /**
+     * Time when sequence has been started.
+     */
+    private long started;
+
+    /**
+     * Number of received pages of messages.
+     */
+    private int pageCount;
+
+    /**
+     * Number of received messages.
+     */
+    private int messageCount;
+
     public HeaderSequence() {
         headers = new LinkedList<CollectionHeader>();
+        requested = new HashSet<CollectionHeader>();
         reset();
         setInProgress(false);
     }
@@ -62,6 +87,7 @@ public class HeaderSequence {
     void reset() {
         received = false;
         headers.clear();
+        requested.clear();
         headerCount = 0;
         next = "";
     }
@@ -71,6 +97,11 @@ public class HeaderSequence {
     }
 
     void setInProgress(boolean inProgress) {
+        if (inProgress && !this.inProgress) {
+            started = System.currentTimeMillis();
+            pageCount = 0;
+            messageCount = 0;
+        }
         this.inProgress = inProgress;
     }
 
@@ -99,7 +130,9 @@ public class HeaderSequence {
      * <code>null</code> if there is no more items.
      */
     public CollectionHeader pollHeader() {
-        return headers.poll();
+        CollectionHeader header = headers.poll();
+        requested.remove(header);
+        return header;
     }
 
     /**
@@ -110,6 +143,58 @@ public class HeaderSequence {
         return headers.peek();
     }
 
+    /**
+     * @return Chat headers to be populated in order.
+     */
+    public Collection<CollectionHeader> getHeaders() {
+        return Collections.unmodifiableCollection(headers);
+    }
+
+    public boolean isRequested(CollectionHeader header) {
+        return requested.contains(header);
+    }
+
+    void onRequested(CollectionHeader header) {
+        requested.add(header);
+    }
+
+    /**
+     * Forget failed request, so that chat can be requested again.
+     *
+     * @param header requested or received chat header.
+     */
+    void onRequestFailed(CollectionHeader header) {
+        Iterator<CollectionHeader> iterator = requested.iterator();
+        while (iterator.hasNext()) {
+            CollectionHeader check = iterator.next();
+            if (check.getWith().equals(header.getWith())
+                    && check.getStartString().equals(header.getStartString()))
+                iterator.remove();
+        }
+    }
+
+    /**
+     * Forget sent requests, e.g. when connection has been lost.
+     */
+    void clearRequested() {
+        requested.clear();
+    }
+
+    void onPageReceived(int messageCount) {
+        this.pageCount += 1;
+        this.messageCount += messageCount;
+    }
+
+    /**
+     * @return Human readable download statistics since sequence start.
+     */
+    public String getStatistics() {
+        long elapsed = Math.max(1, System.currentTimeMillis() - started);
+        return pageCount + " pages (" + (pageCount * 1000f / elapsed)
+                + " per second), " + messageCount + " messages in " + elapsed
+                + " ms";
+    }
+
     public String getNext() {
         return next;
     }
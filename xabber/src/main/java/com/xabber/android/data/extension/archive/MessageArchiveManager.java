@@ -28,11 +28,12 @@ import com.xabber.android.data.account.OnAccountRemovedListener;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.ConnectionManager;
 import com.xabber.android.data.connection.OnDisconnectListener;
-import com.xabber.android.data.connection.OnPacketListener;
+import com.xabber.android.data.connection.OnPacketProcessListener;
 import com.xabber.android.data.connection.OnResponseListener;
 import com.xabber.android.data.entity.NestedMap;
 import com.xabber.android.data.entity.NestedNestedMaps;
 import com.xabber.android.data.extension.capability.ServerInfoManager;
+import com.xabber.android.data.extension.mam.MamManager;
 import com.xabber.android.data.extension.time.OnTimeReceivedListener;
 import com.xabber.android.data.extension.time.TimeManager;
 import com.xabber.android.data.message.AbstractChat;
@@ -81,7 +82,7 @@ import java.util.Map.Entry;
  *
  * @author alexander.ivanov
  */
-public class MessageArchiveManager implements OnPacketListener,
+public class MessageArchiveManager implements OnPacketProcessListener,
         OnTimeReceivedListener, OnAccountAddedListener,
         OnAccountRemovedListener, OnLoadListener,
         OnAccountArchiveModeChangedListener, OnDisconnectListener {
@@ -137,6 +138,10 @@ public class MessageArchiveManager implements OnPacketListener,
      * Chat storages for tags for users in accounts.
      */
     private final NestedNestedMaps<String, ChatStorage> chatStorages;
+    /**
+     * Retrieve requests in progress for each account.
+     */
+    private final Map<String, RetrievalWindow> retrievalWindows;
     private final BaseAccountNotificationProvider<AvailableArchiveRequest> availableArchiveRequestProvider;
 
     private MessageArchiveManager(Application application) {
@@ -149,6 +154,7 @@ public class MessageArchiveManager implements OnPacketListener,
         historyStorages = new NestedMap<HistoryStorage>();
         modificationRequests = new NestedMap<Boolean>();
         chatStorages = new NestedNestedMaps<String, ChatStorage>();
+        retrievalWindows = new HashMap<String, RetrievalWindow>();
         availableArchiveRequestProvider = new BaseAccountNotificationProvider<AvailableArchiveRequest>(
                 R.drawable.ic_stat_help);
     }
@@ -178,6 +184,7 @@ public class MessageArchiveManager implements OnPacketListener,
         for (MatchMode matchMode : MatchMode.values())
             maps.put(matchMode, new HashMap<String, ArchivePreference>());
         items.put(accountItem.getAccount(), maps);
+        retrievalWindows.put(accountItem.getAccount(), new RetrievalWindow());
     }
 
     @Override
@@ -190,12 +197,19 @@ public class MessageArchiveManager implements OnPacketListener,
         connected.remove(accountItem.getAccount());
         historyStorages.clear(accountItem.getAccount());
         chatStorages.clear(accountItem.getAccount());
+        retrievalWindows.remove(accountItem.getAccount());
     }
 
     @Override
     public void onDisconnect(ConnectionItem connection) {
-        if (connection instanceof AccountItem)
-            modificationRequests.clear(((AccountItem) connection).getAccount());
+        if (!(connection instanceof AccountItem))
+            return;
+        String account = ((AccountItem) connection).getAccount();
+        modificationRequests.clear(account);
+        retrievalWindows.get(account).reset();
+        for (HistoryStorage historyStorage : historyStorages.getNested(account)
+                .values())
+            historyStorage.clearRequested();
     }
 
     @Override
@@ -215,6 +229,12 @@ public class MessageArchiveManager implements OnPacketListener,
         removeNotReceived(account);
         ArchiveMode archiveMode = AccountManager.getInstance().getArchiveMode(
                 account);
+        if (archiveMode == ArchiveMode.available
+                && MamManager.getInstance().isSupported(account)) {
+            // Local history is synchronized by message archive management.
+            onModifiedAvailable(account);
+            return;
+        }
         if (ServerInfoManager.getInstance().isProtocolSupported(account,
                 FEATURE_ARCH)
                 || ServerInfoManager.getInstance().isProtocolSupported(account,
@@ -294,31 +314,51 @@ public class MessageArchiveManager implements OnPacketListener,
     }
 
     @Override
-    public void onPacket(ConnectionItem connection, final String bareAddress, Stanza packet) {
+    public Runnable onPacketProcess(ConnectionItem connection, final String bareAddress,
+                                    final Stanza packet) {
         if (!(connection instanceof AccountItem))
-            return;
-        String account = ((AccountItem) connection).getAccount();
-        if (AccountManager.getInstance().getArchiveMode(account) != ArchiveMode.server)
-            return;
+            return null;
+        final String account = ((AccountItem) connection).getAccount();
         if (bareAddress != null && !Jid.getServer(account).equals(bareAddress))
-            return;
+            return null;
         if (!(packet instanceof IQ))
-            return;
+            return null;
         IQ iq = (IQ) packet;
-        if (iq.getType() == Type.set && packet instanceof Pref
+        // Received collections are validated in background.
+        if (!(iq.getType() == Type.set && packet instanceof Pref
                 && ((Pref) packet).isValid())
-            onPreferenceReceived(account, (Pref) packet);
-        else if (iq.getType() == Type.set && packet instanceof ItemRemove
+                && !(iq.getType() == Type.set && packet instanceof ItemRemove
                 && ((ItemRemove) packet).isValid())
-            onItemRemoveReceived(account, (ItemRemove) packet);
-        else if (iq.getType() == Type.set && packet instanceof SessionRemove
+                && !(iq.getType() == Type.set && packet instanceof SessionRemove
                 && ((SessionRemove) packet).isValid())
-            onSessionRemoveReceived(account, (SessionRemove) packet);
-        else if (iq.getType() == Type.result && packet instanceof List
+                && !(iq.getType() == Type.result && packet instanceof List
                 && ((List) packet).isValid())
+                && !(iq.getType() == Type.result && packet instanceof Chat
+                && ((Chat) packet).isValid()))
+            return null;
+        return new Runnable() {
+            @Override
+            public void run() {
+                onPacket(account, packet);
+            }
+        };
+    }
+
+    /**
+     * Valid archive packet received.
+     */
+    private void onPacket(String account, Stanza packet) {
+        if (AccountManager.getInstance().getArchiveMode(account) != ArchiveMode.server)
+            return;
+        if (packet instanceof Pref)
+            onPreferenceReceived(account, (Pref) packet);
+        else if (packet instanceof ItemRemove)
+            onItemRemoveReceived(account, (ItemRemove) packet);
+        else if (packet instanceof SessionRemove)
+            onSessionRemoveReceived(account, (SessionRemove) packet);
+        else if (packet instanceof List)
             onListReceived(account, (List) packet);
-        else if (iq.getType() == Type.result && packet instanceof Chat
-                && ((Chat) packet).isValid())
+        else if (packet instanceof Chat)
             onChatReceived(account, (Chat) packet);
     }
 
@@ -451,6 +491,8 @@ public class MessageArchiveManager implements OnPacketListener,
                 chat.getPacketID());
         if (modification == null)
             return;
+        retrievalWindows.get(account).onReceived(chat.getPacketID(),
+                chat.getMessages().size());
         ChatStorage chatStorage = chatStorages.get(account, chat.getWith(),
                 chat.getStartString());
         if (chatStorage == null) {
@@ -468,6 +510,7 @@ public class MessageArchiveManager implements OnPacketListener,
             sequence = historyStorages.get(account, bareAddress);
         if (sequence == null)
             return;
+        sequence.onPageReceived(chat.getMessages().size());
         AbstractChat abstractChat = MessageManager.getInstance()
                 .getOrCreateChat(account, bareAddress);
         for (AbstractMessage abstractMessage : chat.getMessages())
@@ -476,11 +519,6 @@ public class MessageArchiveManager implements OnPacketListener,
         if (chat.getRsm() == null
                 || chat.getRsm().isForwardFinished(chat.getMessages().size())) {
             chatStorage.onItemsReceived(chat.getVersion());
-            sequence.pollHeader();
-            if (sequence instanceof HistoryStorage)
-                if (apply(account, bareAddress, chat.getStartString(),
-                        chatStorage, (HistoryStorage) sequence))
-                    return;
             requestSequence(account, bareAddress, sequence);
         } else {
             requestChat(account, chat, chat.getRsm().getLast(), modification);
@@ -509,6 +547,8 @@ public class MessageArchiveManager implements OnPacketListener,
                 incomingCount += 1;
         chatStorage.onApplied();
         if (historyStorage.enoughMessages(newCount, incomingCount)) {
+            LogManager.i(this, "History received " + account + " "
+                    + bareAddress + ": " + historyStorage.getStatistics());
             historyStorage.onSuccess();
             return true;
         }
@@ -537,6 +577,8 @@ public class MessageArchiveManager implements OnPacketListener,
                 chatStorage.onApplied();
             }
         }
+        LogManager.i(this, "Modifications received " + account + ": "
+                + modificationStorage.getStatistics());
         modificationStorage.onSuccess();
     }
 
@@ -575,47 +617,77 @@ public class MessageArchiveManager implements OnPacketListener,
         }
     }
 
+    /**
+     * Applies received chats in order and requests next chats while there is
+     * free space in the retrieval window.
+     *
+     * @param account
+     * @param bareAddress
+     * @param sequence
+     */
     private void requestSequence(String account, String bareAddress,
                                  HeaderSequence sequence) {
+        if (sequence instanceof HistoryStorage && !sequence.isInProgress())
+            return;
         while (true) {
             CollectionHeader header = sequence.peekHeader();
-            if (header == null) {
-                if (sequence.isHeadersReceived()) {
-                    if (sequence instanceof ModificationStorage) {
-                        apply(account, (ModificationStorage) sequence);
-                        onModifiedAvailable(account);
-                    }
-                } else {
-                    if (sequence instanceof ModificationStorage) {
-                        requestModified(account, sequence.getNext());
-                    } else {
-                        ((HistoryStorage) sequence).setPacketId(requestList(
-                                account, bareAddress, sequence.getNext()));
-                    }
-                }
+            if (header == null)
+                break;
+            ChatStorage chatStorage = chatStorages.get(account,
+                    header.getWith(), header.getStartString());
+            if (chatStorage == null
+                    || !chatStorage.isReceived()
+                    || (!sequence.isRequested(header) && !chatStorage
+                    .hasVersion(header.getVersion())))
+                break;
+            if (sequence instanceof HistoryStorage && !chatStorage.isApplied())
+                if (apply(account, bareAddress, header.getStartString(),
+                        chatStorage, (HistoryStorage) sequence))
+                    return;
+            sequence.pollHeader();
+        }
+        RetrievalWindow retrievalWindow = retrievalWindows.get(account);
+        // Each sequence can always have one request in progress, so that it
+        // won't wait for requests from other sequences.
+        boolean waiting = false;
+        for (CollectionHeader header : sequence.getHeaders()) {
+            if (waiting && retrievalWindow.isFull())
+                return;
+            ChatStorage chatStorage = chatStorages.get(account,
+                    header.getWith(), header.getStartString());
+            if (sequence.isRequested(header)) {
+                if (chatStorage != null && !chatStorage.isReceived())
+                    waiting = true;
+                continue;
+            }
+            if (chatStorage != null && chatStorage.isReceived()
+                    && chatStorage.hasVersion(header.getVersion()))
+                continue;
+            chatStorage = new ChatStorage(header.getStart());
+            chatStorages.put(account, header.getWith(),
+                    header.getStartString(), chatStorage);
+            sequence.onRequested(header);
+            requestChat(account, header, null,
+                    sequence instanceof ModificationStorage);
+            waiting = true;
+        }
+        if (sequence.peekHeader() != null)
+            return;
+        if (sequence.isHeadersReceived()) {
+            if (sequence instanceof ModificationStorage) {
+                apply(account, (ModificationStorage) sequence);
+                onModifiedAvailable(account);
             } else {
-                ChatStorage chatStorage = chatStorages.get(account,
-                        header.getWith(), header.getStartString());
-                if (chatStorage == null
-                        || (chatStorage.isReceived() && !chatStorage
-                        .hasVersion(header.getVersion()))) {
-                    chatStorage = new ChatStorage(header.getStart());
-                    chatStorages.put(account, header.getWith(),
-                            header.getStartString(), chatStorage);
-                } else if (chatStorage.isReceived()) {
-                    if (sequence instanceof HistoryStorage
-                            && !chatStorage.isApplied())
-                        if (apply(account, header.getWith(),
-                                header.getStartString(), chatStorage,
-                                (HistoryStorage) sequence))
-                            break;
-                    sequence.pollHeader();
-                    continue;
-                }
-                requestChat(account, header, null,
-                        sequence instanceof ModificationStorage);
+                LogManager.i(this, "History finished " + account + " "
+                        + bareAddress + ": " + sequence.getStatistics());
+            }
+        } else {
+            if (sequence instanceof ModificationStorage) {
+                requestModified(account, sequence.getNext());
+            } else {
+                ((HistoryStorage) sequence).setPacketId(requestList(account,
+                        bareAddress, sequence.getNext()));
             }
-            break;
         }
     }
 
@@ -709,22 +781,20 @@ public class MessageArchiveManager implements OnPacketListener,
         return packetId;
     }
 
-    private void requestChat(String account, CollectionHeader header,
-                             String after, boolean modification) {
+    private void requestChat(String account, final CollectionHeader header,
+                             String after, final boolean modification) {
+        RetrievalWindow retrievalWindow = retrievalWindows.get(account);
         Retrieve packet = new Retrieve();
         packet.setType(Type.get);
         Set rsm = new Set();
-        rsm.setMax(RSM_MAX);
+        rsm.setMax(retrievalWindow.getPageSize());
         rsm.setAfter(after);
         packet.setRsm(rsm);
         packet.setWith(header.getWith());
         packet.setStartString(header.getStartString());
+        final String bareAddress = Jid.getBareAddress(header.getWith());
         modificationRequests.put(account, packet.getPacketID(), modification);
         try {
-            if (!modification) {
-                ConnectionManager.getInstance().sendStanza(account, packet);
-                return;
-            }
             ConnectionManager.getInstance().sendRequest(account, packet,
                     new OnResponseListener() {
 
@@ -740,7 +810,31 @@ public class MessageArchiveManager implements OnPacketListener,
                         @Override
                         public void onError(String account, String packetId,
                                             IQ iq) {
-                            onModifiedAvailable(account);
+                            if (modificationRequests.remove(account, packetId) == null)
+                                return;
+                            retrievalWindows.get(account).onFailed(packetId);
+                            // Chat wasn't received, so it must be requested again.
+                            chatStorages.remove(account, header.getWith(),
+                                    header.getStartString());
+                            HeaderSequence sequence;
+                            if (modification)
+                                sequence = modificationStorages.get(account);
+                            else
+                                sequence = historyStorages.get(account, bareAddress);
+                            if (sequence != null)
+                                sequence.onRequestFailed(header);
+                            if (modification) {
+                                onModifiedAvailable(account);
+                                return;
+                            }
+                            HistoryStorage historyStorage = historyStorages
+                                    .get(account, bareAddress);
+                            if (historyStorage != null) {
+                                LogManager.w(this, "History failed " + account
+                                        + " " + bareAddress + ": "
+                                        + historyStorage.getStatistics());
+                                historyStorage.onSuccess();
+                            }
                         }
 
                         @Override
@@ -754,7 +848,10 @@ public class MessageArchiveManager implements OnPacketListener,
 
                     });
         } catch (NetworkException e) {
+            modificationRequests.remove(account, packet.getPacketID());
+            return;
         }
+        retrievalWindow.onSent(packet.getPacketID());
     }
 
     private void sendItemUpdate(String account, String user, SaveMode saveMode,
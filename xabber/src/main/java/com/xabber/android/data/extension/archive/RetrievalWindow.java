@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.extension.archive;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Limits number of concurrent retrieve requests for the account and adapts
+ * their page size to the measured round trip time.
+ */
+public class RetrievalWindow {
+
+    private static final int MIN_PAGE_SIZE = 20;
+
+    private static final int MAX_PAGE_SIZE = 100;
+
+    private static final int INITIAL_REQUESTS = 2;
+
+    private static final int MAX_REQUESTS = 4;
+
+    /**
+     * Response time in milliseconds allowing to enlarge the window.
+     */
+    private static final long FAST_RESPONSE = 1000;
+
+    /**
+     * Response time in milliseconds requiring to reduce the window.
+     */
+    private static final long SLOW_RESPONSE = 5000;
+
+    /**
+     * Send time for packet ids of requests in progress.
+     */
+    private final Map<String, Long> sent;
+
+    /**
+     * Number of messages to be requested in one page.
+     */
+    private int pageSize;
+
+    /**
+     * Maximum number of requests in progress.
+     */
+    private int requests;
+
+    public RetrievalWindow() {
+        sent = new HashMap<String, Long>();
+        pageSize = MIN_PAGE_SIZE;
+        requests = INITIAL_REQUESTS;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return Whether new chat shouldn't be requested until one of requests
+     * will be completed.
+     */
+    public boolean isFull() {
+        return sent.size() >= requests;
+    }
+
+    void onSent(String packetId) {
+        sent.put(packetId, System.currentTimeMillis());
+    }
+
+    /**
+     * Page has been received.
+     *
+     * @param packetId
+     * @param messageCount number of received messages.
+     */
+    void onReceived(String packetId, int messageCount) {
+        Long time = sent.remove(packetId);
+        if (time == null)
+            return;
+        long elapsed = System.currentTimeMillis() - time;
+        if (elapsed > SLOW_RESPONSE) {
+            pageSize = Math.max(MIN_PAGE_SIZE, pageSize / 2);
+            requests = Math.max(1, requests - 1);
+        } else if (elapsed < FAST_RESPONSE) {
+            // Only full pages show that larger page would be useful.
+            if (messageCount >= pageSize)
+                pageSize = Math.min(MAX_PAGE_SIZE, pageSize * 2);
+            requests = Math.min(MAX_REQUESTS, requests + 1);
+        }
+    }
+
+    void onFailed(String packetId) {
+        if (sent.remove(packetId) == null)
+            return;
+        pageSize = MIN_PAGE_SIZE;
+        requests = 1;
+    }
+
+    /**
+     * Requests in progress will never be completed.
+     */
+    void reset() {
+        sent.clear();
+    }
+
+}
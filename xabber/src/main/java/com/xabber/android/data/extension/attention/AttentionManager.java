@@ -27,7 +27,7 @@ import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.ConnectionManager;
 import com.xabber.android.data.connection.ConnectionThread;
-import com.xabber.android.data.connection.OnPacketListener;
+import com.xabber.android.data.connection.OnPacketProcessListener;
 import com.xabber.android.data.entity.BaseEntity;
 import com.xabber.android.data.extension.capability.CapabilitiesManager;
 import com.xabber.android.data.extension.capability.ClientInfo;
@@ -55,7 +55,7 @@ import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
  *
  * @author alexander.ivanov
  */
-public class AttentionManager implements OnPacketListener, OnLoadListener {
+public class AttentionManager implements OnPacketProcessListener, OnLoadListener {
 
     private final static Object enabledLock;
 
@@ -148,26 +148,40 @@ public class AttentionManager implements OnPacketListener, OnLoadListener {
     }
 
     @Override
-    public void onPacket(ConnectionItem connection, String bareAddress, Stanza packet) {
+    public Runnable onPacketProcess(ConnectionItem connection, final String bareAddress,
+                                    Stanza packet) {
         if (!(connection instanceof AccountItem))
-            return;
+            return null;
         if (!(packet instanceof Message))
-            return;
+            return null;
         if (!SettingsManager.chatsAttention())
-            return;
+            return null;
         final String account = ((AccountItem) connection).getAccount();
         if (bareAddress == null)
-            return;
+            return null;
+        boolean attention = false;
         for (ExtensionElement packetExtension : packet.getExtensions()) {
             if (packetExtension instanceof Attention) {
-                MessageManager.getInstance().openChat(account, bareAddress);
-                MessageManager.getInstance()
-                        .getOrCreateChat(account, bareAddress)
-                        .newAction(null, null, ChatAction.attention_requested);
-                attentionRequestProvider.add(new AttentionRequest(account,
-                        bareAddress), true);
+                attention = true;
             }
         }
+        if (!attention)
+            return null;
+        return new Runnable() {
+            @Override
+            public void run() {
+                onAttentionRequested(account, bareAddress);
+            }
+        };
+    }
+
+    private void onAttentionRequested(String account, String bareAddress) {
+        MessageManager.getInstance().openChat(account, bareAddress);
+        MessageManager.getInstance()
+                .getOrCreateChat(account, bareAddress)
+                .newAction(null, null, ChatAction.attention_requested);
+        attentionRequestProvider.add(new AttentionRequest(account,
+                bareAddress), true);
     }
 
     public void sendAttention(String account, String user) throws NetworkException {
@@ -14,6 +14,7 @@
  */
 package com.xabber.android.data.extension.avatar;
 
+import android.content.ComponentCallbacks2;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -24,17 +25,24 @@ import android.graphics.drawable.Drawable;
 import android.graphics.drawable.LayerDrawable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
 
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
-import com.xabber.android.data.OnLoadListener;
+import com.xabber.android.data.BackgroundLane;
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.LoadDependent;
 import com.xabber.android.data.OnLowMemoryListener;
+import com.xabber.android.data.OnTrimMemoryListener;
 import com.xabber.android.data.SettingsManager;
 import com.xabber.android.data.account.AccountItem;
+import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.account.OAuthManager;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.OnPacketListener;
+import com.xabber.android.data.entity.BaseEntity;
 import com.xabber.android.data.extension.vcard.VCardManager;
+import com.xabber.android.data.roster.RosterManager;
 import com.xabber.android.ui.color.ColorManager;
 import com.xabber.xmpp.address.Jid;
 import com.xabber.xmpp.avatar.VCardUpdate;
@@ -43,19 +51,26 @@ import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.packet.Stanza;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Provides information about avatars (hashes and values). Store and retrieve
  * hashes from database and binary values from file system. Caches user's hashes
- * and avatar's values in memory. Handles changes in user's hashes. Requests
+ * and decoded avatars in memory. Handles changes in user's hashes. Requests
  * information from server when avatar for given hash don't exists locally.
  * <p/>
  * <p/>
- * This class is thread safe. All operation modification made from synchronized
- * blocks.
+ * Only hashes are loaded on application start. Bitmaps are decoded on demand
+ * in background for each display size and kept in LRU cache bounded by bytes.
+ * Default avatar is returned while bitmap is being decoded and listeners are
+ * notified when it become available.
  * <p/>
  * <p/>
  * All requests to database / file system made in background thread or on
@@ -63,15 +78,20 @@ import java.util.Map;
  *
  * @author alexander.ivanov
  */
-public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPacketListener {
+public class AvatarManager implements LoadDependent, OnLowMemoryListener,
+        OnTrimMemoryListener, OnPacketListener {
 
     /**
-     * Maximum image width / height to be loaded.
+     * Part of the available heap to be used for decoded bitmaps.
      */
-    private static final int MAX_SIZE = 256;
+    private static final int CACHE_MEMORY_PART = 8;
+
+    /**
+     * Maximum number of cached drawables for contact list.
+     */
+    private static final int CONTACT_LIST_DRAWABLES_SIZE = 200;
 
     public static final String EMPTY_HASH = "";
-    private static final Bitmap EMPTY_BITMAP = Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8);
     private final static AvatarManager instance;
 
     static {
@@ -87,15 +107,35 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
      */
     private final Map<String, String> hashes;
     /**
-     * Map with bitmaps for specified hashes.
+     * Hashes with avatar's value stored in file system.
+     */
+    private final Set<String> storedHashes;
+    /**
+     * Hashes which value can't be read or decoded.
+     */
+    private final Set<String> missingHashes;
+    /**
+     * Values which are being written to the file system.
      * <p/>
-     * {@link #EMPTY_BITMAP} is used to store <code>null</code> values.
+     * Accessed from background threads.
+     */
+    private final Map<String, byte[]> unsavedValues;
+    /**
+     * Decoded bitmaps for keys from {@link #getKey(String, AvatarSize)}.
      */
-    private final Map<String, Bitmap> bitmaps;
+    private final LruCache<String, Bitmap> bitmaps;
     /**
-     * Map with drawable used in contact list only for specified uses.
+     * Users waiting for bitmap being decoded for the key.
      */
-    private final Map<String, Drawable> contactListDrawables;
+    private final Map<String, Set<String>> pendingDecodes;
+    /**
+     * Callbacks to be called after bitmap for the key will be decoded.
+     */
+    private final Map<String, Set<Runnable>> decodeCallbacks;
+    /**
+     * Drawables used in contact list only for specified users.
+     */
+    private final LruCache<String, Drawable> contactListDrawables;
     /**
      * Users' default avatar set.
      */
@@ -111,8 +151,19 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
         roomAvatarSet = new BaseAvatarSet(application, R.array.muc_avatars, R.array.default_avatars_colors);
 
         hashes = new HashMap<>();
-        bitmaps = new HashMap<>();
-        contactListDrawables = new HashMap<>();
+        storedHashes = new HashSet<>();
+        missingHashes = new HashSet<>();
+        unsavedValues = Collections.synchronizedMap(new HashMap<String, byte[]>());
+        int cacheSize = (int) (Runtime.getRuntime().maxMemory() / CACHE_MEMORY_PART);
+        bitmaps = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+        pendingDecodes = new HashMap<>();
+        decodeCallbacks = new HashMap<>();
+        contactListDrawables = new LruCache<>(CONTACT_LIST_DRAWABLES_SIZE);
     }
 
     public static AvatarManager getInstance() {
@@ -123,10 +174,11 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
      * Make {@link Bitmap} from array of bytes.
      *
      * @param value
+     * @param maxSize minimal width / height to keep while down scaling.
      * @return Bitmap. <code>null</code> can be returned if value is invalid or
      * is <code>null</code>.
      */
-    private static Bitmap makeBitmap(byte[] value) {
+    private static Bitmap makeBitmap(byte[] value, int maxSize) {
         if (value == null) {
             return null;
         }
@@ -140,7 +192,7 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
         int scale = 1;
         int width_tmp = sizeOptions.outWidth;
         int height_tmp = sizeOptions.outHeight;
-        while (width_tmp / 2 >= MAX_SIZE && height_tmp / 2 >= MAX_SIZE) {
+        while (width_tmp / 2 >= maxSize && height_tmp / 2 >= maxSize) {
             scale *= 2;
             width_tmp /= 2;
             height_tmp /= 2;
@@ -170,10 +222,14 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
         return bitmap;
     }
 
+    @Override
+    public Class<?>[] getLoadDependencies() {
+        return new Class<?>[]{DatabaseManager.class};
+    }
+
     @Override
     public void onLoad() {
         final Map<String, String> hashes = new HashMap<>();
-        final Map<String, Bitmap> bitmaps = new HashMap<>();
         Cursor cursor = AvatarTable.getInstance().list();
         try {
             if (cursor.moveToFirst()) {
@@ -185,22 +241,21 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
         } finally {
             cursor.close();
         }
-        for (String hash : new HashSet<>(hashes.values()))
-            if (!hash.equals(EMPTY_HASH)) {
-                Bitmap bitmap = makeBitmap(AvatarStorage.getInstance().read(hash));
-                bitmaps.put(hash, bitmap == null ? EMPTY_BITMAP : bitmap);
-            }
         Application.getInstance().runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                onLoaded(hashes, bitmaps);
+                onLoaded(hashes);
             }
         });
     }
 
-    private void onLoaded(Map<String, String> hashes, Map<String, Bitmap> bitmaps) {
+    private void onLoaded(Map<String, String> hashes) {
         this.hashes.putAll(hashes);
-        this.bitmaps.putAll(bitmaps);
+        for (String hash : hashes.values()) {
+            if (!hash.equals(EMPTY_HASH)) {
+                storedHashes.add(hash);
+            }
+        }
     }
 
     /**
@@ -212,7 +267,7 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
     private void setHash(final String bareAddress, final String hash) {
         hashes.put(bareAddress, hash == null ? EMPTY_HASH : hash);
         contactListDrawables.remove(bareAddress);
-        application.runInBackground(new Runnable() {
+        application.runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 AvatarTable.getInstance().write(bareAddress, hash);
@@ -220,24 +275,156 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
         });
     }
 
+    private static String getKey(String hash, AvatarSize size) {
+        return hash + "/" + size;
+    }
+
     /**
-     * Get avatar's value for user.
+     * @return Hash of the user's avatar to be decoded. <code>null</code> if
+     * user has no avatar or avatar doesn't exists.
+     */
+    private String getDecodableHash(String bareAddress) {
+        String hash = getHash(bareAddress);
+        if (hash == null || hash.equals(EMPTY_HASH) || missingHashes.contains(hash)) {
+            return null;
+        }
+        return hash;
+    }
+
+    /**
+     * Get decoded avatar for user.
      *
      * @param bareAddress
+     * @param size
      * @return avatar's value. <code>null</code> can be returned if user has no
-     * avatar or avatar doesn't exists.
+     * avatar, avatar doesn't exists or is being decoded in background.
      */
-    private Bitmap getBitmap(String bareAddress) {
-        String hash = getHash(bareAddress);
-        if (hash == null || hash.equals(EMPTY_HASH)) {
+    private Bitmap getBitmap(String bareAddress, AvatarSize size) {
+        String hash = getDecodableHash(bareAddress);
+        if (hash == null) {
             return null;
         }
-        Bitmap bitmap = bitmaps.get(hash);
-        if (bitmap == EMPTY_BITMAP) {
-            return null;
-        } else {
+        String key = getKey(hash, size);
+        Bitmap bitmap = bitmaps.get(key);
+        if (bitmap != null) {
             return bitmap;
         }
+        requestDecode(bareAddress, hash, size);
+        return null;
+    }
+
+    /**
+     * @return Whether bitmap for the user is being decoded.
+     */
+    private boolean isDecoding(String bareAddress, AvatarSize size) {
+        String hash = getDecodableHash(bareAddress);
+        return hash != null && pendingDecodes.containsKey(getKey(hash, size));
+    }
+
+    /**
+     * Requests bitmap to be decoded in background.
+     *
+     * @param bareAddress user to be notified.
+     * @param hash
+     * @param size
+     */
+    private void requestDecode(String bareAddress, final String hash, AvatarSize size) {
+        final String key = getKey(hash, size);
+        Set<String> users = pendingDecodes.get(key);
+        if (users != null) {
+            users.add(bareAddress);
+            return;
+        }
+        users = new HashSet<>();
+        users.add(bareAddress);
+        pendingDecodes.put(key, users);
+        final int pixelSize = getPixelSize(size);
+        application.runInBackground(BackgroundLane.decode, new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = makeBitmap(readValue(hash), pixelSize);
+                application.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDecoded(hash, key, bitmap);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Caches decoded bitmap and notifies about changed avatars.
+     *
+     * @param hash
+     * @param key
+     * @param bitmap can be <code>null</code>.
+     */
+    private void onDecoded(String hash, String key, Bitmap bitmap) {
+        Set<String> users = pendingDecodes.remove(key);
+        if (bitmap == null) {
+            missingHashes.add(hash);
+        } else {
+            bitmaps.put(key, bitmap);
+        }
+        Set<Runnable> callbacks = decodeCallbacks.remove(key);
+        if (callbacks != null) {
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+        }
+        if (users == null) {
+            return;
+        }
+        Collection<String> accounts = AccountManager.getInstance().getAccounts();
+        Collection<BaseEntity> entities = new ArrayList<>();
+        for (String user : users) {
+            contactListDrawables.remove(user);
+            for (String account : accounts) {
+                entities.add(new BaseEntity(account, user));
+                if (user.equals(getAccountUser(account))) {
+                    AccountManager.getInstance().onAccountChanged(account);
+                }
+            }
+        }
+        RosterManager.onContactsChanged(entities);
+    }
+
+    /**
+     * Reads avatar's value.
+     * <p/>
+     * CALL THIS METHOD FROM BACKGROUND THREAD ONLY.
+     *
+     * @param hash
+     * @return <code>null</code> if value doesn't exists.
+     */
+    private byte[] readValue(String hash) {
+        byte[] value = unsavedValues.get(hash);
+        if (value != null) {
+            return value;
+        }
+        return AvatarStorage.getInstance().read(hash);
+    }
+
+    private int getPixelSize(AvatarSize size) {
+        switch (size) {
+            case contactList:
+                return application.getResources().getDimensionPixelSize(R.dimen.avatar_normal_size);
+            case chat:
+                return application.getResources().getDimensionPixelSize(R.dimen.avatar_large_size);
+            case shortcut:
+                return getLauncherLargeIconSize();
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private static String getAccountUser(String account) {
+        String jid = OAuthManager.getInstance().getAssignedJid(account);
+        if (jid == null) {
+            jid = account;
+        }
+        return Jid.getBareAddress(jid);
     }
 
     @Nullable
@@ -256,23 +443,44 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
         if (hash == null) {
             return;
         }
-        Bitmap bitmap = makeBitmap(value);
-        bitmaps.put(hash, bitmap == null ? EMPTY_BITMAP : bitmap);
-        application.runInBackground(new Runnable() {
+        for (AvatarSize size : AvatarSize.values()) {
+            bitmaps.remove(getKey(hash, size));
+        }
+        if (value == null) {
+            missingHashes.add(hash);
+            return;
+        }
+        storedHashes.add(hash);
+        missingHashes.remove(hash);
+        unsavedValues.put(hash, value);
+        application.runInBackground(BackgroundLane.io, new Runnable() {
             @Override
             public void run() {
                 AvatarStorage.getInstance().write(hash, value);
+                unsavedValues.remove(hash);
             }
         });
     }
 
     @Override
     public void onLowMemory() {
-        contactListDrawables.clear();
+        bitmaps.evictAll();
+        contactListDrawables.evictAll();
         userAvatarSet.onLowMemory();
         roomAvatarSet.onLowMemory();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            onLowMemory();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            bitmaps.trimToSize(bitmaps.maxSize() / 2);
+            contactListDrawables.evictAll();
+        }
+    }
+
     /**
      * Gets account's avatar.
      *
@@ -283,11 +491,7 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
      * </ul>
      */
     public Drawable getAccountAvatar(String account) {
-        String jid = OAuthManager.getInstance().getAssignedJid(account);
-        if (jid == null) {
-            jid = account;
-        }
-        Bitmap value = getBitmap(Jid.getBareAddress(jid));
+        Bitmap value = getBitmap(getAccountUser(account), AvatarSize.chat);
         if (value != null) {
             return new BitmapDrawable(application.getResources(), value);
         } else {
@@ -310,7 +514,11 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
      * @return
      */
     public Drawable getUserAvatar(String user) {
-        Bitmap value = getBitmap(user);
+        return getUserAvatar(user, AvatarSize.chat);
+    }
+
+    private Drawable getUserAvatar(String user, AvatarSize size) {
+        Bitmap value = getBitmap(user, size);
         if (value != null) {
             return new BitmapDrawable(application.getResources(), value);
         } else {
@@ -329,12 +537,16 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
 
     /**
      * Gets bitmap with avatar for regular user.
+     * <p/>
+     * Default avatar is returned while bitmap is being decoded in
+     * background. Use {@link #requestUserBitmap(String, Runnable)} to be
+     * notified when it will be ready.
      *
      * @param user
      * @return
      */
     public Bitmap getUserBitmap(String user) {
-        Bitmap value = getBitmap(user);
+        Bitmap value = getBitmap(user, AvatarSize.shortcut);
         if (value != null) {
             return value;
         } else {
@@ -342,6 +554,31 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
         }
     }
 
+    /**
+     * Requests bitmap with avatar for regular user to be decoded in
+     * background.
+     *
+     * @param user
+     * @param onDecoded called from UI thread when bitmap will be decoded. The
+     *                  same callback is called once per decode.
+     * @return <code>false</code> if bitmap returned by
+     * {@link #getUserBitmap(String)} is already final, so callback won't be
+     * called.
+     */
+    public boolean requestUserBitmap(String user, Runnable onDecoded) {
+        if (getBitmap(user, AvatarSize.shortcut) != null || !isDecoding(user, AvatarSize.shortcut)) {
+            return false;
+        }
+        String key = getKey(getDecodableHash(user), AvatarSize.shortcut);
+        Set<Runnable> callbacks = decodeCallbacks.get(key);
+        if (callbacks == null) {
+            callbacks = new LinkedHashSet<>();
+            decodeCallbacks.put(key, callbacks);
+        }
+        callbacks.add(onDecoded);
+        return true;
+    }
+
     /**
      * Gets and caches drawable with avatar for regular user.
      *
@@ -351,8 +588,10 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
     public Drawable getUserAvatarForContactList(String user) {
         Drawable drawable = contactListDrawables.get(user);
         if (drawable == null) {
-            drawable = getUserAvatar(user);
-            contactListDrawables.put(user, drawable);
+            drawable = getUserAvatar(user, AvatarSize.contactList);
+            if (!isDecoding(user, AvatarSize.contactList)) {
+                contactListDrawables.put(user, drawable);
+            }
         }
         return drawable;
     }
@@ -443,54 +682,38 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
             return;
         }
         final String hash = vCardUpdate.getPhotoHash();
-        if (bitmaps.containsKey(hash)) {
+        if (storedHashes.contains(hash)) {
             setHash(bareAddress, hash);
             return;
         }
-        Application.getInstance().runInBackground(new Runnable() {
-            @Override
-            public void run() {
-                loadBitmap(account, bareAddress, hash);
-            }
-        });
-    }
-
-    /**
-     * Read bitmap in background.
-     *
-     * @param account
-     * @param bareAddress
-     * @param hash
-     */
-    private void loadBitmap(final String account, final String bareAddress, final String hash) {
-        final byte[] value = AvatarStorage.getInstance().read(hash);
-        final Bitmap bitmap = makeBitmap(value);
-        Application.getInstance().runOnUiThread(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.io, new Runnable() {
             @Override
             public void run() {
-                onBitmapLoaded(account, bareAddress, hash, value, bitmap);
+                final boolean exists = AvatarStorage.getInstance().exists(hash);
+                Application.getInstance().runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onStorageChecked(account, bareAddress, hash, exists);
+                    }
+                });
             }
         });
     }
 
     /**
-     * Update data or request avatar on bitmap load.
+     * Update data or request avatar when stored value was checked.
      *
      * @param account
      * @param bareAddress
      * @param hash
-     * @param value
-     * @param bitmap
+     * @param exists      whether value is stored in file system.
      */
-    private void onBitmapLoaded(String account, String bareAddress,
-                                String hash, byte[] value, Bitmap bitmap) {
-        if (value == null) {
-            if (SettingsManager.connectionLoadVCard()) {
-                VCardManager.getInstance().request(account, bareAddress);
-            }
-        } else {
-            bitmaps.put(hash, bitmap == null ? EMPTY_BITMAP : bitmap);
+    private void onStorageChecked(String account, String bareAddress, String hash, boolean exists) {
+        if (exists) {
+            storedHashes.add(hash);
             setHash(bareAddress, hash);
+        } else if (SettingsManager.connectionLoadVCard()) {
+            VCardManager.getInstance().request(account, bareAddress);
         }
     }
 
@@ -514,4 +737,17 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
         return HoneycombShortcutHelper.getLauncherLargeIconSize();
     }
 
+    /**
+     * Display sizes avatar is decoded for.
+     */
+    private enum AvatarSize {
+
+        contactList,
+
+        chat,
+
+        shortcut
+
+    }
+
 }
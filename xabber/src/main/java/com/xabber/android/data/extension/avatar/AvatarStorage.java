@@ -75,6 +75,10 @@ class AvatarStorage implements OnLoadListener, OnClearListener {
         return value;
     }
 
+    boolean exists(String hash) {
+        return getFile(hash).exists();
+    }
+
     void write(String hash, byte[] value) {
         try {
             FileOutputStream outputStream = new FileOutputStream(getFile(hash));
@@ -11,7 +11,7 @@ import com.xabber.android.data.connection.OnResponseListener;
 import com.xabber.android.data.entity.BaseEntity;
 import com.xabber.android.data.message.MessageManager;
 import com.xabber.android.data.notification.NotificationManager;
-import com.xabber.android.data.roster.OnContactChangedListener;
+import com.xabber.android.data.roster.RosterManager;
 import com.xabber.xmpp.blocking.Block;
 import com.xabber.xmpp.blocking.BlockList;
 import com.xabber.xmpp.blocking.Unblock;
@@ -27,8 +27,10 @@ import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class BlockingManager implements OnAuthorizedListener, OnPacketListener {
@@ -37,7 +39,14 @@ public class BlockingManager implements OnAuthorizedListener, OnPacketListener {
     private final static BlockingManager instance;
 
     private Map<String, Boolean> supportForAccounts;
-    private Map<String, List<String>> blockListsForAccounts;
+
+    /**
+     * Immutable snapshots of block lists for accounts.
+     * <p/>
+     * Snapshot is replaced on each change, so it can be safely read from any
+     * thread without copying.
+     */
+    private Map<String, Set<String>> blockListsForAccounts;
 
     static {
         instance = new BlockingManager();
@@ -74,20 +83,87 @@ public class BlockingManager implements OnAuthorizedListener, OnPacketListener {
         return isSupported;
     }
 
-    public Map<String, List<String>> getBlockedContacts() {
-        return Collections.unmodifiableMap(blockListsForAccounts);
+    public Map<String, Collection<String>> getBlockedContacts() {
+        return Collections.<String, Collection<String>>unmodifiableMap(blockListsForAccounts);
     }
 
+    /**
+     * @param account
+     * @return Immutable snapshot of blocked contacts for the account.
+     */
     public Collection<String> getBlockedContacts(String account) {
+        Set<String> blockedContacts = blockListsForAccounts.get(account);
+        if (blockedContacts == null) {
+            return Collections.emptySet();
+        }
+        return blockedContacts;
+    }
 
-        return Collections.unmodifiableCollection(getBlockedListForAccount(account));
+    private void setBlockedContacts(String account, Collection<String> contacts) {
+        blockListsForAccounts.put(account, Collections.unmodifiableSet(new HashSet<>(contacts)));
+    }
+
+    /**
+     * Adds contacts to the block list snapshot.
+     *
+     * @return Contacts that weren't blocked before.
+     */
+    private Collection<String> addBlockedContacts(String account, Collection<String> contacts) {
+        Set<String> blockedContacts = new HashSet<>(getBlockedContacts(account));
+        Collection<String> added = new ArrayList<>();
+        for (String contact : contacts) {
+            if (blockedContacts.add(contact)) {
+                added.add(contact);
+            }
+        }
+        if (!added.isEmpty()) {
+            setBlockedContacts(account, blockedContacts);
+        }
+        return added;
     }
 
-    private List<String> getBlockedListForAccount(String account) {
-        if (!blockListsForAccounts.containsKey(account)) {
-            blockListsForAccounts.put(account, new ArrayList<String>());
+    /**
+     * Removes contacts from the block list snapshot.
+     *
+     * @param contacts contacts to be unblocked. Empty collection means all
+     *                 contacts.
+     * @return Contacts that were blocked before.
+     */
+    private Collection<String> removeBlockedContacts(String account, Collection<String> contacts) {
+        Set<String> blockedContacts = new HashSet<>(getBlockedContacts(account));
+        Collection<String> removed;
+        if (contacts.isEmpty()) {
+            removed = new ArrayList<>(blockedContacts);
+            blockedContacts.clear();
+        } else {
+            removed = new ArrayList<>();
+            for (String contact : contacts) {
+                if (blockedContacts.remove(contact)) {
+                    removed.add(contact);
+                }
+            }
         }
-        return blockListsForAccounts.get(account);
+        if (!removed.isEmpty()) {
+            setBlockedContacts(account, blockedContacts);
+        }
+        return removed;
+    }
+
+    private void onBlockedListChanged(String account, Collection<String> changedContacts) {
+        for (OnBlockedListChangedListener onBlockedListChangedListener
+                : Application.getInstance().getUIListeners(OnBlockedListChangedListener.class)) {
+            onBlockedListChangedListener.onBlockedListChanged(account);
+        }
+
+        if (changedContacts == null) {
+            RosterManager.onAllContactsChanged();
+            return;
+        }
+        Collection<BaseEntity> entities = new ArrayList<>();
+        for (String contact : changedContacts) {
+            entities.add(new BaseEntity(account, contact));
+        }
+        RosterManager.onContactsChanged(entities);
     }
 
     public void requestBlockList(String account) {
@@ -108,16 +184,8 @@ public class BlockingManager implements OnAuthorizedListener, OnPacketListener {
                     }
 
                     if (iq.getType() == IQ.Type.result) {
-                        blockListsForAccounts.put(account, ((BlockList) iq).getItems());
-                        for (OnBlockedListChangedListener onBlockedListChangedListener
-                                : Application.getInstance().getUIListeners(OnBlockedListChangedListener.class)) {
-                            onBlockedListChangedListener.onBlockedListChanged(account);
-                        }
-
-                        for (OnContactChangedListener onContactChangedListener
-                                : Application.getInstance().getUIListeners(OnContactChangedListener.class)) {
-                            onContactChangedListener.onContactsChanged(new ArrayList<BaseEntity>());
-                        }
+                        setBlockedContacts(account, ((BlockList) iq).getItems());
+                        onBlockedListChanged(account, null);
                     }
                 }
 
@@ -146,16 +214,29 @@ public class BlockingManager implements OnAuthorizedListener, OnPacketListener {
     public void onPacket(ConnectionItem connection, String bareAddress, Stanza packet) {
         if (packet instanceof Block && ((Block) packet).getType() == IQ.Type.set) {
             LogManager.i(this, "Block push received");
-            Block block = (Block) packet;
-            for (String contact : block.getItems()) {
-                blockContactLocally(packet.getTo(), contact);
-            }
-            requestBlockList(packet.getTo());
+            onBlocked(packet.getTo(), ((Block) packet).getItems());
         }
 
         if (packet instanceof Unblock && ((Unblock) packet).getType() == IQ.Type.set) {
             LogManager.i(this, "Unblock push received");
-            requestBlockList(packet.getTo());
+            onUnblocked(packet.getTo(), ((Unblock) packet).getItems());
+        }
+    }
+
+    private void onBlocked(String account, Collection<String> contacts) {
+        Collection<String> added = addBlockedContacts(account, contacts);
+        for (String contact : added) {
+            blockContactLocally(account, contact);
+        }
+        if (!added.isEmpty()) {
+            onBlockedListChanged(account, added);
+        }
+    }
+
+    private void onUnblocked(String account, Collection<String> contacts) {
+        Collection<String> removed = removeBlockedContacts(account, contacts);
+        if (!removed.isEmpty()) {
+            onBlockedListChanged(account, removed);
         }
     }
 
@@ -179,7 +260,7 @@ public class BlockingManager implements OnAuthorizedListener, OnPacketListener {
                     }
 
                     if (iq.getType() == IQ.Type.result) {
-                        requestBlockList(account);
+                        onBlocked(account, Collections.singletonList(contactJid));
                         listener.onSuccess();
                     } else {
                         listener.onError();
@@ -233,7 +314,7 @@ public class BlockingManager implements OnAuthorizedListener, OnPacketListener {
     }
 
     public void unblockAll(String account, final UnblockContactListener listener) {
-        unblockContacts(account, blockListsForAccounts.get(account), listener);
+        unblockContacts(account, new ArrayList<>(getBlockedContacts(account)), listener);
     }
 
     private void sendUnblock(String account, final UnblockContactListener listener, final Unblock unblockRequest) {
@@ -247,7 +328,7 @@ public class BlockingManager implements OnAuthorizedListener, OnPacketListener {
                     }
 
                     if (iq.getType() == IQ.Type.result) {
-                        requestBlockList(account);
+                        onUnblocked(account, unblockRequest.getItems());
                         listener.onSuccess();
                     } else {
                         listener.onError();
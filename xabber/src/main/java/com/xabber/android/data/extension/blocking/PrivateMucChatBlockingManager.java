@@ -4,14 +4,15 @@ import com.xabber.android.data.Application;
 import com.xabber.android.data.entity.BaseEntity;
 import com.xabber.android.data.message.MessageManager;
 import com.xabber.android.data.notification.NotificationManager;
-import com.xabber.android.data.roster.OnContactChangedListener;
+import com.xabber.android.data.roster.RosterManager;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import io.realm.Realm;
@@ -27,6 +28,12 @@ public class PrivateMucChatBlockingManager {
     private final static PrivateMucChatBlockingManager instance;
 
     private Map<String, RealmList<BlockedContact>> blockListsForAccounts;
+
+    /**
+     * Immutable snapshots of block lists for accounts, replaced on each
+     * change.
+     */
+    private Map<String, Set<String>> blockedContactsForAccounts;
     private Realm realm;
 
     static {
@@ -40,27 +47,42 @@ public class PrivateMucChatBlockingManager {
 
     public PrivateMucChatBlockingManager() {
         blockListsForAccounts = new ConcurrentHashMap<>();
+        blockedContactsForAccounts = new ConcurrentHashMap<>();
         realm = Realm.getDefaultInstance();
         final RealmQuery<BlockedContactsForAccount> query = realm.where(BlockedContactsForAccount.class);
         final RealmResults<BlockedContactsForAccount> all = query.findAll();
         for (BlockedContactsForAccount blockedContactsForAccount : all) {
             blockListsForAccounts.put(blockedContactsForAccount.getAccount(), blockedContactsForAccount.getBlockedContacts());
+            updateBlockedContacts(blockedContactsForAccount.getAccount());
         }
     }
 
+    /**
+     * @param account
+     * @return Immutable snapshot of blocked contacts for the account.
+     */
     public Collection<String> getBlockedContacts(String account) {
-        return Collections.unmodifiableCollection(getBlockedListForAccount(account));
+        Set<String> blockedContacts = blockedContactsForAccounts.get(account);
+        if (blockedContacts == null) {
+            return Collections.emptySet();
+        }
+        return blockedContacts;
     }
 
-    private List<String> getBlockedListForAccount(String account) {
-        createListForAccountIfNotExists(account);
-
-        List<String> contacts = new ArrayList<>();
-        for (BlockedContact blockedContact : blockListsForAccounts.get(account)) {
+    /**
+     * Rebuilds snapshot from the stored block list.
+     */
+    private void updateBlockedContacts(String account) {
+        RealmList<BlockedContact> blockedContacts = blockListsForAccounts.get(account);
+        if (blockedContacts == null) {
+            blockedContactsForAccounts.remove(account);
+            return;
+        }
+        Set<String> contacts = new HashSet<>();
+        for (BlockedContact blockedContact : blockedContacts) {
             contacts.add(blockedContact.getFullJid());
         }
-
-        return contacts;
+        blockedContactsForAccounts.put(account, Collections.unmodifiableSet(contacts));
     }
 
     private void createListForAccountIfNotExists(String account) {
@@ -76,38 +98,37 @@ public class PrivateMucChatBlockingManager {
     public void blockContact(String account, String user) {
         createListForAccountIfNotExists(account);
 
-        realm.beginTransaction();
-        final BlockedContact blockedContact = realm.createObject(BlockedContact.class);
-        blockedContact.setFullJid(user);
-        blockListsForAccounts.get(account).add(blockedContact);
-        realm.commitTransaction();
+        if (!getBlockedContacts(account).contains(user)) {
+            realm.beginTransaction();
+            final BlockedContact blockedContact = realm.createObject(BlockedContact.class);
+            blockedContact.setFullJid(user);
+            blockListsForAccounts.get(account).add(blockedContact);
+            realm.commitTransaction();
+            updateBlockedContacts(account);
+        }
 
         MessageManager.getInstance().closeChat(account, user);
         NotificationManager.getInstance().removeMessageNotification(account, user);
 
-        notifyListeners(account);
+        notifyListeners(account, Collections.singletonList(user));
     }
 
-    private void notifyListeners(String account) {
+    private void notifyListeners(String account, Collection<String> changedContacts) {
+        Collection<BaseEntity> entities = new ArrayList<>();
+        for (String contact : changedContacts) {
+            entities.add(new BaseEntity(account, contact));
+        }
+
         for (OnBlockedListChangedListener onBlockedListChangedListener
                 : Application.getInstance().getUIListeners(OnBlockedListChangedListener.class)) {
             onBlockedListChangedListener.onBlockedListChanged(account);
         }
 
-        for (OnContactChangedListener onContactChangedListener
-                : Application.getInstance().getUIListeners(OnContactChangedListener.class)) {
-            onContactChangedListener.onContactsChanged(new ArrayList<BaseEntity>());
-        }
+        RosterManager.onContactsChanged(entities);
     }
 
     public Map<String, Collection<String>> getBlockedContacts() {
-        Map<String, Collection<String>> result = new HashMap<>();
-
-        for (String account : blockListsForAccounts.keySet()) {
-            result.put(account, getBlockedContacts(account));
-        }
-
-        return Collections.unmodifiableMap(result);
+        return Collections.<String, Collection<String>>unmodifiableMap(blockedContactsForAccounts);
     }
 
     public void unblockContacts(String account, final List<String> contacts) {
@@ -120,18 +141,21 @@ public class PrivateMucChatBlockingManager {
             }
 
             realm.commitTransaction();
+            updateBlockedContacts(account);
         }
 
-        notifyListeners(account);
+        notifyListeners(account, contacts);
     }
 
     public void unblockAll(String account) {
+        Collection<String> contacts = getBlockedContacts(account);
         if (blockListsForAccounts.containsKey(account)) {
             realm.beginTransaction();
             blockListsForAccounts.get(account).clear();
             realm.commitTransaction();
+            updateBlockedContacts(account);
         }
-        notifyListeners(account);
+        notifyListeners(account, contacts);
     }
 
 }
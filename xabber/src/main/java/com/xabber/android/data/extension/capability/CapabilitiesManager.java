@@ -17,9 +17,11 @@ package com.xabber.android.data.extension.capability;
 import android.database.Cursor;
 
 import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.LoadDependent;
 import com.xabber.android.data.LogManager;
 import com.xabber.android.data.NetworkException;
-import com.xabber.android.data.OnLoadListener;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.OnAccountRemovedListener;
 import com.xabber.android.data.connection.ConnectionItem;
@@ -27,6 +29,7 @@ import com.xabber.android.data.connection.ConnectionManager;
 import com.xabber.android.data.connection.OnAuthorizedListener;
 import com.xabber.android.data.connection.OnDisconnectListener;
 import com.xabber.android.data.connection.OnPacketListener;
+import com.xabber.android.data.connection.OnPacketProcessListener;
 import com.xabber.android.data.entity.BaseEntity;
 import com.xabber.android.data.entity.NestedMap;
 import com.xabber.android.data.roster.RosterManager;
@@ -63,7 +66,7 @@ import java.util.TreeSet;
  */
 public class CapabilitiesManager implements OnAuthorizedListener,
         OnDisconnectListener, OnAccountRemovedListener, OnPacketListener,
-        OnLoadListener {
+        OnPacketProcessListener, LoadDependent {
 
     private static final String FORM_TYPE = "FORM_TYPE";
 
@@ -102,6 +105,11 @@ public class CapabilitiesManager implements OnAuthorizedListener,
         clientInformations = new HashMap<Capability, ClientInfo>();
     }
 
+    @Override
+    public Class<?>[] getLoadDependencies() {
+        return new Class<?>[]{DatabaseManager.class};
+    }
+
     @Override
     public void onLoad() {
         Cursor cursor = CapabilitiesTable.getInstance().list();
@@ -455,78 +463,100 @@ public class CapabilitiesManager implements OnAuthorizedListener,
         }
     }
 
+    @Override
+    public Runnable onPacketProcess(ConnectionItem connection, String bareAddress, Stanza packet) {
+        if (!(connection instanceof AccountItem) || !(packet instanceof DiscoverInfo)
+                || ((DiscoverInfo) packet).getType() != Type.result)
+            return null;
+        final String account = ((AccountItem) connection).getAccount();
+        final DiscoverInfo discoverInfo = (DiscoverInfo) packet;
+        // Verification string and client information are prepared in
+        // background, so UI thread only checks the hash.
+        final String verification = isValid(discoverInfo) ? calculateString(discoverInfo) : null;
+        final ClientInfo clientInfo = getClientInfo(discoverInfo);
+        return new Runnable() {
+            @Override
+            public void run() {
+                onResponse(account, discoverInfo, verification, clientInfo);
+            }
+        };
+    }
+
     @Override
     public void onPacket(ConnectionItem connection, String bareAddress, Stanza packet) {
-        if (!(connection instanceof AccountItem))
+        if (!(connection instanceof AccountItem) || !(packet instanceof IQ)
+                || ((IQ) packet).getType() != Type.error)
             return;
-        final String account = ((AccountItem) connection).getAccount();
-        final String user = Jid.getStringPrep(packet.getFrom());
-        if (packet instanceof IQ) {
-            IQ iq = (IQ) packet;
-            if (iq.getType() != Type.error
-                    && !(packet instanceof DiscoverInfo && iq.getType() == Type.result))
-                return;
-            String packetId = iq.getStanzaId();
-            DiscoverInfoRequest request = null;
-            Iterator<DiscoverInfoRequest> iterator = requests.iterator();
-            while (iterator.hasNext()) {
-                DiscoverInfoRequest check = iterator.next();
-                if (check.getPacketId().equals(packetId)) {
-                    request = check;
-                    iterator.remove();
-                    break;
-                }
+        onResponse(((AccountItem) connection).getAccount(), (IQ) packet, null, INVALID_CLIENT_INFO);
+    }
+
+    /**
+     * Disco info response or error received.
+     *
+     * @param verification string to be hashed, <code>null</code> if result
+     *                     is not valid.
+     * @param received     client information from the result.
+     */
+    private void onResponse(final String account, IQ iq, String verification, ClientInfo received) {
+        final String user = Jid.getStringPrep(iq.getFrom());
+        String packetId = iq.getStanzaId();
+        DiscoverInfoRequest request = null;
+        Iterator<DiscoverInfoRequest> iterator = requests.iterator();
+        while (iterator.hasNext()) {
+            DiscoverInfoRequest check = iterator.next();
+            if (check.getPacketId().equals(packetId)) {
+                request = check;
+                iterator.remove();
+                break;
             }
-            if (request == null || !request.getUser().equals(user))
+        }
+        if (request == null || !request.getUser().equals(user))
+            return;
+        final Capability capability = request.getCapability();
+        final ClientInfo clientInfo;
+        if (iq.getType() == Type.error) {
+            if (!Capability.DIRECT_REQUEST_METHOD.equals(capability
+                    .getHash()))
+                // Don't save invalid replay if it wasn't direct request.
                 return;
-            final Capability capability = request.getCapability();
-            final ClientInfo clientInfo;
-            if (iq.getType() == Type.error) {
-                if (!Capability.DIRECT_REQUEST_METHOD.equals(capability
-                        .getHash()))
-                    // Don't save invalid replay if it wasn't direct request.
-                    return;
-                if (clientInformations.containsKey(capability))
-                    return;
-                clientInfo = INVALID_CLIENT_INFO;
-            } else if (iq.getType() == Type.result) {
-                DiscoverInfo discoverInfo = (DiscoverInfo) packet;
-                if (capability.isSupportedHash() || capability.isLegacy()) {
-                    if (capability.isLegacy()
-                            || (isValid(discoverInfo) && capability
-                            .getHashedValue(
-                                    calculateString(discoverInfo))
-                            .equals(capability.getVersion()))) {
-                        clientInfo = getClientInfo(discoverInfo);
-                        Application.getInstance().runInBackground(
-                                new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        CapabilitiesTable.getInstance().write(
-                                                capability.getHash(),
-                                                capability.getNode(),
-                                                capability.getVersion(),
-                                                clientInfo.getType(),
-                                                clientInfo.getName(),
-                                                clientInfo.getFeatures());
-                                    }
-                                });
-                    } else {
-                        // Just wait for next presence from another entity.
-                        return;
-                    }
+            if (clientInformations.containsKey(capability))
+                return;
+            clientInfo = INVALID_CLIENT_INFO;
+        } else if (iq.getType() == Type.result) {
+            if (capability.isSupportedHash() || capability.isLegacy()) {
+                if (capability.isLegacy()
+                        || (verification != null && capability
+                        .getHashedValue(verification)
+                        .equals(capability.getVersion()))) {
+                    clientInfo = received;
+                    Application.getInstance().runInBackground(BackgroundLane.database,
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    CapabilitiesTable.getInstance().write(
+                                            capability.getHash(),
+                                            capability.getNode(),
+                                            capability.getVersion(),
+                                            clientInfo.getType(),
+                                            clientInfo.getName(),
+                                            clientInfo.getFeatures());
+                                }
+                            });
                 } else {
-                    clientInfo = getClientInfo(discoverInfo);
+                    // Just wait for next presence from another entity.
+                    return;
                 }
-            } else
-                throw new IllegalStateException();
-            clientInformations.put(capability, clientInfo);
-            ArrayList<BaseEntity> entities = new ArrayList<>();
-            for (NestedMap.Entry<Capability> entry : userCapabilities)
-                if (capability.equals(entry.getValue()))
-                    entities.add(new BaseEntity(account, Jid
-                            .getBareAddress(entry.getSecond())));
-            RosterManager.getInstance().onContactsChanged(entities);
-        }
+            } else {
+                clientInfo = received;
+            }
+        } else
+            throw new IllegalStateException();
+        clientInformations.put(capability, clientInfo);
+        ArrayList<BaseEntity> entities = new ArrayList<>();
+        for (NestedMap.Entry<Capability> entry : userCapabilities)
+            if (capability.equals(entry.getValue()))
+                entities.add(new BaseEntity(account, Jid
+                        .getBareAddress(entry.getSecond())));
+        RosterManager.getInstance().onContactsChanged(entities);
     }
 }
@@ -28,7 +28,7 @@ import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.ConnectionManager;
 import com.xabber.android.data.connection.OnDisconnectListener;
-import com.xabber.android.data.connection.OnPacketListener;
+import com.xabber.android.data.connection.OnPacketProcessListener;
 import com.xabber.android.data.entity.NestedMap;
 import com.xabber.android.data.entity.NestedNestedMaps;
 import com.xabber.android.data.extension.muc.RoomChat;
@@ -59,7 +59,7 @@ import java.util.Map;
  * @author alexander.ivanov
  */
 public class ChatStateManager implements OnDisconnectListener,
-        OnPacketListener, OnCloseListener {
+        OnPacketProcessListener, OnCloseListener {
 
     private final static ChatStateManager instance;
 
@@ -298,60 +298,87 @@ public class ChatStateManager implements OnDisconnectListener,
     }
 
     @Override
-    public void onPacket(ConnectionItem connection, final String bareAddress, Stanza packet) {
+    public Runnable onPacketProcess(ConnectionItem connection, final String bareAddress,
+                                    Stanza packet) {
         if (!(connection instanceof AccountItem))
-            return;
+            return null;
         final String resource = Jid.getResource(packet.getFrom());
         if (resource == null)
-            return;
+            return null;
         final String account = ((AccountItem) connection).getAccount();
         if (packet instanceof Presence) {
             Presence presence = (Presence) packet;
             if (presence.getType() != Type.unavailable)
-                return;
-            chatStates.remove(account, bareAddress, resource);
-            removeCallback(account, bareAddress, resource);
-            supports.remove(account, bareAddress, resource);
+                return null;
+            return new Runnable() {
+                @Override
+                public void run() {
+                    chatStates.remove(account, bareAddress, resource);
+                    removeCallback(account, bareAddress, resource);
+                    supports.remove(account, bareAddress, resource);
+                }
+            };
         } else if (packet instanceof Message) {
-            boolean support = false;
+            ChatState received = null;
             for (ExtensionElement extension : packet.getExtensions())
                 if (extension instanceof ChatStateExtension) {
-                    removeCallback(account, bareAddress, resource);
-                    ChatState chatState = ((ChatStateExtension) extension).getChatState();
-                    chatStates.put(account, bareAddress, resource, chatState);
-                    if (chatState != ChatState.active) {
-                        Runnable runnable = new Runnable() {
-                            @Override
-                            public void run() {
-                                if (this != stateCleaners.get(account,
-                                        bareAddress, resource))
-                                    return;
-                                chatStates.remove(account, bareAddress,
-                                        resource);
-                                removeCallback(account, bareAddress, resource);
-                                RosterManager.getInstance().onContactChanged(
-                                        account, bareAddress);
-                            }
-                        };
-                        handler.postDelayed(runnable, REMOVE_STATE_DELAY);
-                        stateCleaners.put(account, bareAddress, resource,
-                                runnable);
-                    }
-                    RosterManager.getInstance().onContactChanged(account,
-                            bareAddress);
-                    support = true;
+                    received = ((ChatStateExtension) extension).getChatState();
                     break;
                 }
             Message message = (Message) packet;
-            if (message.getType() != Message.Type.chat
-                    && message.getType() != Message.Type.groupchat)
-                return;
-            if (support)
-                supports.put(account, bareAddress, resource, true);
-            else if (supports.get(account, bareAddress, resource) == null)
-                // Disable only if there no information about support.
-                supports.put(account, bareAddress, resource, false);
+            final boolean chat = message.getType() == Message.Type.chat
+                    || message.getType() == Message.Type.groupchat;
+            if (received == null && !chat)
+                return null;
+            final ChatState chatState = received;
+            return new Runnable() {
+                @Override
+                public void run() {
+                    onChatState(account, bareAddress, resource, chatState, chat);
+                }
+            };
         }
+        return null;
+    }
+
+    /**
+     * @param chatState received chat state or <code>null</code> if message
+     *                  has no chat state.
+     * @param chat      whether message was of chat or groupchat type.
+     */
+    private void onChatState(final String account, final String bareAddress,
+                             final String resource, ChatState chatState, boolean chat) {
+        if (chatState != null) {
+            removeCallback(account, bareAddress, resource);
+            chatStates.put(account, bareAddress, resource, chatState);
+            if (chatState != ChatState.active) {
+                Runnable runnable = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (this != stateCleaners.get(account,
+                                bareAddress, resource))
+                            return;
+                        chatStates.remove(account, bareAddress,
+                                resource);
+                        removeCallback(account, bareAddress, resource);
+                        RosterManager.getInstance().onContactChanged(
+                                account, bareAddress);
+                    }
+                };
+                handler.postDelayed(runnable, REMOVE_STATE_DELAY);
+                stateCleaners.put(account, bareAddress, resource,
+                        runnable);
+            }
+            RosterManager.getInstance().onContactChanged(account,
+                    bareAddress);
+        }
+        if (!chat)
+            return;
+        if (chatState != null)
+            supports.put(account, bareAddress, resource, true);
+        else if (supports.get(account, bareAddress, resource) == null)
+            // Disable only if there no information about support.
+            supports.put(account, bareAddress, resource, false);
     }
 
     @Override
@@ -6,6 +6,7 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
+import android.database.Cursor;
 import android.graphics.BitmapFactory;
 import android.media.ExifInterface;
 import android.net.Uri;
@@ -20,10 +21,15 @@ import android.widget.Toast;
 import com.bumptech.glide.Glide;
 import com.loopj.android.http.AsyncHttpClient;
 import com.loopj.android.http.AsyncHttpResponseHandler;
+import com.loopj.android.http.RangeFileAsyncHttpResponseHandler;
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.LoadDependent;
 import com.xabber.android.data.LogManager;
 import com.xabber.android.data.SettingsManager;
+import com.xabber.android.data.message.AbstractChat;
 import com.xabber.android.data.message.MessageItem;
 import com.xabber.android.data.message.MessageManager;
 
@@ -37,15 +43,22 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
 
 import cz.msebera.android.httpclient.Header;
 import cz.msebera.android.httpclient.HttpHeaders;
 
-public class FileManager {
+public class FileManager implements LoadDependent {
 
     public static final String[] VALID_IMAGE_EXTENSIONS = {"webp", "jpeg", "jpg", "png", "jpe", "gif"};
     public static final String[] VALID_CRYPTO_EXTENSIONS = {"pgp", "gpg", "otr"};
@@ -53,9 +66,72 @@ public class FileManager {
     private static final String CACHE_DIRECTORY = Environment.getExternalStorageDirectory().getAbsolutePath()
             + "/"  +  Application.getInstance().getString(R.string.application_title_short) + "/Cache/";
 
+    /**
+     * Suffix for file being downloaded.
+     */
+    private static final String PARTIAL_FILE_SUFFIX = ".part";
+
+    /**
+     * Maximum number of simultaneous downloads.
+     */
+    private static final int MAX_DOWNLOADS = 2;
+
+    /**
+     * Number of attempts to resume interrupted download.
+     */
+    private static final int DOWNLOAD_RETRIES = 3;
+
+    /**
+     * Delay in milliseconds before resuming interrupted download.
+     */
+    private static final int DOWNLOAD_RETRY_DELAY = 5000;
+
+    /**
+     * Maximum number of simultaneous metadata requests.
+     */
+    private static final int MAX_PROBES = 2;
+
+    /**
+     * Maximum number of URLs waiting for metadata request. The oldest ones
+     * are dropped first and will be requested again when displayed.
+     */
+    private static final int MAX_QUEUED_PROBES = 32;
+
+    /**
+     * Time in milliseconds metadata is considered to be actual.
+     */
+    private static final long METADATA_EXPIRATION = 7L * 24 * 60 * 60 * 1000;
 
     private Set<String> startedDownloads;
 
+    /**
+     * Known metadata for URLs.
+     */
+    private final Map<String, Metadata> metadata;
+
+    /**
+     * Messages waiting for metadata for URLs in queue or being requested.
+     */
+    private final Map<String, List<MessageItem>> pendingProbes;
+
+    /**
+     * URLs waiting for metadata request.
+     */
+    private final Deque<String> probeQueue;
+
+    /**
+     * Number of metadata requests in progress.
+     */
+    private int activeProbes;
+
+    private final AsyncHttpClient probeClient;
+
+    /**
+     * Client used for downloads. Its thread pool limits number of simultaneous
+     * downloads, other ones wait in queue.
+     */
+    private final AsyncHttpClient downloadClient;
+
     private final static FileManager instance;
 
     static {
@@ -69,6 +145,50 @@ public class FileManager {
 
     public FileManager() {
         this.startedDownloads = new ConcurrentSkipListSet<>();
+        downloadClient = new AsyncHttpClient();
+        downloadClient.setThreadPool(Executors.newFixedThreadPool(MAX_DOWNLOADS));
+        downloadClient.setResponseTimeout(60 * 1000);
+        // Range is computed once per request, so interrupted downloads are
+        // resumed with new requests instead of client retries.
+        downloadClient.setMaxRetriesAndTimeout(0, DOWNLOAD_RETRY_DELAY);
+        metadata = new HashMap<>();
+        pendingProbes = new HashMap<>();
+        probeQueue = new ArrayDeque<>();
+        activeProbes = 0;
+        probeClient = new AsyncHttpClient();
+    }
+
+    @Override
+    public Class<?>[] getLoadDependencies() {
+        return new Class<?>[]{DatabaseManager.class};
+    }
+
+    @Override
+    public void onLoad() {
+        final Map<String, Metadata> metadata = new HashMap<>();
+        Cursor cursor = FileMetadataTable.getInstance().list();
+        try {
+            if (cursor.moveToFirst()) {
+                do {
+                    metadata.put(FileMetadataTable.getUrl(cursor),
+                            new Metadata(FileMetadataTable.getSize(cursor),
+                                    FileMetadataTable.getContentType(cursor),
+                                    FileMetadataTable.getChecked(cursor)));
+                } while (cursor.moveToNext());
+            }
+        } finally {
+            cursor.close();
+        }
+        Application.getInstance().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                onLoaded(metadata);
+            }
+        });
+    }
+
+    private void onLoaded(Map<String, Metadata> metadata) {
+        this.metadata.putAll(metadata);
     }
 
     public static void processFileMessage (final MessageItem messageItem, boolean download) {
@@ -93,11 +213,14 @@ public class FileManager {
             messageItem.setFile(file);
         }
 
+        Metadata metadata = getInstance().metadata.get(messageItem.getText());
+        if (metadata != null && messageItem.getFileSize() == null) {
+            messageItem.setFileSize(metadata.getSize());
+        }
+
         if (!file.exists()) {
             if (download && SettingsManager.connectionLoadImages() && FileManager.fileIsImage(messageItem.getFile())) {
                 FileManager.getInstance().downloadFile(messageItem, null);
-            } else {
-                getFileUrlSize(messageItem);
             }
         }
     }
@@ -107,29 +230,117 @@ public class FileManager {
         return CACHE_DIRECTORY + url.getHost() + "/" + url.getPath();
     }
 
-    private static void getFileUrlSize(final MessageItem messageItem) {
-        LogManager.i(FileManager.class, "Requesting file size");
+    /**
+     * Requests file size for displayed message if it is unknown.
+     * <p/>
+     * Requests for the same URL are merged. Cached metadata is used while it
+     * is actual.
+     *
+     * @param messageItem
+     */
+    public void requestFileSize(MessageItem messageItem) {
+        final String url = messageItem.getText();
+        Metadata known = metadata.get(url);
+        if (known != null && System.currentTimeMillis() - known.getChecked() < METADATA_EXPIRATION) {
+            if (messageItem.getFileSize() == null && known.getSize() != null) {
+                messageItem.setFileSize(known.getSize());
+                MessageManager.getInstance().onChatChanged(messageItem.getChat().getAccount(),
+                        messageItem.getChat().getUser(), false);
+            }
+            return;
+        }
+        List<MessageItem> messageItems = pendingProbes.get(url);
+        if (messageItems != null) {
+            if (!messageItems.contains(messageItem)) {
+                messageItems.add(messageItem);
+            }
+            return;
+        }
+        messageItems = new ArrayList<>();
+        messageItems.add(messageItem);
+        pendingProbes.put(url, messageItems);
+        probeQueue.addLast(url);
+        if (probeQueue.size() > MAX_QUEUED_PROBES) {
+            pendingProbes.remove(probeQueue.removeFirst());
+        }
+        startProbes();
+    }
 
-        AsyncHttpClient client = new AsyncHttpClient();
-        client.head(messageItem.getText(), new AsyncHttpResponseHandler() {
+    private void startProbes() {
+        while (activeProbes < MAX_PROBES && !probeQueue.isEmpty()) {
+            probe(probeQueue.removeLast());
+        }
+    }
+
+    private void probe(final String url) {
+        LogManager.i(FileManager.class, "Requesting file size " + url);
+        activeProbes++;
+        probeClient.head(url, new AsyncHttpResponseHandler() {
             @Override
             public void onSuccess(int statusCode, Header[] headers, byte[] responseBody) {
+                Long size = null;
+                String contentType = null;
                 for (Header header : headers) {
-                    if (header.getName().equals(HttpHeaders.CONTENT_LENGTH)) {
-                        messageItem.setFileSize(Long.parseLong(header.getValue()));
-                        MessageManager.getInstance().onChatChanged(messageItem.getChat().getAccount(), messageItem.getChat().getUser(), false);
-                        break;
+                    if (header.getName().equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH)) {
+                        try {
+                            size = Long.parseLong(header.getValue());
+                        } catch (NumberFormatException e) {
+                            LogManager.exception(FileManager.class, e);
+                        }
+                    } else if (header.getName().equalsIgnoreCase(HttpHeaders.CONTENT_TYPE)) {
+                        contentType = header.getValue();
                     }
                 }
+                onProbed(url, new Metadata(size, contentType, System.currentTimeMillis()));
             }
 
             @Override
             public void onFailure(int statusCode, Header[] headers, byte[] responseBody, Throwable error) {
+                LogManager.i(FileManager.class, "Requesting file size failed: " + statusCode);
+                if (statusCode != 0) {
+                    onProbed(url, new Metadata(null, null, System.currentTimeMillis()));
+                } else {
+                    pendingProbes.remove(url);
+                }
+            }
 
+            @Override
+            public void onFinish() {
+                super.onFinish();
+                activeProbes--;
+                startProbes();
             }
         });
     }
 
+    /**
+     * Stores received metadata and updates waiting messages.
+     *
+     * @param url
+     * @param received
+     */
+    private void onProbed(final String url, final Metadata received) {
+        metadata.put(url, received);
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
+            @Override
+            public void run() {
+                FileMetadataTable.getInstance().write(url, received.getSize(),
+                        received.getContentType(), received.getChecked());
+            }
+        });
+        List<MessageItem> messageItems = pendingProbes.remove(url);
+        if (messageItems == null || received.getSize() == null) {
+            return;
+        }
+        Set<AbstractChat> chats = new HashSet<>();
+        for (MessageItem messageItem : messageItems) {
+            messageItem.setFileSize(received.getSize());
+            chats.add(messageItem.getChat());
+        }
+        for (AbstractChat chat : chats) {
+            MessageManager.getInstance().onChatChanged(chat.getAccount(), chat.getUser(), false);
+        }
+    }
 
     public interface ProgressListener {
         void onProgress(long bytesWritten, long totalSize);
@@ -137,20 +348,53 @@ public class FileManager {
     }
 
 
+    /**
+     * Downloads file to the message's file.
+     * <p/>
+     * Response is written to the temporary file in the same directory while
+     * being received. Temporary file is kept if download was interrupted and
+     * next download of the same file continues from its end using HTTP Range
+     * request.
+     *
+     * @param messageItem
+     * @param progressListener can be <code>null</code>.
+     */
     public void downloadFile(final MessageItem messageItem, final ProgressListener progressListener) {
         final String downloadUrl = messageItem.getText();
         if (startedDownloads.contains(downloadUrl)) {
             LogManager.i(FileManager.class, "Downloading of file " + downloadUrl + " already started");
             return;
         }
-        LogManager.i(FileManager.class, "Downloading file " + downloadUrl);
+        final File file = messageItem.getFile();
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LogManager.i(FileManager.class, "Can't create directory " + directory.getPath());
+            return;
+        }
         startedDownloads.add(downloadUrl);
+        downloadClient.setLoggingEnabled(SettingsManager.debugLog());
+        download(downloadUrl, file, progressListener, 0);
+    }
 
-        final AsyncHttpClient client = new AsyncHttpClient();
-        client.setLoggingEnabled(SettingsManager.debugLog());
-        client.setResponseTimeout(60 * 1000);
+    /**
+     * Requests the rest of the file. Each attempt uses new handler, so Range
+     * header is computed from the current length of the temporary file.
+     *
+     * @param downloadUrl
+     * @param file
+     * @param progressListener can be <code>null</code>.
+     * @param attempt          number of already failed attempts.
+     */
+    private void download(final String downloadUrl, final File file,
+                          final ProgressListener progressListener, final int attempt) {
+        final File partialFile = new File(file.getPath() + PARTIAL_FILE_SUFFIX);
+        LogManager.i(FileManager.class, "Downloading file " + downloadUrl
+                + (partialFile.exists() ? " from " + partialFile.length() : ""));
+
+        downloadClient.get(downloadUrl, new RangeFileAsyncHttpResponseHandler(partialFile) {
+
+            private boolean resumed = false;
 
-        client.get(downloadUrl, new AsyncHttpResponseHandler() {
             @Override
             public void onStart() {
                 super.onStart();
@@ -158,15 +402,26 @@ public class FileManager {
             }
 
             @Override
-            public void onSuccess(int statusCode, Header[] headers, final byte[] responseBody) {
+            public void onSuccess(int statusCode, Header[] headers, File response) {
                 LogManager.i(FileManager.class, "on download onSuccess: " + statusCode);
-                saveFile(responseBody, messageItem.getFile(), progressListener);
+                completeFile(partialFile, file, progressListener);
             }
 
             @Override
-            public void onFailure(int statusCode, Header[] headers, byte[] responseBody, Throwable error) {
+            public void onFailure(int statusCode, Header[] headers, Throwable throwable, File response) {
                 LogManager.i(FileManager.class, "on download onFailure: " + statusCode);
-
+                if (statusCode != 0) {
+                    // Server error, partial content can't be resumed.
+                    partialFile.delete();
+                } else if (attempt < DOWNLOAD_RETRIES) {
+                    resumed = true;
+                    Application.getInstance().runOnUiThreadDelay(new Runnable() {
+                        @Override
+                        public void run() {
+                            download(downloadUrl, file, progressListener, attempt + 1);
+                        }
+                    }, DOWNLOAD_RETRY_DELAY);
+                }
             }
 
             @Override
@@ -179,33 +434,33 @@ public class FileManager {
             @Override
             public void onFinish() {
                 super.onFinish();
-                startedDownloads.remove(downloadUrl);
+                if (!resumed) {
+                    startedDownloads.remove(downloadUrl);
+                }
             }
         });
     }
 
-    private static void saveFile(final byte[] responseBody, final File file, final ProgressListener progressListener) {
+    /**
+     * Moves downloaded file to its destination.
+     */
+    private static void completeFile(final File partialFile, final File file, final ProgressListener progressListener) {
         LogManager.i(FileManager.class, "Saving file " + file.getPath());
 
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.io, new Runnable() {
             @Override
             public void run() {
-                new File(file.getParent()).mkdirs();
-                try {
-                    BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(file));
-                    bos.write(responseBody);
-                    bos.flush();
-                    bos.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    file.delete();
+                if (!partialFile.renameTo(file)) {
+                    LogManager.i(FileManager.class, "Can't save file " + file.getPath());
+                    partialFile.delete();
                 }
+                final long length = file.length();
 
                 Application.getInstance().runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
                         if (progressListener != null) {
-                            progressListener.onFinish(responseBody.length);
+                            progressListener.onFinish(length);
                         }
                     }
                 });
@@ -304,7 +559,7 @@ public class FileManager {
         return extractRelevantExtension(path);
     }
 
-    private static String extractRelevantExtension(String path) {
+    public static String extractRelevantExtension(String path) {
         if (path == null || path.isEmpty()) {
             return null;
         }
@@ -324,6 +579,40 @@ public class FileManager {
         return null;
     }
 
+    /**
+     * Metadata of the file available by URL.
+     */
+    private static class Metadata {
+
+        private final Long size;
+
+        private final String contentType;
+
+        /**
+         * Time when metadata was requested.
+         */
+        private final long checked;
+
+        public Metadata(Long size, String contentType, long checked) {
+            this.size = size;
+            this.contentType = contentType;
+            this.checked = checked;
+        }
+
+        public Long getSize() {
+            return size;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public long getChecked() {
+            return checked;
+        }
+
+    }
+
     private static class ImageScaler {
         private Context context;
         private int height;
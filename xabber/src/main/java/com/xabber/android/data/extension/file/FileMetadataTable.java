@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.extension.file;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+
+import com.xabber.android.data.AbstractTable;
+import com.xabber.android.data.DatabaseManager;
+
+/**
+ * Storage with metadata of the files available by URL.
+ */
+class FileMetadataTable extends AbstractTable {
+
+    private static final class Fields implements BaseColumns {
+        private Fields() {
+        }
+
+        public static final String URL = "url";
+        public static final String SIZE = "size";
+        public static final String CONTENT_TYPE = "content_type";
+        public static final String CHECKED = "checked";
+    }
+
+    private static final String NAME = "file_metadata";
+    private static final String[] PROJECTION = new String[]{Fields.URL,
+            Fields.SIZE, Fields.CONTENT_TYPE, Fields.CHECKED,};
+
+    private final DatabaseManager databaseManager;
+    private SQLiteStatement writeStatement;
+    private final Object writeLock;
+
+    private final static FileMetadataTable instance;
+
+    static {
+        instance = new FileMetadataTable(DatabaseManager.getInstance());
+        DatabaseManager.getInstance().addTable(instance);
+    }
+
+    public static FileMetadataTable getInstance() {
+        return instance;
+    }
+
+    private FileMetadataTable(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+        writeStatement = null;
+        writeLock = new Object();
+    }
+
+    @Override
+    public void create(SQLiteDatabase db) {
+        String sql = "CREATE TABLE " + NAME + " (" + Fields.URL
+                + " TEXT PRIMARY KEY," + Fields.SIZE + " INTEGER,"
+                + Fields.CONTENT_TYPE + " TEXT," + Fields.CHECKED + " INTEGER);";
+        DatabaseManager.execSQL(db, sql);
+    }
+
+    @Override
+    public void migrate(SQLiteDatabase db, int toVersion) {
+        super.migrate(db, toVersion);
+        switch (toVersion) {
+            case 69:
+                String sql = "CREATE TABLE file_metadata (url TEXT PRIMARY KEY,"
+                        + "size INTEGER," + "content_type TEXT," + "checked INTEGER);";
+                DatabaseManager.execSQL(db, sql);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Saves metadata for the URL.
+     *
+     * @param url
+     * @param size        can be <code>null</code>.
+     * @param contentType can be <code>null</code>.
+     * @param checked     time when metadata was requested.
+     */
+    void write(String url, Long size, String contentType, long checked) {
+        synchronized (writeLock) {
+            if (writeStatement == null) {
+                SQLiteDatabase db = databaseManager.getWritableDatabase();
+                writeStatement = db.compileStatement("INSERT OR REPLACE INTO "
+                        + NAME + " (" + Fields.URL + ", " + Fields.SIZE + ", "
+                        + Fields.CONTENT_TYPE + ", " + Fields.CHECKED
+                        + ") VALUES (?, ?, ?, ?);");
+            }
+            writeStatement.bindString(1, url);
+            if (size == null)
+                writeStatement.bindNull(2);
+            else
+                writeStatement.bindLong(2, size);
+            if (contentType == null)
+                writeStatement.bindNull(3);
+            else
+                writeStatement.bindString(3, contentType);
+            writeStatement.bindLong(4, checked);
+            writeStatement.execute();
+        }
+    }
+
+    @Override
+    protected String getTableName() {
+        return NAME;
+    }
+
+    @Override
+    protected String[] getProjection() {
+        return PROJECTION;
+    }
+
+    static String getUrl(Cursor cursor) {
+        return cursor.getString(cursor.getColumnIndex(Fields.URL));
+    }
+
+    static Long getSize(Cursor cursor) {
+        int index = cursor.getColumnIndex(Fields.SIZE);
+        if (cursor.isNull(index))
+            return null;
+        return cursor.getLong(index);
+    }
+
+    static String getContentType(Cursor cursor) {
+        return cursor.getString(cursor.getColumnIndex(Fields.CONTENT_TYPE));
+    }
+
+    static long getChecked(Cursor cursor) {
+        return cursor.getLong(cursor.getColumnIndex(Fields.CHECKED));
+    }
+
+}
@@ -1,14 +1,21 @@
 package com.xabber.android.data.extension.httpfileupload;
 
 
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.SystemClock;
+
 import com.loopj.android.http.AsyncHttpClient;
 import com.loopj.android.http.AsyncHttpResponseHandler;
 import com.loopj.android.http.RequestParams;
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
 import com.xabber.android.data.LogManager;
 import com.xabber.android.data.NetworkException;
 import com.xabber.android.data.SettingsManager;
+import com.xabber.android.data.TaskPriority;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.ConnectionManager;
 import com.xabber.android.data.connection.OnAuthorizedListener;
@@ -25,17 +32,23 @@ import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 
 import cz.msebera.android.httpclient.Header;
 import cz.msebera.android.httpclient.entity.ContentType;
-import cz.msebera.android.httpclient.entity.FileEntity;
 
 public class HttpFileUploadManager implements OnAuthorizedListener {
 
@@ -43,6 +56,20 @@ public class HttpFileUploadManager implements OnAuthorizedListener {
 
     private static final String CONTENT_TYPE = RequestParams.APPLICATION_OCTET_STREAM;
 
+    /**
+     * Maximum number of simultaneous uploads for the account.
+     */
+    private static final int MAX_UPLOADS_PER_ACCOUNT = 2;
+
+    /**
+     * Maximum width / height of downsampled image.
+     */
+    private static final int MAX_IMAGE_SIZE = 2048;
+
+    private static final int IMAGE_QUALITY = 85;
+
+    private static final String[] DOWNSAMPLED_EXTENSIONS = {"jpeg", "jpg", "jpe"};
+
     static {
         instance = new HttpFileUploadManager();
         Application.getInstance().addManager(instance);
@@ -54,122 +81,361 @@ public class HttpFileUploadManager implements OnAuthorizedListener {
 
     private Map<String, String> uploadServers = new ConcurrentHashMap<>();
 
+    /**
+     * Uploads waiting for start for accounts.
+     */
+    private final Map<String, Queue<Upload>> queuedUploads;
+
+    /**
+     * Number of started uploads for accounts.
+     */
+    private final Map<String, Integer> activeUploads;
+
+    /**
+     * Queued and started uploads for file messages.
+     */
+    private final Map<MessageItem, Upload> uploads;
+
+    /**
+     * Client shared by all uploads, so connections to the same server are
+     * reused.
+     */
+    private final AsyncHttpClient client;
+
+    private HttpFileUploadManager() {
+        queuedUploads = new HashMap<>();
+        activeUploads = new HashMap<>();
+        uploads = new HashMap<>();
+        client = new AsyncHttpClient();
+        client.setResponseTimeout(60 * 1000);
+    }
+
     public boolean isFileUploadSupported(String account) {
         return uploadServers.containsKey(account);
     }
 
+    /**
+     * Adds file to the upload queue of the account.
+     *
+     * @param account
+     * @param user
+     * @param filePath
+     */
     public void uploadFile(final String account, final String user, final String filePath) {
-        final String uploadServerUrl = uploadServers.get(account);
-        if (uploadServerUrl == null) {
+        if (!uploadServers.containsKey(account)) {
             return;
         }
 
         final File file = new File(filePath);
+        Upload upload = new Upload(account, user, file,
+                MessageManager.getInstance().createFileMessage(account, user, file));
+        uploads.put(upload.getFileMessage(), upload);
+        Queue<Upload> queue = queuedUploads.get(account);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            queuedUploads.put(account, queue);
+        }
+        queue.add(upload);
+        startUploads(account);
+    }
 
-        final Request httpFileUpload = new Request();
-        httpFileUpload.setFilename(file.getName());
-        httpFileUpload.setSize(String.valueOf(file.length()));
-        httpFileUpload.setTo(uploadServerUrl);
+    /**
+     * @param fileMessage
+     * @return Number of sent bytes or <code>-1</code> if message isn't being
+     * uploaded.
+     */
+    public long getSentSize(MessageItem fileMessage) {
+        Upload upload = uploads.get(fileMessage);
+        if (upload == null || !upload.isStarted()) {
+            return -1;
+        }
+        return upload.getSent();
+    }
 
+    /**
+     * @param fileMessage
+     * @return Number of bytes to be sent or <code>-1</code> if message isn't
+     * being uploaded.
+     */
+    public long getTotalSize(MessageItem fileMessage) {
+        Upload upload = uploads.get(fileMessage);
+        if (upload == null || !upload.isStarted()) {
+            return -1;
+        }
+        return upload.getTotal();
+    }
 
-        try {
-            ConnectionManager.getInstance().sendRequest(account, httpFileUpload, new OnResponseListener() {
-                @Override
-                public void onReceived(final String account, String packetId, IQ iq) {
-                    if (!httpFileUpload.getStanzaId().equals(packetId) || !(iq instanceof Slot)) {
-                        return;
-                    }
+    /**
+     * @param fileMessage
+     * @return Average speed of the upload in bytes per second or
+     * <code>-1</code> if message isn't being uploaded.
+     */
+    public long getThroughput(MessageItem fileMessage) {
+        Upload upload = uploads.get(fileMessage);
+        if (upload == null || !upload.isStarted()) {
+            return -1;
+        }
+        long elapsed = SystemClock.elapsedRealtime() - upload.getStarted();
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return upload.getSent() * 1000 / elapsed;
+    }
 
-                    uploadFileToSlot(account, (Slot) iq);
-                }
+    private void startUploads(String account) {
+        Queue<Upload> queue = queuedUploads.get(account);
+        if (queue == null) {
+            return;
+        }
+        while (!queue.isEmpty() && getActiveUploads(account) < MAX_UPLOADS_PER_ACCOUNT) {
+            activeUploads.put(account, getActiveUploads(account) + 1);
+            prepare(queue.remove());
+        }
+        if (queue.isEmpty()) {
+            queuedUploads.remove(account);
+        }
+    }
 
+    private int getActiveUploads(String account) {
+        Integer count = activeUploads.get(account);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Downsamples image if needed and requests slot.
+     */
+    private void prepare(final Upload upload) {
+        if (!SettingsManager.connectionDownsampleImages()
+                || !Arrays.asList(DOWNSAMPLED_EXTENSIONS).contains(
+                FileManager.extractRelevantExtension(upload.getFile().getPath()))) {
+            requestSlot(upload);
+            return;
+        }
+        Application.getInstance().runInBackground(BackgroundLane.decode, TaskPriority.high, new Runnable() {
+            @Override
+            public void run() {
+                final File downsampled = downsample(upload.getFile());
+                Application.getInstance().runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        upload.setDownsampled(downsampled);
+                        requestSlot(upload);
+                    }
+                });
+            }
+        });
+    }
 
-                private void uploadFileToSlot(final String account, final Slot slot) {
-                    AsyncHttpClient client = new AsyncHttpClient();
-                    client.setLoggingEnabled(SettingsManager.debugLog());
-                    client.setResponseTimeout(60 * 1000);
+    /**
+     * Writes reduced copy of the image.
+     * <p/>
+     * CALL THIS METHOD FROM BACKGROUND THREAD ONLY.
+     *
+     * @param file
+     * @return Temporary file or <code>null</code> if image is small enough,
+     * needs rotation or can't be reduced.
+     */
+    private static File downsample(File file) {
+        Uri uri = Uri.fromFile(file);
+        if (!FileManager.isImageSizeGreater(uri, MAX_IMAGE_SIZE) || FileManager.isImageNeedRotation(uri)) {
+            return null;
+        }
 
-                    FileEntity fileEntity = new FileEntity(file, ContentType.DEFAULT_BINARY);
+        BitmapFactory.Options sizeOptions = new BitmapFactory.Options();
+        sizeOptions.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), sizeOptions);
+        int scale = 1;
+        while (sizeOptions.outWidth / scale > MAX_IMAGE_SIZE || sizeOptions.outHeight / scale > MAX_IMAGE_SIZE) {
+            scale *= 2;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = scale;
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null) {
+            return null;
+        }
 
+        File downsampled = null;
+        OutputStream outputStream = null;
+        try {
+            downsampled = FileManager.createTempImageFile(file.getName());
+            outputStream = new BufferedOutputStream(new FileOutputStream(downsampled));
+            bitmap.compress(Bitmap.CompressFormat.JPEG, IMAGE_QUALITY, outputStream);
+        } catch (IOException e) {
+            LogManager.exception(HttpFileUploadManager.class, e);
+            if (downsampled != null) {
+                downsampled.delete();
+            }
+            return null;
+        } finally {
+            bitmap.recycle();
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    LogManager.exception(HttpFileUploadManager.class, e);
+                }
+            }
+        }
+        if (downsampled.length() >= file.length()) {
+            downsampled.delete();
+            return null;
+        }
+        return downsampled;
+    }
 
-                    LogManager.i(this, "fileEntity.getContentLength() " + fileEntity.getContentLength());
+    private void requestSlot(final Upload upload) {
+        final String uploadServerUrl = uploadServers.get(upload.getAccount());
+        if (uploadServerUrl == null) {
+            fail(upload);
+            return;
+        }
 
-                    client.put(Application.getInstance(), slot.getPutUrl(), fileEntity, CONTENT_TYPE, new AsyncHttpResponseHandler() {
+        final Request httpFileUpload = new Request();
+        httpFileUpload.setFilename(upload.getFile().getName());
+        httpFileUpload.setSize(String.valueOf(upload.getUploadFile().length()));
+        httpFileUpload.setTo(uploadServerUrl);
 
-                        MessageItem fileMessage;
+        try {
+            ConnectionManager.getInstance().sendRequest(upload.getAccount(), httpFileUpload, new OnResponseListener() {
+                @Override
+                public void onReceived(final String account, String packetId, IQ iq) {
+                    if (!httpFileUpload.getStanzaId().equals(packetId)) {
+                        return;
+                    }
+                    if (!(iq instanceof Slot)) {
+                        onError(account, packetId, iq);
+                        return;
+                    }
 
-                        @Override
-                        public void onStart() {
-                            super.onStart();
-                            LogManager.i(this, "uploadFileToSlot onStart");
+                    uploadFileToSlot(upload, (Slot) iq);
+                }
 
-                            fileMessage = MessageManager.getInstance().createFileMessage(account, user, file);
-                        }
+                @Override
+                public void onError(String account, String packetId, IQ iq) {
+                    LogManager.i(this, "On HTTP file upload slot error");
+                    Application.getInstance().onError(R.string.http_file_upload_slot_error);
+                    fail(upload);
+                }
 
-                        @Override
-                        public void onSuccess(int i, Header[] headers, byte[] bytes) {
-                            LogManager.i(this, "uploadFileToSlot onSuccess " + i);
-                            MessageManager.getInstance().replaceMessage(account, user, fileMessage, slot.getGetUrl());
+                @Override
+                public void onTimeout(String account, String packetId) {
+                    fail(upload);
+                }
 
-                            if (FileManager.fileIsImage(file)) {
-                                saveImageToCache(slot.getGetUrl(), file);
-                            }
-                        }
+                @Override
+                public void onDisconnect(String account, String packetId) {
+                    fail(upload);
+                }
+            });
+        } catch (NetworkException e) {
+            LogManager.exception(this, e);
+            fail(upload);
+        }
+    }
 
-                        @Override
-                        public void onFailure(int i, Header[] headers, byte[] bytes, Throwable throwable) {
-                            LogManager.i(this, "uploadFileToSlot onFailure " + i);
+    private void uploadFileToSlot(final Upload upload, final Slot slot) {
+        final String account = upload.getAccount();
+        final String user = upload.getUser();
+        client.setLoggingEnabled(SettingsManager.debugLog());
 
-                            MessageManager.getInstance().updateMessageWithError(account, user, fileMessage, file.getName());
+        AsyncHttpResponseHandler responseHandler = new AsyncHttpResponseHandler() {
+            @Override
+            public void onStart() {
+                super.onStart();
+                LogManager.i(this, "uploadFileToSlot onStart");
+                upload.onStart();
+            }
 
-                        }
+            @Override
+            public void onProgress(long bytesWritten, long totalSize) {
+                upload.setSent(bytesWritten);
+                MessageManager.getInstance().onChatChanged(account, user, false);
+            }
 
-                        @Override
-                        public void onRetry(int retryNo) {
-                            super.onRetry(retryNo);
-                            LogManager.i(this, "uploadFileToSlot onRetry " + retryNo);
-                        }
+            @Override
+            public void onSuccess(int i, Header[] headers, byte[] bytes) {
+                LogManager.i(this, "uploadFileToSlot onSuccess " + i);
+                MessageManager.getInstance().replaceMessage(account, user, upload.getFileMessage(), slot.getGetUrl());
 
-                        @Override
-                        public void onCancel() {
-                            super.onCancel();
+                if (FileManager.fileIsImage(upload.getFile())) {
+                    saveImageToCache(slot.getGetUrl(), upload.getUploadFile(), upload.getDownsampled() != null);
+                    upload.setDownsampled(null);
+                }
+            }
 
-                            LogManager.i(this, "uploadFileToSlot onCancel");
+            @Override
+            public void onFailure(int i, Header[] headers, byte[] bytes, Throwable throwable) {
+                LogManager.i(this, "uploadFileToSlot onFailure " + i);
+                fail(upload);
+            }
 
-                        }
+            @Override
+            public void onRetry(int retryNo) {
+                super.onRetry(retryNo);
+                LogManager.i(this, "uploadFileToSlot onRetry " + retryNo);
+            }
 
-                        @Override
-                        public void onFinish() {
-                            super.onFinish();
-                            LogManager.i(this, "uploadFileToSlot onFinish");
-                        }
+            @Override
+            public void onCancel() {
+                super.onCancel();
 
+                LogManager.i(this, "uploadFileToSlot onCancel");
 
-                    });
-                }
+            }
 
-                @Override
-                public void onError(String account, String packetId, IQ iq) {
-                    LogManager.i(this, "On HTTP file upload slot error");
-                    Application.getInstance().onError(R.string.http_file_upload_slot_error);
-                }
+            @Override
+            public void onFinish() {
+                super.onFinish();
+                LogManager.i(this, "uploadFileToSlot onFinish");
+                finish(upload);
+            }
+        };
 
-                @Override
-                public void onTimeout(String account, String packetId) {
+        UploadEntity uploadEntity = new UploadEntity(upload.getUploadFile(), ContentType.DEFAULT_BINARY, responseHandler);
+        LogManager.i(this, "uploadEntity.getContentLength() " + uploadEntity.getContentLength());
+        client.put(Application.getInstance(), slot.getPutUrl(), uploadEntity, CONTENT_TYPE, responseHandler);
+    }
 
-                }
+    /**
+     * Marks file message as failed and finishes upload.
+     */
+    private void fail(Upload upload) {
+        if (!uploads.containsKey(upload.getFileMessage())) {
+            return;
+        }
+        MessageManager.getInstance().updateMessageWithError(upload.getAccount(), upload.getUser(),
+                upload.getFileMessage(), upload.getFile().getName());
+        finish(upload);
+    }
 
+    /**
+     * Releases upload's resources and starts next queued upload.
+     */
+    private void finish(Upload upload) {
+        if (uploads.remove(upload.getFileMessage()) == null) {
+            return;
+        }
+        final File downsampled = upload.getDownsampled();
+        if (downsampled != null) {
+            Application.getInstance().runInBackground(BackgroundLane.io, new Runnable() {
                 @Override
-                public void onDisconnect(String account, String packetId) {
-
+                public void run() {
+                    downsampled.delete();
                 }
             });
-        } catch (NetworkException e) {
-            e.printStackTrace();
         }
+        String account = upload.getAccount();
+        int count = getActiveUploads(account) - 1;
+        if (count > 0) {
+            activeUploads.put(account, count);
+        } else {
+            activeUploads.remove(account);
+        }
+        startUploads(account);
     }
 
-    private void saveImageToCache(String getUrl, final File file) {
+    private void saveImageToCache(String getUrl, final File file, final boolean temporary) {
         final URL url;
         try {
             url = new URL(getUrl);
@@ -178,7 +444,7 @@ public class HttpFileUploadManager implements OnAuthorizedListener {
             return;
         }
 
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.io, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -187,6 +453,9 @@ public class HttpFileUploadManager implements OnAuthorizedListener {
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
+                if (temporary) {
+                    file.delete();
+                }
             }
         });
     }
@@ -224,4 +493,99 @@ public class HttpFileUploadManager implements OnAuthorizedListener {
             }
         }.start();
     }
+
+    private static class Upload {
+
+        private final String account;
+
+        private final String user;
+
+        private final File file;
+
+        private final MessageItem fileMessage;
+
+        /**
+         * Reduced copy of the image to be sent instead of the file.
+         */
+        private File downsampled;
+
+        /**
+         * Time when sending was started, <code>0</code> if it wasn't started.
+         */
+        private long started;
+
+        private long sent;
+
+        private long total;
+
+        public Upload(String account, String user, File file, MessageItem fileMessage) {
+            this.account = account;
+            this.user = user;
+            this.file = file;
+            this.fileMessage = fileMessage;
+            downsampled = null;
+            started = 0;
+            sent = 0;
+            total = 0;
+        }
+
+        public String getAccount() {
+            return account;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public MessageItem getFileMessage() {
+            return fileMessage;
+        }
+
+        public File getDownsampled() {
+            return downsampled;
+        }
+
+        public void setDownsampled(File downsampled) {
+            this.downsampled = downsampled;
+        }
+
+        /**
+         * @return File to be sent.
+         */
+        public File getUploadFile() {
+            return downsampled == null ? file : downsampled;
+        }
+
+        public void onStart() {
+            started = SystemClock.elapsedRealtime();
+            sent = 0;
+            total = getUploadFile().length();
+        }
+
+        public boolean isStarted() {
+            return started != 0;
+        }
+
+        public long getStarted() {
+            return started;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public void setSent(long sent) {
+            this.sent = sent;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+    }
+
 }
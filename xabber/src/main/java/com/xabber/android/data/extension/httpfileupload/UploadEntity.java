@@ -0,0 +1,84 @@
+package com.xabber.android.data.extension.httpfileupload;
+
+import android.os.SystemClock;
+
+import com.loopj.android.http.ResponseHandlerInterface;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import cz.msebera.android.httpclient.entity.AbstractHttpEntity;
+import cz.msebera.android.httpclient.entity.ContentType;
+
+/**
+ * File entity streamed from disk through the fixed size buffer.
+ * <p/>
+ * Reports upload progress to the response handler.
+ */
+class UploadEntity extends AbstractHttpEntity {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Minimal interval in milliseconds between progress reports.
+     */
+    private static final long PROGRESS_INTERVAL = 250;
+
+    private final File file;
+
+    private final ResponseHandlerInterface responseHandler;
+
+    UploadEntity(File file, ContentType contentType, ResponseHandlerInterface responseHandler) {
+        this.file = file;
+        this.responseHandler = responseHandler;
+        setContentType(contentType.toString());
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return file.length();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return new FileInputStream(file);
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        long total = file.length();
+        long written = 0;
+        long reported = 0;
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+                written += read;
+                long now = SystemClock.elapsedRealtime();
+                if (now - reported >= PROGRESS_INTERVAL || written == total) {
+                    reported = now;
+                    responseHandler.sendProgressMessage(written, total);
+                }
+            }
+            outputStream.flush();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+}
@@ -0,0 +1,567 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.extension.mam;
+
+import android.database.Cursor;
+
+import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.LoadDependent;
+import com.xabber.android.data.LogManager;
+import com.xabber.android.data.NetworkException;
+import com.xabber.android.data.account.AccountItem;
+import com.xabber.android.data.account.AccountManager;
+import com.xabber.android.data.account.ArchiveMode;
+import com.xabber.android.data.account.OnAccountRemovedListener;
+import com.xabber.android.data.connection.ConnectionItem;
+import com.xabber.android.data.connection.ConnectionManager;
+import com.xabber.android.data.connection.OnDisconnectListener;
+import com.xabber.android.data.connection.OnPacketProcessListener;
+import com.xabber.android.data.connection.OnResponseListener;
+import com.xabber.android.data.extension.capability.ServerInfoManager;
+import com.xabber.android.data.extension.muc.MUCManager;
+import com.xabber.android.data.extension.time.OnTimeReceivedListener;
+import com.xabber.android.data.extension.time.TimeManager;
+import com.xabber.android.data.message.ArchivedMessage;
+import com.xabber.android.data.message.MessageManager;
+import com.xabber.xmpp.address.Jid;
+import com.xabber.xmpp.carbon.Forwarded;
+import com.xabber.xmpp.mam.Fin;
+import com.xabber.xmpp.mam.Query;
+import com.xabber.xmpp.mam.Result;
+import com.xabber.xmpp.rsm.Set;
+
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smackx.delay.packet.DelayInformation;
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Synchronizes local history with server side message archive (XEP-0313).
+ * <p/>
+ * Messages archived since the last synchronized message are requested on
+ * each connection. Requested period is split into several parts, which are
+ * paged by archive id at the same time. Servers without message archive
+ * management are left to {@link com.xabber.android.data.extension.archive.MessageArchiveManager}.
+ */
+public class MamManager implements LoadDependent, OnTimeReceivedListener,
+        OnPacketProcessListener, OnDisconnectListener, OnAccountRemovedListener {
+
+    /**
+     * Maximum number of messages in the page.
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * Maximum number of pages requested at the same time.
+     */
+    private static final int PIPELINE_SIZE = 4;
+
+    /**
+     * Minimal period in milliseconds to be requested with separate pages.
+     */
+    private static final long MIN_SLICE_PERIOD = 60 * 60 * 1000;
+
+    /**
+     * Period in milliseconds to be synchronized for account which was never
+     * synchronized before.
+     */
+    private static final long INITIAL_PERIOD = 24 * 60 * 60 * 1000;
+
+    private final static MamManager instance;
+
+    static {
+        instance = new MamManager();
+        Application.getInstance().addManager(instance);
+    }
+
+    public static MamManager getInstance() {
+        return instance;
+    }
+
+    /**
+     * The last synchronized message for accounts.
+     */
+    private final Map<String, SyncPoint> syncPoints;
+
+    /**
+     * Synchronizations in progress for accounts.
+     */
+    private final Map<String, Sync> syncs;
+
+    /**
+     * Accounts whose archive supports message archive management.
+     */
+    private final Collection<String> supported;
+
+    private MamManager() {
+        syncPoints = new HashMap<>();
+        syncs = new HashMap<>();
+        supported = new HashSet<>();
+    }
+
+    @Override
+    public Class<?>[] getLoadDependencies() {
+        return new Class<?>[]{DatabaseManager.class};
+    }
+
+    @Override
+    public void onLoad() {
+        final Map<String, SyncPoint> syncPoints = new HashMap<>();
+        Cursor cursor = MamTable.getInstance().list();
+        try {
+            if (cursor.moveToFirst()) {
+                do {
+                    syncPoints.put(MamTable.getAccount(cursor), new SyncPoint(
+                            MamTable.getLastId(cursor), MamTable.getLastTimestamp(cursor)));
+                } while (cursor.moveToNext());
+            }
+        } finally {
+            cursor.close();
+        }
+        Application.getInstance().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                onLoaded(syncPoints);
+            }
+        });
+    }
+
+    private void onLoaded(Map<String, SyncPoint> syncPoints) {
+        this.syncPoints.putAll(syncPoints);
+    }
+
+    @Override
+    public void onTimeReceived(ConnectionItem connection) {
+        if (!(connection instanceof AccountItem)) {
+            return;
+        }
+        String account = ((AccountItem) connection).getAccount();
+        if (AccountManager.getInstance().getArchiveMode(account) != ArchiveMode.available) {
+            return;
+        }
+        requestFeatures(account);
+    }
+
+    /**
+     * @return Whether account's archive is known to support message archive
+     * management, so XEP-0136 archive shouldn't be used.
+     */
+    public boolean isSupported(String account) {
+        return supported.contains(account)
+                || ServerInfoManager.getInstance().isProtocolSupported(account, Query.NAMESPACE);
+    }
+
+    /**
+     * Checks whether account's archive supports message archive management.
+     */
+    private void requestFeatures(String account) {
+        DiscoverInfo packet = new DiscoverInfo();
+        packet.setTo(Jid.getBareAddress(account));
+        packet.setType(IQ.Type.get);
+        try {
+            ConnectionManager.getInstance().sendRequest(account, packet,
+                    new OnResponseListener() {
+
+                        @Override
+                        public void onReceived(String account, String packetId, IQ iq) {
+                            if (iq instanceof DiscoverInfo
+                                    && ((DiscoverInfo) iq).containsFeature(Query.NAMESPACE)) {
+                                supported.add(account);
+                                startSync(account);
+                            } else {
+                                supported.remove(account);
+                            }
+                        }
+
+                        @Override
+                        public void onError(String account, String packetId, IQ iq) {
+                        }
+
+                        @Override
+                        public void onTimeout(String account, String packetId) {
+                        }
+
+                        @Override
+                        public void onDisconnect(String account, String packetId) {
+                        }
+
+                    });
+        } catch (NetworkException e) {
+        }
+    }
+
+    /**
+     * Requests messages archived since the last synchronized message till
+     * now.
+     */
+    private void startSync(String account) {
+        if (syncs.containsKey(account)) {
+            return;
+        }
+        Date end = TimeManager.getInstance().getServerTime(account);
+        SyncPoint syncPoint = syncPoints.get(account);
+        Date start;
+        if (syncPoint == null) {
+            start = new Date(end.getTime() - INITIAL_PERIOD);
+        } else {
+            start = syncPoint.timestamp;
+        }
+        long period = Math.max(0, end.getTime() - start.getTime());
+        int count = (int) Math.max(1, Math.min(PIPELINE_SIZE, period / MIN_SLICE_PERIOD));
+        Sync sync = new Sync(syncPoint == null);
+        for (int index = 0; index < count; index++) {
+            Date sliceStart = new Date(start.getTime() + period * index / count);
+            Date sliceEnd = index == count - 1 ? end
+                    : new Date(start.getTime() + period * (index + 1) / count);
+            // Only the first part contains the last synchronized message.
+            String after = index == 0 && syncPoint != null ? syncPoint.id : null;
+            sync.slices.add(new Slice(sliceStart, sliceEnd, after));
+        }
+        syncs.put(account, sync);
+        LogManager.i(this, "start sync " + account + " from " + start + " in " + count + " parts");
+        for (Slice slice : sync.slices) {
+            requestPage(account, sync, slice);
+        }
+    }
+
+    private void requestPage(final String account, final Sync sync, final Slice slice) {
+        Query query = new Query();
+        query.setType(IQ.Type.get);
+        query.setQueryId(query.getStanzaId());
+        query.setStart(slice.start);
+        query.setEnd(slice.end);
+        Set rsm = new Set();
+        rsm.setMax(PAGE_SIZE);
+        rsm.setAfter(slice.after);
+        query.setRsm(rsm);
+        slice.queryId = query.getQueryId();
+        slice.messages.clear();
+        slice.lastId = null;
+        try {
+            ConnectionManager.getInstance().sendRequest(account, query,
+                    new OnResponseListener() {
+
+                        @Override
+                        public void onReceived(String account, String packetId, IQ iq) {
+                            onPageReceived(account, sync, slice, iq);
+                        }
+
+                        @Override
+                        public void onError(String account, String packetId, IQ iq) {
+                            onPageError(account, sync, slice);
+                        }
+
+                        @Override
+                        public void onTimeout(String account, String packetId) {
+                            onError(account, packetId, null);
+                        }
+
+                        @Override
+                        public void onDisconnect(String account, String packetId) {
+                        }
+
+                    });
+        } catch (NetworkException e) {
+            onPageError(account, sync, slice);
+        }
+    }
+
+    @Override
+    public Runnable onPacketProcess(ConnectionItem connection, String bareAddress,
+                                    Stanza packet) {
+        if (!(connection instanceof AccountItem) || !(packet instanceof Message)) {
+            return null;
+        }
+        final String account = ((AccountItem) connection).getAccount();
+        if (bareAddress != null && !bareAddress.equals(Jid.getBareAddress(account))) {
+            return null;
+        }
+        Object extension = packet.getExtension(Result.ELEMENT_NAME, Query.NAMESPACE);
+        if (!(extension instanceof Result) || !((Result) extension).isValid()) {
+            return null;
+        }
+        final Result result = (Result) extension;
+        return new Runnable() {
+            @Override
+            public void run() {
+                onResult(account, result);
+            }
+        };
+    }
+
+    private void onResult(String account, Result result) {
+        Sync sync = syncs.get(account);
+        if (sync == null) {
+            return;
+        }
+        for (Slice slice : sync.slices) {
+            if (!slice.finished && result.getQueryId() != null
+                    && result.getQueryId().equals(slice.queryId)) {
+                onResultReceived(account, sync, slice, result);
+                return;
+            }
+        }
+    }
+
+    private void onResultReceived(String account, Sync sync, Slice slice, Result result) {
+        slice.lastId = result.getId();
+        DelayInformation delayInformation = result.getForwarded().getDelayInfo();
+        if (delayInformation == null) {
+            return;
+        }
+        Date stamp = delayInformation.getStamp();
+        if (sync.lastTimestamp == null || !stamp.before(sync.lastTimestamp)) {
+            sync.lastId = result.getId();
+            sync.lastTimestamp = stamp;
+        }
+        ArchivedMessage archivedMessage = createArchivedMessage(account, result.getId(),
+                result.getForwarded(), stamp, sync.initial);
+        if (archivedMessage != null) {
+            slice.messages.add(archivedMessage);
+        }
+    }
+
+    /**
+     * @param initial whether incoming message was received before the first
+     *                synchronization and should be treated as read.
+     * @return <code>null</code> if message shouldn't be saved.
+     */
+    private ArchivedMessage createArchivedMessage(String account, String id,
+                                                  Forwarded forwarded, Date stamp,
+                                                  boolean initial) {
+        if (!(forwarded.getForwardedPacket() instanceof Message)) {
+            return null;
+        }
+        Message message = (Message) forwarded.getForwardedPacket();
+        String body = message.getBody();
+        if (body == null || message.getType() == Message.Type.groupchat
+                || message.getType() == Message.Type.error
+                || body.startsWith("?OTR")) {
+            return null;
+        }
+        String from = message.getFrom();
+        boolean incoming = from != null
+                && !Jid.getBareAddress(account).equals(Jid.getBareAddress(from));
+        String contact = incoming ? from : message.getTo();
+        if (contact == null) {
+            return null;
+        }
+        String user = Jid.getBareAddress(contact);
+        if (MUCManager.getInstance().hasRoom(account, user)
+                || !MessageManager.getInstance().isSaveAllowed(account, user)) {
+            return null;
+        }
+        Date timestamp = new Date(stamp.getTime()
+                - TimeManager.getInstance().getServerTimeOffset(account));
+        // Incoming messages archived since the last synchronization were
+        // missed while offline.
+        return new ArchivedMessage(user, incoming ? Jid.getResource(from) : null, body,
+                timestamp, incoming, !incoming || initial, id);
+    }
+
+    private void onPageReceived(String account, Sync sync, Slice slice, IQ iq) {
+        if (syncs.get(account) != sync) {
+            return;
+        }
+        sync.pages += 1;
+        sync.messages += slice.messages.size();
+        MessageManager.getInstance().addArchivedMessages(account, slice.messages);
+        String last = slice.lastId;
+        boolean complete;
+        if (iq instanceof Fin) {
+            Fin fin = (Fin) iq;
+            if (fin.getRsm() != null && fin.getRsm().getLast() != null) {
+                last = fin.getRsm().getLast();
+            }
+            complete = fin.isComplete();
+        } else {
+            complete = slice.messages.size() < PAGE_SIZE;
+        }
+        if (complete || last == null || last.equals(slice.after)) {
+            slice.finished = true;
+            onSliceFinished(account, sync);
+        } else {
+            slice.after = last;
+            requestPage(account, sync, slice);
+        }
+    }
+
+    private void onPageError(String account, Sync sync, Slice slice) {
+        if (syncs.get(account) != sync) {
+            return;
+        }
+        if (sync.pages == 0 && slice.after != null) {
+            // The last synchronized message can be already removed from the
+            // archive.
+            slice.after = null;
+            requestPage(account, sync, slice);
+            return;
+        }
+        // Synchronization will be repeated from the same point on the next
+        // connection. Saved messages won't be duplicated.
+        syncs.remove(account);
+        LogManager.w(this, "sync failed " + account);
+    }
+
+    private void onSliceFinished(final String account, Sync sync) {
+        for (Slice slice : sync.slices) {
+            if (!slice.finished) {
+                return;
+            }
+        }
+        syncs.remove(account);
+        LogManager.i(this, "sync finished " + account + ": " + sync.messages + " messages in "
+                + sync.pages + " pages, " + (System.currentTimeMillis() - sync.started) + " ms");
+        if (sync.lastId == null) {
+            return;
+        }
+        final String lastId = sync.lastId;
+        final Date lastTimestamp = sync.lastTimestamp;
+        syncPoints.put(account, new SyncPoint(lastId, lastTimestamp));
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
+            @Override
+            public void run() {
+                MamTable.getInstance().write(account, lastId, lastTimestamp);
+            }
+        });
+    }
+
+    @Override
+    public void onDisconnect(ConnectionItem connection) {
+        if (connection instanceof AccountItem) {
+            syncs.remove(((AccountItem) connection).getAccount());
+        }
+    }
+
+    @Override
+    public void onAccountRemoved(AccountItem accountItem) {
+        syncPoints.remove(accountItem.getAccount());
+        syncs.remove(accountItem.getAccount());
+        supported.remove(accountItem.getAccount());
+    }
+
+    /**
+     * The last synchronized message.
+     */
+    private static class SyncPoint {
+
+        /**
+         * Archive id.
+         */
+        final String id;
+
+        /**
+         * Server time when message was archived.
+         */
+        final Date timestamp;
+
+        SyncPoint(String id, Date timestamp) {
+            this.id = id;
+            this.timestamp = timestamp;
+        }
+
+    }
+
+    /**
+     * Synchronization in progress.
+     */
+    private static class Sync {
+
+        final Collection<Slice> slices;
+
+        final long started;
+
+        /**
+         * Whether there was no synchronized message before.
+         */
+        final boolean initial;
+
+        int pages;
+
+        int messages;
+
+        /**
+         * The newest received message.
+         */
+        String lastId;
+
+        Date lastTimestamp;
+
+        Sync(boolean initial) {
+            slices = new ArrayList<>();
+            started = System.currentTimeMillis();
+            this.initial = initial;
+            pages = 0;
+            messages = 0;
+            lastId = null;
+            lastTimestamp = null;
+        }
+
+    }
+
+    /**
+     * Part of the synchronized period paged by its own query.
+     */
+    private static class Slice {
+
+        final Date start;
+
+        final Date end;
+
+        /**
+         * Archive id of the last message of the previous page.
+         */
+        String after;
+
+        /**
+         * Id of the current query.
+         */
+        String queryId;
+
+        /**
+         * Archive id of the last received message in the current page.
+         */
+        String lastId;
+
+        /**
+         * Messages received in the current page.
+         */
+        final Collection<ArchivedMessage> messages;
+
+        boolean finished;
+
+        Slice(Date start, Date end, String after) {
+            this.start = start;
+            this.end = end;
+            this.after = after;
+            queryId = null;
+            lastId = null;
+            messages = new ArrayList<>();
+            finished = false;
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.extension.mam;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.entity.AbstractAccountTable;
+
+import java.util.Date;
+
+/**
+ * Storage with the last message synchronized from server side message
+ * archive (XEP-0313) for each account.
+ */
+class MamTable extends AbstractAccountTable {
+
+    private static final class Fields implements AbstractAccountTable.Fields {
+
+        private Fields() {
+        }
+
+        /**
+         * Archive id of the last synchronized message.
+         */
+        public static final String LAST_ID = "last_id";
+
+        /**
+         * Server time when the last synchronized message was archived.
+         */
+        public static final String LAST_TIMESTAMP = "last_timestamp";
+
+    }
+
+    private static final String NAME = "mam_sync";
+    private static final String[] PROJECTION = new String[]{Fields.ACCOUNT,
+            Fields.LAST_ID, Fields.LAST_TIMESTAMP};
+
+    private final DatabaseManager databaseManager;
+
+    private final static MamTable instance;
+
+    static {
+        instance = new MamTable(DatabaseManager.getInstance());
+        DatabaseManager.getInstance().addTable(instance);
+    }
+
+    public static MamTable getInstance() {
+        return instance;
+    }
+
+    private MamTable(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    @Override
+    public void create(SQLiteDatabase db) {
+        String sql = "CREATE TABLE " + NAME + " (" + Fields.ACCOUNT + " TEXT,"
+                + Fields.LAST_ID + " TEXT," + Fields.LAST_TIMESTAMP + " INTEGER);";
+        DatabaseManager.execSQL(db, sql);
+        sql = "CREATE UNIQUE INDEX " + NAME + "_index ON " + NAME + " ("
+                + Fields.ACCOUNT + ");";
+        DatabaseManager.execSQL(db, sql);
+    }
+
+    @Override
+    public void migrate(SQLiteDatabase db, int toVersion) {
+        super.migrate(db, toVersion);
+        switch (toVersion) {
+            case 72:
+                create(db);
+                break;
+            default:
+                break;
+        }
+    }
+
+    void write(String account, String lastId, Date lastTimestamp) {
+        SQLiteDatabase db = databaseManager.getWritableDatabase();
+        db.execSQL("INSERT OR REPLACE INTO " + NAME + " (" + Fields.ACCOUNT
+                        + ", " + Fields.LAST_ID + ", " + Fields.LAST_TIMESTAMP
+                        + ") VALUES (?, ?, ?);",
+                new Object[]{account, lastId, lastTimestamp.getTime()});
+    }
+
+    @Override
+    protected String getTableName() {
+        return NAME;
+    }
+
+    @Override
+    protected String[] getProjection() {
+        return PROJECTION;
+    }
+
+    static String getLastId(Cursor cursor) {
+        return cursor.getString(cursor.getColumnIndex(Fields.LAST_ID));
+    }
+
+    static Date getLastTimestamp(Cursor cursor) {
+        return new Date(cursor.getLong(cursor.getColumnIndex(Fields.LAST_TIMESTAMP)));
+    }
+
+}
@@ -18,15 +18,20 @@ import android.database.Cursor;
 
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.LoadDependent;
 import com.xabber.android.data.LogManager;
 import com.xabber.android.data.NetworkException;
-import com.xabber.android.data.OnLoadListener;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
+import com.xabber.android.data.account.OnAccountAddedListener;
+import com.xabber.android.data.account.OnAccountRemovedListener;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.ConnectionManager;
 import com.xabber.android.data.connection.ConnectionThread;
-import com.xabber.android.data.connection.OnPacketListener;
+import com.xabber.android.data.connection.OnPacketProcessListener;
+import com.xabber.android.data.entity.BaseEntity;
 import com.xabber.android.data.message.AbstractChat;
 import com.xabber.android.data.message.ChatAction;
 import com.xabber.android.data.message.MessageManager;
@@ -42,6 +47,7 @@ import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smackx.muc.DiscussionHistory;
 import org.jivesoftware.smackx.muc.HostedRoom;
 import org.jivesoftware.smackx.muc.MultiUserChat;
 import org.jivesoftware.smackx.muc.MultiUserChatManager;
@@ -51,6 +57,9 @@ import org.jivesoftware.smackx.muc.packet.MUCUser;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Manage multi user chats.
@@ -59,7 +68,19 @@ import java.util.Collections;
  *
  * @author alexander.ivanov
  */
-public class MUCManager implements OnLoadListener, OnPacketListener {
+public class MUCManager implements LoadDependent, OnPacketProcessListener,
+        OnAccountAddedListener, OnAccountRemovedListener {
+
+    /**
+     * Maximum number of messages to be requested from the room history on
+     * join.
+     */
+    private static final int HISTORY_MAX_STANZAS = 50;
+
+    /**
+     * Number of attempts to join the room when server is overloaded.
+     */
+    private static final int MAX_JOIN_ATTEMPTS = 3;
 
     private final static MUCManager instance;
 
@@ -71,15 +92,26 @@ public class MUCManager implements OnLoadListener, OnPacketListener {
     private final EntityNotificationProvider<RoomInvite> inviteProvider;
     private final EntityNotificationProvider<RoomAuthorizationError> authorizationErrorProvider;
 
+    /**
+     * Join schedulers for accounts.
+     */
+    private final Map<String, RoomJoinScheduler> joinSchedulers;
+
     private MUCManager() {
         inviteProvider = new EntityNotificationProvider<>(R.drawable.ic_stat_add_circle);
         authorizationErrorProvider = new EntityNotificationProvider<>(R.drawable.ic_stat_error);
+        joinSchedulers = new HashMap<>();
     }
 
     public static MUCManager getInstance() {
         return instance;
     }
 
+    @Override
+    public Class<?>[] getLoadDependencies() {
+        return new Class<?>[]{DatabaseManager.class, AccountManager.class};
+    }
+
     @Override
     public void onLoad() {
         final Collection<RoomChat> roomChats = new ArrayList<>();
@@ -122,6 +154,21 @@ public class MUCManager implements OnLoadListener, OnPacketListener {
         }
         NotificationManager.getInstance().registerNotificationProvider(inviteProvider);
         NotificationManager.getInstance().registerNotificationProvider(authorizationErrorProvider);
+        // Contact list could be already shown without these rooms.
+        RosterManager.onContactsChanged(new ArrayList<BaseEntity>(roomChats));
+    }
+
+    @Override
+    public void onAccountAdded(AccountItem accountItem) {
+        joinSchedulers.put(accountItem.getAccount(), new RoomJoinScheduler());
+    }
+
+    @Override
+    public void onAccountRemoved(AccountItem accountItem) {
+        RoomJoinScheduler joinScheduler = joinSchedulers.remove(accountItem.getAccount());
+        if (joinScheduler != null) {
+            joinScheduler.shutdown();
+        }
     }
 
     /**
@@ -201,7 +248,7 @@ public class MUCManager implements OnLoadListener, OnPacketListener {
         leaveRoom(account, room);
         MessageManager.getInstance().removeChat(roomChat);
         RosterManager.getInstance().onContactChanged(account, room);
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 RoomTable.getInstance().remove(account, room);
@@ -231,13 +278,13 @@ public class MUCManager implements OnLoadListener, OnPacketListener {
         }
         requestToWriteRoom(account, room, nickname, password, join);
         if (join) {
-            joinRoom(account, room, true);
+            joinRoom(account, room, true, 1);
         }
     }
 
     private void requestToWriteRoom(final String account, final String room,
                                     final String nickname, final String password, final boolean join) {
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 RoomTable.getInstance().write(account, room, nickname,
@@ -268,11 +315,22 @@ public class MUCManager implements OnLoadListener, OnPacketListener {
      * @param requested Whether user request to join the room.
      */
     public void joinRoom(final String account, final String room, boolean requested) {
+        RoomChat roomChat = getRoomChat(account, room);
+        if (roomChat != null) {
+            requestToWriteRoom(account, room, roomChat.getNickname(), roomChat.getPassword(), true);
+        }
+        joinRoom(account, room, requested, 1);
+    }
+
+    /**
+     * @param attempt Number of the attempt to join the room.
+     */
+    private void joinRoom(final String account, final String room, boolean requested,
+                          final int attempt) {
         final XMPPConnection xmppConnection;
         final RoomChat roomChat;
         final String nickname;
         final String password;
-        final Thread thread;
         roomChat = getRoomChat(account, room);
         if (roomChat == null) {
             Application.getInstance().onError(R.string.ENTRY_IS_NOT_FOUND);
@@ -289,7 +347,6 @@ public class MUCManager implements OnLoadListener, OnPacketListener {
         }
         nickname = roomChat.getNickname();
         password = roomChat.getPassword();
-        requestToWriteRoom(account, room, nickname, password, true);
         ConnectionThread connectionThread = AccountManager.getInstance()
                 .getAccount(account).getConnectionThread();
         if (connectionThread == null) {
@@ -308,73 +365,149 @@ public class MUCManager implements OnLoadListener, OnPacketListener {
             Application.getInstance().onError(R.string.NOT_CONNECTED);
             return;
         }
+        RoomJoinScheduler joinScheduler = joinSchedulers.get(account);
+        if (joinScheduler == null) {
+            Application.getInstance().onError(R.string.NOT_CONNECTED);
+            return;
+        }
         roomChat.setState(RoomState.joining);
         roomChat.setMultiUserChat(multiUserChat);
         roomChat.setRequested(requested);
-        thread = new Thread("Join to room " + room + " from " + account) {
+        joinScheduler.schedule(new RoomJoinScheduler.JoinRequest(roomChat, requested) {
+
+            private DiscussionHistory history;
+
             @Override
-            public void run() {
-                try {
+            boolean isActual() {
+                return roomChat.getMultiUserChat() == multiUserChat
+                        && roomChat.getState() == RoomState.joining;
+            }
+
+            @Override
+            void onStart() {
+                history = createDiscussionHistory(roomChat);
+            }
+
+            @Override
+            boolean join() {
+                return MUCManager.this.join(account, room, roomChat, multiUserChat,
+                        nickname, password, history, xmppConnection.getPacketReplyTimeout(),
+                        attempt);
+            }
+
+            @Override
+            void onCompleted(boolean overloaded) {
+                if (overloaded && attempt < MAX_JOIN_ATTEMPTS
+                        && roomChat.getMultiUserChat() == multiUserChat
+                        && roomChat.getState() == RoomState.waiting) {
+                    joinRoom(account, room, roomChat.isRequested(), attempt + 1);
+                }
+            }
+
+        });
+    }
+
+    /**
+     * @return History to be requested on join: messages since the latest
+     * loaded one, but no more than {@link #HISTORY_MAX_STANZAS}.
+     */
+    private static DiscussionHistory createDiscussionHistory(RoomChat roomChat) {
+        DiscussionHistory history = new DiscussionHistory();
+        history.setMaxStanzas(HISTORY_MAX_STANZAS);
+        Date since = roomChat.getLastMessageTime();
+        if (since != null) {
+            history.setSince(since);
+        }
+        return history;
+    }
+
+    /**
+     * @return Whether server can't process join right now.
+     */
+    private static boolean isOverloaded(XMPPError xmppError) {
+        if (xmppError == null) {
+            return false;
+        }
+        XMPPError.Condition condition = xmppError.getCondition();
+        return condition == XMPPError.Condition.resource_constraint
+                || condition == XMPPError.Condition.policy_violation
+                || condition == XMPPError.Condition.service_unavailable
+                || condition == XMPPError.Condition.remote_server_timeout;
+    }
+
+    /**
+     * Joins the room and updates its state.
+     * <p/>
+     * CALL THIS METHOD FROM BACKGROUND THREAD ONLY.
+     *
+     * @return Whether server reported that it is overloaded.
+     */
+    private boolean join(final String account, final String room, final RoomChat roomChat,
+                         final MultiUserChat multiUserChat, String nickname, String password,
+                         DiscussionHistory history, long timeout, final int attempt) {
+        try {
+            if (roomChat.getMultiUserChat() != multiUserChat) {
+                return false;
+            }
+            multiUserChat.join(nickname, password, history, timeout);
+            Application.getInstance().runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
                     if (roomChat.getMultiUserChat() != multiUserChat) {
                         return;
                     }
-                    multiUserChat.join(nickname, password);
-                    Application.getInstance().runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (roomChat.getMultiUserChat() != multiUserChat) {
-                                return;
-                            }
-                            if (roomChat.getState() == RoomState.joining) {
-                                roomChat.setState(RoomState.occupation);
-                            }
-                            removeAuthorizationError(account, room);
-                            RosterManager.getInstance().onContactChanged(account, room);
-                        }
-                    });
-                    return;
-                } catch (final XMPPException.XMPPErrorException e) {
-                    Application.getInstance().runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (roomChat.getMultiUserChat() != multiUserChat) {
-                                return;
-                            }
-                            roomChat.setState(RoomState.error);
-                            addAuthorizationError(account, room);
-
-                            XMPPError xmppError = e.getXMPPError();
-
-                                if (xmppError != null && xmppError.getCondition() == XMPPError.Condition.conflict) {
-                                    Application.getInstance().onError(R.string.NICK_ALREADY_USED);
-                                } else if (xmppError != null && xmppError.getCondition() == XMPPError.Condition.not_authorized) {
-                                    Application.getInstance().onError(R.string.AUTHENTICATION_FAILED);
-                                } else {
-                                    Application.getInstance().onError(R.string.NOT_CONNECTED);
-                                }
-                            RosterManager.getInstance().onContactChanged(account, room);
-                        }
-                    });
-                    return;
-                } catch (IllegalStateException e) {
-                } catch (Exception e) {
-                    LogManager.exception(this, e);
+                    if (roomChat.getState() == RoomState.joining) {
+                        roomChat.setState(RoomState.occupation);
+                    }
+                    removeAuthorizationError(account, room);
+                    RosterManager.getInstance().onContactChanged(account, room);
                 }
-                Application.getInstance().runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (roomChat.getMultiUserChat() != multiUserChat) {
-                            return;
-                        }
+            });
+            return false;
+        } catch (final XMPPException.XMPPErrorException e) {
+            final XMPPError xmppError = e.getXMPPError();
+            final boolean overloaded = isOverloaded(xmppError);
+            Application.getInstance().runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (roomChat.getMultiUserChat() != multiUserChat) {
+                        return;
+                    }
+                    if (overloaded && attempt < MAX_JOIN_ATTEMPTS) {
+                        // Join will be requested again by the scheduler.
                         roomChat.setState(RoomState.waiting);
+                        return;
+                    }
+                    roomChat.setState(RoomState.error);
+                    addAuthorizationError(account, room);
+
+                    if (xmppError != null && xmppError.getCondition() == XMPPError.Condition.conflict) {
+                        Application.getInstance().onError(R.string.NICK_ALREADY_USED);
+                    } else if (xmppError != null && xmppError.getCondition() == XMPPError.Condition.not_authorized) {
+                        Application.getInstance().onError(R.string.AUTHENTICATION_FAILED);
+                    } else {
                         Application.getInstance().onError(R.string.NOT_CONNECTED);
-                        RosterManager.getInstance().onContactChanged(account, room);
                     }
-                });
+                    RosterManager.getInstance().onContactChanged(account, room);
+                }
+            });
+            return overloaded;
+        } catch (IllegalStateException e) {
+        } catch (Exception e) {
+            LogManager.exception(this, e);
+        }
+        Application.getInstance().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (roomChat.getMultiUserChat() != multiUserChat) {
+                    return;
+                }
+                roomChat.setState(RoomState.waiting);
+                Application.getInstance().onError(R.string.NOT_CONNECTED);
+                RosterManager.getInstance().onContactChanged(account, room);
             }
-        };
-        thread.setDaemon(true);
-        thread.start();
+        });
+        return false;
     }
 
     public void leaveRoom(String account, String room) {
@@ -384,6 +517,10 @@ public class MUCManager implements OnLoadListener, OnPacketListener {
             return;
         }
         multiUserChat = roomChat.getMultiUserChat();
+        RoomJoinScheduler joinScheduler = joinSchedulers.get(account);
+        if (joinScheduler != null) {
+            joinScheduler.remove(roomChat);
+        }
         roomChat.setState(RoomState.unavailable);
         roomChat.setRequested(false);
         roomChat.newAction(roomChat.getNickname(), null, ChatAction.leave);
@@ -406,22 +543,32 @@ public class MUCManager implements OnLoadListener, OnPacketListener {
     }
 
     @Override
-    public void onPacket(ConnectionItem connection, String bareAddress, Stanza packet) {
+    public Runnable onPacketProcess(ConnectionItem connection, final String bareAddress,
+                                    Stanza packet) {
         if (!(connection instanceof AccountItem)) {
-            return;
+            return null;
         }
-        String account = ((AccountItem) connection).getAccount();
+        final String account = ((AccountItem) connection).getAccount();
         if (bareAddress == null || !(packet instanceof Message)) {
-            return;
+            return null;
         }
         Message message = (Message) packet;
         if (message.getType() != Message.Type.normal && message.getType() != Message.Type.chat) {
-            return;
+            return null;
         }
-        MUCUser mucUser = MUC.getMUCUserExtension(packet);
+        final MUCUser mucUser = MUC.getMUCUserExtension(packet);
         if (mucUser == null || mucUser.getInvite() == null) {
-            return;
+            return null;
         }
+        return new Runnable() {
+            @Override
+            public void run() {
+                onInvite(account, bareAddress, mucUser);
+            }
+        };
+    }
+
+    private void onInvite(String account, String bareAddress, MUCUser mucUser) {
         RoomChat roomChat = getRoomChat(account, bareAddress);
         if (roomChat == null || !roomChat.getState().inUse()) {
             String inviter = mucUser.getInvite().getFrom();
@@ -43,8 +43,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * Chat room.
@@ -63,6 +65,18 @@ public class RoomChat extends AbstractChat {
      * Invited user for the sent packet ID.
      */
     private final Map<String, String> invites;
+    /**
+     * Loaded messages for the packet ID.
+     */
+    private final Map<String, MessageItem> packetIds;
+    /**
+     * Loaded messages with delay timestamp.
+     */
+    private final Set<MessageKey> delayedMessages;
+    /**
+     * Whether indexes of loaded messages must be rebuilt before use.
+     */
+    private boolean indexInvalid;
     /**
      * Joining was requested from the UI.
      */
@@ -89,6 +103,9 @@ public class RoomChat extends AbstractChat {
         multiUserChat = null;
         occupants = new HashMap<>();
         invites = new HashMap<>();
+        packetIds = new HashMap<>();
+        delayedMessages = new HashSet<>();
+        indexInvalid = true;
     }
 
     @Override
@@ -165,6 +182,23 @@ public class RoomChat extends AbstractChat {
         invites.put(packetID, user);
     }
 
+    /**
+     * @return Time of the latest loaded message from the room or
+     * <code>null</code> if there is no such message.
+     */
+    Date getLastMessageTime() {
+        for (int index = messages.size() - 1; index >= 0; index--) {
+            MessageItem messageItem = messages.get(index);
+            if (messageItem.getAction() == null && messageItem.isIncoming()) {
+                if (messageItem.getDelayTimestamp() != null) {
+                    return messageItem.getDelayTimestamp();
+                }
+                return messageItem.getTimestamp();
+            }
+        }
+        return null;
+    }
+
     @Override
     protected MessageItem newMessage(String text) {
         return newMessage(nickname, text, null, null, false, false, false, false, true);
@@ -231,21 +265,21 @@ public class RoomChat extends AbstractChat {
                 if (delay != null) {
                     notify = false;
                 }
-                for (MessageItem messageItem : messages) {
-                    // Search for duplicates
-                    if (packetID != null && packetID.equals(messageItem.getPacketID())) {
+                // Search for duplicates
+                if (indexInvalid) {
+                    rebuildIndex();
+                }
+                if (packetID != null) {
+                    MessageItem messageItem = packetIds.get(packetID);
+                    if (messageItem != null) {
                         // Server send our own message back
                         messageItem.markAsDelivered();
                         RosterManager.getInstance().onContactChanged(account, user);
                         return true;
                     }
-                    if (delay != null) {
-                        if (delay.equals(messageItem.getDelayTimestamp())
-                                && resource.equals(messageItem.getResource())
-                                && text.equals(messageItem.getText())) {
-                            return true;
-                        }
-                    }
+                }
+                if (delay != null && delayedMessages.contains(new MessageKey(delay, resource, text))) {
+                    return true;
                 }
 
                 if (isSelf(resource)) { // Own message from other client
@@ -256,6 +290,7 @@ public class RoomChat extends AbstractChat {
                 MessageItem messageItem = newMessage(resource, text, null,
                         delay, true, notify, false, false, true);
                 messageItem.setPacketID(packetID);
+                addToIndex(messageItem);
             }
         } else if (packet instanceof Presence) {
             String stringPrep = Jid.getStringPrep(resource);
@@ -314,6 +349,35 @@ public class RoomChat extends AbstractChat {
         return true;
     }
 
+    @Override
+    protected void onMessagesChanged() {
+        super.onMessagesChanged();
+        indexInvalid = true;
+    }
+
+    /**
+     * Rebuilds indexes from loaded messages.
+     */
+    private void rebuildIndex() {
+        packetIds.clear();
+        delayedMessages.clear();
+        for (MessageItem messageItem : messages) {
+            addToIndex(messageItem);
+        }
+        indexInvalid = false;
+    }
+
+    private void addToIndex(MessageItem messageItem) {
+        if (messageItem.getPacketID() != null) {
+            packetIds.put(messageItem.getPacketID(), messageItem);
+        }
+        if (messageItem.getDelayTimestamp() != null && messageItem.getResource() != null
+                && messageItem.getText() != null) {
+            delayedMessages.add(new MessageKey(messageItem.getDelayTimestamp(),
+                    messageItem.getResource(), messageItem.getText()));
+        }
+    }
+
     /**
      * @return Whether status change action should be added to the chat history.
      */
@@ -490,4 +554,40 @@ public class RoomChat extends AbstractChat {
         }
     }
 
+    /**
+     * Delay timestamp, nickname and text used to detect messages resent by the
+     * room.
+     */
+    private static final class MessageKey {
+
+        private final Date delay;
+        private final String resource;
+        private final String text;
+        private final int hashCode;
+
+        MessageKey(Date delay, String resource, String text) {
+            this.delay = delay;
+            this.resource = resource;
+            this.text = text;
+            hashCode = 31 * (31 * delay.hashCode() + resource.hashCode()) + text.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof MessageKey))
+                return false;
+            MessageKey other = (MessageKey) o;
+            return hashCode == other.hashCode && delay.equals(other.delay)
+                    && resource.equals(other.resource) && text.equals(other.text);
+        }
+
+    }
+
 }
\ No newline at end of file
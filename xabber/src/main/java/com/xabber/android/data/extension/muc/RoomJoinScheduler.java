@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.extension.muc;
+
+import android.os.SystemClock;
+
+import com.xabber.android.data.Application;
+import com.xabber.android.data.message.MessageManager;
+import com.xabber.android.data.notification.NotificationManager;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs requests to join rooms on the bounded pool of threads.
+ * <p/>
+ * Rooms requested by user are joined first, then visible room and rooms with
+ * unread messages. Joins are started at least {@link #MIN_INTERVAL} apart.
+ * Interval is doubled each time server reports that it is overloaded and is
+ * decreased back on successful joins.
+ * <p/>
+ * Each account has its own scheduler, so overloaded server doesn't delay
+ * joins of other accounts.
+ * <p/>
+ * All methods must be called from the UI thread.
+ */
+class RoomJoinScheduler {
+
+    /**
+     * Maximum number of joins in progress.
+     */
+    private static final int THREADS = 3;
+
+    /**
+     * Minimum interval in milliseconds between two joins.
+     */
+    private static final long MIN_INTERVAL = 100;
+
+    /**
+     * Maximum interval in milliseconds between two joins.
+     */
+    private static final long MAX_INTERVAL = 30000;
+
+    /**
+     * Waiting requests in order they were scheduled.
+     */
+    private final List<JoinRequest> queue;
+
+    private final ExecutorService executor;
+
+    private final Runnable dispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchScheduled = false;
+            dispatch();
+        }
+    };
+
+    /**
+     * Number of joins in progress.
+     */
+    private int running;
+
+    /**
+     * Current interval between joins.
+     */
+    private long interval;
+
+    /**
+     * Time when next join can be started.
+     */
+    private long nextStart;
+
+    /**
+     * Whether delayed dispatch was posted.
+     */
+    private boolean dispatchScheduled;
+
+    RoomJoinScheduler() {
+        queue = new ArrayList<>();
+        executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            private final AtomicInteger number = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Room join executor " + number.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        running = 0;
+        interval = MIN_INTERVAL;
+        nextStart = 0;
+        dispatchScheduled = false;
+    }
+
+    /**
+     * Adds request to the queue. Waiting request for the same room will be
+     * replaced.
+     */
+    void schedule(JoinRequest request) {
+        remove(request.roomChat);
+        queue.add(request);
+        dispatch();
+    }
+
+    /**
+     * Removes waiting request for the room.
+     */
+    void remove(RoomChat roomChat) {
+        Iterator<JoinRequest> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().roomChat == roomChat) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops waiting requests and stops threads when they complete joins in
+     * progress.
+     */
+    void shutdown() {
+        queue.clear();
+        executor.shutdown();
+    }
+
+    private void dispatch() {
+        while (running < THREADS && !queue.isEmpty()) {
+            long now = SystemClock.elapsedRealtime();
+            if (now < nextStart) {
+                if (!dispatchScheduled) {
+                    dispatchScheduled = true;
+                    Application.getInstance().runOnUiThreadDelay(dispatchRunnable, nextStart - now);
+                }
+                return;
+            }
+            final JoinRequest request = poll();
+            if (!request.isActual()) {
+                continue;
+            }
+            request.onStart();
+            running += 1;
+            nextStart = now + interval;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    execute(request);
+                }
+            });
+        }
+    }
+
+    /**
+     * Joins the room and passes result to the UI thread.
+     * <p/>
+     * Called from the background thread.
+     */
+    private void execute(final JoinRequest request) {
+        boolean overloaded = false;
+        try {
+            overloaded = request.join();
+        } finally {
+            final boolean result = overloaded;
+            Application.getInstance().runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    onCompleted(request, result);
+                }
+            });
+        }
+    }
+
+    /**
+     * Removes request with the highest priority from the queue.
+     */
+    private JoinRequest poll() {
+        int best = 0;
+        int bestPriority = Integer.MAX_VALUE;
+        for (int index = 0; index < queue.size(); index++) {
+            int priority = getPriority(queue.get(index));
+            if (priority < bestPriority) {
+                best = index;
+                bestPriority = priority;
+            }
+        }
+        return queue.remove(best);
+    }
+
+    /**
+     * @return Priority of the request, lower value is joined first.
+     */
+    private static int getPriority(JoinRequest request) {
+        RoomChat roomChat = request.roomChat;
+        if (request.requested) {
+            return 0;
+        }
+        if (MessageManager.getInstance().isVisibleChat(roomChat)) {
+            return 1;
+        }
+        if (NotificationManager.getInstance().getNotificationMessageCount(
+                roomChat.getAccount(), roomChat.getUser()) > 0) {
+            return 2;
+        }
+        return 3;
+    }
+
+    private void onCompleted(JoinRequest request, boolean overloaded) {
+        running -= 1;
+        if (overloaded) {
+            interval = Math.min(MAX_INTERVAL, interval * 2);
+            nextStart = SystemClock.elapsedRealtime() + interval;
+        } else {
+            interval = Math.max(MIN_INTERVAL, interval / 2);
+        }
+        request.onCompleted(overloaded);
+        dispatch();
+    }
+
+    /**
+     * Request to join the room.
+     */
+    static abstract class JoinRequest {
+
+        final RoomChat roomChat;
+
+        /**
+         * Whether user requested to join the room.
+         */
+        final boolean requested;
+
+        JoinRequest(RoomChat roomChat, boolean requested) {
+            this.roomChat = roomChat;
+            this.requested = requested;
+        }
+
+        /**
+         * Called from the UI thread before join is started.
+         *
+         * @return Whether request must be executed.
+         */
+        abstract boolean isActual();
+
+        /**
+         * Called from the UI thread right before join is started.
+         */
+        abstract void onStart();
+
+        /**
+         * Joins the room.
+         * <p/>
+         * Called from the background thread.
+         *
+         * @return Whether server reported that it is overloaded.
+         */
+        abstract boolean join();
+
+        /**
+         * Called from the UI thread after join was completed and interval
+         * was updated, so retry can be scheduled.
+         *
+         * @param overloaded value returned by {@link #join()}.
+         */
+        abstract void onCompleted(boolean overloaded);
+
+    }
+
+}
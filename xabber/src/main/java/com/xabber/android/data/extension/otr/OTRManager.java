@@ -19,12 +19,15 @@ import android.database.Cursor;
 import com.xabber.android.BuildConfig;
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.LoadDependent;
 import com.xabber.android.data.LogManager;
 import com.xabber.android.data.NetworkException;
 import com.xabber.android.data.OnCloseListener;
-import com.xabber.android.data.OnLoadListener;
 import com.xabber.android.data.SettingsManager;
 import com.xabber.android.data.SettingsManager.SecurityOtrMode;
+import com.xabber.android.data.TaskPriority;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.account.OnAccountAddedListener;
@@ -62,19 +65,32 @@ import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Manage off-the-record encryption.
  * <p/>
  * http://www.cypherpunks.ca/otr/
+ * <p/>
+ * Sessions are used in {@link BackgroundLane#otr} only, so key exchange and
+ * message encryption don't block UI thread. Session callbacks pass results
+ * back to UI thread.
  *
  * @author alexander.ivanov
  */
 public class OTRManager implements OtrEngineHost, OtrEngineListener,
-        OnLoadListener, OnAccountAddedListener, OnAccountRemovedListener, OnCloseListener {
+        LoadDependent, OnAccountAddedListener, OnAccountRemovedListener, OnCloseListener {
+
+    /**
+     * Maximum time in milliseconds to wait for sessions to be ended on close.
+     */
+    private static final long CLOSE_TIMEOUT = 3000;
 
     private final static OTRManager instance;
     private static Map<SecurityOtrMode, OtrPolicy> POLICIES;
@@ -107,13 +123,18 @@ public class OTRManager implements OtrEngineHost, OtrEngineListener,
      */
     private final NestedMap<Boolean> finished;
     /**
-     * Used OTR sessions for users in accounts.
+     * Used OTR sessions for users in accounts. Accessed in OTR lane only.
      */
     private final NestedMap<Session> sessions;
     /**
      * Service for keypair generation.
      */
     private final ExecutorService keyPairGenerator;
+    /**
+     * Whether application is being closed. UI thread waits for OTR lane in
+     * {@link #onClose()}, so session messages are sent from the lane.
+     */
+    private volatile boolean closing;
 
     private OTRManager() {
         smRequestProvider = new EntityNotificationProvider<>(R.drawable.ic_stat_help);
@@ -123,6 +144,7 @@ public class OTRManager implements OtrEngineHost, OtrEngineListener,
         actives = new NestedMap<>();
         finished = new NestedMap<>();
         sessions = new NestedMap<>();
+        closing = false;
         keyPairGenerator = Executors.newSingleThreadExecutor(new ThreadFactory() {
                     @Override
                     public Thread newThread(Runnable runnable) {
@@ -138,6 +160,11 @@ public class OTRManager implements OtrEngineHost, OtrEngineListener,
         return instance;
     }
 
+    @Override
+    public Class<?>[] getLoadDependencies() {
+        return new Class<?>[]{DatabaseManager.class};
+    }
+
     @Override
     public void onLoad() {
         final NestedNestedMaps<String, Boolean> fingerprints = new NestedNestedMaps<>();
@@ -169,43 +196,94 @@ public class OTRManager implements OtrEngineHost, OtrEngineListener,
         NotificationManager.getInstance().registerNotificationProvider(smProgressProvider);
     }
 
-    public void startSession(String account, String user) throws NetworkException {
-        LogManager.i(this, "Starting session for " + user);
-        try {
-            getOrCreateSession(account, user).startSession();
-        } catch (OtrException e) {
-            throw new NetworkException(R.string.OTR_ERROR, e);
-        }
-        LogManager.i(this, "Started session for " + user);
+    /**
+     * Runs session operation in OTR lane.
+     */
+    private void runInOtrLane(Runnable runnable) {
+        Application.getInstance().runInBackground(BackgroundLane.otr, runnable);
     }
 
-    public void refreshSession(String account, String user) throws NetworkException {
-        LogManager.i(this, "Refreshing session for " + user);
-        try {
-            getOrCreateSession(account, user).refreshSession();
-        } catch (OtrException e) {
-            throw new NetworkException(R.string.OTR_ERROR, e);
-        }
-        LogManager.i(this, "Refreshed session for " + user);
+    /**
+     * Runs session callback result in UI thread.
+     */
+    private void runOnUiThread(Runnable runnable) {
+        Application.getInstance().runOnUiThread(runnable);
+    }
+
+    private void onError(OtrException e) {
+        Application.getInstance().onError(new NetworkException(R.string.OTR_ERROR, e));
+    }
+
+    public void startSession(final String account, final String user) {
+        runInOtrLane(new Runnable() {
+            @Override
+            public void run() {
+                LogManager.i(OTRManager.this, "Starting session for " + user);
+                try {
+                    getOrCreateSession(account, user).startSession();
+                } catch (OtrException e) {
+                    onError(e);
+                }
+            }
+        });
     }
 
-    public void endSession(String account, String user) throws NetworkException {
+    public void refreshSession(final String account, final String user) {
+        runInOtrLane(new Runnable() {
+            @Override
+            public void run() {
+                LogManager.i(OTRManager.this, "Refreshing session for " + user);
+                try {
+                    getOrCreateSession(account, user).refreshSession();
+                } catch (OtrException e) {
+                    onError(e);
+                }
+            }
+        });
+    }
+
+    public void endSession(final String account, final String user) {
+        runInOtrLane(new Runnable() {
+            @Override
+            public void run() {
+                endSessionInCurrentThread(account, user);
+            }
+        });
+    }
+
+    private void endSessionInCurrentThread(final String account, final String user) {
         LogManager.i(this, "Ending session for " + user);
         try {
             getOrCreateSession(account, user).endSession();
         } catch (OtrException e) {
-            throw new NetworkException(R.string.OTR_ERROR, e);
+            onError(e);
+            return;
         }
+        if (closing) {
+            return;
+        }
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                onSessionEnded(account, user);
+            }
+        });
+    }
+
+    private void onSessionEnded(String account, String user) {
         AbstractChat abstractChat = MessageManager.getInstance().getChat(account, user);
-        MessageArchiveManager.getInstance().setSaveMode(account, user, abstractChat.getThreadId(), SaveMode.body);
+        try {
+            MessageArchiveManager.getInstance().setSaveMode(account, user, abstractChat.getThreadId(), SaveMode.body);
+        } catch (NetworkException e) {
+            Application.getInstance().onError(e);
+            return;
+        }
         SSNManager.getInstance().setSessionOtrMode(account, user, abstractChat.getThreadId(), OtrMode.concede);
-        LogManager.i(this, "Ended session for " + user);
     }
 
     private Session getOrCreateSession(String account, String user) {
         Session session = sessions.get(account, user);
         if (session != null) {
-            LogManager.i(this, "Found session with id " + session.getSessionID() + " with status " + session.getSessionStatus() + " for user " + user);
             return session;
         }
 
@@ -224,35 +302,51 @@ public class OTRManager implements OtrEngineHost, OtrEngineListener,
         injectMessage(sessionID.getAccountID(), sessionID.getUserID(), msg);
     }
 
-    private void injectMessage(String account, String user, String msg) throws OtrException {
-        LogManager.i(this, "injectMessage. user: " + user + " message: " + msg);
-        AbstractChat abstractChat = MessageManager.getInstance().getChat(account, user);
-        try {
-            MessageArchiveManager.getInstance().setSaveMode(account, user, abstractChat.getThreadId(), SaveMode.fls);
-        } catch (NetworkException e) {
-            throw new OtrException(e);
-        }
-        SSNManager.getInstance().setSessionOtrMode(account, user, abstractChat.getThreadId(), OtrMode.prefer);
-        try {
-            ConnectionManager.getInstance()
-                    .sendStanza(abstractChat.getAccount(), abstractChat.createMessagePacket(msg));
-        } catch (NetworkException e) {
-            throw new OtrException(e);
+    private void injectMessage(final String account, final String user, final String msg) {
+        if (closing) {
+            // UI thread is blocked until sessions are ended.
+            AbstractChat abstractChat = MessageManager.getInstance().getChat(account, user);
+            try {
+                ConnectionManager.getInstance()
+                        .sendStanza(abstractChat.getAccount(), abstractChat.createMessagePacket(msg));
+            } catch (NetworkException e) {
+                LogManager.exception(this, e);
+            }
+            return;
         }
+        // Messages are sent in UI thread in the same order as they were
+        // injected into the session.
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                AbstractChat abstractChat = MessageManager.getInstance().getChat(account, user);
+                try {
+                    MessageArchiveManager.getInstance().setSaveMode(account, user, abstractChat.getThreadId(), SaveMode.fls);
+                    SSNManager.getInstance().setSessionOtrMode(account, user, abstractChat.getThreadId(), OtrMode.prefer);
+                    ConnectionManager.getInstance()
+                            .sendStanza(abstractChat.getAccount(), abstractChat.createMessagePacket(msg));
+                } catch (NetworkException e) {
+                    LogManager.exception(OTRManager.this, e);
+                }
+            }
+        });
     }
 
     @Override
     public void unreadableMessageReceived(SessionID sessionID) throws OtrException {
-        LogManager.i(this, "unreadableMessageReceived");
         newAction(sessionID.getAccountID(), sessionID.getUserID(), null, ChatAction.otr_unreadable);
     }
 
     /**
-     * Creates new action in specified chat.
+     * Creates new action in specified chat in UI thread.
      */
-    private void newAction(String account, String user, String text, ChatAction action) {
-        LogManager.i(this, "newAction. text: " + text + " action " + action);
-        MessageManager.getInstance().getChat(account, user).newAction(null, text, action);
+    private void newAction(final String account, final String user, final String text, final ChatAction action) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                MessageManager.getInstance().getChat(account, user).newAction(null, text, action);
+            }
+        });
     }
 
     @Override
@@ -262,29 +356,37 @@ public class OTRManager implements OtrEngineHost, OtrEngineListener,
 
     @Override
     public void unencryptedMessageReceived(SessionID sessionID, String msg) throws OtrException {
-        LogManager.i(this, "unencrypted Message Received. " + msg);
         throw new OtrException(new OTRUnencryptedException(msg));
     }
 
     @Override
     public void showError(SessionID sessionID, String error) throws OtrException {
-        LogManager.i(this, "ShowError: " + error);
         newAction(sessionID.getAccountID(), sessionID.getUserID(), error, ChatAction.otr_error);
     }
 
     @Override
-    public void smpError(SessionID sessionID, int tlvType, boolean cheated) throws OtrException {
+    public void smpError(final SessionID sessionID, int tlvType, final boolean cheated) throws OtrException {
         newAction(sessionID.getAccountID(), sessionID.getUserID(), null,
                 cheated ? ChatAction.otr_smp_cheated : ChatAction.otr_smp_failed);
         if (cheated) {
-            removeSMProgress(sessionID.getAccountID(), sessionID.getUserID());
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    removeSMProgress(sessionID.getAccountID(), sessionID.getUserID());
+                }
+            });
         }
     }
 
     @Override
-    public void smpAborted(SessionID sessionID) throws OtrException {
-        removeSMRequest(sessionID.getAccountID(), sessionID.getUserID());
-        removeSMProgress(sessionID.getAccountID(), sessionID.getUserID());
+    public void smpAborted(final SessionID sessionID) throws OtrException {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                removeSMRequest(sessionID.getAccountID(), sessionID.getUserID());
+                removeSMProgress(sessionID.getAccountID(), sessionID.getUserID());
+            }
+        });
     }
 
     @Override
@@ -320,86 +422,148 @@ public class OTRManager implements OtrEngineHost, OtrEngineListener,
 
     @Override
     public void sessionStatusChanged(SessionID sessionID) {
-        removeSMRequest(sessionID.getAccountID(), sessionID.getUserID());
-        removeSMProgress(sessionID.getAccountID(), sessionID.getUserID());
-        Session session = sessions.get(sessionID.getAccountID(), sessionID.getUserID());
-        SessionStatus sStatus = session.getSessionStatus();
+        final String account = sessionID.getAccountID();
+        final String user = sessionID.getUserID();
+        Session session = sessions.get(account, user);
+        final SessionStatus sStatus = session.getSessionStatus();
 
-        LogManager.i(this, "session status changed " + sessionID.getUserID() + " status: " + sStatus);
+        LogManager.i(this, "session status changed " + user + " status: " + sStatus);
 
+        String fingerprint = null;
         if (sStatus == SessionStatus.ENCRYPTED) {
-            finished.remove(sessionID.getAccountID(), sessionID.getUserID());
             PublicKey remotePublicKey = session.getRemotePublicKey();
-            String value;
             try {
-                value = OtrCryptoEngine.getFingerprint(remotePublicKey);
+                fingerprint = OtrCryptoEngine.getFingerprint(remotePublicKey);
             } catch (OtrCryptoException e) {
                 LogManager.exception(this, e);
-                value = null;
-            }
-            if (value != null) {
-                actives.put(sessionID.getAccountID(), sessionID.getUserID(), value);
-                if (fingerprints.get(sessionID.getAccountID(), sessionID.getUserID(), value) == null) {
-                    fingerprints.put(sessionID.getAccountID(), sessionID.getUserID(), value, false);
-                    requestToWrite(sessionID.getAccountID(), sessionID.getUserID(), value, false);
-                }
             }
-            newAction(sessionID.getAccountID(), sessionID.getUserID(), null, isVerified(sessionID.getAccountID(),
-                    sessionID.getUserID()) ? ChatAction.otr_verified : ChatAction.otr_encryption);
-            MessageManager.getInstance()
-                    .getChat(sessionID.getAccountID(), sessionID.getUserID()).sendMessages();
         } else if (sStatus == SessionStatus.PLAINTEXT) {
-            actives.remove(sessionID.getAccountID(), sessionID.getUserID());
-            sessions.remove(sessionID.getAccountID(), sessionID.getUserID());
-            finished.remove(sessionID.getAccountID(), sessionID.getUserID());
+            sessions.remove(account, user);
             try {
                 session.endSession();
             } catch (OtrException e) {
                 LogManager.exception(this, e);
             }
-            newAction(sessionID.getAccountID(), sessionID.getUserID(), null, ChatAction.otr_plain);
         } else if (sStatus == SessionStatus.FINISHED) {
-            actives.remove(sessionID.getAccountID(), sessionID.getUserID());
-            sessions.remove(sessionID.getAccountID(), sessionID.getUserID());
-            finished.put(sessionID.getAccountID(), sessionID.getUserID(), true);
-            newAction(sessionID.getAccountID(), sessionID.getUserID(), null, ChatAction.otr_finish);
+            sessions.remove(account, user);
         } else {
             throw new IllegalStateException();
         }
-        RosterManager.getInstance().onContactChanged(sessionID.getAccountID(), sessionID.getUserID());
+        final String value = fingerprint;
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                onSessionStatusChanged(account, user, sStatus, value);
+            }
+        });
+    }
+
+    /**
+     * Updates session state in UI thread.
+     *
+     * @param fingerprint remote fingerprint for encrypted session.
+     */
+    private void onSessionStatusChanged(String account, String user, SessionStatus sStatus, String fingerprint) {
+        removeSMRequest(account, user);
+        removeSMProgress(account, user);
+        AbstractChat abstractChat = MessageManager.getInstance().getChat(account, user);
+        if (abstractChat != null) {
+            // Texts were encrypted for previous session.
+            abstractChat.resetPreparedTexts();
+        }
+        if (sStatus == SessionStatus.ENCRYPTED) {
+            finished.remove(account, user);
+            if (fingerprint != null) {
+                actives.put(account, user, fingerprint);
+                if (fingerprints.get(account, user, fingerprint) == null) {
+                    fingerprints.put(account, user, fingerprint, false);
+                    requestToWrite(account, user, fingerprint, false);
+                }
+            }
+            newAction(account, user, null, isVerified(account, user)
+                    ? ChatAction.otr_verified : ChatAction.otr_encryption);
+            MessageManager.getInstance().getChat(account, user).sendMessages();
+        } else if (sStatus == SessionStatus.PLAINTEXT) {
+            actives.remove(account, user);
+            finished.remove(account, user);
+            newAction(account, user, null, ChatAction.otr_plain);
+        } else if (sStatus == SessionStatus.FINISHED) {
+            actives.remove(account, user);
+            finished.put(account, user, true);
+            newAction(account, user, null, ChatAction.otr_finish);
+        }
+        RosterManager.getInstance().onContactChanged(account, user);
     }
 
     @Override
-    public void askForSecret(SessionID sessionID, InstanceTag receiverTag, String question) {
-        smRequestProvider.add(new SMRequest(sessionID.getAccountID(), sessionID.getUserID(), question), true);
+    public void askForSecret(final SessionID sessionID, InstanceTag receiverTag, final String question) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                smRequestProvider.add(new SMRequest(sessionID.getAccountID(), sessionID.getUserID(), question), true);
+            }
+        });
     }
 
     /**
      * Transform outgoing message before sending.
+     *
+     * @param listener will be called in UI thread.
      */
-    public String transformSending(String account, String user, String content) throws OtrException {
-        LogManager.i(this, "transform outgoing message... " + user);
-        String parts[] = getOrCreateSession(account, user).transformSending(content, null);
-        if (BuildConfig.DEBUG && parts.length != 1) {
-            throw new RuntimeException(
-            "We do not use fragmentation, so there must be only one otr fragment.");
-        }
-        return parts[0];
+    public void transformSending(final String account, final String user, final String content,
+                                 final OnTransformedListener listener) {
+        runInOtrLane(new Runnable() {
+            @Override
+            public void run() {
+                String text = null;
+                OtrException exception = null;
+                try {
+                    String parts[] = getOrCreateSession(account, user).transformSending(content, null);
+                    if (BuildConfig.DEBUG && parts.length != 1) {
+                        throw new RuntimeException(
+                        "We do not use fragmentation, so there must be only one otr fragment.");
+                    }
+                    text = parts[0];
+                } catch (OtrException e) {
+                    exception = e;
+                }
+                onTransformed(listener, text, exception);
+            }
+        });
     }
 
     /**
      * Transform incoming message after receiving.
+     *
+     * @param listener will be called in UI thread.
      */
-    public String transformReceiving(String account, String user, String content) throws OtrException {
-        LogManager.i(this, "transform incoming message... " + content);
-        Session session = getOrCreateSession(account, user);
-        try {
-            String s = session.transformReceiving(content);
-            LogManager.i(this, "transformed incoming message: " + s + " session status: " + session.getSessionStatus());
-            return s;
-        } catch (UnsupportedOperationException e) {
-            throw new OtrException(e);
-        }
+    public void transformReceiving(final String account, final String user, final String content,
+                                   final OnTransformedListener listener) {
+        runInOtrLane(new Runnable() {
+            @Override
+            public void run() {
+                String text = null;
+                OtrException exception = null;
+                try {
+                    text = getOrCreateSession(account, user).transformReceiving(content);
+                } catch (OtrException e) {
+                    exception = e;
+                } catch (UnsupportedOperationException e) {
+                    exception = new OtrException(e);
+                }
+                onTransformed(listener, text, exception);
+            }
+        });
+    }
+
+    private void onTransformed(final OnTransformedListener listener, final String text,
+                               final OtrException exception) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                listener.onTransformed(text, exception);
+            }
+        });
     }
 
     public SecurityLevel getSecurityLevel(String account, String user) {
@@ -457,19 +621,29 @@ public class OTRManager implements OtrEngineHost, OtrEngineListener,
     }
 
     @Override
-    public void verify(SessionID sessionID, String fingerprint, boolean approved) {
-        if (approved) {
-            setVerify(sessionID, true);
-        } else if (isVerified(sessionID.getAccountID(), sessionID.getUserID())) {
-            newAction(sessionID.getAccountID(), sessionID.getUserID(), null, ChatAction.otr_smp_not_approved);
-        }
-        removeSMProgress(sessionID.getAccountID(), sessionID.getUserID());
+    public void verify(final SessionID sessionID, String fingerprint, final boolean approved) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (approved) {
+                    setVerify(sessionID, true);
+                } else if (isVerified(sessionID.getAccountID(), sessionID.getUserID())) {
+                    newAction(sessionID.getAccountID(), sessionID.getUserID(), null, ChatAction.otr_smp_not_approved);
+                }
+                removeSMProgress(sessionID.getAccountID(), sessionID.getUserID());
+            }
+        });
     }
 
     @Override
-    public void unverify(SessionID sessionID, String fingerprint) {
-        setVerify(sessionID, false);
-        removeSMProgress(sessionID.getAccountID(), sessionID.getUserID());
+    public void unverify(final SessionID sessionID, String fingerprint) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                setVerify(sessionID, false);
+                removeSMProgress(sessionID.getAccountID(), sessionID.getUserID());
+            }
+        });
     }
 
     public String getRemoteFingerprint(String account, String user) {
@@ -498,43 +672,58 @@ public class OTRManager implements OtrEngineHost, OtrEngineListener,
     /**
      * Respond using SM protocol.
      */
-    public void respondSmp(String account, String user, String question, String secret) throws NetworkException {
+    public void respondSmp(final String account, final String user, final String question, final String secret) {
         LogManager.i(this, "responding smp... " + user);
         removeSMRequest(account, user);
         addSMProgress(account, user);
-        try {
-            getOrCreateSession(account, user).respondSmp(question, secret);
-        } catch (OtrException e) {
-            throw new NetworkException(R.string.OTR_ERROR, e);
-        }
+        runInOtrLane(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getOrCreateSession(account, user).respondSmp(question, secret);
+                } catch (OtrException e) {
+                    onError(e);
+                }
+            }
+        });
     }
 
     /**
      * Initiate request using SM protocol.
      */
-    public void initSmp(String account, String user, String question, String secret) throws NetworkException {
+    public void initSmp(final String account, final String user, final String question, final String secret) {
         LogManager.i(this, "initializing smp... " + user);
         removeSMRequest(account, user);
         addSMProgress(account, user);
-        try {
-            getOrCreateSession(account, user).initSmp(question, secret);
-        } catch (OtrException e) {
-            throw new NetworkException(R.string.OTR_ERROR, e);
-        }
+        runInOtrLane(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getOrCreateSession(account, user).initSmp(question, secret);
+                } catch (OtrException e) {
+                    onError(e);
+                }
+            }
+        });
     }
 
     /**
      * Abort SM negotiation.
      */
-    public void abortSmp(String account, String user) throws NetworkException {
+    public void abortSmp(final String account, final String user) {
         LogManager.i(this, "aborting smp... " + user);
         removeSMRequest(account, user);
         removeSMProgress(account, user);
-        try {
-            getOrCreateSession(account, user).abortSmp();
-        } catch (OtrException e) {
-            throw new NetworkException(R.string.OTR_ERROR, e);
-        }
+        runInOtrLane(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getOrCreateSession(account, user).abortSmp();
+                } catch (OtrException e) {
+                    onError(e);
+                }
+            }
+        });
     }
 
     private void removeSMRequest(String account, String user) {
@@ -585,10 +774,16 @@ public class OTRManager implements OtrEngineHost, OtrEngineListener,
 
     @Override
     public void onAccountRemoved(AccountItem accountItem) {
-        fingerprints.clear(accountItem.getAccount());
-        actives.clear(accountItem.getAccount());
-        finished.clear(accountItem.getAccount());
-        sessions.clear(accountItem.getAccount());
+        final String account = accountItem.getAccount();
+        fingerprints.clear(account);
+        actives.clear(account);
+        finished.clear(account);
+        runInOtrLane(new Runnable() {
+            @Override
+            public void run() {
+                sessions.clear(account);
+            }
+        });
     }
 
     /**
@@ -596,7 +791,7 @@ public class OTRManager implements OtrEngineHost, OtrEngineListener,
      */
     private void requestToWrite(final String account, final String user,
                                 final String fingerprint, final boolean verified) {
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 OTRTable.getInstance().write(account, user, fingerprint, verified);
@@ -609,17 +804,36 @@ public class OTRManager implements OtrEngineHost, OtrEngineListener,
         NestedMap<String> entities = new NestedMap<>();
         entities.addAll(actives);
         for (Entry<String> entry : entities) {
-            try {
-                endSession(entry.getFirst(), entry.getSecond());
-            } catch (NetworkException e) {
-                LogManager.exception(this, e);
-            }
+            endSession(entry.getFirst(), entry.getSecond());
         }
     }
 
     @Override
     public void onClose() {
-        endAllSessions();
+        // Sessions are ended in OTR lane after pending session operations.
+        // End messages must be sent before connections will be closed, so
+        // wait for the lane.
+        LogManager.i(this, "End all sessions on close");
+        final NestedMap<String> entities = new NestedMap<>();
+        entities.addAll(actives);
+        if (entities.isEmpty()) {
+            return;
+        }
+        closing = true;
+        Future<?> future = Application.getInstance().getBackgroundExecutor(BackgroundLane.otr)
+                .submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Entry<String> entry : entities) {
+                            endSessionInCurrentThread(entry.getFirst(), entry.getSecond());
+                        }
+                    }
+                }, TaskPriority.normal);
+        try {
+            future.get(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            LogManager.exception(this, e);
+        }
     }
 
     public void onSettingsChanged() {
@@ -653,20 +867,25 @@ public class OTRManager implements OtrEngineHost, OtrEngineListener,
         // since this is not supported, we don't need to do anything
     }
 
-    public void onContactUnAvailable(String account, String user) {
-        Session session = sessions.get(account, user);
+    public void onContactUnAvailable(final String account, final String user) {
+        runInOtrLane(new Runnable() {
+            @Override
+            public void run() {
+                Session session = sessions.get(account, user);
 
-        if (session == null) {
-            return;
-        }
+                if (session == null) {
+                    return;
+                }
 
-        if (session.getSessionStatus() == SessionStatus.ENCRYPTED) {
-            try {
-                LogManager.i(this, "onContactUnAvailable. Refresh session for " + user);
-                session.refreshSession();
-            } catch (OtrException e) {
-                LogManager.exception(this, e);
+                if (session.getSessionStatus() == SessionStatus.ENCRYPTED) {
+                    try {
+                        LogManager.i(OTRManager.this, "onContactUnAvailable. Refresh session for " + user);
+                        session.refreshSession();
+                    } catch (OtrException e) {
+                        LogManager.exception(OTRManager.this, e);
+                    }
+                }
             }
-        }
+        });
     }
 }
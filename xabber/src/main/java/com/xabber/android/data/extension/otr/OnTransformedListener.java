@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.extension.otr;
+
+import net.java.otr4j.OtrException;
+
+/**
+ * Listener for the result of message transformation.
+ */
+public interface OnTransformedListener {
+
+    /**
+     * Message has been transformed. Called in UI thread.
+     *
+     * @param text      transformed text. <code>null</code> if there is no text
+     *                  to be sent or shown.
+     * @param exception <code>null</code> if message has been successfully
+     *                  transformed.
+     */
+    void onTransformed(String text, OtrException exception);
+
+}
@@ -21,7 +21,7 @@ import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.account.OnAccountRemovedListener;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.ConnectionManager;
-import com.xabber.android.data.connection.OnPacketListener;
+import com.xabber.android.data.connection.OnPacketProcessListener;
 import com.xabber.android.data.connection.TLSMode;
 import com.xabber.android.data.entity.NestedMap;
 import com.xabber.android.data.extension.archive.MessageArchiveManager;
@@ -38,6 +38,7 @@ import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smackx.xdata.packet.DataForm;
 
+import java.util.ArrayList;
 import java.util.Collection;
 
 /**
@@ -47,7 +48,7 @@ import java.util.Collection;
  *
  * @author alexander.ivanov
  */
-public class SSNManager implements OnPacketListener, OnAccountRemovedListener {
+public class SSNManager implements OnPacketProcessListener, OnAccountRemovedListener {
 
     /**
      * Session state for the session id in account.
@@ -82,33 +83,41 @@ public class SSNManager implements OnPacketListener, OnAccountRemovedListener {
     }
 
     @Override
-    public void onPacket(ConnectionItem connection, final String bareAddress, Stanza packet) {
-        String from = packet.getFrom();
+    public Runnable onPacketProcess(ConnectionItem connection, final String bareAddress,
+                                    Stanza packet) {
+        final String from = packet.getFrom();
         if (from == null)
-            return;
+            return null;
         if (!(connection instanceof AccountItem)
                 || !(packet instanceof Message))
-            return;
-        String account = ((AccountItem) connection).getAccount();
+            return null;
+        final String account = ((AccountItem) connection).getAccount();
         Message message = (Message) packet;
-        String session = message.getThread();
+        final String session = message.getThread();
         if (session == null)
-            return;
+            return null;
+        final Collection<Feature> features = new ArrayList<>();
         for (ExtensionElement packetExtension : packet.getExtensions())
-            if (packetExtension instanceof Feature) {
-                Feature feature = (Feature) packetExtension;
-                if (!feature.isValid())
-                    continue;
-                DataFormType type = feature.getDataFormType();
-                if (type == DataFormType.form)
-                    onFormReceived(account, from, bareAddress, session, feature);
-                else if (type == DataFormType.submit)
-                    onSubmitReceived(account, from, bareAddress, session,
-                            feature);
-                else if (type == DataFormType.result)
-                    onResultReceived(account, from, bareAddress, session,
-                            feature);
+            if (packetExtension instanceof Feature && ((Feature) packetExtension).isValid())
+                features.add((Feature) packetExtension);
+        if (features.isEmpty())
+            return null;
+        return new Runnable() {
+            @Override
+            public void run() {
+                for (Feature feature : features) {
+                    DataFormType type = feature.getDataFormType();
+                    if (type == DataFormType.form)
+                        onFormReceived(account, from, bareAddress, session, feature);
+                    else if (type == DataFormType.submit)
+                        onSubmitReceived(account, from, bareAddress, session,
+                                feature);
+                    else if (type == DataFormType.result)
+                        onResultReceived(account, from, bareAddress, session,
+                                feature);
+                }
             }
+        };
     }
 
     private void onFormReceived(String account, String from,
@@ -17,9 +17,11 @@ package com.xabber.android.data.extension.vcard;
 import android.database.Cursor;
 
 import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.LoadDependent;
 import com.xabber.android.data.LogManager;
 import com.xabber.android.data.NetworkException;
-import com.xabber.android.data.OnLoadListener;
 import com.xabber.android.data.SettingsManager;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
@@ -27,7 +29,7 @@ import com.xabber.android.data.account.OnAccountRemovedListener;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.ConnectionManager;
 import com.xabber.android.data.connection.ConnectionThread;
-import com.xabber.android.data.connection.OnPacketListener;
+import com.xabber.android.data.connection.OnPacketProcessListener;
 import com.xabber.android.data.extension.avatar.AvatarManager;
 import com.xabber.android.data.extension.muc.MUCManager;
 import com.xabber.android.data.roster.OnRosterChangedListener;
@@ -59,7 +61,7 @@ import java.util.concurrent.ConcurrentSkipListSet;
  *
  * @author alexander.ivanov
  */
-public class VCardManager implements OnLoadListener, OnPacketListener,
+public class VCardManager implements LoadDependent, OnPacketProcessListener,
         OnRosterReceivedListener, OnAccountRemovedListener {
 
     private static final StructuredName EMPTY_STRUCTURED_NAME = new StructuredName(
@@ -95,6 +97,11 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
         accountRequested = new ArrayList<>();
     }
 
+    @Override
+    public Class<?>[] getLoadDependencies() {
+        return new Class<?>[]{DatabaseManager.class};
+    }
+
     @Override
     public void onLoad() {
         final Map<String, StructuredName> names = new HashMap<>();
@@ -203,7 +210,7 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
             name = new StructuredName(vCard.getNickName(), vCard.getField(VCardProperty.FN.name()),
                     vCard.getFirstName(), vCard.getMiddleName(), vCard.getLastName());
 
-            Application.getInstance().runInBackground(new Runnable() {
+            Application.getInstance().runInBackground(BackgroundLane.io, new Runnable() {
                 @Override
                 public void run() {
                     try {
@@ -218,15 +225,16 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
 
         }
         names.put(bareAddress, name);
-        for (RosterContact rosterContact : RosterManager.getInstance().getContacts()) {
-            if (rosterContact.getUser().equals(bareAddress)) {
+        for (String rosterAccount : AccountManager.getInstance().getAccounts()) {
+            RosterContact rosterContact = RosterManager.getInstance().getRosterContact(rosterAccount, bareAddress);
+            if (rosterContact != null) {
                 for (OnRosterChangedListener listener : Application.getInstance()
                         .getManagers(OnRosterChangedListener.class)) {
                     listener.onContactStructuredInfoChanged(rosterContact, name);
                 }
             }
         }
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 VCardTable.getInstance().write(bareAddress, name);
@@ -258,27 +266,35 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
     }
 
     @Override
-    public void onPacket(ConnectionItem connection, final String bareAddress, Stanza packet) {
+    public Runnable onPacketProcess(ConnectionItem connection, final String bareAddress,
+                                    final Stanza packet) {
         if (!(connection instanceof AccountItem)) {
-            return;
+            return null;
         }
-        String account = ((AccountItem) connection).getAccount();
-        if (packet instanceof Presence && ((Presence) packet).getType() != Presence.Type.error) {
-            if (bareAddress == null) {
-                return;
+        final String account = ((AccountItem) connection).getAccount();
+        if (!(packet instanceof Presence) || ((Presence) packet).getType() == Presence.Type.error
+                || bareAddress == null) {
+            return null;
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                onPresence(account, bareAddress, packet.getFrom());
             }
+        };
+    }
 
-            String addressForVcard = bareAddress;
+    private void onPresence(String account, String bareAddress, String from) {
+        String addressForVcard = bareAddress;
 
-            if (MUCManager.getInstance().hasRoom(account, bareAddress)) {
-                addressForVcard = packet.getFrom();
-            }
+        if (MUCManager.getInstance().hasRoom(account, bareAddress)) {
+            addressForVcard = from;
+        }
 
-            // Request vCard for new users
-            if (!names.containsKey(addressForVcard)) {
-                if (SettingsManager.connectionLoadVCard()) {
-                    request(account, addressForVcard);
-                }
+        // Request vCard for new users
+        if (!names.containsKey(addressForVcard)) {
+            if (SettingsManager.connectionLoadVCard()) {
+                request(account, addressForVcard);
             }
         }
     }
@@ -17,8 +17,10 @@ package com.xabber.android.data.message;
 import android.database.Cursor;
 
 import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
 import com.xabber.android.data.NetworkException;
 import com.xabber.android.data.SettingsManager;
+import com.xabber.android.data.TaskPriority;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.account.ArchiveMode;
 import com.xabber.android.data.connection.ConnectionManager;
@@ -30,6 +32,7 @@ import com.xabber.android.data.extension.file.FileManager;
 import com.xabber.android.data.extension.otr.OTRManager;
 import com.xabber.android.data.extension.otr.SecurityLevel;
 import com.xabber.android.data.message.chat.ChatManager;
+import com.xabber.android.data.message.chat.ChatSettings;
 import com.xabber.android.data.notification.NotificationManager;
 import com.xabber.xmpp.address.Jid;
 import com.xabber.xmpp.archive.SaveMode;
@@ -46,9 +49,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Chat instance.
@@ -67,11 +74,32 @@ public abstract class AbstractChat extends BaseEntity {
      */
     private static final int PRELOADED_MESSAGES = 3;
     /**
-     * Ids of messages not loaded in to the memory.
-     * <p/>
-     * MUST BE ACCESSED FROM BACKGROUND THREAD ONLY.
+     * Number of messages to be loaded from local history at once. Also number
+     * of the latest messages to be kept in memory when chat become invisible.
+     */
+    private static final int HISTORY_PAGE_SIZE = 50;
+    /**
+     * Timestamp of the oldest message loaded from local history.
+     * <code>null</code> if nothing was loaded yet.
+     */
+    private Long historyTimestamp;
+    /**
+     * Id of the oldest message loaded from local history.
+     */
+    private long historyId;
+    /**
+     * Whether local history can contain messages not loaded in to the memory.
+     */
+    private boolean hasHistory;
+    /**
+     * Whether request to load local history is in progress.
+     */
+    private boolean historyLoading;
+    /**
+     * Incremented each time loaded messages are dropped, so that results of
+     * requests started before will be ignored.
      */
-    protected final Collection<Long> historyIds;
+    private int historyGeneration;
     /**
      * Sorted list of messages in this chat.
      */
@@ -80,6 +108,27 @@ public abstract class AbstractChat extends BaseEntity {
      * List of messages to be sent.
      */
     protected final Collection<MessageItem> sendQuery;
+    /**
+     * Messages from the queue sent to the server, but not acknowledged yet.
+     */
+    private final Set<MessageItem> unacknowledged;
+    /**
+     * Messages from the queue whose text is being prepared.
+     */
+    private final Set<MessageItem> preparing;
+    /**
+     * Prepared texts for messages from the queue. <code>null</code> value
+     * means that message shouldn't be sent.
+     */
+    private final Map<MessageItem, String> preparedTexts;
+    /**
+     * Messages from the queue requested to be sent right after creation.
+     */
+    private final Set<MessageItem> intents;
+    /**
+     * Whether send queue is being processed.
+     */
+    private boolean sending;
     /**
      * Whether chat is open and should be displayed as active chat.
      */
@@ -119,67 +168,150 @@ public abstract class AbstractChat extends BaseEntity {
         firstNotification = true;
         lastText = "";
         lastTime = null;
-        historyIds = new ArrayList<Long>();
         messages = new ArrayList<MessageItem>();
         sendQuery = new ArrayList<MessageItem>();
+        unacknowledged = new HashSet<MessageItem>();
+        preparing = new HashSet<MessageItem>();
+        preparedTexts = new HashMap<MessageItem, String>();
+        intents = new HashSet<MessageItem>();
+        sending = false;
         this.isPrivateMucChat = isPrivateMucChat;
         isPrivateMucChatAccepted = false;
         updateCreationTime();
 
-        Application.getInstance().runInBackground(new Runnable() {
+        historyTimestamp = null;
+        historyId = 0;
+        hasHistory = true;
+        historyLoading = true;
+        historyGeneration = 0;
+        final int generation = historyGeneration;
+        Application.getInstance().runInBackground(BackgroundLane.read, new Runnable() {
             @Override
             public void run() {
-                loadMessages();
+                loadMessages(generation);
             }
         });
     }
 
     /**
-     * Load recent messages from local history.
+     * Load unread messages and some recent messages from local history.
      * <p/>
      * CALL THIS METHOD FROM BACKGROUND THREAD ONLY.
      */
-    private void loadMessages() {
+    private void loadMessages(final int generation) {
         final ArrayList<MessageItem> messageItems = new ArrayList<MessageItem>();
-        LinkedList<MessageItem> linkedList = new LinkedList<MessageItem>();
-        boolean started = false;
-        Cursor cursor = MessageTable.getInstance().list(account, user);
+        Cursor cursor = MessageTable.getInstance().listUnread(account, user);
         try {
             if (cursor.moveToFirst()) {
                 do {
-                    MessageItem messageItem = createMessageItem(cursor);
-                    if (started) {
-                        messageItems.add(messageItem);
-                        continue;
-                    }
-                    linkedList.addLast(messageItem);
-                    if (messageItem.isRead() && messageItem.isSent()) {
-                        if (linkedList.size() <= PRELOADED_MESSAGES)
-                            continue;
-                        messageItem = linkedList.removeFirst();
-                        historyIds.add(messageItem.getId());
-                        continue;
-                    }
-                    started = true;
-                    messageItems.addAll(linkedList);
+                    messageItems.add(createMessageItem(cursor));
+                } while (cursor.moveToNext());
+            }
+        } finally {
+            cursor.close();
+        }
+        Long timestamp = null;
+        long id = 0;
+        if (!messageItems.isEmpty()) {
+            timestamp = messageItems.get(0).getTimestamp().getTime();
+            id = messageItems.get(0).getId();
+        }
+        final ArrayList<MessageItem> preloaded = loadHistoryPage(timestamp, id, PRELOADED_MESSAGES);
+        messageItems.addAll(0, preloaded);
+        onHistoryPageLoaded(generation, messageItems, preloaded.size() == PRELOADED_MESSAGES, true);
+    }
+
+    /**
+     * Reads messages older than specified one.
+     * <p/>
+     * CALL THIS METHOD FROM BACKGROUND THREAD ONLY.
+     *
+     * @param timestamp <code>null</code> to read the newest messages.
+     * @param id
+     * @param limit
+     * @return Sorted list of messages.
+     */
+    private ArrayList<MessageItem> loadHistoryPage(Long timestamp, long id, int limit) {
+        final LinkedList<MessageItem> messageItems = new LinkedList<MessageItem>();
+        Cursor cursor = MessageTable.getInstance().listBefore(account, user, timestamp, id, limit);
+        try {
+            if (cursor.moveToFirst()) {
+                do {
+                    messageItems.addFirst(createMessageItem(cursor));
                 } while (cursor.moveToNext());
             }
         } finally {
             cursor.close();
         }
-        if (!started)
-            messageItems.addAll(linkedList);
+        return new ArrayList<MessageItem>(messageItems);
+    }
+
+    /**
+     * Passes loaded messages to the UI thread.
+     * <p/>
+     * CALL THIS METHOD FROM BACKGROUND THREAD ONLY.
+     *
+     * @param generation
+     * @param messageItems sorted list of loaded messages.
+     * @param more         whether there can be more messages in history.
+     * @param initial      whether messages were loaded on chat creation.
+     */
+    private void onHistoryPageLoaded(final int generation, final ArrayList<MessageItem> messageItems,
+                                     final boolean more, final boolean initial) {
+        // Message's timestamp can be changed after send in UI thread.
+        final Long timestamp;
+        final long id;
+        if (messageItems.isEmpty()) {
+            timestamp = null;
+            id = 0;
+        } else {
+            timestamp = messageItems.get(0).getTimestamp().getTime();
+            id = messageItems.get(0).getId();
+        }
         Application.getInstance().runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                for (MessageItem messageItem : messageItems) {
-                    updateSendQuery(messageItem);
+                if (generation != historyGeneration) {
+                    return;
+                }
+                historyLoading = false;
+                hasHistory = more;
+                if (timestamp != null) {
+                    historyTimestamp = timestamp;
+                    historyId = id;
                 }
-                addMessages(messageItems);
+                // Archived messages could be already added.
+                Collection<MessageItem> loaded = withoutLoaded(messageItems);
+                if (initial) {
+                    for (MessageItem messageItem : loaded) {
+                        updateSendQuery(messageItem);
+                    }
+                }
+                addMessages(loaded);
             }
         });
     }
 
+    /**
+     * @param messageItems
+     * @return Messages not present in memory.
+     */
+    private Collection<MessageItem> withoutLoaded(Collection<MessageItem> messageItems) {
+        Set<Long> ids = new HashSet<Long>();
+        for (MessageItem messageItem : messages) {
+            if (messageItem.getId() != null) {
+                ids.add(messageItem.getId());
+            }
+        }
+        Collection<MessageItem> result = new ArrayList<MessageItem>();
+        for (MessageItem messageItem : messageItems) {
+            if (!ids.contains(messageItem.getId())) {
+                result.add(messageItem);
+            }
+        }
+        return result;
+    }
+
     /**
      * Update existing message list with loaded.
      *
@@ -192,9 +324,44 @@ public abstract class AbstractChat extends BaseEntity {
 
         messages.addAll(messageItems);
         sort();
+        onMessagesChanged();
         MessageManager.getInstance().onChatChanged(account, user, false);
     }
 
+    /**
+     * Adds messages saved from server side message archive.
+     * <p/>
+     * Messages older than loaded part of history will be read with next
+     * history page.
+     *
+     * @param archivedMessages
+     */
+    void onArchivedMessagesSaved(Collection<ArchivedMessage> archivedMessages) {
+        Set<Long> ids = new HashSet<Long>();
+        for (MessageItem messageItem : messages) {
+            if (messageItem.getId() != null) {
+                ids.add(messageItem.getId());
+            }
+        }
+        Collection<MessageItem> messageItems = new ArrayList<MessageItem>();
+        for (ArchivedMessage archivedMessage : archivedMessages) {
+            if (ids.contains(archivedMessage.getId()) || (hasHistory && historyTimestamp != null
+                    && archivedMessage.getTimestamp().getTime() < historyTimestamp)) {
+                continue;
+            }
+            MessageItem messageItem = new MessageItem(this, null,
+                    archivedMessage.getResource(), archivedMessage.getText(), null,
+                    archivedMessage.getTimestamp(), archivedMessage.getTimestamp(),
+                    archivedMessage.isIncoming(), archivedMessage.isRead(), true, false, true,
+                    false, false);
+            messageItem.setId(archivedMessage.getId());
+            messageItems.add(messageItem);
+        }
+        if (!messageItems.isEmpty()) {
+            addMessages(messageItems);
+        }
+    }
+
     /**
      * @param cursor
      * @return New message item.
@@ -213,33 +380,51 @@ public abstract class AbstractChat extends BaseEntity {
     }
 
     /**
-     * Load all message from local history.
+     * Load previous page of messages from local history.
      * <p/>
      * CALL THIS METHOD FROM BACKGROUND THREAD ONLY.
      */
-    private void loadHistory() {
-        if (historyIds.isEmpty())
+    private void loadHistory(int generation, Long timestamp, long id) {
+        ArrayList<MessageItem> messageItems = loadHistoryPage(timestamp, id, HISTORY_PAGE_SIZE);
+        onHistoryPageLoaded(generation, messageItems, messageItems.size() == HISTORY_PAGE_SIZE, false);
+    }
+
+    /**
+     * Drops messages loaded from local history except the latest ones.
+     * Unread, not sent and not saved messages are kept.
+     */
+    void trimHistory() {
+        int keep = messages.size() - HISTORY_PAGE_SIZE;
+        if (keep <= 0) {
             return;
-        final ArrayList<MessageItem> messageItems = new ArrayList<MessageItem>();
-        Cursor cursor = MessageTable.getInstance().list(account, user);
-        try {
-            if (cursor.moveToFirst()) {
-                do {
-                    MessageItem messageItem = createMessageItem(cursor);
-                    if (historyIds.contains(messageItem.getId()))
-                        messageItems.add(messageItem);
-                } while (cursor.moveToNext());
+        }
+        boolean removed = false;
+        Iterator<MessageItem> iterator = messages.subList(0, keep).iterator();
+        while (iterator.hasNext()) {
+            MessageItem messageItem = iterator.next();
+            if (messageItem.getId() != null && messageItem.isRead() && messageItem.isSent()
+                    && !sendQuery.contains(messageItem)) {
+                iterator.remove();
+                removed = true;
             }
-        } finally {
-            cursor.close();
         }
-        historyIds.clear();
-        Application.getInstance().runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                addMessages(messageItems);
+        if (!removed) {
+            return;
+        }
+        onMessagesChanged();
+        historyGeneration += 1;
+        historyLoading = false;
+        hasHistory = true;
+        historyTimestamp = null;
+        historyId = 0;
+        for (MessageItem messageItem : messages) {
+            if (messageItem.getId() != null) {
+                historyTimestamp = messageItem.getTimestamp().getTime();
+                historyId = messageItem.getId();
+                break;
             }
-        });
+        }
+        MessageManager.getInstance().onChatChanged(account, user, false);
     }
 
     /**
@@ -268,6 +453,7 @@ public abstract class AbstractChat extends BaseEntity {
         }
         messages.addAll(items);
         sort();
+        onMessagesChanged();
         MessageManager.getInstance().onChatChanged(account, user, false);
         return Math.max(0, messages.size() - previous);
     }
@@ -318,11 +504,22 @@ public abstract class AbstractChat extends BaseEntity {
         return result;
     }
 
+    /**
+     * Requests to load previous page of messages from local history.
+     */
     void requestToLoadLocalHistory() {
-        Application.getInstance().runInBackground(new Runnable() {
+        if (historyLoading || !hasHistory) {
+            return;
+        }
+        historyLoading = true;
+        final int generation = historyGeneration;
+        final Long timestamp = historyTimestamp;
+        final long id = historyId;
+        Application.getInstance().runInBackground(BackgroundLane.read, TaskPriority.high,
+                new Runnable() {
             @Override
             public void run() {
-                loadHistory();
+                loadHistory(generation, timestamp, id);
             }
         });
     }
@@ -375,6 +572,7 @@ public abstract class AbstractChat extends BaseEntity {
                                      ChatAction action, Date delayTimestamp, boolean incoming,
                                      boolean notify, boolean unencrypted, boolean offline, boolean record) {
         boolean save;
+        ChatSettings chatSettings = ChatManager.getInstance().getChatSettings(account, user);
         boolean visible = MessageManager.getInstance().isVisibleChat(this);
         boolean read = incoming ? visible : true;
         boolean send = incoming;
@@ -397,7 +595,7 @@ public abstract class AbstractChat extends BaseEntity {
                 save = archiveMode.saveLocally() || !send
                         || (!read && archiveMode == ArchiveMode.unreadOnly);
             if (save)
-                save = ChatManager.getInstance().isSaveMessages(account, user);
+                save = chatSettings.isSaveMessages();
         }
         if (save
                 && (unencrypted || (!SettingsManager.securityOtrHistory() && OTRManager
@@ -436,7 +634,7 @@ public abstract class AbstractChat extends BaseEntity {
 
         if (notify && notifyAboutMessage()) {
             if (visible) {
-                if (ChatManager.getInstance().isNotifyVisible(account, user)) {
+                if (chatSettings.isNotifyVisible()) {
                     NotificationManager.getInstance().onCurrentChatMessageNotification(messageItem);
                 }
             } else {
@@ -463,6 +661,7 @@ public abstract class AbstractChat extends BaseEntity {
 
         messages.add(messageItem);
         sort();
+        onMessagesChanged();
 
         MessageManager.getInstance().onChatChanged(account, user, false);
         return messageItem;
@@ -472,15 +671,16 @@ public abstract class AbstractChat extends BaseEntity {
                                        final String resource, final String text, final ChatAction action,
                                        final Date timestamp, final Date delayTimestamp,
                                        final boolean incoming, final boolean read, final boolean sent) {
-        Application.getInstance().runInBackground(new Runnable() {
-            @Override
-            public void run() {
-                long id = MessageTable.getInstance().add(account, user, null,
-                        resource, text, action, timestamp, delayTimestamp,
-                        incoming, read, sent, false);
-                messageItem.setId(id);
-            }
-        });
+        MessageWriter.getInstance().add(messageItem, account, user, resource, text, action,
+                timestamp, delayTimestamp, incoming, read, sent);
+    }
+
+    /**
+     * Called when messages were added or removed other than by
+     * {@link #newMessage(String, String, ChatAction, Date, boolean, boolean, boolean, boolean, boolean)}
+     * or when packet ID or delay timestamp of sent messages was changed.
+     */
+    protected void onMessagesChanged() {
     }
 
     private void updateSendQuery(MessageItem messageItem) {
@@ -507,14 +707,14 @@ public abstract class AbstractChat extends BaseEntity {
     void removeMessage(MessageItem messageItem) {
         messages.remove(messageItem);
         sendQuery.remove(messageItem);
+        unacknowledged.remove(messageItem);
+        preparing.remove(messageItem);
+        preparedTexts.remove(messageItem);
+        intents.remove(messageItem);
+        onMessagesChanged();
         final ArrayList<MessageItem> messageItems = new ArrayList<MessageItem>();
         messageItems.add(messageItem);
-        Application.getInstance().runInBackground(new Runnable() {
-            @Override
-            public void run() {
-                MessageTable.getInstance().removeMessages(MessageManager.getMessageIds(messageItems, true));
-            }
-        });
+        MessageWriter.getInstance().remove(messageItems);
     }
 
     void removeAllMessages() {
@@ -523,14 +723,18 @@ public abstract class AbstractChat extends BaseEntity {
         lastText = "";
         messages.clear();
         sendQuery.clear();
-        Application.getInstance().runInBackground(new Runnable() {
-            @Override
-            public void run() {
-                MessageTable.getInstance().removeMessages(MessageManager.getMessageIds(messageItems, true));
-                MessageTable.getInstance().removeMessages(historyIds);
-                historyIds.clear();
-            }
-        });
+        unacknowledged.clear();
+        preparing.clear();
+        preparedTexts.clear();
+        intents.clear();
+        onMessagesChanged();
+        historyGeneration += 1;
+        historyLoading = false;
+        hasHistory = false;
+        historyTimestamp = null;
+        historyId = 0;
+        MessageWriter.getInstance().remove(messageItems);
+        MessageWriter.getInstance().removeChat(account, user);
     }
 
     /**
@@ -585,13 +789,38 @@ public abstract class AbstractChat extends BaseEntity {
     }
 
     /**
-     * Prepare text to be send.
+     * Prepare text to be send. Result must be passed to
+     * {@link #onTextPrepared(MessageItem, String)} in UI thread, immediately
+     * or when it will be ready.
      *
-     * @param text
-     * @return <code>null</code> if text shouldn't be send.
+     * @param messageItem
+     */
+    protected void prepareText(MessageItem messageItem) {
+        onTextPrepared(messageItem, messageItem.getText());
+    }
+
+    /**
+     * Text of the message from the queue has been prepared.
+     *
+     * @param messageItem
+     * @param text        <code>null</code> if text shouldn't be send.
      */
-    protected String prepareText(String text) {
-        return text;
+    protected void onTextPrepared(MessageItem messageItem, String text) {
+        if (!preparing.remove(messageItem))
+            return;
+        preparedTexts.put(messageItem, text);
+        if (!sending)
+            sendQueue(null);
+    }
+
+    /**
+     * Drops prepared texts, e.g. encrypted for session which is no longer
+     * actual. Results of preparations in progress will be ignored. Messages
+     * will be prepared again when queue is processed.
+     */
+    public void resetPreparedTexts() {
+        preparing.clear();
+        preparedTexts.clear();
     }
 
     /**
@@ -602,20 +831,30 @@ public abstract class AbstractChat extends BaseEntity {
     protected void sendQueue(MessageItem intent) {
         if (!canSendMessage())
             return;
+        if (intent != null)
+            intents.add(intent);
         final ArrayList<MessageItem> sentMessages = new ArrayList<MessageItem>();
-        final ArrayList<MessageItem> removeMessages = new ArrayList<MessageItem>();
+        boolean changed = false;
+        boolean waiting = false;
+        sending = true;
         for (final MessageItem messageItem : sendQuery) {
-            String text = prepareText(messageItem.getText());
+            if (unacknowledged.contains(messageItem))
+                continue;
+            if (!preparedTexts.containsKey(messageItem)) {
+                if (preparing.add(messageItem))
+                    prepareText(messageItem);
+                if (!preparedTexts.containsKey(messageItem))
+                    waiting = true;
+            }
+            // Following messages can be prepared, but must be sent in order.
+            if (waiting)
+                continue;
+            boolean acknowledge = false;
+            boolean sentIntent = intents.remove(messageItem);
+            String text = preparedTexts.remove(messageItem);
             if (text == null) {
                 messageItem.markAsError();
-                Application.getInstance().runInBackground(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (messageItem.getId() != null)
-                            MessageTable.getInstance().markAsError(
-                                    messageItem.getId());
-                    }
-                });
+                MessageWriter.getInstance().markAsError(messageItem);
             } else {
                 Message message = createMessagePacket(text);
                 messageItem.setPacketID(message.getPacketID());
@@ -625,23 +864,76 @@ public abstract class AbstractChat extends BaseEntity {
                         message, messageItem);
                 CarbonManager.getInstance().updateOutgoingMessage(this,
                         message, messageItem);
-                if (messageItem != intent)
+                if (!sentIntent)
                     message.addExtension(new DelayInformation(messageItem
                             .getTimestamp()));
                 try {
-                    ConnectionManager.getInstance()
-                            .sendStanza(account, message);
+                    acknowledge = ConnectionManager.getInstance().sendStanza(account,
+                            message, new Runnable() {
+                                @Override
+                                public void run() {
+                                    onAcknowledged(messageItem);
+                                }
+                            }, new Runnable() {
+                                @Override
+                                public void run() {
+                                    onNotAcknowledged(messageItem);
+                                }
+                            });
                 } catch (NetworkException e) {
+                    // Text will be prepared again, it can be encrypted for
+                    // session which won't be actual on retry.
+                    if (sentIntent)
+                        intents.add(messageItem);
                     break;
                 }
             }
+            changed = true;
             if (MessageArchiveManager.getInstance().getSaveMode(account, user,
                     threadId) == SaveMode.fls)
                 messageItem.setTag(NO_RECORD_TAG);
-            if (messageItem != intent) {
+            if (!sentIntent) {
                 messageItem.setSentTimeStamp(new Date());
                 Collections.sort(messages);
             }
+            if (acknowledge)
+                // Will be marked as sent when server acknowledges it.
+                unacknowledged.add(messageItem);
+            else
+                sentMessages.add(messageItem);
+        }
+        sending = false;
+        if (changed)
+            onMessagesChanged();
+        onSent(sentMessages);
+    }
+
+    /**
+     * Server acknowledged message sent with stream management (XEP-0198).
+     */
+    private void onAcknowledged(MessageItem messageItem) {
+        if (!unacknowledged.remove(messageItem))
+            return;
+        ArrayList<MessageItem> sentMessages = new ArrayList<MessageItem>();
+        sentMessages.add(messageItem);
+        onSent(sentMessages);
+    }
+
+    /**
+     * Stream was closed before server acknowledged the message, so it must be
+     * sent again.
+     */
+    private void onNotAcknowledged(MessageItem messageItem) {
+        unacknowledged.remove(messageItem);
+    }
+
+    /**
+     * Marks messages as sent and removes them from the queue.
+     */
+    private void onSent(Collection<MessageItem> messageItems) {
+        final ArrayList<MessageItem> sentMessages = new ArrayList<MessageItem>();
+        final ArrayList<MessageItem> removeMessages = new ArrayList<MessageItem>();
+        for (MessageItem messageItem : messageItems) {
             messageItem.markAsSent();
             if (AccountManager.getInstance()
                     .getArchiveMode(messageItem.getChat().getAccount())
@@ -653,17 +945,8 @@ public abstract class AbstractChat extends BaseEntity {
         sendQuery.removeAll(sentMessages);
         sendQuery.removeAll(removeMessages);
         MessageManager.getInstance().onChatChanged(account, user, false);
-        Application.getInstance().runInBackground(new Runnable() {
-            @Override
-            public void run() {
-                Collection<Long> sentIds = MessageManager.getMessageIds(
-                        sentMessages, false);
-                Collection<Long> removeIds = MessageManager.getMessageIds(
-                        removeMessages, true);
-                MessageTable.getInstance().markAsSent(sentIds);
-                MessageTable.getInstance().removeMessages(removeIds);
-            }
-        });
+        MessageWriter.getInstance().markAsSent(sentMessages);
+        MessageWriter.getInstance().remove(removeMessages);
     }
 
     public String getThreadId() {
@@ -721,6 +1004,11 @@ public abstract class AbstractChat extends BaseEntity {
      * Disconnection occured.
      */
     protected void onDisconnect() {
+        // Not acknowledged messages are queued again by onNotAcknowledged()
+        // or resent by Smack itself if stream resumption failed.
+        // Messages waiting for preparation will be sent with delay.
+        intents.clear();
+        resetPreparedTexts();
     }
 
     public Date getCreationTime() {
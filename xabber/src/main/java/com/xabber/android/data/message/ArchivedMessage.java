@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.message;
+
+import java.util.Date;
+
+/**
+ * Message received from server side message archive to be saved in local
+ * history.
+ */
+public class ArchivedMessage {
+
+    private final String user;
+    private final String resource;
+    private final String text;
+    private final Date timestamp;
+    private final boolean incoming;
+    private final boolean read;
+
+    /**
+     * Id assigned by the archive.
+     */
+    private final String stanzaId;
+
+    /**
+     * Id in local history or <code>null</code> if not saved yet.
+     */
+    private Long id;
+
+    /**
+     * @param user     bare address of the contact.
+     * @param resource contact's resource.
+     * @param text
+     * @param timestamp time when message was archived.
+     * @param incoming
+     * @param read     whether message should be saved as read.
+     * @param stanzaId
+     */
+    public ArchivedMessage(String user, String resource, String text, Date timestamp,
+                           boolean incoming, boolean read, String stanzaId) {
+        this.user = user;
+        this.resource = resource == null ? "" : resource;
+        this.text = text;
+        this.timestamp = timestamp;
+        this.incoming = incoming;
+        this.read = read;
+        this.stanzaId = stanzaId;
+        id = null;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getResource() {
+        return resource;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean isIncoming() {
+        return incoming;
+    }
+
+    public boolean isRead() {
+        return read;
+    }
+
+    public String getStanzaId() {
+        return stanzaId;
+    }
+
+    Long getId() {
+        return id;
+    }
+
+    void setId(Long id) {
+        this.id = id;
+    }
+
+}
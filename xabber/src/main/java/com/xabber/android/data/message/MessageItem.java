@@ -17,6 +17,8 @@ package com.xabber.android.data.message;
 import android.text.Spannable;
 import android.text.SpannableString;
 
+import com.xabber.android.utils.Emoticons;
+
 import java.io.File;
 import java.util.Date;
 
@@ -56,6 +58,14 @@ public class MessageItem implements Comparable<MessageItem> {
      * Cached text populated with smiles and link.
      */
     private Spannable spannable;
+    /**
+     * Smiles {@link #spannable} was populated with.
+     */
+    private Emoticons.Dictionary smiles;
+    /**
+     * Size of smiles in {@link #spannable}.
+     */
+    private int smilesSize;
     /**
      * Time when message was received or sent by Xabber.
      */
@@ -156,6 +166,19 @@ public class MessageItem implements Comparable<MessageItem> {
         return spannable;
     }
 
+    public Emoticons.Dictionary getSmiles() {
+        return smiles;
+    }
+
+    public int getSmilesSize() {
+        return smilesSize;
+    }
+
+    public void setSmiles(Emoticons.Dictionary smiles, int smilesSize) {
+        this.smiles = smiles;
+        this.smilesSize = smilesSize;
+    }
+
     public ChatAction getAction() {
         return action;
     }
@@ -19,8 +19,9 @@ import android.os.Environment;
 
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.LoadDependent;
 import com.xabber.android.data.NetworkException;
-import com.xabber.android.data.OnLoadListener;
 import com.xabber.android.data.SettingsManager;
 import com.xabber.android.data.SettingsManager.ChatsShowStatusChange;
 import com.xabber.android.data.account.AccountItem;
@@ -32,8 +33,10 @@ import com.xabber.android.data.account.OnAccountRemovedListener;
 import com.xabber.android.data.account.StatusMode;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.OnDisconnectListener;
-import com.xabber.android.data.connection.OnPacketListener;
+import com.xabber.android.data.connection.OnPacketProcessListener;
+import com.xabber.android.data.connection.OnResumedListener;
 import com.xabber.android.data.entity.BaseEntity;
+import com.xabber.android.data.entity.EntityChangeAggregator;
 import com.xabber.android.data.entity.NestedMap;
 import com.xabber.android.data.extension.archive.MessageArchiveManager;
 import com.xabber.android.data.extension.blocking.BlockingManager;
@@ -41,6 +44,9 @@ import com.xabber.android.data.extension.blocking.PrivateMucChatBlockingManager;
 import com.xabber.android.data.extension.file.FileManager;
 import com.xabber.android.data.extension.muc.MUCManager;
 import com.xabber.android.data.extension.muc.RoomChat;
+import com.xabber.android.data.extension.otr.OTRManager;
+import com.xabber.android.data.extension.otr.SecurityLevel;
+import com.xabber.android.data.message.chat.ChatManager;
 import com.xabber.android.data.message.chat.MucPrivateChatNotification;
 import com.xabber.android.data.notification.EntityNotificationProvider;
 import com.xabber.android.data.notification.NotificationManager;
@@ -65,6 +71,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -77,8 +84,8 @@ import java.util.Set;
  *
  * @author alexander.ivanov
  */
-public class MessageManager implements OnLoadListener, OnPacketListener, OnDisconnectListener,
-        OnAccountRemovedListener, OnAccountDisabledListener, OnRosterReceivedListener,
+public class MessageManager implements LoadDependent, OnPacketProcessListener, OnDisconnectListener,
+        OnResumedListener, OnAccountRemovedListener, OnAccountDisabledListener, OnRosterReceivedListener,
         OnAccountArchiveModeChangedListener, OnStatusChangeListener {
 
     private final static MessageManager instance;
@@ -100,9 +107,23 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
      * Will be <code>null</code> if there is no one.
      */
     private AbstractChat visibleChat;
+    /**
+     * Changed chats to be delivered to {@link OnChatChangedListener}.
+     */
+    private final EntityChangeAggregator chatChangeAggregator;
 
     private MessageManager() {
         chats = new NestedMap<>();
+        chatChangeAggregator = new EntityChangeAggregator() {
+            @Override
+            protected void onFlush(Collection<BaseEntity> entities, Collection<BaseEntity> incoming,
+                                   boolean allChanged) {
+                for (OnChatChangedListener onChatChangedListener
+                        : Application.getInstance().getUIListeners(OnChatChangedListener.class)) {
+                    onChatChangedListener.onChatsChanged(entities, incoming);
+                }
+            }
+        };
 
         mucPrivateChatRequestProvider = new EntityNotificationProvider<>
                 (R.drawable.ic_stat_muc_private_chat_request_white_24dp);
@@ -133,6 +154,11 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
         return ids;
     }
 
+    @Override
+    public Class<?>[] getLoadDependencies() {
+        return new Class<?>[]{DatabaseManager.class, AccountManager.class, MUCManager.class};
+    }
+
     @Override
     public void onLoad() {
         final Set<BaseEntity> loadChats = new HashSet<BaseEntity>();
@@ -158,11 +184,14 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
     private void onLoaded(Set<BaseEntity> loadChats) {
         NotificationManager.getInstance().registerNotificationProvider(mucPrivateChatRequestProvider);
 
+        Collection<BaseEntity> created = new ArrayList<>();
         for (BaseEntity baseEntity : loadChats) {
             if (getChat(baseEntity.getAccount(), Jid.getBareAddress(baseEntity.getUser())) == null) {
-                createChat(baseEntity.getAccount(), baseEntity.getUser());
+                created.add(createChat(baseEntity.getAccount(), baseEntity.getUser()));
             }
         }
+        // Contact list could be already shown without these chats.
+        RosterManager.onContactsChanged(created);
     }
 
     /**
@@ -175,11 +204,11 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
     }
 
     public Collection<AbstractChat> getChats() {
-        final Map<String, List<String>> blockedContacts = BlockingManager.getInstance().getBlockedContacts();
+        final Map<String, Collection<String>> blockedContacts = BlockingManager.getInstance().getBlockedContacts();
         final Map<String, Collection<String>> blockedMucContacts = PrivateMucChatBlockingManager.getInstance().getBlockedContacts();
         List<AbstractChat> unblockedChats = new ArrayList<>();
         for (AbstractChat chat : chats.values()) {
-            final List<String> blockedContactsForAccount = blockedContacts.get(chat.getAccount());
+            final Collection<String> blockedContactsForAccount = blockedContacts.get(chat.getAccount());
             if (blockedContactsForAccount != null) {
                 if (blockedContactsForAccount.contains(chat.getUser())) {
                     continue;
@@ -301,6 +330,28 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
         return chat != null && chat.isActive();
     }
 
+    /**
+     * Whether text of messages in the chat can be kept on the device.
+     * <p/>
+     * Uses the same filters as new messages in {@link AbstractChat}: archive
+     * mode of the account, history setting of the chat and OTR history
+     * setting.
+     *
+     * @param account
+     * @param user
+     * @return
+     */
+    public boolean isSaveAllowed(String account, String user) {
+        if (AccountManager.getInstance().getArchiveMode(account) == ArchiveMode.dontStore) {
+            return false;
+        }
+        if (!ChatManager.getInstance().isSaveMessages(account, user)) {
+            return false;
+        }
+        return SettingsManager.securityOtrHistory()
+                || OTRManager.getInstance().getSecurityLevel(account, user) == SecurityLevel.plain;
+    }
+
     /**
      * @return Collection with active chats.
      */
@@ -335,6 +386,42 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
         return chat;
     }
 
+    /**
+     * Saves messages received from server side message archive to the local
+     * history.
+     *
+     * @param account
+     * @param archivedMessages
+     */
+    public void addArchivedMessages(String account, Collection<ArchivedMessage> archivedMessages) {
+        if (archivedMessages.isEmpty()) {
+            return;
+        }
+        MessageWriter.getInstance().addArchived(account, archivedMessages);
+    }
+
+    /**
+     * Adds saved archived messages to the chats in memory. Other chats will
+     * read them from the local history.
+     */
+    void onArchivedMessagesSaved(String account, Collection<ArchivedMessage> archivedMessages) {
+        Map<String, Collection<ArchivedMessage>> users = new HashMap<>();
+        for (ArchivedMessage archivedMessage : archivedMessages) {
+            Collection<ArchivedMessage> items = users.get(archivedMessage.getUser());
+            if (items == null) {
+                items = new ArrayList<>();
+                users.put(archivedMessage.getUser(), items);
+            }
+            items.add(archivedMessage);
+        }
+        for (Map.Entry<String, Collection<ArchivedMessage>> entry : users.entrySet()) {
+            AbstractChat chat = getChat(account, entry.getKey());
+            if (chat != null) {
+                chat.onArchivedMessagesSaved(entry.getValue());
+            }
+        }
+    }
+
     public AbstractChat getOrCreatePrivateMucChat(String account, String user) {
         AbstractChat chat = getChat(account, user);
         if (chat == null) {
@@ -424,17 +511,14 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
                     messageItems.add(messageItem);
                 }
             }
-            Application.getInstance().runInBackground(new Runnable() {
-                @Override
-                public void run() {
-                    Collection<Long> ids = getMessageIds(messageItems, remove);
-                    if (remove) {
-                        MessageTable.getInstance().removeMessages(ids);
-                    } else {
-                        MessageTable.getInstance().markAsRead(ids);
-                    }
-                }
-            });
+            if (remove) {
+                MessageWriter.getInstance().remove(messageItems);
+            } else {
+                MessageWriter.getInstance().markAsRead(messageItems);
+            }
+        }
+        if (this.visibleChat != null && this.visibleChat != chat) {
+            this.visibleChat.trimHistory();
         }
         this.visibleChat = chat;
     }
@@ -443,6 +527,9 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
      * All chats become invisible.
      */
     public void removeVisibleChat() {
+        if (visibleChat != null) {
+            visibleChat.trimHistory();
+        }
         visibleChat = null;
     }
 
@@ -450,7 +537,7 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
      * @param chat
      * @return Whether specified chat is currently visible.
      */
-    boolean isVisibleChat(AbstractChat chat) {
+    public boolean isVisibleChat(AbstractChat chat) {
         return visibleChat == chat;
     }
 
@@ -537,39 +624,57 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
                 }
             }
         }
-        Application.getInstance().runInBackground(new Runnable() {
-            @Override
-            public void run() {
-                // If message was read or received after removeMessageItems
-                // was created then it's ID will be not null. DB actions with
-                // such message will have no effect as if it was removed.
-                // History ids becomes invalid and will be cleared on next
-                // history load.
-                MessageTable.getInstance().removeMessages(getMessageIds(removeMessageItems, true));
-                if (archiveMode == ArchiveMode.dontStore) {
-                    MessageTable.getInstance().removeAccount(account);
-                } else if (archiveMode == ArchiveMode.unreadOnly) {
-                    MessageTable.getInstance().removeReadAndSent(account);
-                } else {
-                    MessageTable.getInstance().removeSent(account);
-                }
-            }
-        });
+        // If message was read or received after removeMessageItems
+        // was created then it's ID will be not null. DB actions with
+        // such message will have no effect as if it was removed.
+        MessageWriter.getInstance().remove(removeMessageItems);
+        if (archiveMode == ArchiveMode.dontStore) {
+            MessageWriter.getInstance().removeAccount(account);
+        } else if (archiveMode == ArchiveMode.unreadOnly) {
+            MessageWriter.getInstance().removeReadAndSent(account);
+        } else {
+            MessageWriter.getInstance().removeSent(account);
+        }
         AccountManager.getInstance().onAccountChanged(accountItem.getAccount());
     }
 
     @Override
-    public void onPacket(ConnectionItem connection, String bareAddress, Stanza packet) {
-        if (!(connection instanceof AccountItem)) {
-            return;
+    public Runnable onPacketProcess(ConnectionItem connection, final String bareAddress,
+                                    final Stanza packet) {
+        if (!(connection instanceof AccountItem) || bareAddress == null) {
+            return null;
         }
-        String account = ((AccountItem) connection).getAccount();
-        if (bareAddress == null) {
-            return;
+        final String account = ((AccountItem) connection).getAccount();
+        // Extensions are looked through in background, so UI thread only
+        // routes the packet.
+        final boolean offline = packet instanceof Message
+                && Delay.isOfflineMessage(Jid.getServer(account), packet);
+        final boolean mucUser = packet instanceof Message && hasMucUser((Message) packet);
+        return new Runnable() {
+            @Override
+            public void run() {
+                onPacket(account, bareAddress, packet, offline, mucUser);
+            }
+        };
+    }
+
+    private static boolean hasMucUser(Message message) {
+        for (ExtensionElement packetExtension : message.getExtensions()) {
+            if (packetExtension instanceof MUCUser) {
+                return true;
+            }
         }
-        if (packet instanceof Message
-                && MessageArchiveManager.getInstance().isModificationsSucceed(account)
-                && Delay.isOfflineMessage(Jid.getServer(account), packet)) {
+        return false;
+    }
+
+    /**
+     * @param offline whether message was received from server side offline
+     *                storage.
+     * @param mucUser whether message contains MUC user extension.
+     */
+    private void onPacket(String account, String bareAddress, Stanza packet, boolean offline,
+                          boolean mucUser) {
+        if (offline && MessageArchiveManager.getInstance().isModificationsSucceed(account)) {
             // Ignore offline message if modification from server side message
             // archive have been received.
             return;
@@ -588,13 +693,7 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
 
 
         final String user = packet.getFrom();
-        boolean processed = false;
-        for (AbstractChat chat : chats.getNested(account).values()) {
-            if (chat.onPacket(contact, packet)) {
-                processed = true;
-                break;
-            }
-        }
+        boolean processed = routePacket(account, contact, packet);
 
         final AbstractChat chat = getChat(account, user);
 
@@ -625,16 +724,30 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
                 return;
             }
 
-            for (ExtensionElement packetExtension : message.getExtensions()) {
-                if (packetExtension instanceof MUCUser) {
-                    return;
-                }
+            if (mucUser) {
+                return;
             }
 
             createChat(account, user).onPacket(contact, packet);
         }
     }
 
+    /**
+     * Passes packet to the chat it was directed to.
+     * <p/>
+     * Chat accepts only packets for its user, so packet is routed to the chat
+     * registered for the contact without asking other chats.
+     *
+     * @param account
+     * @param contact bare address or full JID for private chat in the room.
+     * @param packet
+     * @return Whether packet was processed by existing chat.
+     */
+    private boolean routePacket(String account, String contact, Stanza packet) {
+        AbstractChat chat = getChat(account, contact);
+        return chat != null && chat.onPacket(contact, packet);
+    }
+
     public void displayForwardedMessage(ConnectionItem connection, Message message, Direction direction) {
 
         if (!(connection instanceof AccountItem))
@@ -665,13 +778,7 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
         }
 
         String companion = Jid.getBareAddress(message.getFrom());
-        boolean processed = false;
-        for (AbstractChat chat : chats.getNested(account).values()) {
-            if (chat.onPacket(companion, message)) {
-                processed = true;
-                break;
-            }
-        }
+        boolean processed = routePacket(account, companion, message);
         if (getChat(account, companion) != null) {
             return;
         }
@@ -704,6 +811,17 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
         }
     }
 
+    @Override
+    public void onResumed(ConnectionItem connection) {
+        if (!(connection instanceof AccountItem)) {
+            return;
+        }
+        String account = ((AccountItem) connection).getAccount();
+        for (AbstractChat chat : chats.getNested(account).values()) {
+            chat.sendMessages();
+        }
+    }
+
     @Override
     public void onAccountRemoved(AccountItem accountItem) {
         chats.clear(accountItem.getAccount());
@@ -768,6 +886,8 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
 
     /**
      * Notifies registered {@link OnChatChangedListener}.
+     * <p/>
+     * Changes are collected and delivered once per frame.
      *
      * @param account
      * @param user
@@ -775,15 +895,7 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
      */
     public void onChatChanged(final String account, final String user,
                               final boolean incoming) {
-        Application.getInstance().runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                for (OnChatChangedListener onChatChangedListener
-                        : Application.getInstance().getUIListeners(OnChatChangedListener.class)) {
-                    onChatChangedListener.onChatChanged(account, user, incoming);
-                }
-            }
-        });
+        chatChangeAggregator.onChanged(account, user, incoming);
     }
 
     private boolean isStatusTrackingEnabled(String account, String bareAddress) {
@@ -19,6 +19,7 @@ import java.util.Date;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteStatement;
 
@@ -93,6 +94,11 @@ class MessageTable extends AbstractEntityTable {
          */
         public static final String ERROR = "error";
 
+        /**
+         * Id assigned by server side message archive (XEP-0313).
+         */
+        public static final String STANZA_ID = "stanza_id";
+
     }
 
     private static final String NAME = "messages";
@@ -132,12 +138,20 @@ class MessageTable extends AbstractEntityTable {
                 + Fields.TIMESTAMP + " INTEGER," + Fields.DELAY_TIMESTAMP
                 + " INTEGER," + Fields.INCOMING + " BOOLEAN," + Fields.READ
                 + " BOOLEAN," + Fields.SENT + " BOOLEAN," + Fields.ERROR
-                + " BOOLEAN," + Fields.TAG + " TEXT);";
+                + " BOOLEAN," + Fields.TAG + " TEXT," + Fields.STANZA_ID
+                + " TEXT);";
         DatabaseManager.execSQL(db, sql);
         sql = "CREATE INDEX " + NAME + "_list ON " + NAME + " ("
                 + Fields.ACCOUNT + ", " + Fields.USER + ", " + Fields.TIMESTAMP
                 + " ASC)";
         DatabaseManager.execSQL(db, sql);
+        createStanzaIdIndex(db);
+    }
+
+    private void createStanzaIdIndex(SQLiteDatabase db) {
+        String sql = "CREATE INDEX " + NAME + "_stanza_id ON " + NAME + " ("
+                + Fields.ACCOUNT + ", " + Fields.STANZA_ID + ")";
+        DatabaseManager.execSQL(db, sql);
     }
 
     @Override
@@ -256,6 +270,11 @@ class MessageTable extends AbstractEntityTable {
                 sql = "CREATE INDEX messages_list ON messages (account, user, timestamp ASC);";
                 DatabaseManager.execSQL(db, sql);
                 break;
+            case 72:
+                sql = "ALTER TABLE messages ADD COLUMN stanza_id TEXT;";
+                DatabaseManager.execSQL(db, sql);
+                createStanzaIdIndex(db);
+                break;
             default:
                 break;
         }
@@ -266,8 +285,8 @@ class MessageTable extends AbstractEntityTable {
      *
      * @return Assigned id.
      */
-    long add(String account, String bareAddress, String tag, String resource,
-             String text, ChatAction action, Date timeStamp,
+    long add(String account, String bareAddress, String tag, String stanzaId,
+             String resource, String text, ChatAction action, Date timeStamp,
              Date delayTimeStamp, boolean incoming, boolean read, boolean sent,
              boolean error) {
         final String actionString;
@@ -284,8 +303,9 @@ class MessageTable extends AbstractEntityTable {
                         + Fields.ACTION + ", " + Fields.TIMESTAMP + ", "
                         + Fields.DELAY_TIMESTAMP + ", " + Fields.INCOMING
                         + ", " + Fields.READ + ", " + Fields.SENT + ", "
-                        + Fields.ERROR + ", " + Fields.TAG + ") VALUES "
-                        + "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);");
+                        + Fields.ERROR + ", " + Fields.TAG + ", "
+                        + Fields.STANZA_ID + ") VALUES "
+                        + "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);");
             }
             insertNewMessageStatement.bindString(1, account);
             insertNewMessageStatement.bindString(2, bareAddress);
@@ -305,10 +325,78 @@ class MessageTable extends AbstractEntityTable {
                 insertNewMessageStatement.bindNull(12);
             else
                 insertNewMessageStatement.bindString(12, tag);
+            if (stanzaId == null)
+                insertNewMessageStatement.bindNull(13);
+            else
+                insertNewMessageStatement.bindString(13, stanzaId);
             return insertNewMessageStatement.executeInsert();
         }
     }
 
+    /**
+     * @param account
+     * @param stanzaId id assigned by server side message archive.
+     * @return Whether message with specified id was saved.
+     */
+    boolean hasStanzaId(String account, String stanzaId) {
+        SQLiteDatabase db = databaseManager.getReadableDatabase();
+        return DatabaseUtils.queryNumEntries(db, NAME, Fields.ACCOUNT + " = ? AND "
+                + Fields.STANZA_ID + " = ?", new String[]{account, stanzaId}) > 0;
+    }
+
+    /**
+     * Looks for the same message saved without archive id, e.g. received as
+     * offline message.
+     *
+     * @param account
+     * @param bareAddress
+     * @param resource
+     * @param text
+     * @param incoming
+     * @param timestamp   time when message was sent.
+     * @param window      maximum difference in milliseconds between saved
+     *                    and specified time.
+     * @return Id of such message with the closest time. <code>null</code>
+     * if there is no such message.
+     */
+    Long findMessage(String account, String bareAddress, String resource, String text,
+                     boolean incoming, Date timestamp, long window) {
+        SQLiteDatabase db = databaseManager.getReadableDatabase();
+        long time = timestamp.getTime();
+        String start = String.valueOf(time - window);
+        String end = String.valueOf(time + window);
+        Cursor cursor = db.query(NAME, new String[]{Fields._ID}, Fields.ACCOUNT + " = ? AND "
+                        + Fields.USER + " = ? AND " + Fields.RESOURCE + " = ? AND "
+                        + Fields.TEXT + " = ? AND " + Fields.INCOMING + " = ? AND "
+                        + Fields.STANZA_ID + " IS NULL AND ((" + Fields.TIMESTAMP
+                        + " BETWEEN ? AND ?) OR (" + Fields.DELAY_TIMESTAMP
+                        + " BETWEEN ? AND ?))",
+                new String[]{account, bareAddress, resource, text, incoming ? "1" : "0",
+                        start, end, start, end},
+                null, null, "MIN(ABS(" + Fields.TIMESTAMP + " - " + time + "), ABS(IFNULL("
+                        + Fields.DELAY_TIMESTAMP + ", " + Fields.TIMESTAMP + ") - " + time
+                        + ")), " + Fields._ID, "1");
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Assigns archive id to the message saved without it.
+     */
+    void setStanzaId(long id, String stanzaId) {
+        SQLiteDatabase db = databaseManager.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(Fields.STANZA_ID, stanzaId);
+        db.update(NAME, values, Fields._ID + " = ?",
+                new String[]{String.valueOf(id)});
+    }
+
     void markAsRead(Collection<Long> ids) {
         if (ids.isEmpty())
             return;
@@ -338,13 +426,48 @@ class MessageTable extends AbstractEntityTable {
     /**
      * @param account
      * @param bareAddress
-     * @return Result set with messages for the chat.
+     * @return Result set with messages for the chat starting from the first
+     * unread or not sent message.
      */
-    Cursor list(String account, String bareAddress) {
+    Cursor listUnread(String account, String bareAddress) {
         SQLiteDatabase db = databaseManager.getReadableDatabase();
         return db.query(NAME, PROJECTION, Fields.ACCOUNT + " = ? AND "
-                        + Fields.USER + " = ?", new String[]{account, bareAddress},
-                null, null, Fields.TIMESTAMP);
+                        + Fields.USER + " = ? AND " + Fields.TIMESTAMP + " >= (SELECT MIN("
+                        + Fields.TIMESTAMP + ") FROM " + NAME + " WHERE " + Fields.ACCOUNT
+                        + " = ? AND " + Fields.USER + " = ? AND (" + Fields.READ + " = 0 OR "
+                        + Fields.SENT + " = 0))",
+                new String[]{account, bareAddress, account, bareAddress},
+                null, null, Fields.TIMESTAMP + ", " + Fields._ID);
+    }
+
+    /**
+     * Returns page of messages older than specified one.
+     * <p/>
+     * Uses keyset pagination on timestamp and id, so request cost doesn't
+     * depend on position in history.
+     *
+     * @param account
+     * @param bareAddress
+     * @param timestamp   timestamp of the oldest loaded message.
+     *                    <code>null</code> to start from the newest message.
+     * @param id          id of the oldest loaded message.
+     * @param limit       maximum number of messages.
+     * @return Result set with messages for the chat, newest first.
+     */
+    Cursor listBefore(String account, String bareAddress, Long timestamp, long id, int limit) {
+        SQLiteDatabase db = databaseManager.getReadableDatabase();
+        String selection = Fields.ACCOUNT + " = ? AND " + Fields.USER + " = ?";
+        String[] selectionArgs;
+        if (timestamp == null) {
+            selectionArgs = new String[]{account, bareAddress};
+        } else {
+            selection += " AND (" + Fields.TIMESTAMP + " < ? OR (" + Fields.TIMESTAMP
+                    + " = ? AND " + Fields._ID + " < ?))";
+            selectionArgs = new String[]{account, bareAddress, String.valueOf(timestamp),
+                    String.valueOf(timestamp), String.valueOf(id)};
+        }
+        return db.query(NAME, PROJECTION, selection, selectionArgs, null, null,
+                Fields.TIMESTAMP + " DESC, " + Fields._ID + " DESC", String.valueOf(limit));
     }
 
     /**
@@ -380,6 +503,18 @@ class MessageTable extends AbstractEntityTable {
                 new String[]{account, "1",});
     }
 
+    /**
+     * Removes all messages for the chat.
+     *
+     * @param account
+     * @param bareAddress
+     */
+    void removeMessages(String account, String bareAddress) {
+        SQLiteDatabase db = databaseManager.getWritableDatabase();
+        db.delete(NAME, Fields.ACCOUNT + " = ? AND " + Fields.USER + " = ?",
+                new String[]{account, bareAddress});
+    }
+
     void removeMessages(Collection<Long> ids) {
         if (ids.isEmpty())
             return;
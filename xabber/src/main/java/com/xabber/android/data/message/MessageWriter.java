@@ -0,0 +1,430 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.message;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.LogManager;
+import com.xabber.android.data.OnCloseListener;
+import com.xabber.android.data.TaskPriority;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * Write-behind journal for {@link MessageTable}.
+ * <p/>
+ * Changes are queued in order they were requested and written in single
+ * transaction when {@link #BATCH_SIZE} changes were collected or after
+ * {@link #FLUSH_DELAY}. Failed operation is skipped, so it doesn't roll back
+ * the rest of the batch.
+ * <p/>
+ * Operations with messages are resolved to ids on write, so change requested
+ * right after message creation will be applied to the assigned id. Ids are
+ * cleared if transaction wasn't committed, and results are delivered to the
+ * UI thread only after commit.
+ */
+class MessageWriter implements OnCloseListener {
+
+    /**
+     * Number of queued operations to start writing immediately.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * Maximum delay in milliseconds before queued operations will be written.
+     */
+    private static final long FLUSH_DELAY = 250;
+
+    /**
+     * Maximum difference in milliseconds between archived message and saved
+     * message without archive id to treat them as the same message.
+     */
+    private static final long DUPLICATE_WINDOW = 2 * 60 * 1000;
+
+    private final static MessageWriter instance;
+
+    static {
+        instance = new MessageWriter();
+        Application.getInstance().addManager(instance);
+    }
+
+    public static MessageWriter getInstance() {
+        return instance;
+    }
+
+    private final Object lock;
+
+    /**
+     * Serializes transactions, so batches are written in order they were
+     * taken from the queue.
+     */
+    private final Object flushLock;
+
+    /**
+     * Operations to be written.
+     */
+    private ArrayList<Operation> operations;
+
+    /**
+     * Whether flush was submitted to the background thread.
+     */
+    private boolean flushRequested;
+
+    /**
+     * Whether delayed flush was posted.
+     */
+    private boolean flushScheduled;
+
+    /**
+     * Whether application is closing, so operations must be written without
+     * delay.
+     */
+    private boolean closed;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private final Runnable delayedFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (lock) {
+                flushScheduled = false;
+                if (operations.isEmpty()) {
+                    return;
+                }
+            }
+            requestFlush();
+        }
+    };
+
+    private MessageWriter() {
+        lock = new Object();
+        flushLock = new Object();
+        operations = new ArrayList<>();
+        flushRequested = false;
+        flushScheduled = false;
+        closed = false;
+    }
+
+    /**
+     * Requests to save new message. Id will be assigned to the message item
+     * on write.
+     */
+    void add(final MessageItem messageItem, final String account, final String bareAddress,
+             final String resource, final String text, final ChatAction action,
+             final Date timestamp, final Date delayTimestamp, final boolean incoming,
+             final boolean read, final boolean sent) {
+        enqueue(new Operation() {
+            @Override
+            public void execute() {
+                long id = MessageTable.getInstance().add(account, bareAddress, null, null,
+                        resource, text, action, timestamp, delayTimestamp,
+                        incoming, read, sent, false);
+                messageItem.setId(id);
+            }
+
+            @Override
+            public void onDiscarded() {
+                messageItem.setId(null);
+            }
+        });
+    }
+
+    /**
+     * Requests to save messages from server side message archive.
+     * <p/>
+     * Messages already saved with the same archive id are skipped. Message
+     * saved without archive id from the same resource with the same text and
+     * close time gets archive id of the closest archived copy instead of
+     * being saved again. Saved messages are
+     * passed to {@link MessageManager#onArchivedMessagesSaved(String, Collection)}.
+     */
+    void addArchived(final String account, Collection<ArchivedMessage> archivedMessages) {
+        final ArrayList<ArchivedMessage> items = new ArrayList<>(archivedMessages);
+        enqueue(new Operation() {
+            private final ArrayList<ArchivedMessage> saved = new ArrayList<>();
+
+            @Override
+            public void execute() {
+                for (ArchivedMessage item : items) {
+                    if (MessageTable.getInstance().hasStanzaId(account, item.getStanzaId())) {
+                        continue;
+                    }
+                    Long id = MessageTable.getInstance().findMessage(account, item.getUser(),
+                            item.getResource(), item.getText(), item.isIncoming(),
+                            item.getTimestamp(), DUPLICATE_WINDOW);
+                    if (id != null) {
+                        // Claim saved copy, so it won't match repeated message.
+                        MessageTable.getInstance().setStanzaId(id, item.getStanzaId());
+                        continue;
+                    }
+                    item.setId(MessageTable.getInstance().add(account, item.getUser(), null,
+                            item.getStanzaId(), item.getResource(), item.getText(), null,
+                            item.getTimestamp(), item.getTimestamp(), item.isIncoming(),
+                            item.isRead(), true, false));
+                    saved.add(item);
+                }
+            }
+
+            @Override
+            public void onWritten() {
+                if (!saved.isEmpty()) {
+                    MessageManager.getInstance().onArchivedMessagesSaved(account, saved);
+                }
+            }
+
+            @Override
+            public void onDiscarded() {
+                for (ArchivedMessage item : saved) {
+                    item.setId(null);
+                }
+                saved.clear();
+            }
+        });
+    }
+
+    void markAsRead(Collection<MessageItem> messageItems) {
+        final ArrayList<MessageItem> items = new ArrayList<>(messageItems);
+        enqueue(new Operation() {
+            @Override
+            public void execute() {
+                MessageTable.getInstance().markAsRead(MessageManager.getMessageIds(items, false));
+            }
+        });
+    }
+
+    void markAsSent(Collection<MessageItem> messageItems) {
+        final ArrayList<MessageItem> items = new ArrayList<>(messageItems);
+        enqueue(new Operation() {
+            @Override
+            public void execute() {
+                MessageTable.getInstance().markAsSent(MessageManager.getMessageIds(items, false));
+            }
+        });
+    }
+
+    void markAsError(final MessageItem messageItem) {
+        enqueue(new Operation() {
+            @Override
+            public void execute() {
+                if (messageItem.getId() != null) {
+                    MessageTable.getInstance().markAsError(messageItem.getId());
+                }
+            }
+        });
+    }
+
+    /**
+     * Requests to remove messages. Ids of message items will be cleared on
+     * write, so following operations with them will have no effect.
+     *
+     * @param messageItems
+     */
+    void remove(Collection<MessageItem> messageItems) {
+        final ArrayList<MessageItem> items = new ArrayList<>(messageItems);
+        enqueue(new Operation() {
+            @Override
+            public void execute() {
+                MessageTable.getInstance().removeMessages(MessageManager.getMessageIds(items, false));
+            }
+
+            @Override
+            public void onWritten() {
+                // Removed messages can't be changed in database any more.
+                for (MessageItem messageItem : items) {
+                    messageItem.setId(null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Requests to remove all messages for the chat.
+     */
+    void removeChat(final String account, final String bareAddress) {
+        enqueue(new Operation() {
+            @Override
+            public void execute() {
+                MessageTable.getInstance().removeMessages(account, bareAddress);
+            }
+        });
+    }
+
+    void removeAccount(final String account) {
+        enqueue(new Operation() {
+            @Override
+            public void execute() {
+                MessageTable.getInstance().removeAccount(account);
+            }
+        });
+    }
+
+    void removeReadAndSent(final String account) {
+        enqueue(new Operation() {
+            @Override
+            public void execute() {
+                MessageTable.getInstance().removeReadAndSent(account);
+            }
+        });
+    }
+
+    void removeSent(final String account) {
+        enqueue(new Operation() {
+            @Override
+            public void execute() {
+                MessageTable.getInstance().removeSent(account);
+            }
+        });
+    }
+
+    private void enqueue(Operation operation) {
+        boolean flush = false;
+        boolean schedule = false;
+        synchronized (lock) {
+            operations.add(operation);
+            if (operations.size() >= BATCH_SIZE || closed) {
+                flush = true;
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                schedule = true;
+            }
+        }
+        if (flush) {
+            requestFlush();
+        } else if (schedule) {
+            Application.getInstance().runOnUiThreadDelay(delayedFlushRunnable, FLUSH_DELAY);
+        }
+    }
+
+    /**
+     * Requests to write all queued operations.
+     */
+    private void requestFlush() {
+        synchronized (lock) {
+            if (flushRequested) {
+                return;
+            }
+            flushRequested = true;
+        }
+        Application.getInstance().runInBackground(BackgroundLane.database,
+                TaskPriority.normal, flushRunnable);
+    }
+
+    /**
+     * Writes all queued operations in single transaction.
+     * <p/>
+     * Exception thrown by operation is logged and next operations are
+     * executed. If transaction itself fails, all operations are discarded.
+     * <p/>
+     * CALL THIS METHOD FROM BACKGROUND THREAD OR ON CLOSE ONLY.
+     */
+    private void flush() {
+        synchronized (flushLock) {
+            flushBatch();
+        }
+    }
+
+    private void flushBatch() {
+        final ArrayList<Operation> batch;
+        synchronized (lock) {
+            batch = operations;
+            operations = new ArrayList<>();
+            flushRequested = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        LogManager.i(this, "flush " + batch.size());
+        boolean committed = false;
+        try {
+            SQLiteDatabase db = DatabaseManager.getInstance().getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Operation operation : batch) {
+                    try {
+                        operation.execute();
+                    } catch (RuntimeException e) {
+                        LogManager.exception(this, e);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            committed = true;
+        } catch (RuntimeException e) {
+            LogManager.exception(this, e);
+        }
+        if (!committed) {
+            for (Operation operation : batch) {
+                operation.onDiscarded();
+            }
+            return;
+        }
+        Application.getInstance().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                for (Operation operation : batch) {
+                    operation.onWritten();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onClose() {
+        synchronized (lock) {
+            closed = true;
+        }
+        // Queued operations must be written before process will be killed.
+        flush();
+    }
+
+    /**
+     * Queued database change.
+     */
+    private static abstract class Operation {
+
+        /**
+         * Applies change.
+         * <p/>
+         * Called from background thread inside transaction.
+         */
+        public abstract void execute();
+
+        /**
+         * Called from UI thread after transaction was committed.
+         */
+        public void onWritten() {
+        }
+
+        /**
+         * Called from background thread if transaction was rolled back.
+         */
+        public void onDiscarded() {
+        }
+
+    }
+
+}
@@ -15,6 +15,9 @@
 package com.xabber.android.data.message;
 
 import com.xabber.android.data.BaseUIListener;
+import com.xabber.android.data.entity.BaseEntity;
+
+import java.util.Collection;
 
 /**
  * Listener for changes in the chat.
@@ -24,10 +27,11 @@ import com.xabber.android.data.BaseUIListener;
 public interface OnChatChangedListener extends BaseUIListener {
 
     /**
-     * @param account
-     * @param user
-     * @param incoming Whether new incoming message received.
+     * Chats changed.
+     *
+     * @param entities Changed chats.
+     * @param incoming Chats with new incoming messages.
      */
-    void onChatChanged(String account, String user, boolean incoming);
+    void onChatsChanged(Collection<BaseEntity> entities, Collection<BaseEntity> incoming);
 
 }
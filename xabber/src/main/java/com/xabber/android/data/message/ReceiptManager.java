@@ -21,7 +21,7 @@ import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.ConnectionManager;
 import com.xabber.android.data.connection.OnDisconnectListener;
-import com.xabber.android.data.connection.OnPacketListener;
+import com.xabber.android.data.connection.OnPacketProcessListener;
 import com.xabber.android.data.entity.NestedMap;
 
 import org.jivesoftware.smack.ConnectionCreationListener;
@@ -35,12 +35,16 @@ import org.jivesoftware.smackx.receipts.DeliveryReceiptManager;
 import org.jivesoftware.smackx.receipts.DeliveryReceiptRequest;
 import org.jivesoftware.smackx.receipts.ReceiptReceivedListener;
 
+import java.util.ArrayList;
+import java.util.Collection;
+
 /**
  * Manage message receive receipts as well as error replies.
  *
  * @author alexander.ivanov
  */
-public class ReceiptManager implements OnPacketListener, OnDisconnectListener, ReceiptReceivedListener {
+public class ReceiptManager implements OnPacketProcessListener, OnDisconnectListener,
+        ReceiptReceivedListener {
 
     /**
      * Sent messages for packet ids in accounts.
@@ -88,51 +92,64 @@ public class ReceiptManager implements OnPacketListener, OnDisconnectListener, R
     }
 
     @Override
-    public void onPacket(ConnectionItem connection, String bareAddress, Stanza packet) {
+    public Runnable onPacketProcess(ConnectionItem connection, String bareAddress, Stanza packet) {
         if (!(connection instanceof AccountItem))
-            return;
-        String account = ((AccountItem) connection).getAccount();
+            return null;
+        final String account = ((AccountItem) connection).getAccount();
         final String user = packet.getFrom();
         if (user == null)
-            return;
+            return null;
         if (!(packet instanceof Message))
-            return;
+            return null;
         final Message message = (Message) packet;
         if (message.getType() == Message.Type.error) {
-            final MessageItem messageItem = sent.remove(account,
-                    message.getPacketID());
-            if (messageItem != null && !messageItem.isError()) {
-                messageItem.markAsError();
-                Application.getInstance().runInBackground(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (messageItem.getId() != null)
-                            MessageTable.getInstance().markAsError(
-                                    messageItem.getId());
-                    }
-                });
-                MessageManager.getInstance().onChatChanged(
-                        messageItem.getChat().getAccount(),
-                        messageItem.getChat().getUser(), false);
+            return new Runnable() {
+                @Override
+                public void run() {
+                    onError(account, message.getPacketID());
+                }
+            };
+        }
+        // TODO setDefaultAutoReceiptMode should be used
+        final Collection<Message> receipts = new ArrayList<>();
+        for (ExtensionElement packetExtension : message.getExtensions())
+            if (packetExtension instanceof DeliveryReceiptRequest) {
+                String id = message.getPacketID();
+                if (id == null)
+                    continue;
+                Message receipt = new Message(user);
+                receipt.addExtension(new DeliveryReceipt(id));
+                // the key problem is Thread - smack does not keep it in auto reply
+                receipt.setThread(message.getThread());
+                receipts.add(receipt);
             }
-        } else {
-            // TODO setDefaultAutoReceiptMode should be used
-            for (ExtensionElement packetExtension : message.getExtensions())
-                if (packetExtension instanceof DeliveryReceiptRequest) {
-                    String id = message.getPacketID();
-                    if (id == null)
-                        continue;
-                    Message receipt = new Message(user);
-                    receipt.addExtension(new DeliveryReceipt(id));
-                    // the key problem is Thread - smack does not keep it in auto reply
-                    receipt.setThread(message.getThread());
+        if (receipts.isEmpty())
+            return null;
+        return new Runnable() {
+            @Override
+            public void run() {
+                for (Message receipt : receipts)
                     try {
                         ConnectionManager.getInstance().sendStanza(account,
                                 receipt);
                     } catch (NetworkException e) {
-                        LogManager.exception(this, e);
+                        LogManager.exception(ReceiptManager.this, e);
                     }
-                }
+            }
+        };
+    }
+
+    /**
+     * Error was received in reply to the sent message.
+     */
+    private void onError(String account, String packetId) {
+        final MessageItem messageItem = sent.remove(account, packetId);
+        if (messageItem != null && !messageItem.isError()) {
+            messageItem.markAsError();
+            MessageWriter.getInstance().markAsError(messageItem);
+            MessageManager.getInstance().onChatChanged(
+                    messageItem.getChat().getAccount(),
+                    messageItem.getChat().getUser(), false);
         }
     }
 
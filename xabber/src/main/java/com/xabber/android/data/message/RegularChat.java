@@ -15,13 +15,13 @@
 package com.xabber.android.data.message;
 
 import com.xabber.android.data.LogManager;
-import com.xabber.android.data.NetworkException;
 import com.xabber.android.data.SettingsManager;
 import com.xabber.android.data.SettingsManager.SecurityOtrMode;
 import com.xabber.android.data.extension.archive.MessageArchiveManager;
 import com.xabber.android.data.extension.muc.MUCManager;
 import com.xabber.android.data.extension.otr.OTRManager;
 import com.xabber.android.data.extension.otr.OTRUnencryptedException;
+import com.xabber.android.data.extension.otr.OnTransformedListener;
 import com.xabber.android.data.extension.otr.SecurityLevel;
 import com.xabber.xmpp.address.Jid;
 import com.xabber.xmpp.archive.SaveMode;
@@ -36,6 +36,8 @@ import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smackx.muc.packet.MUCUser;
 
+import java.util.Date;
+
 /**
  * Represents normal chat.
  *
@@ -82,24 +84,22 @@ public class RegularChat extends AbstractChat {
                     .getSecurityLevel(account, user);
             if (securityLevel != SecurityLevel.plain)
                 return true;
-            try {
-                OTRManager.getInstance().startSession(account, user);
-            } catch (NetworkException e) {
-            }
+            OTRManager.getInstance().startSession(account, user);
         }
         return false;
     }
 
     @Override
-    protected String prepareText(String text) {
-        text = super.prepareText(text);
-        try {
-            return OTRManager.getInstance().transformSending(account, user,
-                    text);
-        } catch (OtrException e) {
-            LogManager.exception(this, e);
-            return null;
-        }
+    protected void prepareText(final MessageItem messageItem) {
+        OTRManager.getInstance().transformSending(account, user,
+                messageItem.getText(), new OnTransformedListener() {
+                    @Override
+                    public void onTransformed(String text, OtrException exception) {
+                        if (exception != null)
+                            LogManager.exception(RegularChat.this, exception);
+                        onTextPrepared(messageItem, text);
+                    }
+                });
     }
 
     @Override
@@ -148,39 +148,54 @@ public class RegularChat extends AbstractChat {
 
             String thread = message.getThread();
             updateThreadId(thread);
-            boolean unencrypted = false;
-            try {
-                text = OTRManager.getInstance().transformReceiving(account, user, text);
-            } catch (OtrException e) {
-                if (e.getCause() instanceof OTRUnencryptedException) {
-                    text = ((OTRUnencryptedException) e.getCause()).getText();
-                    unencrypted = true;
-                } else {
-                    LogManager.exception(this, e);
-                    // Invalid message received.
-                    return true;
-                }
-            }
-            // System message received.
-            if (text == null || text.trim().equals(""))
-                return true;
-            if (!"".equals(resource))
-                this.resource = resource;
-            newMessage(
-                    resource,
-                    text,
-                    null,
-                    Delay.getDelay(message),
-                    true,
-                    true,
-                    unencrypted,
-                    Delay.isOfflineMessage(Jid.getServer(account), packet),
-                    MessageArchiveManager.getInstance().getSaveMode(account,
-                            user, getThreadId()) != SaveMode.fls);
+            final Date delay = Delay.getDelay(message);
+            final boolean offline = Delay.isOfflineMessage(Jid.getServer(account), packet);
+            OTRManager.getInstance().transformReceiving(account, user, text,
+                    new OnTransformedListener() {
+                        @Override
+                        public void onTransformed(String text, OtrException exception) {
+                            onMessageTransformed(resource, text, exception, delay, offline);
+                        }
+                    });
         }
         return true;
     }
 
+    /**
+     * Adds received message after OTR transformation.
+     */
+    private void onMessageTransformed(String resource, String text,
+                                      OtrException exception, Date delay,
+                                      boolean offline) {
+        boolean unencrypted = false;
+        if (exception != null) {
+            if (exception.getCause() instanceof OTRUnencryptedException) {
+                text = ((OTRUnencryptedException) exception.getCause()).getText();
+                unencrypted = true;
+            } else {
+                LogManager.exception(this, exception);
+                // Invalid message received.
+                return;
+            }
+        }
+        // System message received.
+        if (text == null || text.trim().equals(""))
+            return;
+        if (!"".equals(resource))
+            this.resource = resource;
+        newMessage(
+                resource,
+                text,
+                null,
+                delay,
+                true,
+                true,
+                unencrypted,
+                offline,
+                MessageArchiveManager.getInstance().getSaveMode(account,
+                        user, getThreadId()) != SaveMode.fls);
+    }
+
     @Override
     protected void onComplete() {
         super.onComplete();
@@ -18,27 +18,23 @@ import android.database.Cursor;
 import android.net.Uri;
 
 import com.xabber.android.data.Application;
-import com.xabber.android.data.OnLoadListener;
-import com.xabber.android.data.SettingsManager;
+import com.xabber.android.data.BackgroundLane;
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.LoadDependent;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.OnAccountRemovedListener;
-import com.xabber.android.data.entity.BaseEntity;
 import com.xabber.android.data.entity.NestedMap;
 
-import java.util.HashSet;
-import java.util.Set;
-
 /**
  * Manage chat specific options.
  *
  * @author alexander.ivanov
  */
-public class ChatManager implements OnLoadListener, OnAccountRemovedListener {
+public class ChatManager implements LoadDependent, OnAccountRemovedListener {
 
     public static final Uri EMPTY_SOUND = Uri
             .parse("com.xabber.android.data.message.ChatManager.EMPTY_SOUND");
 
-    private static final Object PRIVATE_CHAT = new Object();
     private final static ChatManager instance;
 
     static {
@@ -51,39 +47,13 @@ public class ChatManager implements OnLoadListener, OnAccountRemovedListener {
      */
     private final NestedMap<ChatInput> chatInputs;
     /**
-     * List of chats whose messages mustn't be saved for user in account.
-     */
-    private final NestedMap<Object> privateChats;
-    /**
-     * Whether notification in visible chat should be used for user in account.
-     */
-    private final NestedMap<Boolean> notifyVisible;
-    /**
-     * Whether text of incoming message should be shown in notification bar for
-     * user in account.
-     */
-    private final NestedMap<ShowMessageTextInNotification> showText;
-    /**
-     * Whether vibro notification should be used for user in account.
+     * Chat specific options for user in account.
      */
-    private final NestedMap<Boolean> makeVibro;
-    /**
-     * Sound, associated with chat for user in account.
-     */
-    private final NestedMap<Uri> sounds;
-    /**
-     * Whether 'This room is not anonymous'-messages (Status Code 100) should be suppressed
-     */
-    private final NestedMap<Boolean> suppress100;
+    private final NestedMap<ChatSettings> chatSettings;
 
     private ChatManager() {
         chatInputs = new NestedMap<ChatInput>();
-        privateChats = new NestedMap<Object>();
-        sounds = new NestedMap<Uri>();
-        showText = new NestedMap<>();
-        makeVibro = new NestedMap<Boolean>();
-        notifyVisible = new NestedMap<Boolean>();
-        suppress100 = new NestedMap<Boolean>();
+        chatSettings = new NestedMap<ChatSettings>();
     }
 
     public static ChatManager getInstance() {
@@ -91,123 +61,78 @@ public class ChatManager implements OnLoadListener, OnAccountRemovedListener {
     }
 
     @Override
-    public void onLoad() {
-        final Set<BaseEntity> privateChats = new HashSet<BaseEntity>();
-        final NestedMap<Boolean> notifyVisible = new NestedMap<Boolean>();
-        final NestedMap<ShowMessageTextInNotification> showText = new NestedMap<>();
-        final NestedMap<Boolean> makeVibro = new NestedMap<Boolean>();
-        final NestedMap<Uri> sounds = new NestedMap<Uri>();
-        final NestedMap<Boolean> suppress100 = new NestedMap<Boolean>();
-        Cursor cursor;
-        cursor = PrivateChatTable.getInstance().list();
-        try {
-            if (cursor.moveToFirst()) {
-                do {
-                    privateChats.add(new BaseEntity(PrivateChatTable
-                            .getAccount(cursor), PrivateChatTable
-                            .getUser(cursor)));
-                } while (cursor.moveToNext());
-            }
-        } finally {
-            cursor.close();
-        }
-
-        cursor = NotifyVisibleTable.getInstance().list();
-        try {
-            if (cursor.moveToFirst()) {
-                do {
-                    notifyVisible.put(NotifyVisibleTable.getAccount(cursor),
-                            NotifyVisibleTable.getUser(cursor),
-                            NotifyVisibleTable.getValue(cursor));
-                } while (cursor.moveToNext());
-            }
-        } finally {
-            cursor.close();
-        }
-
-        cursor = ShowTextTable.getInstance().list();
-        try {
-            if (cursor.moveToFirst()) {
-                do {
-                    showText.put(ShowTextTable.getAccount(cursor),
-                            ShowTextTable.getUser(cursor),
-                            ShowTextTable.getValue(cursor));
-                } while (cursor.moveToNext());
-            }
-        } finally {
-            cursor.close();
-        }
-
-        cursor = VibroTable.getInstance().list();
-        try {
-            if (cursor.moveToFirst()) {
-                do {
-                    makeVibro.put(VibroTable.getAccount(cursor),
-                            VibroTable.getUser(cursor),
-                            VibroTable.getValue(cursor));
-                } while (cursor.moveToNext());
-            }
-        } finally {
-            cursor.close();
-        }
-
-        cursor = SoundTable.getInstance().list();
-        try {
-            if (cursor.moveToFirst()) {
-                do {
-                    sounds.put(SoundTable.getAccount(cursor),
-                            SoundTable.getUser(cursor),
-                            SoundTable.getValue(cursor));
-                } while (cursor.moveToNext());
-            }
-        } finally {
-            cursor.close();
-        }
+    public Class<?>[] getLoadDependencies() {
+        return new Class<?>[]{DatabaseManager.class};
+    }
 
-        cursor = Suppress100Table.getInstance().list();
+    @Override
+    public void onLoad() {
+        final NestedMap<ChatSettings> chatSettings = new NestedMap<ChatSettings>();
+        Cursor cursor = ChatSettingsTable.getInstance().list();
         try {
             if (cursor.moveToFirst()) {
                 do {
-                    makeVibro.put(Suppress100Table.getAccount(cursor),
-                            Suppress100Table.getUser(cursor),
-                            Suppress100Table.getValue(cursor));
+                    ChatSettings settings = ChatSettingsTable.getSettings(cursor);
+                    chatSettings.put(settings.getAccount(), settings.getUser(), settings);
                 } while (cursor.moveToNext());
             }
         } finally {
             cursor.close();
         }
-
         Application.getInstance().runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                onLoaded(privateChats, notifyVisible, showText, makeVibro,
-                        sounds, suppress100);
+                onLoaded(chatSettings);
             }
         });
     }
 
-    private void onLoaded(Set<BaseEntity> privateChats,
-                          NestedMap<Boolean> notifyVisible, NestedMap<ShowMessageTextInNotification> showText,
-                          NestedMap<Boolean> vibro, NestedMap<Uri> sounds, NestedMap<Boolean> suppress100) {
-        for (BaseEntity baseEntity : privateChats)
-            this.privateChats.put(baseEntity.getAccount(),
-                    baseEntity.getUser(), PRIVATE_CHAT);
-        this.notifyVisible.addAll(notifyVisible);
-        this.showText.addAll(showText);
-        this.makeVibro.addAll(vibro);
-        this.sounds.addAll(sounds);
-        this.suppress100.addAll(suppress100);
+    private void onLoaded(NestedMap<ChatSettings> chatSettings) {
+        this.chatSettings.addAll(chatSettings);
     }
 
     @Override
     public void onAccountRemoved(AccountItem accountItem) {
         chatInputs.clear(accountItem.getAccount());
-        privateChats.clear(accountItem.getAccount());
-        sounds.clear(accountItem.getAccount());
-        showText.clear(accountItem.getAccount());
-        makeVibro.clear(accountItem.getAccount());
-        notifyVisible.clear(accountItem.getAccount());
-        suppress100.clear(accountItem.getAccount());
+        chatSettings.clear(accountItem.getAccount());
+    }
+
+    /**
+     * Returns all options for specified chat in single lookup.
+     *
+     * @param account
+     * @param user
+     * @return Chat specific options. Common values will be used for options
+     * without user specific value.
+     */
+    public ChatSettings getChatSettings(String account, String user) {
+        ChatSettings settings = chatSettings.get(account, user);
+        if (settings == null)
+            return new ChatSettings(account, user);
+        return settings;
+    }
+
+    /**
+     * Stores changed options for the chat.
+     *
+     * @param settings
+     */
+    private void setChatSettings(final ChatSettings settings) {
+        final String account = settings.getAccount();
+        final String user = settings.getUser();
+        if (settings.isEmpty())
+            chatSettings.remove(account, user);
+        else
+            chatSettings.put(account, user, settings);
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
+            @Override
+            public void run() {
+                if (settings.isEmpty())
+                    ChatSettingsTable.getInstance().remove(account, user);
+                else
+                    ChatSettingsTable.getInstance().write(settings);
+            }
+        });
     }
 
     /**
@@ -218,7 +143,7 @@ public class ChatManager implements OnLoadListener, OnAccountRemovedListener {
      * @return
      */
     public boolean isSaveMessages(String account, String user) {
-        return privateChats.get(account, user) != PRIVATE_CHAT;
+        return getChatSettings(account, user).isSaveMessages();
     }
 
     /**
@@ -230,19 +155,7 @@ public class ChatManager implements OnLoadListener, OnAccountRemovedListener {
      */
     public void setSaveMessages(final String account, final String user,
                                 final boolean save) {
-        if (save)
-            privateChats.remove(account, user);
-        else
-            privateChats.put(account, user, PRIVATE_CHAT);
-        Application.getInstance().runInBackground(new Runnable() {
-            @Override
-            public void run() {
-                if (save)
-                    PrivateChatTable.getInstance().remove(account, user);
-                else
-                    PrivateChatTable.getInstance().write(account, user);
-            }
-        });
+        setChatSettings(getChatSettings(account, user).setSaveMessages(save));
     }
 
     /**
@@ -307,21 +220,12 @@ public class ChatManager implements OnLoadListener, OnAccountRemovedListener {
      * if there is no user specific value.
      */
     public boolean isNotifyVisible(String account, String user) {
-        Boolean value = notifyVisible.get(account, user);
-        if (value == null)
-            return SettingsManager.eventsVisibleChat();
-        return value;
+        return getChatSettings(account, user).isNotifyVisible();
     }
 
     public void setNotifyVisible(final String account, final String user,
                                  final boolean value) {
-        notifyVisible.put(account, user, value);
-        Application.getInstance().runInBackground(new Runnable() {
-            @Override
-            public void run() {
-                NotifyVisibleTable.getInstance().write(account, user, value);
-            }
-        });
+        setChatSettings(getChatSettings(account, user).setNotifyVisible(value));
     }
 
     /**
@@ -331,34 +235,15 @@ public class ChatManager implements OnLoadListener, OnAccountRemovedListener {
      * Common value if there is no user specific value.
      */
     public boolean isShowText(String account, String user) {
-        switch (getShowText(account, user)) {
-            case show:
-                return true;
-            case hide:
-                return false;
-            case default_settings:
-            default:
-                return SettingsManager.eventsShowText();
-        }
+        return getChatSettings(account, user).isShowText();
     }
 
     public ShowMessageTextInNotification getShowText(String account, String user) {
-        ShowMessageTextInNotification showMessageTextInNotification = showText.get(account, user);
-        if (showMessageTextInNotification == null) {
-            return ShowMessageTextInNotification.default_settings;
-        } else {
-            return showMessageTextInNotification;
-        }
+        return getChatSettings(account, user).getShowText();
     }
 
     public void setShowText(final String account, final String user, final ShowMessageTextInNotification value) {
-        showText.put(account, user, value);
-        Application.getInstance().runInBackground(new Runnable() {
-            @Override
-            public void run() {
-                ShowTextTable.getInstance().write(account, user, value);
-            }
-        });
+        setChatSettings(getChatSettings(account, user).setShowText(value));
     }
 
     /**
@@ -368,21 +253,12 @@ public class ChatManager implements OnLoadListener, OnAccountRemovedListener {
      * there is no user specific value.
      */
     public boolean isMakeVibro(String account, String user) {
-        Boolean value = makeVibro.get(account, user);
-        if (value == null)
-            return SettingsManager.eventsVibro();
-        return value;
+        return getChatSettings(account, user).isMakeVibro();
     }
 
     public void setMakeVibro(final String account, final String user,
                              final boolean value) {
-        makeVibro.put(account, user, value);
-        Application.getInstance().runInBackground(new Runnable() {
-            @Override
-            public void run() {
-                VibroTable.getInstance().write(account, user, value);
-            }
-        });
+        setChatSettings(getChatSettings(account, user).setMakeVibro(value));
     }
 
     /**
@@ -392,24 +268,13 @@ public class ChatManager implements OnLoadListener, OnAccountRemovedListener {
      * value.
      */
     public Uri getSound(String account, String user) {
-        Uri value = sounds.get(account, user);
-        if (value == null)
-            return SettingsManager.eventsSound();
-        if (EMPTY_SOUND.equals(value))
-            return null;
-        return value;
+        return getChatSettings(account, user).getSound();
     }
 
     public void setSound(final String account, final String user,
                          final Uri value) {
-        sounds.put(account, user, value == null ? EMPTY_SOUND : value);
-        Application.getInstance().runInBackground(new Runnable() {
-            @Override
-            public void run() {
-                SoundTable.getInstance().write(account, user,
-                        value == null ? EMPTY_SOUND : value);
-            }
-        });
+        setChatSettings(getChatSettings(account, user)
+                .setSound(value == null ? EMPTY_SOUND : value));
     }
 
     /**
@@ -418,20 +283,11 @@ public class ChatManager implements OnLoadListener, OnAccountRemovedListener {
      * @return Whether 'This Room is not Anonymous'-messages (Status Code 100) should be suppressed.
      */
     public boolean isSuppress100(String account, String user) {
-        Boolean value = suppress100.get(account, user);
-        if (value == null)
-            return SettingsManager.eventsSuppress100();
-        return value;
+        return getChatSettings(account, user).isSuppress100();
     }
 
     public void setSuppress100(final String account, final String user,
                              final boolean value) {
-        suppress100.put(account, user, value);
-        Application.getInstance().runInBackground(new Runnable() {
-            @Override
-            public void run() {
-                Suppress100Table.getInstance().write(account, user, value);
-            }
-        });
+        setChatSettings(getChatSettings(account, user).setSuppress100(value));
     }
 }
@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.message.chat;
+
+import android.net.Uri;
+
+import com.xabber.android.data.SettingsManager;
+import com.xabber.android.data.entity.BaseEntity;
+
+/**
+ * Chat specific options for user in account.
+ * <p/>
+ * Immutable: every change produces new instance, so it can be safely passed
+ * to the background thread for write. <code>null</code> values mean that
+ * common value from settings should be used.
+ */
+public class ChatSettings extends BaseEntity {
+
+    private final boolean saveMessages;
+    private final Boolean notifyVisible;
+    private final ShowMessageTextInNotification showText;
+    private final Boolean makeVibro;
+    private final Uri sound;
+    private final Boolean suppress100;
+
+    ChatSettings(String account, String user) {
+        this(account, user, true, null, null, null, null, null);
+    }
+
+    ChatSettings(String account, String user, boolean saveMessages,
+                 Boolean notifyVisible, ShowMessageTextInNotification showText,
+                 Boolean makeVibro, Uri sound, Boolean suppress100) {
+        super(account, user);
+        this.saveMessages = saveMessages;
+        this.notifyVisible = notifyVisible;
+        this.showText = showText;
+        this.makeVibro = makeVibro;
+        this.sound = sound;
+        this.suppress100 = suppress100;
+    }
+
+    /**
+     * @return Whether there is no user specific value.
+     */
+    boolean isEmpty() {
+        return saveMessages && notifyVisible == null && showText == null
+                && makeVibro == null && sound == null && suppress100 == null;
+    }
+
+    ChatSettings setSaveMessages(boolean value) {
+        return new ChatSettings(account, user, value, notifyVisible, showText,
+                makeVibro, sound, suppress100);
+    }
+
+    ChatSettings setNotifyVisible(Boolean value) {
+        return new ChatSettings(account, user, saveMessages, value, showText,
+                makeVibro, sound, suppress100);
+    }
+
+    ChatSettings setShowText(ShowMessageTextInNotification value) {
+        return new ChatSettings(account, user, saveMessages, notifyVisible,
+                value, makeVibro, sound, suppress100);
+    }
+
+    ChatSettings setMakeVibro(Boolean value) {
+        return new ChatSettings(account, user, saveMessages, notifyVisible,
+                showText, value, sound, suppress100);
+    }
+
+    ChatSettings setSound(Uri value) {
+        return new ChatSettings(account, user, saveMessages, notifyVisible,
+                showText, makeVibro, value, suppress100);
+    }
+
+    ChatSettings setSuppress100(Boolean value) {
+        return new ChatSettings(account, user, saveMessages, notifyVisible,
+                showText, makeVibro, sound, value);
+    }
+
+    /**
+     * @return Whether to save history for the chat.
+     */
+    public boolean isSaveMessages() {
+        return saveMessages;
+    }
+
+    /**
+     * @return Whether notification in visible chat must be shown. Common value
+     * if there is no user specific value.
+     */
+    public boolean isNotifyVisible() {
+        if (notifyVisible == null)
+            return SettingsManager.eventsVisibleChat();
+        return notifyVisible;
+    }
+
+    public ShowMessageTextInNotification getShowText() {
+        if (showText == null)
+            return ShowMessageTextInNotification.default_settings;
+        return showText;
+    }
+
+    /**
+     * @return Whether text of messages must be shown in notification area.
+     * Common value if there is no user specific value.
+     */
+    public boolean isShowText() {
+        switch (getShowText()) {
+            case show:
+                return true;
+            case hide:
+                return false;
+            case default_settings:
+            default:
+                return SettingsManager.eventsShowText();
+        }
+    }
+
+    /**
+     * @return Whether vibro should be used while notification. Common value if
+     * there is no user specific value.
+     */
+    public boolean isMakeVibro() {
+        if (makeVibro == null)
+            return SettingsManager.eventsVibro();
+        return makeVibro;
+    }
+
+    /**
+     * @return Sound for notification. Common value if there is no user
+     * specific value.
+     */
+    public Uri getSound() {
+        if (sound == null)
+            return SettingsManager.eventsSound();
+        if (ChatManager.EMPTY_SOUND.equals(sound))
+            return null;
+        return sound;
+    }
+
+    /**
+     * @return Whether 'This Room is not Anonymous'-messages (Status Code 100)
+     * should be suppressed. Common value if there is no user specific value.
+     */
+    public boolean isSuppress100() {
+        if (suppress100 == null)
+            return SettingsManager.eventsSuppress100();
+        return suppress100;
+    }
+
+    Boolean getNotifyVisibleValue() {
+        return notifyVisible;
+    }
+
+    ShowMessageTextInNotification getShowTextValue() {
+        return showText;
+    }
+
+    Boolean getMakeVibroValue() {
+        return makeVibro;
+    }
+
+    Uri getSoundValue() {
+        return sound;
+    }
+
+    Boolean getSuppress100Value() {
+        return suppress100;
+    }
+
+}
@@ -0,0 +1,308 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.message.chat;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.SettingsManager;
+import com.xabber.android.data.entity.AbstractEntityTable;
+
+/**
+ * Storage with chat specific options, single row for each chat.
+ * <p/>
+ * <code>NULL</code> value means that common value should be used.
+ */
+class ChatSettingsTable extends AbstractEntityTable {
+
+    static final class Fields implements AbstractEntityTable.Fields {
+
+        private Fields() {
+        }
+
+        public static final String SAVE_MESSAGES = "save_messages";
+        public static final String NOTIFY_VISIBLE = "notify_visible";
+        public static final String SHOW_TEXT = "show_text";
+        public static final String VIBRO = "vibro";
+        public static final String SOUND = "sound";
+        public static final String SUPPRESS_100 = "suppress_100";
+
+    }
+
+    static final String NAME = "chat_settings";
+    private static final String[] PROJECTION = new String[]{Fields.ACCOUNT,
+            Fields.USER, Fields.SAVE_MESSAGES, Fields.NOTIFY_VISIBLE,
+            Fields.SHOW_TEXT, Fields.VIBRO, Fields.SOUND, Fields.SUPPRESS_100};
+
+    /**
+     * Tables with single option each, merged to this table in version 70.
+     */
+    private static final String[] PROPERTY_TABLES = new String[]{
+            "chat_notify_visible", "chat_show_text", "chat_vibro",
+            "chat_sound", "chat_suppress_100"};
+
+    private final DatabaseManager databaseManager;
+    private SQLiteStatement writeStatement;
+    private final Object writeLock;
+
+    private final static ChatSettingsTable instance;
+
+    static {
+        instance = new ChatSettingsTable(DatabaseManager.getInstance());
+        DatabaseManager.getInstance().addTable(instance);
+    }
+
+    public static ChatSettingsTable getInstance() {
+        return instance;
+    }
+
+    private ChatSettingsTable(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+        writeStatement = null;
+        writeLock = new Object();
+    }
+
+    @Override
+    public void create(SQLiteDatabase db) {
+        createTable(db);
+    }
+
+    private static void createTable(SQLiteDatabase db) {
+        String sql = "CREATE TABLE " + NAME + " (" + Fields.ACCOUNT + " TEXT,"
+                + Fields.USER + " TEXT," + Fields.SAVE_MESSAGES + " INTEGER,"
+                + Fields.NOTIFY_VISIBLE + " INTEGER," + Fields.SHOW_TEXT
+                + " INTEGER," + Fields.VIBRO + " INTEGER," + Fields.SOUND
+                + " TEXT," + Fields.SUPPRESS_100 + " INTEGER);";
+        DatabaseManager.execSQL(db, sql);
+        sql = "CREATE UNIQUE INDEX " + NAME + "_index ON " + NAME + " " + "("
+                + Fields.ACCOUNT + ", " + Fields.USER + ");";
+        DatabaseManager.execSQL(db, sql);
+    }
+
+    /**
+     * Creates table with single option as it was before version 70.
+     */
+    private static void createPropertyTable(SQLiteDatabase db, String tableName,
+                                            String valueType) {
+        String sql;
+        sql = "CREATE TABLE " + tableName + " (" + "account TEXT,"
+                + "user TEXT," + "value " + valueType + ");";
+        DatabaseManager.execSQL(db, sql);
+        sql = "CREATE UNIQUE INDEX " + tableName + "_index ON " + tableName
+                + " (account, user);";
+        DatabaseManager.execSQL(db, sql);
+    }
+
+    /**
+     * @return Sub query for value of single option table for the row of this
+     * table.
+     */
+    private static String selectValue(String tableName) {
+        return "(SELECT value FROM " + tableName + " WHERE " + tableName
+                + ".account = " + NAME + ".account AND " + tableName
+                + ".user = " + NAME + ".user)";
+    }
+
+    @Override
+    public void migrate(SQLiteDatabase db, int toVersion) {
+        super.migrate(db, toVersion);
+        String sql;
+        switch (toVersion) {
+            case 16:
+                sql = "CREATE TABLE chats (" + "account TEXT," + "user TEXT,"
+                        + "save BOOLEAN);";
+                DatabaseManager.execSQL(db, sql);
+                sql = "CREATE UNIQUE INDEX chats_index ON chats "
+                        + "(account, user);";
+                DatabaseManager.execSQL(db, sql);
+                break;
+            case 18:
+                sql = "ALTER TABLE chats ADD COLUMN " + "message TEXT;";
+                DatabaseManager.execSQL(db, sql);
+                sql = "UPDATE chats SET message = \"\";";
+                DatabaseManager.execSQL(db, sql);
+                break;
+            case 19:
+                sql = "UPDATE chats SET message = \"\";";
+                DatabaseManager.execSQL(db, sql);
+                break;
+            case 20:
+                DatabaseManager.dropTable(db, "chats");
+                sql = "CREATE TABLE chats (" + "account TEXT," + "user TEXT,"
+                        + "save_messages BOOLEAN, typed_message TEXT);";
+                DatabaseManager.execSQL(db, sql);
+                sql = "CREATE UNIQUE INDEX chats_index ON chats "
+                        + "(account, user);";
+                DatabaseManager.execSQL(db, sql);
+                break;
+            case 26:
+                sql = "CREATE TABLE private_chats (" + "account TEXT,"
+                        + "user TEXT);";
+                DatabaseManager.execSQL(db, sql);
+                sql = "CREATE UNIQUE INDEX private_chats_index ON private_chats "
+                        + "(account, user);";
+                DatabaseManager.execSQL(db, sql);
+                sql = "INSERT INTO private_chats (account, user) "
+                        + "SELECT account, user FROM chats WHERE NOT save_messages;";
+                DatabaseManager.execSQL(db, sql);
+                DatabaseManager.dropTable(db, "chats");
+                break;
+            case 52:
+                createPropertyTable(db, "chat_notify_visible", "INTEGER");
+                createPropertyTable(db, "chat_show_text", "INTEGER");
+                createPropertyTable(db, "chat_sound", "TEXT");
+                break;
+            case 57:
+                createPropertyTable(db, "chat_vibro", "INTEGER");
+                break;
+            case 67:
+                int trueMigrationValue;
+                int falseMigrationValue;
+                if (SettingsManager.eventsShowText()) {
+                    trueMigrationValue = ShowMessageTextInNotification.default_settings.ordinal();
+                    falseMigrationValue = ShowMessageTextInNotification.hide.ordinal();
+                } else {
+                    trueMigrationValue = ShowMessageTextInNotification.show.ordinal();
+                    falseMigrationValue = ShowMessageTextInNotification.default_settings.ordinal();
+                }
+                sql = "UPDATE chat_show_text SET value = CASE WHEN (value=1) THEN "
+                        + trueMigrationValue + " ELSE " + falseMigrationValue + " END;";
+                DatabaseManager.execSQL(db, sql);
+                break;
+            case 68:
+                createPropertyTable(db, "chat_suppress_100", "INTEGER");
+                break;
+            case 70:
+                createTable(db);
+                sql = "INSERT INTO " + NAME + " (account, user) "
+                        + "SELECT account, user FROM private_chats";
+                for (String tableName : PROPERTY_TABLES)
+                    sql += " UNION SELECT account, user FROM " + tableName;
+                sql += ";";
+                DatabaseManager.execSQL(db, sql);
+                sql = "UPDATE " + NAME + " SET "
+                        + Fields.SAVE_MESSAGES + " = CASE WHEN EXISTS "
+                        + "(SELECT 1 FROM private_chats WHERE private_chats.account = "
+                        + NAME + ".account AND private_chats.user = " + NAME
+                        + ".user) THEN 0 ELSE 1 END, "
+                        + Fields.NOTIFY_VISIBLE + " = " + selectValue("chat_notify_visible") + ", "
+                        + Fields.SHOW_TEXT + " = " + selectValue("chat_show_text") + ", "
+                        + Fields.VIBRO + " = " + selectValue("chat_vibro") + ", "
+                        + Fields.SOUND + " = " + selectValue("chat_sound") + ", "
+                        + Fields.SUPPRESS_100 + " = " + selectValue("chat_suppress_100") + ";";
+                DatabaseManager.execSQL(db, sql);
+                DatabaseManager.dropTable(db, "private_chats");
+                for (String tableName : PROPERTY_TABLES)
+                    DatabaseManager.dropTable(db, tableName);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Stores all options of the chat.
+     */
+    void write(ChatSettings settings) {
+        synchronized (writeLock) {
+            if (writeStatement == null) {
+                SQLiteDatabase db = databaseManager.getWritableDatabase();
+                writeStatement = db.compileStatement("INSERT OR REPLACE INTO "
+                        + NAME + " (" + Fields.ACCOUNT + ", " + Fields.USER
+                        + ", " + Fields.SAVE_MESSAGES + ", "
+                        + Fields.NOTIFY_VISIBLE + ", " + Fields.SHOW_TEXT
+                        + ", " + Fields.VIBRO + ", " + Fields.SOUND + ", "
+                        + Fields.SUPPRESS_100
+                        + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?);");
+            }
+            writeStatement.bindString(1, settings.getAccount());
+            writeStatement.bindString(2, settings.getUser());
+            writeStatement.bindLong(3, settings.isSaveMessages() ? 1 : 0);
+            bindBoolean(4, settings.getNotifyVisibleValue());
+            if (settings.getShowTextValue() == null)
+                writeStatement.bindNull(5);
+            else
+                writeStatement.bindLong(5, settings.getShowTextValue().ordinal());
+            bindBoolean(6, settings.getMakeVibroValue());
+            if (settings.getSoundValue() == null)
+                writeStatement.bindNull(7);
+            else
+                writeStatement.bindString(7, settings.getSoundValue().toString());
+            bindBoolean(8, settings.getSuppress100Value());
+            writeStatement.execute();
+        }
+    }
+
+    private void bindBoolean(int index, Boolean value) {
+        if (value == null)
+            writeStatement.bindNull(index);
+        else
+            writeStatement.bindLong(index, value ? 1 : 0);
+    }
+
+    /**
+     * Removes options of the chat, so common values will be used.
+     */
+    void remove(String account, String user) {
+        SQLiteDatabase db = databaseManager.getWritableDatabase();
+        db.delete(NAME, Fields.ACCOUNT + " = ? AND " + Fields.USER + " = ?",
+                new String[]{account, user});
+    }
+
+    static ChatSettings getSettings(Cursor cursor) {
+        return new ChatSettings(getAccount(cursor), getUser(cursor),
+                getBoolean(cursor, Fields.SAVE_MESSAGES, true),
+                getBoolean(cursor, Fields.NOTIFY_VISIBLE, null),
+                getShowText(cursor),
+                getBoolean(cursor, Fields.VIBRO, null),
+                getSound(cursor),
+                getBoolean(cursor, Fields.SUPPRESS_100, null));
+    }
+
+    private static Boolean getBoolean(Cursor cursor, String field, Boolean defaultValue) {
+        int index = cursor.getColumnIndex(field);
+        if (cursor.isNull(index))
+            return defaultValue;
+        return cursor.getLong(index) != 0;
+    }
+
+    private static ShowMessageTextInNotification getShowText(Cursor cursor) {
+        int index = cursor.getColumnIndex(Fields.SHOW_TEXT);
+        if (cursor.isNull(index))
+            return null;
+        return ShowMessageTextInNotification.fromInteger((int) cursor.getLong(index));
+    }
+
+    private static Uri getSound(Cursor cursor) {
+        int index = cursor.getColumnIndex(Fields.SOUND);
+        if (cursor.isNull(index))
+            return null;
+        return Uri.parse(cursor.getString(index));
+    }
+
+    @Override
+    protected String getTableName() {
+        return NAME;
+    }
+
+    @Override
+    protected String[] getProjection() {
+        return PROJECTION;
+    }
+
+}
@@ -69,8 +69,24 @@ public class Phrase {
      * groups.
      */
     public boolean matches(String text, String user, Collection<String> groups) {
-        if (textPattern.matcher(text).find()
-                && userPattern.matcher(user).find()) {
+        return matchesText(text) && matchesContact(user, groups);
+    }
+
+    /**
+     * @param text
+     * @return Whether phrase was found in specified text.
+     */
+    boolean matchesText(String text) {
+        return textPattern.matcher(text).find();
+    }
+
+    /**
+     * @param user
+     * @param groups
+     * @return Whether phrase is applicable for user in specified groups.
+     */
+    boolean matchesContact(String user, Collection<String> groups) {
+        if (userPattern.matcher(user).find()) {
             if (groups.isEmpty())
                 return groupPattern.matcher("").find();
             for (String group : groups)
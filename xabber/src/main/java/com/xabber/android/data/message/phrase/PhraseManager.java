@@ -22,8 +22,11 @@ import android.database.Cursor;
 import android.net.Uri;
 
 import com.xabber.android.data.Application;
-import com.xabber.android.data.OnLoadListener;
+import com.xabber.android.data.BackgroundLane;
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.LoadDependent;
 import com.xabber.android.data.message.chat.ChatManager;
+import com.xabber.android.data.message.chat.ChatSettings;
 import com.xabber.android.data.roster.RosterManager;
 
 /**
@@ -31,13 +34,18 @@ import com.xabber.android.data.roster.RosterManager;
  *
  * @author alexander.ivanov
  */
-public class PhraseManager implements OnLoadListener {
+public class PhraseManager implements LoadDependent {
 
     /**
      * List of settings.
      */
     private final List<Phrase> phrases;
 
+    /**
+     * Compiled phrases. <code>null</code> if phrases were changed.
+     */
+    private PhraseMatcher matcher;
+
     private final static PhraseManager instance;
 
     static {
@@ -51,6 +59,12 @@ public class PhraseManager implements OnLoadListener {
 
     private PhraseManager() {
         phrases = new ArrayList<Phrase>();
+        matcher = null;
+    }
+
+    @Override
+    public Class<?>[] getLoadDependencies() {
+        return new Class<?>[]{DatabaseManager.class};
     }
 
     @Override
@@ -82,24 +96,32 @@ public class PhraseManager implements OnLoadListener {
 
     private void onLoaded(Collection<Phrase> phrases) {
         this.phrases.addAll(phrases);
+        matcher = null;
     }
 
     /**
+     * @param chatSettings
      * @param text
      * @return Sound associated with first matched phrase. Chat specific setting
      * if no one matches .
      */
-    public Uri getSound(String account, String user, String text) {
-        Collection<String> groups = RosterManager.getInstance().getGroups(
-                account, user);
-        for (Phrase phrase : phrases)
-            if (phrase.matches(text, user, groups)) {
+    public Uri getSound(ChatSettings chatSettings, String text) {
+        String account = chatSettings.getAccount();
+        String user = chatSettings.getUser();
+        if (!phrases.isEmpty()) {
+            if (matcher == null)
+                matcher = new PhraseMatcher(phrases);
+            Collection<String> groups = RosterManager.getInstance().getGroups(
+                    account, user);
+            Phrase phrase = matcher.find(text, user, groups);
+            if (phrase != null) {
                 Uri value = phrase.getSound();
                 if (ChatManager.EMPTY_SOUND.equals(value))
                     return null;
                 return value;
             }
-        return ChatManager.getInstance().getSound(account, user);
+        }
+        return chatSettings.getSound();
     }
 
     /**
@@ -118,6 +140,7 @@ public class PhraseManager implements OnLoadListener {
         } else {
             phrase.update(value, user, group, regexp, sound);
         }
+        matcher = null;
         writePhrase(phrase, value, user, group, regexp, sound);
     }
 
@@ -128,12 +151,13 @@ public class PhraseManager implements OnLoadListener {
      */
     public void removePhrase(int index) {
         phrases.remove(getPhrase(index));
+        matcher = null;
     }
 
     private void writePhrase(final Phrase phrase, final String value,
                              final String user, final String group, final boolean regexp,
                              final Uri sound) {
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 phrase.setId(PhraseTable.getInstance().write(phrase.getId(),
@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.message.phrase;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import android.util.LruCache;
+
+/**
+ * Phrases compiled for search.
+ * <p/>
+ * Text of not regexp phrases is searched with single pass of keyword
+ * automaton. Phrases applicable for the contact are cached, so text of most
+ * messages is never checked if there are no phrases for the sender.
+ * <p/>
+ * Should be rebuilt when any phrase was changed.
+ */
+class PhraseMatcher {
+
+    /**
+     * Number of contacts to cache applicable phrases for.
+     */
+    private static final int CONTACT_CACHE_SIZE = 64;
+
+    private final Phrase[] phrases;
+
+    /**
+     * Phrases which text is empty or must be checked with regexp.
+     */
+    private final BitSet textless;
+
+    private final KeywordAutomaton automaton;
+
+    /**
+     * Applicable phrases for the user and groups.
+     */
+    private final LruCache<String, BitSet> contacts;
+
+    PhraseMatcher(List<Phrase> phrases) {
+        this.phrases = phrases.toArray(new Phrase[phrases.size()]);
+        textless = new BitSet(this.phrases.length);
+        automaton = new KeywordAutomaton();
+        for (int index = 0; index < this.phrases.length; index++) {
+            Phrase phrase = this.phrases[index];
+            if (phrase.isRegexp() || phrase.getText().isEmpty())
+                textless.set(index);
+            else
+                automaton.add(toLowerCaseAscii(phrase.getText()), index);
+        }
+        automaton.build();
+        contacts = new LruCache<String, BitSet>(CONTACT_CACHE_SIZE);
+    }
+
+    /**
+     * @param text
+     * @param user
+     * @param groups
+     * @return First phrase matched the text from the user in specified
+     * groups. <code>null</code> if there is no such phrase.
+     */
+    Phrase find(String text, String user, Collection<String> groups) {
+        BitSet candidates = getCandidates(user, groups);
+        if (candidates.isEmpty())
+            return null;
+        BitSet found = null;
+        for (int index = candidates.nextSetBit(0); index >= 0;
+             index = candidates.nextSetBit(index + 1)) {
+            Phrase phrase = phrases[index];
+            if (textless.get(index)) {
+                if (phrase.matchesText(text))
+                    return phrase;
+            } else {
+                if (found == null)
+                    found = automaton.search(toLowerCaseAscii(text));
+                if (found.get(index))
+                    return phrase;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Folds US-ASCII letters only, like {@link Phrase#compile(String)} does
+     * without {@link java.util.regex.Pattern#UNICODE_CASE}.
+     *
+     * @param value
+     * @return
+     */
+    private static String toLowerCaseAscii(String value) {
+        char[] chars = null;
+        for (int index = 0; index < value.length(); index++) {
+            char chr = value.charAt(index);
+            if (chr >= 'A' && chr <= 'Z') {
+                if (chars == null)
+                    chars = value.toCharArray();
+                chars[index] = (char) (chr + ('a' - 'A'));
+            }
+        }
+        return chars == null ? value : new String(chars);
+    }
+
+    private BitSet getCandidates(String user, Collection<String> groups) {
+        StringBuilder builder = new StringBuilder(user);
+        for (String group : groups)
+            builder.append('\n').append(group);
+        String key = builder.toString();
+        BitSet candidates = contacts.get(key);
+        if (candidates == null) {
+            candidates = new BitSet(phrases.length);
+            for (int index = 0; index < phrases.length; index++)
+                if (phrases[index].matchesContact(user, groups))
+                    candidates.set(index);
+            contacts.put(key, candidates);
+        }
+        return candidates;
+    }
+
+    /**
+     * Aho-Corasick automaton for set of keywords.
+     */
+    private static class KeywordAutomaton {
+
+        private final List<Map<Character, Integer>> transitions;
+
+        private final List<BitSet> outputs;
+
+        private int[] failures;
+
+        KeywordAutomaton() {
+            transitions = new ArrayList<Map<Character, Integer>>();
+            outputs = new ArrayList<BitSet>();
+            addState();
+        }
+
+        private int addState() {
+            transitions.add(new HashMap<Character, Integer>());
+            outputs.add(new BitSet());
+            return transitions.size() - 1;
+        }
+
+        /**
+         * Adds keyword. Must be called before {@link #build()}.
+         *
+         * @param keyword
+         * @param value   index to be reported when keyword was found.
+         */
+        void add(String keyword, int value) {
+            int state = 0;
+            for (int index = 0; index < keyword.length(); index++) {
+                Character chr = keyword.charAt(index);
+                Integer next = transitions.get(state).get(chr);
+                if (next == null) {
+                    next = addState();
+                    transitions.get(state).put(chr, next);
+                }
+                state = next;
+            }
+            outputs.get(state).set(value);
+        }
+
+        /**
+         * Computes failure links.
+         */
+        void build() {
+            failures = new int[transitions.size()];
+            Queue<Integer> queue = new LinkedList<Integer>();
+            for (Integer state : transitions.get(0).values()) {
+                failures[state] = 0;
+                queue.add(state);
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.remove();
+                for (Map.Entry<Character, Integer> entry : transitions.get(state).entrySet()) {
+                    int next = entry.getValue();
+                    queue.add(next);
+                    int failure = failures[state];
+                    while (failure != 0 && !transitions.get(failure).containsKey(entry.getKey()))
+                        failure = failures[failure];
+                    Integer target = transitions.get(failure).get(entry.getKey());
+                    failures[next] = target == null || target == next ? 0 : target;
+                    outputs.get(next).or(outputs.get(failures[next]));
+                }
+            }
+        }
+
+        /**
+         * @param text
+         * @return Values of all keywords found in the text.
+         */
+        BitSet search(String text) {
+            BitSet found = new BitSet();
+            int state = 0;
+            for (int index = 0; index < text.length(); index++) {
+                Character chr = text.charAt(index);
+                Integer next = transitions.get(state).get(chr);
+                while (next == null && state != 0) {
+                    state = failures[state];
+                    next = transitions.get(state).get(chr);
+                }
+                state = next == null ? 0 : next;
+                found.or(outputs.get(state));
+            }
+            return found;
+        }
+
+    }
+
+}
@@ -27,8 +27,19 @@ public class MessageNotificationCreator {
     private final Application application;
     private List<MessageNotification> messageNotifications;
 
+    /**
+     * Updates notification when contact's avatar will be decoded.
+     */
+    private final Runnable onAvatarDecoded;
+
     public MessageNotificationCreator() {
         application = Application.getInstance();
+        onAvatarDecoded = new Runnable() {
+            @Override
+            public void run() {
+                NotificationManager.getInstance().onMessageNotification();
+            }
+        };
     }
 
     public android.app.Notification notifyMessageNotification(List<MessageNotification> messageNotifications,
@@ -129,6 +140,7 @@ public class MessageNotificationCreator {
             if (MUCManager.getInstance().hasRoom(message.getAccount(), message.getUser())) {
                 return AvatarManager.getInstance().getRoomBitmap(message.getUser());
             } else {
+                AvatarManager.getInstance().requestUserBitmap(message.getUser(), onAvatarDecoded);
                 return AvatarManager.getInstance().getUserBitmap(message.getUser());
             }
         }
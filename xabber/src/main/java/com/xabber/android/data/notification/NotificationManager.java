@@ -27,10 +27,12 @@ import android.support.v4.app.NotificationCompat;
 
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.LoadDependent;
 import com.xabber.android.data.LogManager;
 import com.xabber.android.data.OnCloseListener;
 import com.xabber.android.data.OnInitializedListener;
-import com.xabber.android.data.OnLoadListener;
 import com.xabber.android.data.SettingsManager;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
@@ -42,6 +44,7 @@ import com.xabber.android.data.connection.ConnectionState;
 import com.xabber.android.data.message.MessageItem;
 import com.xabber.android.data.message.MessageManager;
 import com.xabber.android.data.message.chat.ChatManager;
+import com.xabber.android.data.message.chat.ChatSettings;
 import com.xabber.android.data.message.phrase.PhraseManager;
 import com.xabber.android.data.roster.RosterManager;
 import com.xabber.android.ui.activity.ClearNotifications;
@@ -62,7 +65,7 @@ import java.util.List;
  * @author alexander.ivanov
  */
 public class NotificationManager implements OnInitializedListener, OnAccountChangedListener,
-        OnCloseListener, OnLoadListener, Runnable, OnAccountRemovedListener,
+        OnCloseListener, LoadDependent, Runnable, OnAccountRemovedListener,
         OnAccountArchiveModeChangedListener {
 
     public static final int PERSISTENT_NOTIFICATION_ID = 1;
@@ -160,10 +163,10 @@ public class NotificationManager implements OnInitializedListener, OnAccountChan
             return;
         }
         if (messageItem.getChat().getFirstNotification() || !SettingsManager.eventsFirstOnly()) {
-            Uri sound = PhraseManager.getInstance().getSound(messageItem.getChat().getAccount(),
-                    messageItem.getChat().getUser(), messageItem.getText());
-            boolean makeVibration = ChatManager.getInstance().isMakeVibro(messageItem.getChat().getAccount(),
-                    messageItem.getChat().getUser());
+            ChatSettings chatSettings = ChatManager.getInstance().getChatSettings(
+                    messageItem.getChat().getAccount(), messageItem.getChat().getUser());
+            Uri sound = PhraseManager.getInstance().getSound(chatSettings, messageItem.getText());
+            boolean makeVibration = chatSettings.isMakeVibro();
 
             NotificationManager.getInstance().setNotificationDefaults(notificationBuilder,
                     makeVibration, sound, AudioManager.STREAM_NOTIFICATION);
@@ -181,6 +184,11 @@ public class NotificationManager implements OnInitializedListener, OnAccountChan
 
     }
 
+    @Override
+    public Class<?>[] getLoadDependencies() {
+        return new Class<?>[]{DatabaseManager.class, MessageManager.class};
+    }
+
     @Override
     public void onLoad() {
         final Collection<MessageNotification> messageNotifications = new ArrayList<>();
@@ -479,7 +487,7 @@ public class NotificationManager implements OnInitializedListener, OnAccountChan
         final int count = messageNotification.getCount();
 
         if (AccountManager.getInstance().getArchiveMode(account) != ArchiveMode.dontStore) {
-            Application.getInstance().runInBackground(new Runnable() {
+            Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
                 @Override
                 public void run() {
                     NotificationTable.getInstance().write(account, user, text, timestamp, count);
@@ -516,7 +524,7 @@ public class NotificationManager implements OnInitializedListener, OnAccountChan
         if (messageNotification == null)
             return;
         messageNotifications.remove(messageNotification);
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 NotificationTable.getInstance().remove(account, user);
@@ -533,7 +541,7 @@ public class NotificationManager implements OnInitializedListener, OnAccountChan
             if (provider.canClearNotifications())
                 provider.clearNotifications();
         messageNotifications.clear();
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 NotificationTable.getInstance().clear();
@@ -547,7 +555,7 @@ public class NotificationManager implements OnInitializedListener, OnAccountChan
         final String account = accountItem.getAccount();
         if (AccountManager.getInstance().getArchiveMode(account) != ArchiveMode.dontStore)
             return;
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 NotificationTable.getInstance().removeAccount(account);
@@ -27,6 +27,10 @@ public class AccountRosterListener implements RosterListener, RosterLoadedListen
         this.account = account;
     }
 
+    /**
+     * Roster events are received from SMACK's thread and passed to the
+     * managers in UI thread.
+     */
     @Override
     public void entriesAdded(Collection<String> addresses) {
         update(addresses);
@@ -44,29 +48,52 @@ public class AccountRosterListener implements RosterListener, RosterLoadedListen
     }
 
     @Override
-    public void presenceChanged(Presence presence) {
-        PresenceManager.getInstance().onPresenceChanged(account, presence);
+    public void presenceChanged(final Presence presence) {
+        Application.getInstance().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                PresenceManager.getInstance().onPresenceChanged(account, presence);
+            }
+        });
     }
 
     private void update(Collection<String> addresses) {
-        RosterManager.getInstance().updateContacts();
+        final Collection<String> changed = new ArrayList<>(addresses);
+        Application.getInstance().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                RosterManager.getInstance().updateContacts(account, changed);
 
-        Collection<BaseEntity> entities = new ArrayList<>();
+                Collection<BaseEntity> entities = new ArrayList<>();
 
-        for (String address : addresses) {
-            entities.add(new BaseEntity(account, address));
-        }
+                for (String address : changed) {
+                    entities.add(new BaseEntity(account, address));
+                }
 
-        RosterManager.onContactsChanged(entities);
+                RosterManager.onContactsChanged(entities);
+            }
+        });
     }
 
     @Override
     public void onRosterLoaded(Roster roster) {
+        Application.getInstance().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                onRosterLoaded();
+            }
+        });
+    }
+
+    private void onRosterLoaded() {
         LogManager.i(this, "onRosterLoaded " + account);
 
-        RosterManager.getInstance().updateContacts();
+        RosterManager.getInstance().updateContacts(account);
 
         final AccountItem accountItem = AccountManager.getInstance().getAccount(this.account);
+        if (accountItem == null) {
+            return;
+        }
 
         for (OnRosterReceivedListener listener : Application.getInstance().getManagers(OnRosterReceivedListener.class)) {
             listener.onRosterReceived(accountItem);
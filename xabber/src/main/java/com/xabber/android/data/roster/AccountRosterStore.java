@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.roster;
+
+import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
+
+import org.jivesoftware.smack.roster.packet.RosterPacket;
+import org.jivesoftware.smack.roster.rosterstore.RosterStore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Roster store for the account, which allows server to send only changes
+ * since the saved version (XEP-0237).
+ * <p/>
+ * Items are kept in memory and written to {@link RosterTable} and
+ * {@link RosterVersionTable} in background. Methods are called from SMACK's
+ * thread.
+ */
+class AccountRosterStore implements RosterStore {
+
+    private final String account;
+
+    /**
+     * Roster items for bare addresses.
+     */
+    private final Map<String, RosterPacket.Item> items;
+
+    private String version;
+
+    /**
+     * Whether items were received from the server or loaded from database.
+     */
+    private boolean initialized;
+
+    AccountRosterStore(String account) {
+        this.account = account;
+        items = new LinkedHashMap<>();
+        version = null;
+        initialized = false;
+    }
+
+    @Override
+    public synchronized List<RosterPacket.Item> getEntries() {
+        return new ArrayList<>(items.values());
+    }
+
+    @Override
+    public synchronized RosterPacket.Item getEntry(String bareJid) {
+        return items.get(bareJid);
+    }
+
+    @Override
+    public synchronized String getRosterVersion() {
+        return version;
+    }
+
+    @Override
+    public boolean addEntry(final RosterPacket.Item item, final String version) {
+        synchronized (this) {
+            items.put(item.getUser(), item);
+            this.version = version;
+            initialized = true;
+        }
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
+            @Override
+            public void run() {
+                RosterTable.getInstance().write(account, item);
+                RosterVersionTable.getInstance().write(account, version);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean resetEntries(Collection<RosterPacket.Item> items, final String version) {
+        final Collection<RosterPacket.Item> saved = new ArrayList<>(items);
+        synchronized (this) {
+            this.items.clear();
+            for (RosterPacket.Item item : saved)
+                this.items.put(item.getUser(), item);
+            this.version = version;
+            initialized = true;
+        }
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
+            @Override
+            public void run() {
+                RosterTable.getInstance().reset(account, saved);
+                RosterVersionTable.getInstance().write(account, version);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean removeEntry(final String bareJid, final String version) {
+        synchronized (this) {
+            items.remove(bareJid);
+            this.version = version;
+            initialized = true;
+        }
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
+            @Override
+            public void run() {
+                RosterTable.getInstance().remove(account, bareJid);
+                RosterVersionTable.getInstance().write(account, version);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Applies saved items unless items were received from the server.
+     *
+     * @return Whether items were applied.
+     */
+    synchronized boolean onLoaded(Collection<RosterPacket.Item> items, String version) {
+        if (initialized)
+            return false;
+        for (RosterPacket.Item item : items)
+            this.items.put(item.getUser(), item);
+        this.version = version;
+        initialized = true;
+        return true;
+    }
+
+}
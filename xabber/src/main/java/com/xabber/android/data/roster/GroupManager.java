@@ -18,14 +18,16 @@ import android.database.Cursor;
 
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
-import com.xabber.android.data.OnLoadListener;
+import com.xabber.android.data.BackgroundLane;
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.LoadDependent;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.account.OnAccountRemovedListener;
 import com.xabber.android.data.entity.NestedMap;
 import com.xabber.android.data.entity.NestedMap.Entry;
 
-public class GroupManager implements OnLoadListener, OnAccountRemovedListener,
+public class GroupManager implements LoadDependent, OnAccountRemovedListener,
         GroupStateProvider {
 
     /**
@@ -72,6 +74,11 @@ public class GroupManager implements OnLoadListener, OnAccountRemovedListener,
         return instance;
     }
 
+    @Override
+    public Class<?>[] getLoadDependencies() {
+        return new Class<?>[]{DatabaseManager.class};
+    }
+
     @Override
     public void onLoad() {
         final NestedMap<GroupConfiguration> groupConfigurations = new NestedMap<GroupConfiguration>();
@@ -183,7 +190,7 @@ public class GroupManager implements OnLoadListener, OnAccountRemovedListener,
 
     private void requestToWriteGroup(final String account, final String group,
                                      final boolean expanded, final ShowOfflineMode showOfflineMode) {
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.database, new Runnable() {
             @Override
             public void run() {
                 GroupTable.getInstance().write(account, group, expanded,
@@ -29,8 +29,9 @@ public interface OnContactChangedListener extends BaseUIListener {
     /**
      * Contacts changed.
      *
-     * @param entities
+     * @param entities   changed contacts.
+     * @param allChanged whether unspecified contacts were changed too.
      */
-    void onContactsChanged(Collection<BaseEntity> entities);
+    void onContactsChanged(Collection<BaseEntity> entities, boolean allChanged);
 
 }
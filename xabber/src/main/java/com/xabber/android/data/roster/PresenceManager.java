@@ -29,7 +29,7 @@ import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.ConnectionManager;
 import com.xabber.android.data.connection.OnAuthorizedListener;
 import com.xabber.android.data.connection.OnDisconnectListener;
-import com.xabber.android.data.connection.OnPacketListener;
+import com.xabber.android.data.connection.OnPacketProcessListener;
 import com.xabber.android.data.extension.archive.OnArchiveModificationsReceivedListener;
 import com.xabber.android.data.extension.avatar.AvatarManager;
 import com.xabber.android.data.extension.capability.CapabilitiesManager;
@@ -54,7 +54,8 @@ import java.util.HashSet;
  * @author alexander.ivanov
  */
 public class PresenceManager implements OnArchiveModificationsReceivedListener,
-        OnLoadListener, OnAccountDisabledListener, OnDisconnectListener, OnPacketListener, OnAuthorizedListener {
+        OnLoadListener, OnAccountDisabledListener, OnDisconnectListener, OnPacketProcessListener,
+        OnAuthorizedListener {
 
     private final static PresenceManager instance;
 
@@ -267,31 +268,44 @@ public class PresenceManager implements OnArchiveModificationsReceivedListener,
     }
 
     @Override
-    public void onPacket(ConnectionItem connection, String bareAddress, Stanza stanza) {
+    public Runnable onPacketProcess(ConnectionItem connection, final String bareAddress,
+                                    Stanza stanza) {
         if (!(connection instanceof AccountItem)) {
-            return;
+            return null;
         }
 
         if (!(stanza instanceof Presence)) {
-            return;
+            return null;
         }
 
         Presence presence = (Presence) stanza;
 
-        if (presence.getType() == Presence.Type.subscribe) {
-            String account = ((AccountItem) connection).getAccount();
+        if (presence.getType() != Presence.Type.subscribe) {
+            return null;
+        }
 
-            // Subscription request
-            HashSet<String> set = requestedSubscriptions.get(account);
-            if (set != null && set.contains(bareAddress)) {
-                try {
-                    acceptSubscription(account, bareAddress);
-                } catch (NetworkException e) {
-                }
-                subscriptionRequestProvider.remove(account, bareAddress);
-            } else {
-                subscriptionRequestProvider.add(new SubscriptionRequest(account, bareAddress), null);
+        final String account = ((AccountItem) connection).getAccount();
+        return new Runnable() {
+            @Override
+            public void run() {
+                onSubscribe(account, bareAddress);
+            }
+        };
+    }
+
+    /**
+     * Subscription request received.
+     */
+    private void onSubscribe(String account, String bareAddress) {
+        HashSet<String> set = requestedSubscriptions.get(account);
+        if (set != null && set.contains(bareAddress)) {
+            try {
+                acceptSubscription(account, bareAddress);
+            } catch (NetworkException e) {
             }
+            subscriptionRequestProvider.remove(account, bareAddress);
+        } else {
+            subscriptionRequestProvider.add(new SubscriptionRequest(account, bareAddress), null);
         }
     }
 
@@ -14,23 +14,31 @@
  */
 package com.xabber.android.data.roster;
 
-import android.support.annotation.NonNull;
+import android.database.Cursor;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.LoadDependent;
 import com.xabber.android.data.LogManager;
 import com.xabber.android.data.NetworkException;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.account.OnAccountDisabledListener;
 import com.xabber.android.data.account.OnAccountEnabledListener;
+import com.xabber.android.data.account.OnAccountRemovedListener;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.ConnectionManager;
 import com.xabber.android.data.connection.ConnectionThread;
 import com.xabber.android.data.connection.OnDisconnectListener;
+import com.xabber.android.data.connection.OnResumedListener;
+import com.xabber.android.data.connection.OnSuspendedListener;
 import com.xabber.android.data.entity.BaseEntity;
+import com.xabber.android.data.entity.EntityChangeAggregator;
+import com.xabber.android.data.entity.NestedMap;
 import com.xabber.android.data.extension.muc.RoomChat;
 import com.xabber.android.data.extension.muc.RoomContact;
 import com.xabber.android.data.message.AbstractChat;
@@ -45,11 +53,15 @@ import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.roster.Roster;
 import org.jivesoftware.smack.roster.RosterEntry;
 import org.jivesoftware.smack.roster.packet.RosterPacket;
+import org.jivesoftware.smack.roster.rosterstore.RosterStore;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -57,26 +69,149 @@ import java.util.Set;
  *
  * @author alexander.ivanov
  */
-public class RosterManager implements OnDisconnectListener, OnAccountEnabledListener,
-        OnAccountDisabledListener {
+public class RosterManager implements LoadDependent, OnDisconnectListener,
+        OnSuspendedListener, OnResumedListener, OnAccountEnabledListener,
+        OnAccountDisabledListener, OnAccountRemovedListener {
 
     private final static RosterManager instance;
 
+    /**
+     * Changed contacts to be delivered to {@link OnContactChangedListener}.
+     */
+    private final static EntityChangeAggregator contactChangeAggregator = new EntityChangeAggregator() {
+        @Override
+        protected void onFlush(Collection<BaseEntity> entities, Collection<BaseEntity> marked,
+                               boolean allChanged) {
+            for (OnContactChangedListener onContactChangedListener
+                    : Application.getInstance().getUIListeners(OnContactChangedListener.class)) {
+                onContactChangedListener.onContactsChanged(entities, allChanged);
+            }
+        }
+    };
+
     static {
         instance = new RosterManager();
         Application.getInstance().addManager(instance);
     }
 
+    /**
+     * Roster contacts for bare addresses in accounts.
+     */
+    private final NestedMap<RosterContact> rosterContacts;
+
+    /**
+     * Bare addresses of contacts for group names in accounts.
+     */
+    private final NestedMap<Set<String>> groupMembers;
+
+    /**
+     * List of all roster contacts. <code>null</code> if contacts were
+     * changed since last request.
+     */
     private Collection<RosterContact> allRosterContacts;
 
+    /**
+     * Roster stores for accounts.
+     * <p/>
+     * Accessed from connection threads.
+     */
+    private final Map<String, AccountRosterStore> rosterStores;
+
     private RosterManager() {
-        allRosterContacts = new ArrayList<>();
+        rosterContacts = new NestedMap<>();
+        groupMembers = new NestedMap<>();
+        allRosterContacts = null;
+        rosterStores = new HashMap<>();
     }
 
     public static RosterManager getInstance() {
         return instance;
     }
 
+    @Override
+    public Class<?>[] getLoadDependencies() {
+        return new Class<?>[]{DatabaseManager.class, AccountManager.class};
+    }
+
+    @Override
+    public void onLoad() {
+        final NestedMap<RosterPacket.Item> items = new NestedMap<>();
+        final Map<String, String> versions = new HashMap<>();
+        Cursor cursor = RosterTable.getInstance().list();
+        try {
+            if (cursor.moveToFirst()) {
+                do {
+                    RosterPacket.Item item = RosterTable.getItem(cursor);
+                    items.put(RosterTable.getAccount(cursor), item.getUser(), item);
+                } while (cursor.moveToNext());
+            }
+        } finally {
+            cursor.close();
+        }
+        cursor = RosterVersionTable.getInstance().list();
+        try {
+            if (cursor.moveToFirst()) {
+                do {
+                    versions.put(RosterVersionTable.getAccount(cursor),
+                            RosterVersionTable.getVersion(cursor));
+                } while (cursor.moveToNext());
+            }
+        } finally {
+            cursor.close();
+        }
+        Application.getInstance().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                onLoaded(items, versions);
+            }
+        });
+    }
+
+    /**
+     * Shows saved contacts until roster will be received.
+     */
+    private void onLoaded(NestedMap<RosterPacket.Item> items, Map<String, String> versions) {
+        final Collection<BaseEntity> entities = new ArrayList<>();
+        for (String account : AccountManager.getInstance().getAccounts()) {
+            final AccountItem accountItem = AccountManager.getInstance().getAccount(account);
+            final Collection<RosterPacket.Item> accountItems = items.getNested(account).values();
+            if (!getAccountRosterStore(account).onLoaded(accountItems, versions.get(account))
+                    || isRosterReceived(account) || !rosterContacts.getNested(account).isEmpty()) {
+                continue;
+            }
+            for (RosterPacket.Item item : accountItems) {
+                RosterContact contact = addIndexedContact(account, item.getUser(), item.getName(),
+                        item.getItemType(), item.getGroupNames(), null);
+                contact.setConnected(false);
+                contact.setEnabled(accountItem.isEnabled());
+                entities.add(contact);
+            }
+            LogManager.i(this, "saved contacts " + account + ": " + accountItems.size());
+        }
+        if (!entities.isEmpty()) {
+            onContactsChanged(entities);
+        }
+    }
+
+    /**
+     * @param account
+     * @return Store to keep versioned roster of the account.
+     */
+    public RosterStore getRosterStore(String account) {
+        return getAccountRosterStore(account);
+    }
+
+    private AccountRosterStore getAccountRosterStore(String account) {
+        synchronized (rosterStores) {
+            AccountRosterStore rosterStore = rosterStores.get(account);
+            if (rosterStore == null) {
+                rosterStore = new AccountRosterStore(account);
+                rosterStores.put(account, rosterStore);
+            }
+            return rosterStore;
+        }
+    }
+
     @Nullable
     private Roster getRoster(String account) {
         final AccountItem accountItem = AccountManager.getInstance().getAccount(account);
@@ -122,7 +257,14 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
     public Collection<RosterContact> getContacts() {
         requestRosterReloadIfNeeded();
 
-        return Collections.unmodifiableCollection(allRosterContacts);
+        if (allRosterContacts == null) {
+            Collection<RosterContact> contacts = new ArrayList<>();
+            for (RosterContact contact : rosterContacts.values()) {
+                contacts.add(contact);
+            }
+            allRosterContacts = Collections.unmodifiableCollection(contacts);
+        }
+        return allRosterContacts;
     }
 
     private void requestRosterReloadIfNeeded() {
@@ -138,43 +280,134 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
         }
     }
 
-    void updateContacts() {
-        Collection<RosterContact> newRosterContacts = new ArrayList<>();
-        for (String account : AccountManager.getInstance().getAccounts()) {
-            final Roster roster = RosterManager.getInstance().getRoster(account);
-            if (roster == null) {
-                continue;
-            }
-
-            final Set<RosterEntry> entries = roster.getEntries();
-
-            for (RosterEntry rosterEntry : entries) {
+    /**
+     * Rebuilds contacts for all entries in account's roster.
+     * <p/>
+     * Group membership is taken from the groups, so each membership is
+     * visited once.
+     *
+     * @param account
+     */
+    void updateContacts(String account) {
+        final Map<String, RosterContact> previous = new HashMap<>(rosterContacts.getNested(account));
+        rosterContacts.clear(account);
+        groupMembers.clear(account);
+        allRosterContacts = null;
 
-                final RosterContact contact = convertRosterEntryToRosterContact(account, roster, rosterEntry);
+        final Roster roster = getRoster(account);
+        if (roster == null) {
+            return;
+        }
 
-                newRosterContacts.add(contact);
+        final Map<String, Collection<String>> contactGroups = new HashMap<>();
+        for (org.jivesoftware.smack.roster.RosterGroup group : roster.getGroups()) {
+            for (RosterEntry rosterEntry : group.getEntries()) {
+                Collection<String> groups = contactGroups.get(rosterEntry.getUser());
+                if (groups == null) {
+                    groups = new ArrayList<>();
+                    contactGroups.put(rosterEntry.getUser(), groups);
+                }
+                groups.add(group.getName());
+            }
+        }
 
+        for (RosterEntry rosterEntry : roster.getEntries()) {
+            Collection<String> groups = contactGroups.get(rosterEntry.getUser());
+            if (groups == null) {
+                groups = Collections.emptyList();
             }
+            addIndexedContact(account, rosterEntry.getUser(), rosterEntry.getName(),
+                    rosterEntry.getType(), groups, previous.get(rosterEntry.getUser()));
         }
-        allRosterContacts = newRosterContacts;
 
-        LogManager.i(this, "updateContacts: " + allRosterContacts.size());
+        LogManager.i(this, "updateContacts " + account + ": " + rosterContacts.getNested(account).size());
     }
 
-    @NonNull
-    private RosterContact convertRosterEntryToRosterContact(String account, Roster roster, RosterEntry rosterEntry) {
-        final RosterContact contact = new RosterContact(account, rosterEntry);
+    /**
+     * Updates contacts for changed entries in account's roster.
+     * <p/>
+     * Entries are taken from the account's roster store, which is updated
+     * by SMACK before listeners are notified. Store items already contain
+     * group names, so roster groups are not visited.
+     *
+     * @param account
+     * @param addresses added, updated or deleted entries.
+     */
+    void updateContacts(String account, Collection<String> addresses) {
+        if (getRoster(account) == null) {
+            return;
+        }
+        final AccountRosterStore rosterStore = getAccountRosterStore(account);
 
-        final Collection<org.jivesoftware.smack.roster.RosterGroup> groups = roster.getGroups();
+        for (String address : addresses) {
+            final RosterContact previous = removeIndexedContact(account, address);
+            final RosterPacket.Item item = rosterStore.getEntry(address);
+            if (item == null) {
+                continue;
+            }
+            addIndexedContact(account, item.getUser(), item.getName(),
+                    item.getItemType(), item.getGroupNames(), previous);
+        }
+    }
 
-        for (org.jivesoftware.smack.roster.RosterGroup group : groups) {
-            if (group.contains(rosterEntry)) {
-                contact.addGroupReference(new RosterGroupReference(new RosterGroup(account, group.getName())));
+    /**
+     * Adds contact to the index.
+     * <p/>
+     * Contact is marked as connected, because entries are received from the
+     * server. Callers adding saved entries must reset it. Enabled state is
+     * taken from the previous contact.
+     *
+     * @param previous contact for the same entry to take enabled state from.
+     *                 Can be <code>null</code>.
+     * @return added contact.
+     */
+    private RosterContact addIndexedContact(String account, String user, String name,
+                                            RosterPacket.ItemType type, Collection<String> groupNames,
+                                            @Nullable RosterContact previous) {
+        final RosterContact contact = new RosterContact(account, user, name);
+        for (String groupName : groupNames) {
+            contact.addGroupReference(new RosterGroupReference(new RosterGroup(account, groupName)));
+            Set<String> members = groupMembers.get(account, groupName);
+            if (members == null) {
+                members = new HashSet<>();
+                groupMembers.put(account, groupName, members);
             }
+            members.add(contact.getUser());
         }
 
-        final RosterPacket.ItemType type = rosterEntry.getType();
         contact.setSubscribed(type == RosterPacket.ItemType.both || type == RosterPacket.ItemType.to);
+        contact.setConnected(true);
+        if (previous != null) {
+            contact.setEnabled(previous.isEnabled());
+        }
+
+        rosterContacts.put(account, contact.getUser(), contact);
+        allRosterContacts = null;
+        return contact;
+    }
+
+    /**
+     * Removes contact from the index.
+     *
+     * @return removed contact or <code>null</code>.
+     */
+    @Nullable
+    private RosterContact removeIndexedContact(String account, String user) {
+        final RosterContact contact = rosterContacts.remove(account, user);
+        if (contact == null) {
+            return null;
+        }
+        for (String groupName : contact.getGroupNames()) {
+            Set<String> members = groupMembers.get(account, groupName);
+            if (members == null) {
+                continue;
+            }
+            members.remove(user);
+            if (members.isEmpty()) {
+                groupMembers.remove(account, groupName);
+            }
+        }
+        allRosterContacts = null;
         return contact;
     }
 
@@ -183,21 +416,9 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
      * @param user
      * @return <code>null</code> can be returned.
      */
+    @Nullable
     public RosterContact getRosterContact(String account, String user) {
-
-        final Roster roster = getRoster(account);
-
-        if (roster == null) {
-            return null;
-        }
-
-        final RosterEntry entry = roster.getEntry(user);
-
-        if (entry == null) {
-            return null;
-        } else {
-            return convertRosterEntryToRosterContact(account, roster, entry);
-        }
+        return rosterContacts.get(account, user);
     }
 
     /**
@@ -228,21 +449,20 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
      * @return List of groups in specified account.
      */
     public Collection<String> getGroups(String account) {
-        final Roster roster = getRoster(account);
-
-        Collection<String> returnGroups = new ArrayList<>();
-
-        if (roster == null) {
-            return returnGroups;
-        }
-
-        final Collection<org.jivesoftware.smack.roster.RosterGroup> groups = roster.getGroups();
+        return new ArrayList<>(groupMembers.getNested(account).keySet());
+    }
 
-        for (org.jivesoftware.smack.roster.RosterGroup rosterGroup : groups) {
-            returnGroups.add(rosterGroup.getName());
+    /**
+     * @param account
+     * @param group
+     * @return Bare addresses of contacts in specified group.
+     */
+    public Collection<String> getGroupMembers(String account, String group) {
+        Set<String> members = groupMembers.get(account, group);
+        if (members == null) {
+            return Collections.emptyList();
         }
-
-        return returnGroups;
+        return Collections.unmodifiableCollection(members);
     }
 
     /**
@@ -309,7 +529,7 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
             return;
         }
 
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.io, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -389,7 +609,7 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
         }
 
 
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.io, new Runnable() {
             @Override
             public void run() {
                 for (RosterEntry entry : group.getEntries()) {
@@ -435,7 +655,7 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
         }
 
         if (TextUtils.isEmpty(oldGroup)) {
-            Application.getInstance().runInBackground(new Runnable() {
+            Application.getInstance().runInBackground(BackgroundLane.io, new Runnable() {
                 @Override
                 public void run() {
                     createGroupForUnfiledEntries(newGroup, roster);
@@ -449,7 +669,7 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
             return;
         }
 
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.io, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -509,11 +729,34 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
         if (!(connection instanceof AccountItem))
             return;
         String account = ((AccountItem) connection).getAccount();
-        for (RosterContact contact : allRosterContacts) {
-            if (contact.getAccount().equals(account)) {
-                contact.setConnected(false);
-            }
+        for (RosterContact contact : rosterContacts.getNested(account).values()) {
+            contact.setConnected(false);
+        }
+    }
+
+    @Override
+    public void onSuspended(ConnectionItem connection) {
+        if (connection instanceof AccountItem)
+            setConnected(((AccountItem) connection).getAccount(), false);
+    }
+
+    @Override
+    public void onResumed(ConnectionItem connection) {
+        if (connection instanceof AccountItem)
+            setConnected(((AccountItem) connection).getAccount(), true);
+    }
+
+    /**
+     * Sets whether contacts in account are connected and notifies listeners,
+     * so suspended stream is shown as disconnected until it will be resumed.
+     */
+    private void setConnected(String account, boolean connected) {
+        Collection<BaseEntity> entities = new ArrayList<>();
+        for (RosterContact contact : rosterContacts.getNested(account).values()) {
+            contact.setConnected(connected);
+            entities.add(contact);
         }
+        onContactsChanged(entities);
     }
 
     @Override
@@ -530,36 +773,44 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
      * Sets whether contacts in accounts are enabled.
      */
     private void setEnabled(String account, boolean enabled) {
-        for (RosterContact contact : allRosterContacts) {
-            if (contact.getAccount().equals(account)) {
-                contact.setEnabled(enabled);
-            }
+        for (RosterContact contact : rosterContacts.getNested(account).values()) {
+            contact.setEnabled(enabled);
         }
     }
 
+    @Override
+    public void onAccountRemoved(AccountItem accountItem) {
+        synchronized (rosterStores) {
+            rosterStores.remove(accountItem.getAccount());
+        }
+        rosterContacts.clear(accountItem.getAccount());
+        groupMembers.clear(accountItem.getAccount());
+        allRosterContacts = null;
+    }
+
     /**
      * Notifies registered {@link OnContactChangedListener}.
+     * <p/>
+     * Changes are collected and delivered once per frame.
      *
      * @param entities
      */
     public static void onContactsChanged(final Collection<BaseEntity> entities) {
-        Application.getInstance().runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                for (OnContactChangedListener onContactChangedListener : Application
-                        .getInstance().getUIListeners(
-                                OnContactChangedListener.class))
-                    onContactChangedListener.onContactsChanged(entities);
-            }
-        });
+        contactChangeAggregator.onChanged(entities);
+    }
+
+    /**
+     * Notifies registered {@link OnContactChangedListener} that unspecified
+     * contacts were changed.
+     */
+    public static void onAllContactsChanged() {
+        contactChangeAggregator.onAllChanged();
     }
 
     /**
      * Notifies registered {@link OnContactChangedListener}.
      */
     public static void onContactChanged(String account, String bareAddress) {
-        final ArrayList<BaseEntity> entities = new ArrayList<>();
-        entities.add(new BaseEntity(account, bareAddress));
-        onContactsChanged(entities);
+        contactChangeAggregator.onChanged(account, bareAddress, false);
     }
 }
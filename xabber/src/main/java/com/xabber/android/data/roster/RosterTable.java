@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.roster;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.entity.AbstractAccountTable;
+
+import org.jivesoftware.smack.roster.packet.RosterPacket;
+
+import java.util.Collection;
+
+/**
+ * Storage with roster items received from the server.
+ */
+class RosterTable extends AbstractAccountTable {
+
+    private static final class Fields implements AbstractAccountTable.Fields {
+
+        private Fields() {
+        }
+
+        public static final String USER = "user";
+
+        public static final String NAME = "name";
+
+        /**
+         * Subscription type.
+         */
+        public static final String TYPE = "type";
+
+        /**
+         * Pending subscription request.
+         */
+        public static final String ASK = "ask";
+
+        /**
+         * Group names separated with {@link #GROUP_SEPARATOR}.
+         */
+        public static final String GROUPS = "groups";
+
+    }
+
+    private static final String NAME = "roster_items";
+    private static final String[] PROJECTION = new String[]{Fields.ACCOUNT,
+            Fields.USER, Fields.NAME, Fields.TYPE, Fields.ASK, Fields.GROUPS};
+    private static final String GROUP_SEPARATOR = "\n";
+
+    private final DatabaseManager databaseManager;
+    private SQLiteStatement writeStatement;
+    private final Object writeLock;
+
+    private final static RosterTable instance;
+
+    static {
+        instance = new RosterTable(DatabaseManager.getInstance());
+        DatabaseManager.getInstance().addTable(instance);
+    }
+
+    public static RosterTable getInstance() {
+        return instance;
+    }
+
+    private RosterTable(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+        writeStatement = null;
+        writeLock = new Object();
+    }
+
+    @Override
+    public void create(SQLiteDatabase db) {
+        String sql = "CREATE TABLE " + NAME + " (" + Fields.ACCOUNT + " TEXT,"
+                + Fields.USER + " TEXT," + Fields.NAME + " TEXT,"
+                + Fields.TYPE + " TEXT," + Fields.ASK + " TEXT,"
+                + Fields.GROUPS + " TEXT);";
+        DatabaseManager.execSQL(db, sql);
+        sql = "CREATE UNIQUE INDEX " + NAME + "_index ON " + NAME + " ("
+                + Fields.ACCOUNT + ", " + Fields.USER + ");";
+        DatabaseManager.execSQL(db, sql);
+    }
+
+    @Override
+    public void migrate(SQLiteDatabase db, int toVersion) {
+        super.migrate(db, toVersion);
+        switch (toVersion) {
+            case 71:
+                create(db);
+                break;
+            default:
+                break;
+        }
+    }
+
+    void write(String account, RosterPacket.Item item) {
+        synchronized (writeLock) {
+            if (writeStatement == null) {
+                SQLiteDatabase db = databaseManager.getWritableDatabase();
+                writeStatement = db.compileStatement("INSERT OR REPLACE INTO "
+                        + NAME + " (" + Fields.ACCOUNT + ", " + Fields.USER
+                        + ", " + Fields.NAME + ", " + Fields.TYPE + ", "
+                        + Fields.ASK + ", " + Fields.GROUPS
+                        + ") VALUES (?, ?, ?, ?, ?, ?);");
+            }
+            writeStatement.bindString(1, account);
+            writeStatement.bindString(2, item.getUser());
+            if (item.getName() == null)
+                writeStatement.bindNull(3);
+            else
+                writeStatement.bindString(3, item.getName());
+            if (item.getItemType() == null)
+                writeStatement.bindNull(4);
+            else
+                writeStatement.bindString(4, item.getItemType().name());
+            if (item.getItemStatus() == null)
+                writeStatement.bindNull(5);
+            else
+                writeStatement.bindString(5, item.getItemStatus().toString());
+            writeStatement.bindString(6,
+                    TextUtils.join(GROUP_SEPARATOR, item.getGroupNames()));
+            writeStatement.execute();
+        }
+    }
+
+    void remove(String account, String user) {
+        SQLiteDatabase db = databaseManager.getWritableDatabase();
+        db.delete(NAME, Fields.ACCOUNT + " = ? AND " + Fields.USER + " = ?",
+                new String[]{account, user});
+    }
+
+    /**
+     * Replaces all items in account.
+     */
+    void reset(String account, Collection<RosterPacket.Item> items) {
+        SQLiteDatabase db = databaseManager.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            removeAccount(account);
+            for (RosterPacket.Item item : items)
+                write(account, item);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    protected String getTableName() {
+        return NAME;
+    }
+
+    @Override
+    protected String[] getProjection() {
+        return PROJECTION;
+    }
+
+    static RosterPacket.Item getItem(Cursor cursor) {
+        RosterPacket.Item item = new RosterPacket.Item(
+                cursor.getString(cursor.getColumnIndex(Fields.USER)),
+                cursor.getString(cursor.getColumnIndex(Fields.NAME)));
+        String type = cursor.getString(cursor.getColumnIndex(Fields.TYPE));
+        if (type != null)
+            item.setItemType(RosterPacket.ItemType.valueOf(type));
+        String ask = cursor.getString(cursor.getColumnIndex(Fields.ASK));
+        if (ask != null)
+            item.setItemStatus(RosterPacket.ItemStatus.fromString(ask));
+        String groups = cursor.getString(cursor.getColumnIndex(Fields.GROUPS));
+        if (!TextUtils.isEmpty(groups))
+            for (String group : groups.split(GROUP_SEPARATOR))
+                item.addGroupName(group);
+        return item;
+    }
+
+}
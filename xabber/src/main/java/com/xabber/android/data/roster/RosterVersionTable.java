@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.data.roster;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.xabber.android.data.DatabaseManager;
+import com.xabber.android.data.entity.AbstractAccountTable;
+
+/**
+ * Storage with versions of roster items in {@link RosterTable} (XEP-0237).
+ */
+class RosterVersionTable extends AbstractAccountTable {
+
+    private static final class Fields implements AbstractAccountTable.Fields {
+
+        private Fields() {
+        }
+
+        public static final String VERSION = "version";
+
+    }
+
+    private static final String NAME = "roster_versions";
+    private static final String[] PROJECTION = new String[]{Fields.ACCOUNT,
+            Fields.VERSION};
+
+    private final DatabaseManager databaseManager;
+
+    private final static RosterVersionTable instance;
+
+    static {
+        instance = new RosterVersionTable(DatabaseManager.getInstance());
+        DatabaseManager.getInstance().addTable(instance);
+    }
+
+    public static RosterVersionTable getInstance() {
+        return instance;
+    }
+
+    private RosterVersionTable(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    @Override
+    public void create(SQLiteDatabase db) {
+        String sql = "CREATE TABLE " + NAME + " (" + Fields.ACCOUNT + " TEXT,"
+                + Fields.VERSION + " TEXT);";
+        DatabaseManager.execSQL(db, sql);
+        sql = "CREATE UNIQUE INDEX " + NAME + "_index ON " + NAME + " ("
+                + Fields.ACCOUNT + ");";
+        DatabaseManager.execSQL(db, sql);
+    }
+
+    @Override
+    public void migrate(SQLiteDatabase db, int toVersion) {
+        super.migrate(db, toVersion);
+        switch (toVersion) {
+            case 71:
+                create(db);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @param version <code>null</code> if server doesn't support versioning.
+     */
+    void write(String account, String version) {
+        SQLiteDatabase db = databaseManager.getWritableDatabase();
+        if (version == null) {
+            removeAccount(account);
+            return;
+        }
+        db.execSQL("INSERT OR REPLACE INTO " + NAME + " (" + Fields.ACCOUNT
+                + ", " + Fields.VERSION + ") VALUES (?, ?);",
+                new Object[]{account, version});
+    }
+
+    @Override
+    protected String getTableName() {
+        return NAME;
+    }
+
+    @Override
+    protected String[] getProjection() {
+        return PROJECTION;
+    }
+
+    static String getVersion(Cursor cursor) {
+        return cursor.getString(cursor.getColumnIndex(Fields.VERSION));
+    }
+
+}
@@ -364,7 +364,7 @@ public class ChatViewer extends ManagedActivity implements OnChatChangedListener
     }
 
     @Override
-    public void onChatChanged(final String account, final String user, final boolean incoming) {
+    public void onChatsChanged(Collection<BaseEntity> entities, Collection<BaseEntity> incoming) {
         if (chatViewerAdapter.updateChats()) {
             chatScrollIndicatorAdapter.update(chatViewerAdapter.getActiveChats());
             selectPage();
@@ -372,7 +372,7 @@ public class ChatViewer extends ManagedActivity implements OnChatChangedListener
             for (ChatViewerFragment chat : registeredChats) {
                 if (chat.isEqual(selectedChat)) {
                     chat.updateChat();
-                    if (incoming) {
+                    if (!incoming.isEmpty()) {
                         chat.playIncomingAnimation();
                     }
                 }
@@ -383,11 +383,17 @@ public class ChatViewer extends ManagedActivity implements OnChatChangedListener
     }
 
     @Override
-    public void onContactsChanged(Collection<BaseEntity> entities) {
-        for (BaseEntity contact : entities) {
+    public void onContactsChanged(Collection<BaseEntity> entities, boolean allChanged) {
+        if (allChanged) {
             for (ChatViewerFragment chat : registeredChats) {
-                if (chat.isEqual(contact)) {
-                    chat.updateChat();
+                chat.updateChat();
+            }
+        } else {
+            for (BaseEntity contact : entities) {
+                for (ChatViewerFragment chat : registeredChats) {
+                    if (chat.isEqual(contact)) {
+                        chat.updateChat();
+                    }
                 }
             }
         }
@@ -632,7 +632,6 @@ public class ContactList extends ManagedActivity implements OnAccountChangedList
                 break;
             case Intent.ACTION_CREATE_SHORTCUT: {
                 createShortcut(abstractContact);
-                finish();
                 break;
             }
             default:
@@ -666,21 +665,38 @@ public class ContactList extends ManagedActivity implements OnAccountChangedList
         }
     }
 
-    private void createShortcut(AbstractContact abstractContact) {
+    /**
+     * Sets shortcut as result and finishes activity. User's avatar is
+     * decoded in background, so activity can be finished later.
+     */
+    private void createShortcut(final AbstractContact abstractContact) {
+        if (MUCManager.getInstance().hasRoom(abstractContact.getAccount(),
+                abstractContact.getUser())) {
+            createShortcut(abstractContact,
+                    AvatarManager.getInstance().getRoomBitmap(abstractContact.getUser()));
+            return;
+        }
+        Runnable onDecoded = new Runnable() {
+            @Override
+            public void run() {
+                createShortcut(abstractContact,
+                        AvatarManager.getInstance().getUserBitmap(abstractContact.getUser()));
+            }
+        };
+        if (!AvatarManager.getInstance().requestUserBitmap(abstractContact.getUser(), onDecoded)) {
+            onDecoded.run();
+        }
+    }
+
+    private void createShortcut(AbstractContact abstractContact, Bitmap bitmap) {
         Intent intent = new Intent();
         intent.putExtra(Intent.EXTRA_SHORTCUT_INTENT, ChatViewer.createShortCutIntent(this,
                 abstractContact.getAccount(), abstractContact.getUser()));
         intent.putExtra(Intent.EXTRA_SHORTCUT_NAME, abstractContact.getName());
-        Bitmap bitmap;
-        if (MUCManager.getInstance().hasRoom(abstractContact.getAccount(),
-                abstractContact.getUser())) {
-            bitmap = AvatarManager.getInstance().getRoomBitmap(abstractContact.getUser());
-        } else {
-            bitmap = AvatarManager.getInstance().getUserBitmap(abstractContact.getUser());
-        }
         intent.putExtra(Intent.EXTRA_SHORTCUT_ICON,
                     AvatarManager.getInstance().createShortcutBitmap(bitmap));
         setResult(RESULT_OK, intent);
+        finish();
     }
 
     @Override
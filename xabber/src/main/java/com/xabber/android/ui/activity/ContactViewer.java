@@ -181,7 +181,7 @@ public class ContactViewer extends ManagedActivity implements
     }
 
     @Override
-    public void onContactsChanged(Collection<BaseEntity> entities) {
+    public void onContactsChanged(Collection<BaseEntity> entities, boolean allChanged) {
         for (BaseEntity entity : entities) {
             if (entity.equals(account, bareAddress)) {
                 updateName();
@@ -179,7 +179,7 @@ public class FingerprintViewer extends ManagedActivity implements
     }
 
     @Override
-    public void onContactsChanged(Collection<BaseEntity> entities) {
+    public void onContactsChanged(Collection<BaseEntity> entities, boolean allChanged) {
         String thisBareAddress = Jid.getBareAddress(user);
         for (BaseEntity entity : entities) {
             if (entity.equals(account, thisBareAddress)) {
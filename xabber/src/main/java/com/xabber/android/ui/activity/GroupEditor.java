@@ -103,7 +103,7 @@ public class GroupEditor extends ManagedActivity implements OnContactChangedList
     }
 
     @Override
-    public void onContactsChanged(Collection<BaseEntity> entities) {
+    public void onContactsChanged(Collection<BaseEntity> entities, boolean allChanged) {
         String thisBareAddress = Jid.getBareAddress(user);
         for (BaseEntity entity : entities) {
             if (entity.equals(account, thisBareAddress)) {
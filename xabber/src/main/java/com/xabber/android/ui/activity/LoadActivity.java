@@ -27,6 +27,7 @@ import com.xabber.android.R;
 import com.xabber.android.data.ActivityManager;
 import com.xabber.android.data.Application;
 import com.xabber.android.data.LogManager;
+import com.xabber.android.data.OnContactListLoadedListener;
 import com.xabber.android.data.account.OnAccountChangedListener;
 import com.xabber.android.service.XabberService;
 import com.xabber.android.ui.helper.SingleActivity;
@@ -34,7 +35,9 @@ import com.xabber.android.ui.helper.SingleActivity;
 import java.util.Collection;
 
 public class LoadActivity extends SingleActivity implements
-        OnAccountChangedListener {
+        OnAccountChangedListener, OnContactListLoadedListener {
+
+    private static final String EXTRA_CONTACT_LIST = "com.xabber.android.ui.activity.LoadActivity.EXTRA_CONTACT_LIST";
 
     private Animation animation;
     private View disconnectedView;
@@ -43,6 +46,17 @@ public class LoadActivity extends SingleActivity implements
         return new Intent(context, LoadActivity.class);
     }
 
+    /**
+     * @param contactList whether loading was requested by contact list, so
+     *                    activity can be closed before application will be
+     *                    initialized.
+     */
+    public static Intent createIntent(Context context, boolean contactList) {
+        Intent intent = createIntent(context);
+        intent.putExtra(EXTRA_CONTACT_LIST, contactList);
+        return intent;
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -56,6 +70,8 @@ public class LoadActivity extends SingleActivity implements
         super.onResume();
         Application.getInstance().addUIListener(OnAccountChangedListener.class,
                 this);
+        Application.getInstance().addUIListener(OnContactListLoadedListener.class,
+                this);
         if (Application.getInstance().isClosing()) {
             ((TextView) findViewById(R.id.text))
                     .setText(R.string.application_state_closing);
@@ -71,6 +87,8 @@ public class LoadActivity extends SingleActivity implements
         super.onPause();
         Application.getInstance().removeUIListener(
                 OnAccountChangedListener.class, this);
+        Application.getInstance().removeUIListener(
+                OnContactListLoadedListener.class, this);
         disconnectedView.clearAnimation();
     }
 
@@ -79,6 +97,11 @@ public class LoadActivity extends SingleActivity implements
         update();
     }
 
+    @Override
+    public void onContactListLoaded() {
+        update();
+    }
+
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
         switch (keyCode) {
@@ -90,8 +113,10 @@ public class LoadActivity extends SingleActivity implements
     }
 
     private void update() {
-        if (Application.getInstance().isInitialized()
-                && !Application.getInstance().isClosing() && !isFinishing()) {
+        boolean loaded = Application.getInstance().isInitialized()
+                || (getIntent().getBooleanExtra(EXTRA_CONTACT_LIST, false)
+                && Application.getInstance().isContactListLoaded());
+        if (loaded && !Application.getInstance().isClosing() && !isFinishing()) {
             LogManager.i(this, "Initialized");
             finish();
         }
@@ -117,7 +117,7 @@ public class OccupantList extends ManagedListActivity implements
     }
 
     @Override
-    public void onContactsChanged(Collection<BaseEntity> entities) {
+    public void onContactsChanged(Collection<BaseEntity> entities, boolean allChanged) {
         if (entities.contains(new BaseEntity(account, room))) {
             listAdapter.onChange();
         }
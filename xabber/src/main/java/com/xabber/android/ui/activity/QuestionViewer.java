@@ -25,7 +25,6 @@ import android.widget.TextView;
 
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
-import com.xabber.android.data.NetworkException;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.account.OnAccountChangedListener;
 import com.xabber.android.data.entity.BaseEntity;
@@ -115,11 +114,7 @@ public class QuestionViewer extends ManagedActivity implements
             return;
         }
         if (intent.getBooleanExtra(EXTRA_FIELD_CANCEL, false)) {
-            try {
-                OTRManager.getInstance().abortSmp(account, user);
-            } catch (NetworkException e) {
-                Application.getInstance().onError(e);
-            }
+            OTRManager.getInstance().abortSmp(account, user);
             finish();
             return;
         }
@@ -161,7 +156,7 @@ public class QuestionViewer extends ManagedActivity implements
     }
 
     @Override
-    public void onContactsChanged(Collection<BaseEntity> entities) {
+    public void onContactsChanged(Collection<BaseEntity> entities, boolean allChanged) {
         String thisBareAddress = Jid.getBareAddress(user);
         for (BaseEntity entity : entities) {
             if (entity.equals(account, thisBareAddress)) {
@@ -184,23 +179,15 @@ public class QuestionViewer extends ManagedActivity implements
             case R.id.send:
                 String question = showQuestion ? questionView.getText().toString() : null;
                 String answer = ((TextView) findViewById(R.id.answer)).getText().toString();
-                try {
-                    if (answerRequest) {
-                        OTRManager.getInstance().respondSmp(account, user, question, answer);
-                    } else {
-                        OTRManager.getInstance().initSmp(account, user, question, answer);
-                    }
-                } catch (NetworkException e) {
-                    Application.getInstance().onError(e);
+                if (answerRequest) {
+                    OTRManager.getInstance().respondSmp(account, user, question, answer);
+                } else {
+                    OTRManager.getInstance().initSmp(account, user, question, answer);
                 }
                 finish();
                 break;
             case R.id.cancel:
-                try {
-                    OTRManager.getInstance().abortSmp(account, user);
-                } catch (NetworkException e) {
-                    Application.getInstance().onError(e);
-                }
+                OTRManager.getInstance().abortSmp(account, user);
                 finish();
             default:
                 break;
@@ -20,7 +20,6 @@ import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.support.v4.graphics.drawable.DrawableCompat;
 import android.support.v7.widget.RecyclerView;
-import android.text.Spannable;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -36,6 +35,7 @@ import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.extension.avatar.AvatarManager;
 import com.xabber.android.data.extension.file.FileManager;
+import com.xabber.android.data.extension.httpfileupload.HttpFileUploadManager;
 import com.xabber.android.data.extension.muc.MUCManager;
 import com.xabber.android.data.extension.muc.RoomContact;
 import com.xabber.android.data.message.ChatAction;
@@ -73,6 +73,10 @@ public class ChatMessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
     private String mucNickname;
 
     private List<MessageItem> messages;
+    /**
+     * Number of messages inserted before previously shown ones on last update.
+     */
+    private int prependedCount;
     /**
      * Text with extra information.
      */
@@ -86,6 +90,7 @@ public class ChatMessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
     public ChatMessageAdapter(Context context, String account, String user, Message.MessageClickListener messageClickListener, ChatMessageAdapter.Listener listener) {
         this.context = context;
         messages = Collections.emptyList();
+        prependedCount = 0;
         this.account = account;
         this.user = user;
         this.messageClickListener = messageClickListener;
@@ -254,6 +259,12 @@ public class ChatMessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
         if (fileSize != null) {
             messageView.messageFileInfo.setText(android.text.format.Formatter.formatShortFileSize(context, fileSize));
             messageView.messageFileInfo.setVisibility(View.VISIBLE);
+        } else if (!messageItem.getFile().exists()) {
+            FileManager.getInstance().requestFileSize(messageItem);
+        }
+
+        if (messageItem.isUploadFileMessage() && !messageItem.isError()) {
+            setUpUploadProgress(messageView, messageItem);
         }
 
         if (messageItem.getFile().exists()) {
@@ -276,6 +287,19 @@ public class ChatMessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
         }
     }
 
+    private void setUpUploadProgress(Message messageView, MessageItem messageItem) {
+        HttpFileUploadManager uploadManager = HttpFileUploadManager.getInstance();
+        long sent = uploadManager.getSentSize(messageItem);
+        if (sent < 0) {
+            return;
+        }
+        messageView.messageFileInfo.setText(context.getString(R.string.http_file_upload_progress,
+                android.text.format.Formatter.formatShortFileSize(context, sent),
+                android.text.format.Formatter.formatShortFileSize(context, uploadManager.getTotalSize(messageItem)),
+                android.text.format.Formatter.formatShortFileSize(context, uploadManager.getThroughput(messageItem))));
+        messageView.messageFileInfo.setVisibility(View.VISIBLE);
+    }
+
     private void downloadFile(final Message messageView, final MessageItem messageItem) {
         if (!PermissionsRequester.hasFileWritePermission()) {
             listener.onNoDownloadFilePermission();
@@ -393,9 +417,7 @@ public class ChatMessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
         message.messageText.setTextAppearance(context, appearanceStyle);
         message.messageTextForFileName.setTextAppearance(context, appearanceStyle);
 
-        final Spannable spannable = messageItem.getSpannable();
-        Emoticons.getSmiledText(context, spannable, message.messageText);
-        message.messageText.setText(spannable);
+        message.messageText.setText(Emoticons.getSmiledText(context, messageItem, message.messageText));
         message.messageText.setVisibility(View.VISIBLE);
 
         String time = StringUtils.getSmartTimeText(context, messageItem.getTimestamp());
@@ -457,11 +479,21 @@ public class ChatMessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
 
     @Override
     public void onChange() {
+        List<MessageItem> previous = messages;
         messages = new ArrayList<>(MessageManager.getInstance().getMessages(account, user));
+        prependedCount = previous.isEmpty() ? 0 : Math.max(0, messages.indexOf(previous.get(0)));
         hint = getHint();
         notifyDataSetChanged();
     }
 
+    /**
+     * @return Number of messages loaded from history before previously shown
+     * ones on last {@link #onChange()}.
+     */
+    public int getPrependedCount() {
+        return prependedCount;
+    }
+
     /**
      * @return New hint.
      */
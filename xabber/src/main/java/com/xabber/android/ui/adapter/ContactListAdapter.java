@@ -19,9 +19,11 @@ import android.os.Handler;
 import android.widget.Filter;
 import android.widget.Filterable;
 
+import com.xabber.android.data.Application;
 import com.xabber.android.data.SettingsManager;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.account.CommonState;
+import com.xabber.android.data.account.StatusMode;
 import com.xabber.android.data.entity.BaseEntity;
 import com.xabber.android.data.extension.blocking.BlockingManager;
 import com.xabber.android.data.extension.muc.MUCManager;
@@ -42,6 +44,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -60,6 +64,11 @@ public class ContactListAdapter extends GroupedContactAdapter implements Runnabl
      */
     private static final long REFRESH_INTERVAL = 1000;
 
+    /**
+     * Maximum number of changed contacts to be applied incrementally.
+     */
+    private static final int MAX_INCREMENTAL_CHANGES = 64;
+
     /**
      * Handler for deferred refresh.
      */
@@ -80,6 +89,11 @@ public class ContactListAdapter extends GroupedContactAdapter implements Runnabl
      */
     private boolean refreshInProgress;
 
+    /**
+     * Whether refresh was posted to the handler.
+     */
+    private boolean refreshPosted;
+
     /**
      * Minimal time when next refresh can be executed.
      */
@@ -95,6 +109,23 @@ public class ContactListAdapter extends GroupedContactAdapter implements Runnabl
      */
     String filterString;
 
+    /**
+     * Structure built by the last refresh. <code>null</code> if list is
+     * filtered or wasn't built yet.
+     */
+    private Structure structure;
+
+    /**
+     * Rows saved on last exit. Shown until roster will be received, then
+     * set to <code>null</code>.
+     */
+    private List<BaseEntity> savedEntities;
+
+    /**
+     * Whether saved rows were requested.
+     */
+    private boolean savedRequested;
+
     private final OnContactListChangedListener listener;
     private boolean hasActiveChats = false;
 
@@ -106,7 +137,10 @@ public class ContactListAdapter extends GroupedContactAdapter implements Runnabl
         refreshLock = new Object();
         refreshRequested = false;
         refreshInProgress = false;
+        refreshPosted = false;
         nextRefresh = new Date();
+        savedEntities = null;
+        savedRequested = false;
     }
 
     /**
@@ -121,6 +155,7 @@ public class ContactListAdapter extends GroupedContactAdapter implements Runnabl
                 refreshRequested = true;
             } else {
                 long delay = nextRefresh.getTime() - new Date().getTime();
+                refreshPosted = true;
                 handler.postDelayed(this, delay > 0 ? delay : 0);
             }
         }
@@ -133,6 +168,7 @@ public class ContactListAdapter extends GroupedContactAdapter implements Runnabl
         synchronized (refreshLock) {
             refreshRequested = false;
             refreshInProgress = false;
+            refreshPosted = false;
             handler.removeCallbacks(this);
         }
     }
@@ -141,9 +177,11 @@ public class ContactListAdapter extends GroupedContactAdapter implements Runnabl
     public void onChange() {
         synchronized (refreshLock) {
             refreshRequested = false;
+            refreshPosted = false;
             refreshInProgress = true;
             handler.removeCallbacks(this);
         }
+        structure = null;
 
         final Collection<RosterContact> allRosterContacts = RosterManager.getInstance().getContacts();
 
@@ -171,27 +209,6 @@ public class ContactListAdapter extends GroupedContactAdapter implements Runnabl
         final CommonState commonState = AccountManager.getInstance().getCommonState();
         final String selectedAccount = AccountManager.getInstance().getSelectedAccount();
 
-
-        /**
-         * Groups.
-         */
-        final Map<String, GroupConfiguration> groups;
-
-        /**
-         * Contacts.
-         */
-        final List<AbstractContact> contacts;
-
-        /**
-         * List of active chats.
-         */
-        final GroupConfiguration activeChats;
-
-        /**
-         * Whether there is at least one contact.
-         */
-        boolean hasContacts = false;
-
         /**
          * Whether there is at least one visible contact.
          */
@@ -222,37 +239,18 @@ public class ContactListAdapter extends GroupedContactAdapter implements Runnabl
         }
 
         if (filterString == null) {
-            // Create arrays.
-            if (showAccounts) {
-                groups = null;
-                contacts = null;
-                for (Entry<String, AccountConfiguration> entry : accounts.entrySet()) {
-                    entry.setValue(new AccountConfiguration(entry.getKey(),
-                            GroupManager.IS_ACCOUNT, GroupManager.getInstance()));
-                }
-            } else {
-                if (showGroups) {
-                    groups = new TreeMap<>();
-                    contacts = null;
-                } else {
-                    groups = null;
-                    contacts = new ArrayList<>();
-                }
-            }
-            if (showActiveChats) {
-                activeChats = new GroupConfiguration(GroupManager.NO_ACCOUNT,
-                        GroupManager.ACTIVE_CHATS, GroupManager.getInstance());
-            } else {
-                activeChats = null;
-            }
+            final Structure structure = new Structure(accounts, showOffline, showGroups,
+                    showEmptyGroups, showActiveChats, showAccounts, selectedAccount,
+                    comparator == ComparatorByStatus.COMPARATOR_BY_STATUS);
+            final GroupConfiguration activeChats = structure.activeChats;
 
             // Build structure.
             for (RosterContact rosterContact : rosterContacts) {
                 if (!rosterContact.isEnabled()) {
                     continue;
                 }
-                hasContacts = true;
-                final boolean online = rosterContact.getStatusMode().isOnline();
+                final ContactSnapshot snapshot = structure.addSnapshot(rosterContact);
+                final boolean online = snapshot.online;
                 final String account = rosterContact.getAccount();
                 final Map<String, AbstractChat> users = abstractChats.get(account);
                 final AbstractChat abstractChat;
@@ -261,9 +259,12 @@ public class ContactListAdapter extends GroupedContactAdapter implements Runnabl
                 } else {
                     abstractChat = users.remove(rosterContact.getUser());
                 }
+                if (abstractChat != null) {
+                    structure.chatEntities.add(new BaseEntity(rosterContact));
+                }
                 if (showActiveChats && abstractChat != null && abstractChat.isActive()) {
                     activeChats.setNotEmpty();
-                    hasVisibleContacts = true;
+                    structure.hasVisibleChats = true;
                     if (activeChats.isExpanded()) {
                         activeChats.addAbstractContact(rosterContact);
                     }
@@ -275,13 +276,11 @@ public class ContactListAdapter extends GroupedContactAdapter implements Runnabl
                 if (selectedAccount != null && !selectedAccount.equals(account)) {
                     continue;
                 }
-                if (addContact(rosterContact, online, accounts, groups,
-                        contacts, showAccounts, showGroups, showOffline)) {
-                    hasVisibleContacts = true;
-                }
+                structure.place(rosterContact, snapshot);
             }
             for (Map<String, AbstractChat> users : abstractChats.values()) {
                 for (AbstractChat abstractChat : users.values()) {
+                    structure.chatEntities.add(new BaseEntity(abstractChat.getAccount(), abstractChat.getUser()));
                     final AbstractContact abstractContact;
                     if (abstractChat instanceof RoomChat) {
                         abstractContact = new RoomContact((RoomChat) abstractChat);
@@ -290,7 +289,7 @@ public class ContactListAdapter extends GroupedContactAdapter implements Runnabl
                     }
                     if (showActiveChats && abstractChat.isActive()) {
                         activeChats.setNotEmpty();
-                        hasVisibleContacts = true;
+                        structure.hasVisibleChats = true;
                         if (activeChats.isExpanded()) {
                             activeChats.addAbstractContact(abstractContact);
                         }
@@ -314,92 +313,206 @@ public class ContactListAdapter extends GroupedContactAdapter implements Runnabl
                         group = GroupManager.NO_GROUP;
                         online = false;
                     }
-                    hasVisibleContacts = true;
-                    addContact(abstractContact, group, online, accounts, groups, contacts,
-                            showAccounts, showGroups);
+                    structure.hasVisibleChats = true;
+                    structure.snapshots.put(abstractContact, new ContactSnapshot(abstractContact));
+                    addContact(abstractContact, group, online, structure.accounts, structure.groups,
+                            structure.contacts, showAccounts, showGroups);
                 }
             }
 
             hasActiveChats = activeChats != null && activeChats.getTotal() > 0;
 
-            // Remove empty groups, sort and apply structure.
-            baseEntities.clear();
-            if (hasVisibleContacts) {
-                if (showActiveChats) {
-                    if (!activeChats.isEmpty()) {
-                        if (showAccounts || showGroups) {
-                            baseEntities.add(activeChats);
-                        }
-                        activeChats.sortAbstractContacts(ComparatorByChat.COMPARATOR_BY_CHAT);
-                        baseEntities.addAll(activeChats.getAbstractContacts());
-                    }
-                }
-                if (showAccounts) {
-                    boolean isFirst = baseEntities.isEmpty();
-                    for (AccountConfiguration rosterAccount : accounts.values()) {
-                        if (isFirst) {
-                            isFirst = false;
-                        } else {
-                            baseEntities.add(new AccountTopSeparator(null, null));
-                        }
-
-                        baseEntities.add(rosterAccount);
-
-                        if (showGroups) {
-                            if (rosterAccount.isExpanded()) {
-                                for (GroupConfiguration rosterConfiguration : rosterAccount
-                                        .getSortedGroupConfigurations()) {
-                                    if (showEmptyGroups || !rosterConfiguration.isEmpty()) {
-                                        baseEntities.add(rosterConfiguration);
-                                        rosterConfiguration.sortAbstractContacts(comparator);
-                                        baseEntities.addAll(rosterConfiguration.getAbstractContacts());
-                                    }
-                                }
-                            }
-                        } else {
-                            rosterAccount.sortAbstractContacts(comparator);
-                            baseEntities.addAll(rosterAccount.getAbstractContacts());
-                        }
+            final boolean useSaved = structure.contactCount == 0 && !isRosterReceived(accounts.keySet());
+            // Saved rows can be filtered only when accounts have been loaded.
+            if (useSaved && !savedRequested && Application.getInstance().isContactListLoaded()) {
+                savedRequested = true;
+                savedEntities = SavedContactList.load();
+            }
 
-                        if (rosterAccount.getTotal() > 0 && !rosterAccount.isExpanded()) {
-                            baseEntities.add(new AccountBottomSeparator(rosterAccount.getAccount(), null));
-                        }
-                    }
-                } else {
-                    if (showGroups) {
-                        for (GroupConfiguration rosterConfiguration : groups.values()) {
-                            if (showEmptyGroups || !rosterConfiguration.isEmpty()) {
-                                baseEntities.add(rosterConfiguration);
-                                rosterConfiguration.sortAbstractContacts(comparator);
-                                baseEntities.addAll(rosterConfiguration.getAbstractContacts());
-                            }
-                        }
-                    } else {
-                        Collections.sort(contacts, comparator);
-                        baseEntities.addAll(contacts);
-                    }
+            if (useSaved && savedEntities != null) {
+                // Show saved list until live data will be available.
+                baseEntities.clear();
+                baseEntities.addAll(savedEntities);
+                hasVisibleContacts = !savedEntities.isEmpty();
+                super.onChange();
+                listener.onContactListChanged(commonState, hasVisibleContacts,
+                        hasVisibleContacts, false);
+            } else {
+                if (!useSaved) {
+                    savedRequested = true;
+                    savedEntities = null;
                 }
+                structure.sort();
+                this.structure = structure;
+                applyStructure(structure);
+                hasVisibleContacts = structure.hasVisibleContacts();
+                super.onChange();
+                listener.onContactListChanged(commonState, structure.contactCount > 0,
+                        hasVisibleContacts, false);
             }
         } else { // Search
             final ArrayList<AbstractContact> baseEntities = getSearchResults(rosterContacts, comparator, abstractChats);
             this.baseEntities.clear();
             this.baseEntities.addAll(baseEntities);
             hasVisibleContacts = baseEntities.size() > 0;
+            super.onChange();
+            listener.onContactListChanged(commonState, false, hasVisibleContacts, true);
         }
 
-        super.onChange();
-        listener.onContactListChanged(commonState, hasContacts, hasVisibleContacts, filterString != null);
-
         synchronized (refreshLock) {
             nextRefresh = new Date(new Date().getTime() + REFRESH_INTERVAL);
             refreshInProgress = false;
             handler.removeCallbacks(this); // Just to be sure.
             if (refreshRequested) {
+                refreshPosted = true;
                 handler.postDelayed(this, REFRESH_INTERVAL);
             }
         }
     }
 
+    /**
+     * @return Whether roster was received for any of accounts.
+     */
+    private static boolean isRosterReceived(Collection<String> accounts) {
+        for (String account : accounts) {
+            if (RosterManager.getInstance().isRosterReceived(account)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Saves rendered rows to be shown on next start.
+     * <p/>
+     * Nothing will be saved if list is filtered or wasn't built from the
+     * received roster yet.
+     */
+    public void saveContactList() {
+        if (structure != null && filterString == null
+                && (structure.contactCount > 0 || isRosterReceived(structure.accounts.keySet()))) {
+            SavedContactList.save(baseEntities);
+        }
+    }
+
+    /**
+     * Applies contact changes to the structure built by last refresh.
+     * <p/>
+     * Changed contacts are moved inside sorted groups, so other contacts are
+     * neither requested nor sorted again. Full refresh will be requested if
+     * changes can't be applied incrementally (e.g. contact has active chat or
+     * list is filtered).
+     *
+     * @param entities   changed contacts.
+     * @param allChanged whether unspecified contacts were changed too.
+     */
+    public void onContactsChanged(Collection<BaseEntity> entities, boolean allChanged) {
+        synchronized (refreshLock) {
+            if (refreshRequested || refreshPosted) {
+                return;
+            }
+        }
+        if (structure == null || allChanged || entities.size() > MAX_INCREMENTAL_CHANGES) {
+            refreshRequest();
+            return;
+        }
+        for (BaseEntity entity : entities) {
+            if (structure.chatEntities.contains(entity)) {
+                refreshRequest();
+                return;
+            }
+            AbstractChat abstractChat = MessageManager.getInstance().getChat(entity.getAccount(), entity.getUser());
+            if (abstractChat != null && (abstractChat instanceof RoomChat || abstractChat.isActive())) {
+                refreshRequest();
+                return;
+            }
+        }
+
+        for (BaseEntity entity : entities) {
+            structure.remove(entity);
+            final String account = entity.getAccount();
+            if (!structure.accounts.containsKey(account)) {
+                continue;
+            }
+            final RosterContact rosterContact = RosterManager.getInstance().getRosterContact(account, entity.getUser());
+            if (rosterContact == null || !rosterContact.isEnabled()
+                    || BlockingManager.getInstance().getBlockedContacts(account).contains(entity.getUser())) {
+                continue;
+            }
+            final ContactSnapshot snapshot = structure.addSnapshot(rosterContact);
+            if (structure.selectedAccount == null || structure.selectedAccount.equals(account)) {
+                structure.place(rosterContact, snapshot);
+            }
+        }
+
+        applyStructure(structure);
+        super.onChange();
+        listener.onContactListChanged(AccountManager.getInstance().getCommonState(),
+                structure.contactCount > 0, structure.hasVisibleContacts(), false);
+    }
+
+    /**
+     * Removes empty groups and applies structure to the list of entities.
+     */
+    private void applyStructure(Structure structure) {
+        final boolean showAccounts = structure.showAccounts;
+        final boolean showGroups = structure.showGroups;
+        final GroupConfiguration activeChats = structure.activeChats;
+        baseEntities.clear();
+        if (!structure.hasVisibleContacts()) {
+            return;
+        }
+        if (structure.showActiveChats) {
+            if (!activeChats.isEmpty()) {
+                if (showAccounts || showGroups) {
+                    baseEntities.add(activeChats);
+                }
+                baseEntities.addAll(activeChats.getAbstractContacts());
+            }
+        }
+        if (showAccounts) {
+            boolean isFirst = baseEntities.isEmpty();
+            for (AccountConfiguration rosterAccount : structure.accounts.values()) {
+                if (isFirst) {
+                    isFirst = false;
+                } else {
+                    baseEntities.add(new AccountTopSeparator(null, null));
+                }
+
+                baseEntities.add(rosterAccount);
+
+                if (showGroups) {
+                    if (rosterAccount.isExpanded()) {
+                        for (GroupConfiguration rosterConfiguration : rosterAccount
+                                .getSortedGroupConfigurations()) {
+                            if (structure.isGroupVisible(rosterConfiguration)) {
+                                baseEntities.add(rosterConfiguration);
+                                baseEntities.addAll(rosterConfiguration.getAbstractContacts());
+                            }
+                        }
+                    }
+                } else {
+                    baseEntities.addAll(rosterAccount.getAbstractContacts());
+                }
+
+                if (rosterAccount.getTotal() > 0 && !rosterAccount.isExpanded()) {
+                    baseEntities.add(new AccountBottomSeparator(rosterAccount.getAccount(), null));
+                }
+            }
+        } else {
+            if (showGroups) {
+                for (GroupConfiguration rosterConfiguration : structure.groups.values()) {
+                    if (structure.isGroupVisible(rosterConfiguration)) {
+                        baseEntities.add(rosterConfiguration);
+                        baseEntities.addAll(rosterConfiguration.getAbstractContacts());
+                    }
+                }
+            } else {
+                baseEntities.addAll(structure.contacts);
+            }
+        }
+    }
+
     private ArrayList<AbstractContact> getSearchResults(Collection<RosterContact> rosterContacts,
                                                         Comparator<AbstractContact> comparator,
                                                         Map<String, Map<String, AbstractChat>> abstractChats) {
@@ -453,6 +566,264 @@ public class ContactListAdapter extends GroupedContactAdapter implements Runnabl
 
     }
 
+    /**
+     * Values contact was sorted and grouped by.
+     */
+    private static class ContactSnapshot {
+
+        final AbstractContact abstractContact;
+        final String name;
+        final StatusMode statusMode;
+        final boolean online;
+        final Collection<String> groupNames;
+
+        /**
+         * Whether contact was added to the groups.
+         */
+        boolean placed;
+
+        /**
+         * Whether contact is visible in the groups.
+         */
+        boolean visible;
+
+        ContactSnapshot(AbstractContact abstractContact) {
+            this.abstractContact = abstractContact;
+            name = abstractContact.getName();
+            statusMode = abstractContact.getStatusMode();
+            online = statusMode.isOnline();
+            groupNames = getGroupNames(abstractContact);
+            placed = false;
+            visible = false;
+        }
+
+    }
+
+    /**
+     * Orders contacts by their snapshots, so contacts can be found in sorted
+     * groups after their state has changed.
+     */
+    private static class SnapshotComparator implements Comparator<AbstractContact> {
+
+        private final Map<BaseEntity, ContactSnapshot> snapshots;
+
+        private final boolean byStatus;
+
+        SnapshotComparator(Map<BaseEntity, ContactSnapshot> snapshots, boolean byStatus) {
+            this.snapshots = snapshots;
+            this.byStatus = byStatus;
+        }
+
+        @Override
+        public int compare(AbstractContact object1, AbstractContact object2) {
+            final ContactSnapshot snapshot1 = snapshots.get(object1);
+            final ContactSnapshot snapshot2 = snapshots.get(object2);
+            int result;
+            if (byStatus) {
+                result = snapshot1.statusMode.compareTo(snapshot2.statusMode);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            result = snapshot1.name.compareToIgnoreCase(snapshot2.name);
+            if (result != 0) {
+                return result;
+            }
+            result = object1.getAccount().compareToIgnoreCase(object2.getAccount());
+            if (result != 0) {
+                return result;
+            }
+            return object1.getUser().compareTo(object2.getUser());
+        }
+
+    }
+
+    /**
+     * Groups and counters of the contact list.
+     */
+    private class Structure {
+
+        final boolean showOffline;
+        final boolean showGroups;
+        final boolean showEmptyGroups;
+        final boolean showActiveChats;
+        final boolean showAccounts;
+        final String selectedAccount;
+
+        /**
+         * Accounts. Values are <code>null</code> if accounts are not shown.
+         */
+        final Map<String, AccountConfiguration> accounts;
+
+        /**
+         * Groups if groups are shown without accounts.
+         */
+        final Map<String, GroupConfiguration> groups;
+
+        /**
+         * Contacts if neither groups nor accounts are shown.
+         */
+        final List<AbstractContact> contacts;
+
+        /**
+         * List of active chats.
+         */
+        final GroupConfiguration activeChats;
+
+        final Map<BaseEntity, ContactSnapshot> snapshots;
+
+        final Comparator<AbstractContact> comparator;
+
+        /**
+         * Contacts with rooms or active chats.
+         */
+        final Set<BaseEntity> chatEntities;
+
+        /**
+         * Number of enabled roster contacts.
+         */
+        int contactCount;
+
+        /**
+         * Number of visible roster contacts.
+         */
+        int visibleContactCount;
+
+        /**
+         * Whether there is at least one visible room or chat.
+         */
+        boolean hasVisibleChats;
+
+        /**
+         * Whether groups were sorted and new contacts must be inserted in
+         * order.
+         */
+        boolean sorted;
+
+        Structure(Map<String, AccountConfiguration> accounts, boolean showOffline,
+                  boolean showGroups, boolean showEmptyGroups, boolean showActiveChats,
+                  boolean showAccounts, String selectedAccount, boolean byStatus) {
+            this.accounts = accounts;
+            this.showOffline = showOffline;
+            this.showGroups = showGroups;
+            this.showEmptyGroups = showEmptyGroups;
+            this.showActiveChats = showActiveChats;
+            this.showAccounts = showAccounts;
+            this.selectedAccount = selectedAccount;
+            if (showAccounts) {
+                groups = null;
+                contacts = null;
+                for (Entry<String, AccountConfiguration> entry : accounts.entrySet()) {
+                    entry.setValue(new AccountConfiguration(entry.getKey(),
+                            GroupManager.IS_ACCOUNT, GroupManager.getInstance()));
+                }
+            } else {
+                if (showGroups) {
+                    groups = new TreeMap<>();
+                    contacts = null;
+                } else {
+                    groups = null;
+                    contacts = new ArrayList<>();
+                }
+            }
+            if (showActiveChats) {
+                activeChats = new GroupConfiguration(GroupManager.NO_ACCOUNT,
+                        GroupManager.ACTIVE_CHATS, GroupManager.getInstance());
+            } else {
+                activeChats = null;
+            }
+            snapshots = new HashMap<>();
+            comparator = new SnapshotComparator(snapshots, byStatus);
+            chatEntities = new HashSet<>();
+            contactCount = 0;
+            visibleContactCount = 0;
+            hasVisibleChats = false;
+            sorted = false;
+        }
+
+        /**
+         * Registers enabled roster contact.
+         */
+        ContactSnapshot addSnapshot(RosterContact rosterContact) {
+            ContactSnapshot snapshot = new ContactSnapshot(rosterContact);
+            snapshots.put(rosterContact, snapshot);
+            contactCount++;
+            return snapshot;
+        }
+
+        /**
+         * Adds registered roster contact to the groups.
+         */
+        void place(RosterContact rosterContact, ContactSnapshot snapshot) {
+            snapshot.placed = true;
+            snapshot.visible = updateContact(rosterContact, snapshot.groupNames, snapshot.online,
+                    accounts, groups, contacts, showAccounts, showGroups, showOffline,
+                    sorted ? comparator : null, true);
+            if (snapshot.visible) {
+                visibleContactCount++;
+            }
+        }
+
+        /**
+         * Removes roster contact from the groups and unregisters it.
+         */
+        void remove(BaseEntity entity) {
+            final ContactSnapshot snapshot = snapshots.get(entity);
+            if (snapshot == null) {
+                return;
+            }
+            if (snapshot.placed) {
+                updateContact(snapshot.abstractContact, snapshot.groupNames, snapshot.online,
+                        accounts, groups, contacts, showAccounts, showGroups, showOffline,
+                        comparator, false);
+                if (snapshot.visible) {
+                    visibleContactCount--;
+                }
+            }
+            snapshots.remove(entity);
+            contactCount--;
+        }
+
+        /**
+         * Sorts contacts inside the groups.
+         */
+        void sort() {
+            if (showAccounts) {
+                for (AccountConfiguration rosterAccount : accounts.values()) {
+                    rosterAccount.sortAbstractContacts(comparator);
+                    for (GroupConfiguration rosterConfiguration : rosterAccount
+                            .getSortedGroupConfigurations()) {
+                        rosterConfiguration.sortAbstractContacts(comparator);
+                    }
+                }
+            } else if (showGroups) {
+                for (GroupConfiguration rosterConfiguration : groups.values()) {
+                    rosterConfiguration.sortAbstractContacts(comparator);
+                }
+            } else {
+                Collections.sort(contacts, comparator);
+            }
+            if (activeChats != null) {
+                activeChats.sortAbstractContacts(ComparatorByChat.COMPARATOR_BY_CHAT);
+            }
+            sorted = true;
+        }
+
+        /**
+         * @return Whether group should be shown. Groups left without
+         * contacts after incremental changes are hidden.
+         */
+        boolean isGroupVisible(GroupConfiguration groupConfiguration) {
+            return groupConfiguration.getTotal() > 0
+                    && (showEmptyGroups || !groupConfiguration.isEmpty());
+        }
+
+        boolean hasVisibleContacts() {
+            return hasVisibleChats || visibleContactCount > 0;
+        }
+
+    }
+
     public static class AccountTopSeparator extends BaseEntity {
         public AccountTopSeparator(String account, String user) {
             super(account, user);
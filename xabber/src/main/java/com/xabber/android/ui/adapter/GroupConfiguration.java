@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 
 import com.xabber.android.data.entity.BaseEntity;
 import com.xabber.android.data.roster.AbstractContact;
@@ -36,9 +37,9 @@ public class GroupConfiguration extends BaseEntity {
     private final ArrayList<AbstractContact> abstractContacts;
 
     /**
-     * Whether group has no contacts to display in expanded mode.
+     * Number of contacts to display in expanded mode.
      */
-    private boolean empty;
+    private int visible;
 
     /**
      * Whether group is expanded.
@@ -66,7 +67,7 @@ public class GroupConfiguration extends BaseEntity {
         abstractContacts = new ArrayList<>();
         expanded = groupStateProvider.isExpanded(account, group);
         showOfflineMode = groupStateProvider.getShowOfflineMode(account, group);
-        empty = true;
+        visible = 0;
         total = 0;
         online = 0;
     }
@@ -80,6 +81,29 @@ public class GroupConfiguration extends BaseEntity {
         abstractContacts.add(abstractContact);
     }
 
+    /**
+     * Inserts new contact keeping list sorted.
+     *
+     * @param abstractContact
+     * @param comparator      order of contacts. Contact will be appended if
+     *                        <code>null</code>.
+     */
+    public void addAbstractContact(AbstractContact abstractContact,
+                                   Comparator<AbstractContact> comparator) {
+        insert(abstractContacts, abstractContact, comparator);
+    }
+
+    /**
+     * Removes contact from sorted list.
+     *
+     * @param abstractContact
+     * @param comparator      order list was sorted with.
+     */
+    public void removeAbstractContact(AbstractContact abstractContact,
+                                      Comparator<AbstractContact> comparator) {
+        remove(abstractContacts, abstractContact, comparator);
+    }
+
     /**
      * Gets list of contacts.
      *
@@ -110,18 +134,48 @@ public class GroupConfiguration extends BaseEntity {
         }
     }
 
+    /**
+     * Sets number of contacts in group.
+     *
+     * @param total  total number of contacts.
+     * @param online number of online contacts.
+     */
+    void setCount(int total, int online) {
+        this.total = total;
+        this.online = online;
+    }
+
+    /**
+     * Decrements number of contacts in group.
+     *
+     * @param online whether contact was online.
+     */
+    public void decrement(boolean online) {
+        this.total--;
+        if (online) {
+            this.online--;
+        }
+    }
+
     /**
      * @return Whether there is no one contact to be displayed in expanded mode.
      */
     public boolean isEmpty() {
-        return empty;
+        return visible == 0;
     }
 
     /**
-     * Set that there is at least one contact to be displayed in expanded mode.
+     * Set that there is one more contact to be displayed in expanded mode.
      */
     public void setNotEmpty() {
-        empty = false;
+        visible++;
+    }
+
+    /**
+     * Set that contact to be displayed in expanded mode was removed.
+     */
+    public void removeNotEmpty() {
+        visible--;
     }
 
     /**
@@ -152,6 +206,39 @@ public class GroupConfiguration extends BaseEntity {
         return showOfflineMode;
     }
 
+    /**
+     * Inserts contact into the list sorted with comparator.
+     *
+     * @param comparator Contact will be appended if <code>null</code>.
+     */
+    static void insert(List<AbstractContact> abstractContacts,
+                       AbstractContact abstractContact, Comparator<AbstractContact> comparator) {
+        if (comparator == null) {
+            abstractContacts.add(abstractContact);
+            return;
+        }
+        int index = Collections.binarySearch(abstractContacts, abstractContact, comparator);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        abstractContacts.add(index, abstractContact);
+    }
+
+    /**
+     * Removes contact from the list sorted with comparator.
+     */
+    static void remove(List<AbstractContact> abstractContacts,
+                       AbstractContact abstractContact, Comparator<AbstractContact> comparator) {
+        if (comparator != null) {
+            int index = Collections.binarySearch(abstractContacts, abstractContact, comparator);
+            if (index >= 0 && abstractContacts.get(index).equals(abstractContact)) {
+                abstractContacts.remove(index);
+                return;
+            }
+        }
+        abstractContacts.remove(abstractContact);
+    }
+
     @Override
     public int compareTo(BaseEntity another) {
         final String anotherUser = another.getUser();
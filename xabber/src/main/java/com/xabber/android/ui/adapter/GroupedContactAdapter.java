@@ -45,6 +45,7 @@ import com.xabber.android.ui.activity.AccountViewer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -501,6 +502,36 @@ public abstract class GroupedContactAdapter extends BaseAdapter implements Updat
                                  Map<String, GroupConfiguration> groups,
                                  List<AbstractContact> contacts, boolean showAccounts,
                                  boolean showGroups, boolean showOffline) {
+        return updateContact(abstractContact, getGroupNames(abstractContact), online,
+                accounts, groups, contacts, showAccounts, showGroups, showOffline, null, true);
+    }
+
+    /**
+     * Adds contact to or removes it from there groups.
+     * <p/>
+     * Contact must be removed with the same arguments it was added with, so
+     * counters and lists will be restored.
+     *
+     * @param abstractContact
+     * @param groupNames      names of contact's groups.
+     * @param online
+     * @param accounts
+     * @param groups
+     * @param contacts
+     * @param showAccounts
+     * @param showGroups
+     * @param showOffline
+     * @param comparator      order of contacts in groups. Contact will be
+     *                        appended if <code>null</code>.
+     * @param add             whether contact should be added or removed.
+     * @return whether contact is visible.
+     */
+    protected boolean updateContact(AbstractContact abstractContact, Collection<String> groupNames,
+                                    boolean online, Map<String, AccountConfiguration> accounts,
+                                    Map<String, GroupConfiguration> groups,
+                                    List<AbstractContact> contacts, boolean showAccounts,
+                                    boolean showGroups, boolean showOffline,
+                                    Comparator<AbstractContact> comparator, boolean add) {
         boolean hasVisible = false;
         if (showAccounts) {
             final AccountConfiguration accountConfiguration;
@@ -509,13 +540,9 @@ public abstract class GroupedContactAdapter extends BaseAdapter implements Updat
                 return false;
             }
             if (showGroups) {
-                Collection<? extends Group> abstractGroups = abstractContact.getGroups();
-                if (abstractGroups.size() == 0) {
-                    abstractGroups = NO_GROUP_LIST;
-                }
-                for (Group abstractGroup : abstractGroups) {
+                for (String groupName : groupNames) {
                     GroupConfiguration groupConfiguration = getGroupConfiguration(
-                            accountConfiguration, abstractGroup.getName());
+                            accountConfiguration, groupName);
                     if (online
                             || (groupConfiguration.getShowOfflineMode() == ShowOfflineMode.always)
                             || (accountConfiguration.getShowOfflineMode() == ShowOfflineMode.always && groupConfiguration
@@ -529,53 +556,96 @@ public abstract class GroupedContactAdapter extends BaseAdapter implements Updat
                         // ....... E | + | - | -
                         hasVisible = true;
                         if (accountConfiguration.isExpanded()) {
-                            groupConfiguration.setNotEmpty();
+                            setNotEmpty(groupConfiguration, add);
                             if (groupConfiguration.isExpanded()) {
-                                groupConfiguration.addAbstractContact(abstractContact);
+                                addAbstractContact(groupConfiguration, abstractContact, comparator, add);
                             }
                         }
                     }
-                    groupConfiguration.increment(online);
+                    increment(groupConfiguration, online, add);
                 }
             } else {
                 if (online || (accountConfiguration.getShowOfflineMode() == ShowOfflineMode.always)
                         || (accountConfiguration.getShowOfflineMode() == ShowOfflineMode.normal && showOffline)) {
                     hasVisible = true;
                     if (accountConfiguration.isExpanded()) {
-                        accountConfiguration.addAbstractContact(abstractContact);
+                        addAbstractContact(accountConfiguration, abstractContact, comparator, add);
                     }
                 }
             }
-            accountConfiguration.increment(online);
+            increment(accountConfiguration, online, add);
         } else {
             if (showGroups) {
-                Collection<? extends Group> abstractGroups = abstractContact.getGroups();
-                if (abstractGroups.size() == 0) {
-                    abstractGroups = NO_GROUP_LIST;
-                }
-                for (Group abstractGroup : abstractGroups) {
+                for (String groupName : groupNames) {
                     GroupConfiguration groupConfiguration
-                            = getGroupConfiguration(groups, abstractGroup.getName());
+                            = getGroupConfiguration(groups, groupName);
                     if (online || (groupConfiguration.getShowOfflineMode() == ShowOfflineMode.always)
                             || (groupConfiguration.getShowOfflineMode() == ShowOfflineMode.normal && showOffline)) {
-                        groupConfiguration.setNotEmpty();
+                        setNotEmpty(groupConfiguration, add);
                         hasVisible = true;
                         if (groupConfiguration.isExpanded()) {
-                            groupConfiguration.addAbstractContact(abstractContact);
+                            addAbstractContact(groupConfiguration, abstractContact, comparator, add);
                         }
                     }
-                    groupConfiguration.increment(online);
+                    increment(groupConfiguration, online, add);
                 }
             } else {
                 if (online || showOffline) {
                     hasVisible = true;
-                    contacts.add(abstractContact);
+                    if (add) {
+                        GroupConfiguration.insert(contacts, abstractContact, comparator);
+                    } else {
+                        GroupConfiguration.remove(contacts, abstractContact, comparator);
+                    }
                 }
             }
         }
         return hasVisible;
     }
 
+    private static void setNotEmpty(GroupConfiguration groupConfiguration, boolean add) {
+        if (add) {
+            groupConfiguration.setNotEmpty();
+        } else {
+            groupConfiguration.removeNotEmpty();
+        }
+    }
+
+    private static void addAbstractContact(GroupConfiguration groupConfiguration,
+                                           AbstractContact abstractContact,
+                                           Comparator<AbstractContact> comparator, boolean add) {
+        if (add) {
+            groupConfiguration.addAbstractContact(abstractContact, comparator);
+        } else {
+            groupConfiguration.removeAbstractContact(abstractContact, comparator);
+        }
+    }
+
+    private static void increment(GroupConfiguration groupConfiguration, boolean online, boolean add) {
+        if (add) {
+            groupConfiguration.increment(online);
+        } else {
+            groupConfiguration.decrement(online);
+        }
+    }
+
+    /**
+     * @param abstractContact
+     * @return Names of contact's groups or {@link GroupManager#NO_GROUP} if
+     * contact has no groups.
+     */
+    static Collection<String> getGroupNames(AbstractContact abstractContact) {
+        Collection<? extends Group> abstractGroups = abstractContact.getGroups();
+        if (abstractGroups.size() == 0) {
+            abstractGroups = NO_GROUP_LIST;
+        }
+        Collection<String> groupNames = new ArrayList<>(abstractGroups.size());
+        for (Group abstractGroup : abstractGroups) {
+            groupNames.add(abstractGroup.getName());
+        }
+        return groupNames;
+    }
+
     /**
      * Sets whether group in specified account is expanded.
      */
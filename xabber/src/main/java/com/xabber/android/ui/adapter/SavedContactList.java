@@ -0,0 +1,320 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.android.ui.adapter;
+
+import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
+import com.xabber.android.data.LogManager;
+import com.xabber.android.data.account.AccountManager;
+import com.xabber.android.data.account.StatusMode;
+import com.xabber.android.data.entity.BaseEntity;
+import com.xabber.android.data.extension.capability.ClientSoftware;
+import com.xabber.android.data.message.AbstractChat;
+import com.xabber.android.data.message.MessageManager;
+import com.xabber.android.data.roster.AbstractContact;
+import com.xabber.android.data.roster.GroupManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compact binary copy of the last rendered contact list.
+ * <p/>
+ * Rows are saved when contact list is hidden and are shown on the next start
+ * until roster will be received, so contact list can be rendered with the
+ * first frame.
+ */
+class SavedContactList {
+
+    private static final String FILE_NAME = "contact_list.snapshot";
+
+    /**
+     * Format marker and version. File with another value is ignored.
+     */
+    private static final int MAGIC = 0x58434c01;
+
+    private static final byte ROW_ACCOUNT = 0;
+    private static final byte ROW_GROUP = 1;
+    private static final byte ROW_CONTACT = 2;
+    private static final byte ROW_ACCOUNT_TOP_SEPARATOR = 3;
+    private static final byte ROW_ACCOUNT_BOTTOM_SEPARATOR = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private SavedContactList() {
+    }
+
+    private static File getFile() {
+        return new File(Application.getInstance().getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Requests to save rendered rows.
+     * <p/>
+     * Rows are serialized immediately and written in background.
+     *
+     * @param entities rows of the contact list.
+     */
+    static void save(Collection<BaseEntity> entities) {
+        final byte[] data;
+        try {
+            data = serialize(entities);
+        } catch (IOException e) {
+            LogManager.exception(SavedContactList.class, e);
+            return;
+        }
+        Application.getInstance().runInBackground(BackgroundLane.io, new Runnable() {
+            @Override
+            public void run() {
+                write(data);
+            }
+        });
+    }
+
+    private static byte[] serialize(Collection<BaseEntity> entities) throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        DataOutputStream stream = new DataOutputStream(byteStream);
+        stream.writeInt(MAGIC);
+        stream.writeInt(entities.size());
+        for (BaseEntity entity : entities) {
+            if (entity instanceof AbstractContact) {
+                AbstractContact contact = (AbstractContact) entity;
+                stream.writeByte(ROW_CONTACT);
+                writeString(stream, contact.getAccount());
+                writeString(stream, contact.getUser());
+                writeString(stream, contact.getName());
+                writeString(stream, getSecondLine(contact));
+                stream.writeByte(contact.getStatusMode().ordinal());
+                stream.writeByte(contact.getClientSoftware().ordinal());
+                stream.writeBoolean(contact.isConnected());
+            } else if (entity instanceof GroupConfiguration) {
+                GroupConfiguration configuration = (GroupConfiguration) entity;
+                stream.writeByte(entity instanceof AccountConfiguration ? ROW_ACCOUNT : ROW_GROUP);
+                writeString(stream, configuration.getAccount());
+                writeString(stream, configuration.getUser());
+                stream.writeInt(configuration.getTotal());
+                stream.writeInt(configuration.getOnline());
+            } else if (entity instanceof ContactListAdapter.AccountTopSeparator) {
+                stream.writeByte(ROW_ACCOUNT_TOP_SEPARATOR);
+            } else if (entity instanceof ContactListAdapter.AccountBottomSeparator) {
+                stream.writeByte(ROW_ACCOUNT_BOTTOM_SEPARATOR);
+                writeString(stream, entity.getAccount());
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+        stream.flush();
+        return byteStream.toByteArray();
+    }
+
+    /**
+     * @return Text shown under the contact's name. Status text is used
+     * instead of the last message if chat's history must not be stored.
+     */
+    private static String getSecondLine(AbstractContact contact) {
+        MessageManager messageManager = MessageManager.getInstance();
+        if (messageManager.hasActiveChat(contact.getAccount(), contact.getUser())
+                && messageManager.isSaveAllowed(contact.getAccount(), contact.getUser())) {
+            AbstractChat chat = messageManager.getChat(contact.getAccount(), contact.getUser());
+            return chat.getLastText().trim();
+        }
+        return contact.getStatusText().trim();
+    }
+
+    private static void writeString(DataOutputStream stream, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        stream.writeInt(bytes.length);
+        stream.write(bytes);
+    }
+
+    /**
+     * Replaces saved file.
+     * <p/>
+     * CALL THIS METHOD FROM BACKGROUND THREAD ONLY.
+     */
+    private static void write(byte[] data) {
+        File file = getFile();
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream stream = new FileOutputStream(temp);
+            try {
+                stream.write(data);
+            } finally {
+                stream.close();
+            }
+            if (!temp.renameTo(file)) {
+                LogManager.w(SavedContactList.class, "Can't replace " + file);
+            }
+        } catch (IOException e) {
+            LogManager.exception(SavedContactList.class, e);
+        }
+    }
+
+    /**
+     * Reads saved rows.
+     * <p/>
+     * File is memory mapped, so it can be read from the UI thread. Rows of
+     * removed accounts are skipped.
+     *
+     * @return <code>null</code> if there is no valid saved list.
+     */
+    static List<BaseEntity> load() {
+        File file = getFile();
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Broken file will be replaced on next save.
+            LogManager.exception(SavedContactList.class, e);
+            return null;
+        }
+    }
+
+    private static List<BaseEntity> parse(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC) {
+            return null;
+        }
+        final Collection<String> accounts = AccountManager.getInstance().getAccounts();
+        final StatusMode[] statusModes = StatusMode.values();
+        final ClientSoftware[] clientSoftwares = ClientSoftware.values();
+        final int count = buffer.getInt();
+        final List<BaseEntity> entities = new ArrayList<>();
+        boolean hasAccounts = false;
+        boolean separatorPending = false;
+        for (int index = 0; index < count; index++) {
+            byte type = buffer.get();
+            if (type == ROW_CONTACT) {
+                String account = readString(buffer);
+                String user = readString(buffer);
+                String name = readString(buffer);
+                String secondLine = readString(buffer);
+                StatusMode statusMode = statusModes[buffer.get()];
+                ClientSoftware clientSoftware = clientSoftwares[buffer.get()];
+                boolean connected = buffer.get() != 0;
+                if (accounts.contains(account)) {
+                    entities.add(new SavedContact(account, user, name, secondLine,
+                            statusMode, clientSoftware, connected));
+                }
+            } else if (type == ROW_ACCOUNT || type == ROW_GROUP) {
+                String account = readString(buffer);
+                String group = readString(buffer);
+                int total = buffer.getInt();
+                int online = buffer.getInt();
+                if (type == ROW_ACCOUNT) {
+                    if (accounts.contains(account)) {
+                        if (separatorPending) {
+                            entities.add(new ContactListAdapter.AccountTopSeparator(null, null));
+                            separatorPending = false;
+                        }
+                        AccountConfiguration configuration = new AccountConfiguration(account,
+                                group, GroupManager.getInstance());
+                        configuration.setCount(total, online);
+                        entities.add(configuration);
+                        hasAccounts = true;
+                    }
+                } else if (GroupManager.NO_ACCOUNT.equals(account) || accounts.contains(account)) {
+                    GroupConfiguration configuration = new GroupConfiguration(account,
+                            group, GroupManager.getInstance());
+                    configuration.setCount(total, online);
+                    entities.add(configuration);
+                }
+            } else if (type == ROW_ACCOUNT_TOP_SEPARATOR) {
+                // Separator is added only between restored accounts.
+                separatorPending = hasAccounts;
+            } else if (type == ROW_ACCOUNT_BOTTOM_SEPARATOR) {
+                String account = readString(buffer);
+                if (accounts.contains(account)) {
+                    entities.add(new ContactListAdapter.AccountBottomSeparator(account, null));
+                }
+            } else {
+                return null;
+            }
+        }
+        return entities;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Contact restored from the saved list.
+     */
+    private static class SavedContact extends AbstractContact {
+
+        private final String name;
+        private final String statusText;
+        private final StatusMode statusMode;
+        private final ClientSoftware clientSoftware;
+        private final boolean connected;
+
+        SavedContact(String account, String user, String name, String statusText,
+                     StatusMode statusMode, ClientSoftware clientSoftware, boolean connected) {
+            super(account, user);
+            this.name = name;
+            this.statusText = statusText;
+            this.statusMode = statusMode;
+            this.clientSoftware = clientSoftware;
+            this.connected = connected;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public StatusMode getStatusMode() {
+            return statusMode;
+        }
+
+        @Override
+        public String getStatusText() {
+            return statusText;
+        }
+
+        @Override
+        public ClientSoftware getClientSoftware() {
+            return clientSoftware;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+    }
+
+}
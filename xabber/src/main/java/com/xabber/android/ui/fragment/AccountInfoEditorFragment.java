@@ -29,7 +29,9 @@ import com.bumptech.glide.request.target.SimpleTarget;
 import com.soundcloud.android.crop.Crop;
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
 import com.xabber.android.data.LogManager;
+import com.xabber.android.data.TaskPriority;
 import com.xabber.android.data.extension.avatar.AvatarManager;
 import com.xabber.android.data.extension.file.FileManager;
 import com.xabber.android.data.extension.vcard.OnVCardListener;
@@ -521,7 +523,7 @@ public class AccountInfoEditorFragment extends Fragment implements OnVCardSaveLi
     private void beginCrop(final Uri source) {
         newAvatarImageUri = Uri.fromFile(new File(getActivity().getCacheDir(), TEMP_FILE_NAME));
 
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.decode, TaskPriority.high, new Runnable() {
             @Override
             public void run() {
                 final boolean isImageNeedPreprocess = FileManager.isImageSizeGreater(source, MAX_IMAGE_SIZE)
@@ -546,7 +548,7 @@ public class AccountInfoEditorFragment extends Fragment implements OnVCardSaveLi
         Glide.with(this).load(source).asBitmap().toBytes().override(MAX_IMAGE_SIZE, MAX_IMAGE_SIZE).into(new SimpleTarget<byte[]>() {
             @Override
             public void onResourceReady(final byte[] data, GlideAnimation anim) {
-                Application.getInstance().runInBackground(new Runnable() {
+                Application.getInstance().runInBackground(BackgroundLane.io, TaskPriority.high, new Runnable() {
                     @Override
                     public void run() {
                         final Uri rotatedImage = FileManager.saveImage(data, ROTATE_FILE_NAME);
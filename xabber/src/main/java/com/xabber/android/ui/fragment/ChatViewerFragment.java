@@ -36,9 +36,11 @@ import android.widget.Toast;
 
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
+import com.xabber.android.data.BackgroundLane;
 import com.xabber.android.data.LogManager;
 import com.xabber.android.data.NetworkException;
 import com.xabber.android.data.SettingsManager;
+import com.xabber.android.data.TaskPriority;
 import com.xabber.android.data.entity.BaseEntity;
 import com.xabber.android.data.extension.archive.MessageArchiveManager;
 import com.xabber.android.data.extension.attention.AttentionManager;
@@ -93,6 +95,11 @@ public class ChatViewerFragment extends Fragment implements PopupMenu.OnMenuItem
     public static final String ARGUMENT_USER = "ARGUMENT_USER";
 
     private static final int MINIMUM_MESSAGES_TO_LOAD = 10;
+    /**
+     * Number of not shown messages above the screen to start loading of
+     * previous history page.
+     */
+    private static final int HISTORY_PRELOAD_THRESHOLD = 10;
     public static final int FILE_SELECT_ACTIVITY_REQUEST_CODE = 23;
     private static final int PERMISSIONS_REQUEST_ATTACH_FILE = 24;
     private static final int PERMISSIONS_REQUEST_SAVE_TO_DOWNLOADS = 25;
@@ -202,6 +209,14 @@ public class ChatViewerFragment extends Fragment implements PopupMenu.OnMenuItem
         layoutManager = new LinearLayoutManager(getActivity());
         layoutManager.setStackFromEnd(true);
         recyclerView.setLayoutManager(layoutManager);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= HISTORY_PRELOAD_THRESHOLD) {
+                    MessageManager.getInstance().requestToLoadLocalHistory(account, user);
+                }
+            }
+        });
 
         // to avoid strange bug on some 4.x androids
         view.findViewById(R.id.input_layout).setBackgroundColor(ColorManager.getInstance().getChatInputBackgroundColor());
@@ -640,8 +655,18 @@ public class ChatViewerFragment extends Fragment implements PopupMenu.OnMenuItem
         ContactTitleInflater.updateTitle(contactTitleView, getActivity(), abstractContact);
         toolbar.setBackgroundColor(ColorManager.getInstance().getAccountPainter().getAccountMainColor(account));
         int itemCountBeforeUpdate = chatMessageAdapter.getItemCount();
+        int firstVisibleItemPosition = layoutManager.findFirstVisibleItemPosition();
+        View firstVisibleView = layoutManager.findViewByPosition(firstVisibleItemPosition);
+        int firstVisibleOffset = firstVisibleView == null ? 0 : firstVisibleView.getTop();
         chatMessageAdapter.onChange();
-        scrollChat(itemCountBeforeUpdate);
+        int prependedCount = chatMessageAdapter.getPrependedCount();
+        if (prependedCount > 0 && firstVisibleItemPosition != RecyclerView.NO_POSITION) {
+            // keep position of shown messages when history page was loaded
+            layoutManager.scrollToPositionWithOffset(firstVisibleItemPosition + prependedCount,
+                    firstVisibleOffset);
+        } else {
+            scrollChat(itemCountBeforeUpdate);
+        }
         setUpOptionsMenu(toolbar.getMenu());
         updateSecurityButton();
     }
@@ -834,7 +859,7 @@ public class ChatViewerFragment extends Fragment implements PopupMenu.OnMenuItem
     }
 
     private void saveFileToDownloads() {
-        Application.getInstance().runInBackground(new Runnable() {
+        Application.getInstance().runInBackground(BackgroundLane.io, TaskPriority.high, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -864,27 +889,15 @@ public class ChatViewerFragment extends Fragment implements PopupMenu.OnMenuItem
     }
 
     private void stopEncryption(String account, String user) {
-        try {
-            OTRManager.getInstance().endSession(account, user);
-        } catch (NetworkException e) {
-            Application.getInstance().onError(e);
-        }
+        OTRManager.getInstance().endSession(account, user);
     }
 
     private void restartEncryption(String account, String user) {
-        try {
-            OTRManager.getInstance().refreshSession(account, user);
-        } catch (NetworkException e) {
-            Application.getInstance().onError(e);
-        }
+        OTRManager.getInstance().refreshSession(account, user);
     }
 
     private void startEncryption(String account, String user) {
-        try {
-            OTRManager.getInstance().startSession(account, user);
-        } catch (NetworkException e) {
-            Application.getInstance().onError(e);
-        }
+        OTRManager.getInstance().startSession(account, user);
     }
 
     @Override
@@ -164,6 +164,7 @@ public class ContactListFragment extends Fragment implements OnAccountChangedLis
     public void onPause() {
         super.onPause();
         unregisterListeners();
+        adapter.saveContactList();
     }
 
     @Override
@@ -203,8 +204,8 @@ public class ContactListFragment extends Fragment implements OnAccountChangedLis
     }
 
     @Override
-    public void onContactsChanged(Collection<BaseEntity> addresses) {
-        adapter.refreshRequest();
+    public void onContactsChanged(Collection<BaseEntity> addresses, boolean allChanged) {
+        adapter.onContactsChanged(addresses, allChanged);
     }
 
     @Override
@@ -215,8 +216,8 @@ public class ContactListFragment extends Fragment implements OnAccountChangedLis
     }
 
     @Override
-    public void onChatChanged(String account, String user, boolean incoming) {
-        if (incoming) {
+    public void onChatsChanged(Collection<BaseEntity> entities, Collection<BaseEntity> incoming) {
+        if (!incoming.isEmpty()) {
             adapter.refreshRequest();
         }
     }
@@ -206,7 +206,7 @@ public class ContactVcardViewerFragment extends Fragment implements OnContactCha
     }
 
     @Override
-    public void onContactsChanged(Collection<BaseEntity> entities) {
+    public void onContactsChanged(Collection<BaseEntity> entities, boolean allChanged) {
         for (BaseEntity entity : entities) {
             if (entity.equals(account, user)) {
                 updateContact(account, user);
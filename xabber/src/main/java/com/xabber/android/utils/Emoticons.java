@@ -14,11 +14,7 @@
  */
 package com.xabber.android.utils;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
 
 import android.content.Context;
 import android.graphics.drawable.Drawable;
@@ -26,63 +22,73 @@ import android.text.Spannable;
 import android.text.Spannable.Factory;
 import android.text.style.DynamicDrawableSpan;
 import android.text.style.ImageSpan;
+import android.util.SparseArray;
 import android.widget.TextView;
 
-import com.xabber.android.data.SettingsManager;
 import com.xabber.android.R;
+import com.xabber.android.data.SettingsManager;
+import com.xabber.android.data.message.MessageItem;
+
+import github.ankushsachdeva.emojicon.EmojiconTextView;
 
 /**
  * Emoticons.
+ * <p/>
+ * Emoticons are found in single pass over the text using prefix tree. Drawables
+ * are shared between spans with the same size.
  *
  * @author alexander.ivanov
  */
 public class Emoticons {
 
-    public static final Map<Pattern, Integer> ANDROID_EMOTICONS = new HashMap<>();
-    public static final Map<Pattern, Integer> NONE_EMOTICONS = new HashMap<>();
+    public static final Dictionary ANDROID_EMOTICONS = new Dictionary();
+    public static final Dictionary NONE_EMOTICONS = new Dictionary();
 
     private static final Factory spannableFactory = Spannable.Factory
             .getInstance();
 
-    static {
-        addPattern(ANDROID_EMOTICONS, ":)", R.drawable.emo_im_happy);
-        addPattern(ANDROID_EMOTICONS, ":-)", R.drawable.emo_im_happy);
-        addPattern(ANDROID_EMOTICONS, "=)", R.drawable.emo_im_happy);
-        addPattern(ANDROID_EMOTICONS, ":(", R.drawable.emo_im_sad);
-        addPattern(ANDROID_EMOTICONS, ":-(", R.drawable.emo_im_sad);
-        addPattern(ANDROID_EMOTICONS, ";)", R.drawable.emo_im_winking);
-        addPattern(ANDROID_EMOTICONS, ";-)", R.drawable.emo_im_winking);
-        addPattern(ANDROID_EMOTICONS, ":P", R.drawable.emo_im_tongue_sticking_out);
-        addPattern(ANDROID_EMOTICONS, ":-P", R.drawable.emo_im_tongue_sticking_out);
-        addPattern(ANDROID_EMOTICONS, "=-O", R.drawable.emo_im_surprised);
-        addPattern(ANDROID_EMOTICONS, ":*", R.drawable.emo_im_kissing);
-        addPattern(ANDROID_EMOTICONS, ":-*", R.drawable.emo_im_kissing);
-        addPattern(ANDROID_EMOTICONS, ":O", R.drawable.emo_im_wtf);
-        addPattern(ANDROID_EMOTICONS, ":-O", R.drawable.emo_im_wtf);
-        addPattern(ANDROID_EMOTICONS, "B)", R.drawable.emo_im_cool);
-        addPattern(ANDROID_EMOTICONS, "B-)", R.drawable.emo_im_cool);
-        addPattern(ANDROID_EMOTICONS, "8)", R.drawable.emo_im_cool);
-        addPattern(ANDROID_EMOTICONS, "8-)", R.drawable.emo_im_cool);
-        addPattern(ANDROID_EMOTICONS, ":-!", R.drawable.emo_im_foot_in_mouth);
-        addPattern(ANDROID_EMOTICONS, ":-[", R.drawable.emo_im_embarrassed);
-        addPattern(ANDROID_EMOTICONS, "O:)", R.drawable.emo_im_angel);
-        addPattern(ANDROID_EMOTICONS, "O:-)", R.drawable.emo_im_angel);
-        addPattern(ANDROID_EMOTICONS, ":\\", R.drawable.emo_im_undecided);
-        addPattern(ANDROID_EMOTICONS, ":-\\", R.drawable.emo_im_undecided);
-        addPattern(ANDROID_EMOTICONS, ":'(", R.drawable.emo_im_crying);
-        addPattern(ANDROID_EMOTICONS, ":D", R.drawable.emo_im_laughing);
-        addPattern(ANDROID_EMOTICONS, ":-D", R.drawable.emo_im_laughing);
-        addPattern(ANDROID_EMOTICONS, "O_o", R.drawable.emo_im_wtf);
-        addPattern(ANDROID_EMOTICONS, "o_O", R.drawable.emo_im_wtf);
-        addPattern(ANDROID_EMOTICONS, ">:O", R.drawable.emo_im_yelling);
-        addPattern(ANDROID_EMOTICONS, ">:0", R.drawable.emo_im_yelling);
-        addPattern(ANDROID_EMOTICONS, ":S", R.drawable.emo_im_lips_are_sealed);
-        addPattern(ANDROID_EMOTICONS, ":-S", R.drawable.emo_im_lips_are_sealed);
-        addPattern(ANDROID_EMOTICONS, ":-$", R.drawable.emo_im_lips_are_sealed);
-    }
+    /**
+     * Drawables shared between spans, by size and by resource.
+     * <p/>
+     * MUST BE ACCESSED FROM UI THREAD ONLY.
+     */
+    private static final SparseArray<SparseArray<Drawable>> drawables = new SparseArray<>();
 
-    private static void addPattern(Map<Pattern, Integer> map, String smile, int resource) {
-        map.put(Pattern.compile(Pattern.quote(smile)), resource);
+    static {
+        ANDROID_EMOTICONS.add(":)", R.drawable.emo_im_happy);
+        ANDROID_EMOTICONS.add(":-)", R.drawable.emo_im_happy);
+        ANDROID_EMOTICONS.add("=)", R.drawable.emo_im_happy);
+        ANDROID_EMOTICONS.add(":(", R.drawable.emo_im_sad);
+        ANDROID_EMOTICONS.add(":-(", R.drawable.emo_im_sad);
+        ANDROID_EMOTICONS.add(";)", R.drawable.emo_im_winking);
+        ANDROID_EMOTICONS.add(";-)", R.drawable.emo_im_winking);
+        ANDROID_EMOTICONS.add(":P", R.drawable.emo_im_tongue_sticking_out);
+        ANDROID_EMOTICONS.add(":-P", R.drawable.emo_im_tongue_sticking_out);
+        ANDROID_EMOTICONS.add("=-O", R.drawable.emo_im_surprised);
+        ANDROID_EMOTICONS.add(":*", R.drawable.emo_im_kissing);
+        ANDROID_EMOTICONS.add(":-*", R.drawable.emo_im_kissing);
+        ANDROID_EMOTICONS.add(":O", R.drawable.emo_im_wtf);
+        ANDROID_EMOTICONS.add(":-O", R.drawable.emo_im_wtf);
+        ANDROID_EMOTICONS.add("B)", R.drawable.emo_im_cool);
+        ANDROID_EMOTICONS.add("B-)", R.drawable.emo_im_cool);
+        ANDROID_EMOTICONS.add("8)", R.drawable.emo_im_cool);
+        ANDROID_EMOTICONS.add("8-)", R.drawable.emo_im_cool);
+        ANDROID_EMOTICONS.add(":-!", R.drawable.emo_im_foot_in_mouth);
+        ANDROID_EMOTICONS.add(":-[", R.drawable.emo_im_embarrassed);
+        ANDROID_EMOTICONS.add("O:)", R.drawable.emo_im_angel);
+        ANDROID_EMOTICONS.add("O:-)", R.drawable.emo_im_angel);
+        ANDROID_EMOTICONS.add(":\\", R.drawable.emo_im_undecided);
+        ANDROID_EMOTICONS.add(":-\\", R.drawable.emo_im_undecided);
+        ANDROID_EMOTICONS.add(":'(", R.drawable.emo_im_crying);
+        ANDROID_EMOTICONS.add(":D", R.drawable.emo_im_laughing);
+        ANDROID_EMOTICONS.add(":-D", R.drawable.emo_im_laughing);
+        ANDROID_EMOTICONS.add("O_o", R.drawable.emo_im_wtf);
+        ANDROID_EMOTICONS.add("o_O", R.drawable.emo_im_wtf);
+        ANDROID_EMOTICONS.add(">:O", R.drawable.emo_im_yelling);
+        ANDROID_EMOTICONS.add(">:0", R.drawable.emo_im_yelling);
+        ANDROID_EMOTICONS.add(":S", R.drawable.emo_im_lips_are_sealed);
+        ANDROID_EMOTICONS.add(":-S", R.drawable.emo_im_lips_are_sealed);
+        ANDROID_EMOTICONS.add(":-$", R.drawable.emo_im_lips_are_sealed);
     }
 
     private Emoticons() {
@@ -102,29 +108,31 @@ public class Emoticons {
      * @return Whether smiles have been added into <code>spannable</code>.
      */
     public static boolean getSmiledText(Context context, Spannable spannable, TextView textView) {
+        return getSmiledText(context, spannable, SettingsManager.interfaceSmiles(),
+                textView.getLineHeight());
+    }
+
+    private static boolean getSmiledText(Context context, Spannable spannable,
+                                         Dictionary dictionary, int size) {
+        for (EmoticonSpan span : spannable.getSpans(0, spannable.length(), EmoticonSpan.class)) {
+            spannable.removeSpan(span);
+        }
         boolean hasChanges = false;
-        Map<Pattern, Integer> emoticons = SettingsManager.interfaceSmiles();
-        for (Entry<Pattern, Integer> entry : emoticons.entrySet()) {
-            Matcher matcher = entry.getKey().matcher(spannable);
-            while (matcher.find()) {
-                boolean set = true;
-                for (ImageSpan span : spannable.getSpans(matcher.start(), matcher.end(), ImageSpan.class))
-                    if (spannable.getSpanStart(span) >= matcher.start()
-                            && spannable.getSpanEnd(span) <= matcher.end()) {
-                        spannable.removeSpan(span);
-                    } else {
-                        set = false;
-                        break;
-                    }
-                if (set) {
-                    Drawable myIcon = context.getResources().getDrawable(entry.getValue());
-                    myIcon.setBounds(0, 0, textView.getLineHeight(), textView.getLineHeight());
-
-                    spannable.setSpan(new ImageSpan(myIcon, DynamicDrawableSpan.ALIGN_BOTTOM),
-                            matcher.start(), matcher.end(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    hasChanges = true;
-                }
+        int length = spannable.length();
+        int index = 0;
+        while (index < length) {
+            int end = dictionary.match(spannable, index);
+            if (end < 0) {
+                index++;
+                continue;
             }
+            int resource = dictionary.getResource(spannable, index, end);
+            if (spannable.getSpans(index, end, ImageSpan.class).length == 0) {
+                spannable.setSpan(new EmoticonSpan(getDrawable(context, resource, size)),
+                        index, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                hasChanges = true;
+            }
+            index = end;
         }
         return hasChanges;
     }
@@ -140,4 +148,142 @@ public class Emoticons {
         return spannable;
     }
 
+    /**
+     * Populates message's cached spannable with smiles and emojis. Text is
+     * processed only if smile settings or text view's size were changed since
+     * the last call.
+     *
+     * @param context
+     * @param messageItem
+     * @param textView
+     * @return Message's spannable.
+     */
+    public static Spannable getSmiledText(Context context, MessageItem messageItem, TextView textView) {
+        Spannable spannable = messageItem.getSpannable();
+        Dictionary dictionary = SettingsManager.interfaceSmiles();
+        int size = textView.getLineHeight();
+        if (messageItem.getSmiles() != dictionary || messageItem.getSmilesSize() != size) {
+            getSmiledText(context, spannable, dictionary, size);
+            if (textView instanceof EmojiconTextView) {
+                ((EmojiconTextView) textView).addEmojis(spannable);
+            }
+            messageItem.setSmiles(dictionary, size);
+        }
+        return spannable;
+    }
+
+    private static Drawable getDrawable(Context context, int resource, int size) {
+        SparseArray<Drawable> sized = drawables.get(size);
+        if (sized == null) {
+            sized = new SparseArray<>();
+            drawables.put(size, sized);
+        }
+        Drawable drawable = sized.get(resource);
+        if (drawable == null) {
+            drawable = context.getResources().getDrawable(resource);
+            drawable.setBounds(0, 0, size, size);
+            sized.put(resource, drawable);
+        }
+        return drawable;
+    }
+
+    private static class EmoticonSpan extends ImageSpan {
+
+        public EmoticonSpan(Drawable drawable) {
+            super(drawable, DynamicDrawableSpan.ALIGN_BOTTOM);
+        }
+
+    }
+
+    /**
+     * Set of emoticons stored as prefix tree.
+     */
+    public static class Dictionary {
+
+        private final Node root;
+
+        private Dictionary() {
+            root = new Node();
+        }
+
+        private void add(String smile, int resource) {
+            Node node = root;
+            for (int index = 0; index < smile.length(); index++) {
+                node = node.getOrCreateChild(smile.charAt(index));
+            }
+            node.resource = resource;
+        }
+
+        /**
+         * @param text
+         * @param start
+         * @return End of the longest emoticon started at given position or
+         * <code>-1</code> if there is no such emoticon.
+         */
+        private int match(CharSequence text, int start) {
+            Node node = root;
+            int end = -1;
+            for (int index = start; index < text.length(); index++) {
+                node = node.getChild(text.charAt(index));
+                if (node == null) {
+                    break;
+                }
+                if (node.resource != 0) {
+                    end = index + 1;
+                }
+            }
+            return end;
+        }
+
+        private int getResource(CharSequence text, int start, int end) {
+            Node node = root;
+            for (int index = start; index < end; index++) {
+                node = node.getChild(text.charAt(index));
+            }
+            return node.resource;
+        }
+
+    }
+
+    private static class Node {
+
+        /**
+         * Drawable resource for emoticon ended in this node, <code>0</code>
+         * if there is no such emoticon.
+         */
+        private int resource;
+
+        private char[] keys;
+
+        private Node[] children;
+
+        Node() {
+            resource = 0;
+            keys = new char[0];
+            children = new Node[0];
+        }
+
+        Node getChild(char key) {
+            for (int index = 0; index < keys.length; index++) {
+                if (keys[index] == key) {
+                    return children[index];
+                }
+            }
+            return null;
+        }
+
+        Node getOrCreateChild(char key) {
+            Node child = getChild(key);
+            if (child == null) {
+                child = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = key;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+
+    }
+
 }
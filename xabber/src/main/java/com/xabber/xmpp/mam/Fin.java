@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.xmpp.mam;
+
+import com.xabber.xmpp.IQ;
+import com.xabber.xmpp.SerializerUtils;
+import com.xabber.xmpp.rsm.Set;
+
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.IOException;
+
+/**
+ * Result of the {@link Query} sent after all matched messages.
+ * <p/>
+ * http://xmpp.org/extensions/xep-0313.html
+ */
+public class Fin extends IQ {
+
+    static final String ELEMENT_NAME = "fin";
+
+    static final String COMPLETE_ATTRIBUTE = "complete";
+
+    private boolean complete;
+    private Set rsm;
+
+    public Fin() {
+        super(ELEMENT_NAME, Query.NAMESPACE);
+    }
+
+    @Override
+    public void serializeContent(XmlSerializer serializer) throws IOException {
+        if (complete)
+            SerializerUtils.setBooleanAttribute(serializer, COMPLETE_ATTRIBUTE, true);
+        if (rsm != null)
+            rsm.serialize(serializer);
+    }
+
+    @Override
+    public boolean isValid() {
+        return true;
+    }
+
+    @Override
+    public String getElementName() {
+        return ELEMENT_NAME;
+    }
+
+    @Override
+    public String getNamespace() {
+        return Query.NAMESPACE;
+    }
+
+    /**
+     * @return Whether the last page of the query was received.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    public Set getRsm() {
+        return rsm;
+    }
+
+    public void setRsm(Set rsm) {
+        this.rsm = rsm;
+    }
+
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.xmpp.mam;
+
+import com.xabber.xmpp.AbstractIQProvider;
+import com.xabber.xmpp.ProviderUtils;
+import com.xabber.xmpp.rsm.Set;
+
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+
+public class FinProvider extends AbstractIQProvider<Fin> {
+
+    @Override
+    protected Fin createInstance(XmlPullParser parser) {
+        return new Fin();
+    }
+
+    @Override
+    protected Fin preProcess(XmlPullParser parser, Fin instance) {
+        Boolean complete = ProviderUtils.parseBoolean(parser.getAttributeValue(
+                null, Fin.COMPLETE_ATTRIBUTE));
+        instance.setComplete(complete != null && complete);
+        return super.preProcess(parser, instance);
+    }
+
+    @Override
+    protected boolean parseInner(XmlPullParser parser, Fin instance) throws XmlPullParserException, IOException, SmackException {
+        if (super.parseInner(parser, instance))
+            return true;
+        if (Set.ELEMENT_NAME.equals(parser.getName())
+                && Set.NAMESPACE.equals(parser.getNamespace())) {
+            ExtensionElement packetExtension = PacketParserUtils
+                    .parseExtensionElement(Set.ELEMENT_NAME, Set.NAMESPACE, parser);
+            if (packetExtension instanceof Set
+                    && ((Set) packetExtension).isValid())
+                instance.setRsm((Set) packetExtension);
+            return true;
+        }
+        return false;
+    }
+
+}
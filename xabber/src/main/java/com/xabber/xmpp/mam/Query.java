@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.xmpp.mam;
+
+import com.xabber.xmpp.IQ;
+import com.xabber.xmpp.SerializerUtils;
+import com.xabber.xmpp.form.DataFormType;
+import com.xabber.xmpp.rsm.Set;
+
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Query to the message archive.
+ * <p/>
+ * http://xmpp.org/extensions/xep-0313.html
+ */
+public class Query extends IQ {
+
+    public static final String NAMESPACE = "urn:xmpp:mam:1";
+    static final String ELEMENT_NAME = "query";
+
+    static final String QUERY_ID_ATTRIBUTE = "queryid";
+
+    private static final String FORM_NAMESPACE = "jabber:x:data";
+    private static final String FORM_NAME = "x";
+    private static final String FORM_TYPE_ATTRIBUTE = "type";
+    private static final String FIELD_NAME = "field";
+    private static final String FIELD_VAR_ATTRIBUTE = "var";
+    private static final String FIELD_TYPE_ATTRIBUTE = "type";
+    private static final String VALUE_NAME = "value";
+    private static final String FORM_TYPE_VAR = "FORM_TYPE";
+    private static final String START_VAR = "start";
+    private static final String END_VAR = "end";
+    private static final String WITH_VAR = "with";
+
+    private String queryId;
+    private Date start;
+    private Date end;
+    private String with;
+    private Set rsm;
+
+    public Query() {
+        super(ELEMENT_NAME, NAMESPACE);
+    }
+
+    @Override
+    public void serializeContent(XmlSerializer serializer) throws IOException {
+        if (queryId != null)
+            SerializerUtils.setTextAttribute(serializer, QUERY_ID_ATTRIBUTE, queryId);
+        if (start != null || end != null || with != null) {
+            serializer.setPrefix("", FORM_NAMESPACE);
+            serializer.startTag(FORM_NAMESPACE, FORM_NAME);
+            SerializerUtils.setTextAttribute(serializer, FORM_TYPE_ATTRIBUTE,
+                    DataFormType.submit.name());
+            serializer.startTag(null, FIELD_NAME);
+            SerializerUtils.setTextAttribute(serializer, FIELD_VAR_ATTRIBUTE, FORM_TYPE_VAR);
+            SerializerUtils.setTextAttribute(serializer, FIELD_TYPE_ATTRIBUTE, "hidden");
+            SerializerUtils.addTextTag(serializer, VALUE_NAME, NAMESPACE);
+            serializer.endTag(null, FIELD_NAME);
+            if (start != null)
+                addField(serializer, START_VAR, SerializerUtils.serializeDateTime(start));
+            if (end != null)
+                addField(serializer, END_VAR, SerializerUtils.serializeDateTime(end));
+            if (with != null)
+                addField(serializer, WITH_VAR, with);
+            serializer.endTag(FORM_NAMESPACE, FORM_NAME);
+        }
+        if (rsm != null)
+            rsm.serialize(serializer);
+    }
+
+    private static void addField(XmlSerializer serializer, String var, String value)
+            throws IOException {
+        serializer.startTag(null, FIELD_NAME);
+        SerializerUtils.setTextAttribute(serializer, FIELD_VAR_ATTRIBUTE, var);
+        SerializerUtils.addTextTag(serializer, VALUE_NAME, value);
+        serializer.endTag(null, FIELD_NAME);
+    }
+
+    @Override
+    public boolean isValid() {
+        return true;
+    }
+
+    @Override
+    public String getElementName() {
+        return ELEMENT_NAME;
+    }
+
+    @Override
+    public String getNamespace() {
+        return NAMESPACE;
+    }
+
+    public String getQueryId() {
+        return queryId;
+    }
+
+    public void setQueryId(String queryId) {
+        this.queryId = queryId;
+    }
+
+    public Date getStart() {
+        return start;
+    }
+
+    public void setStart(Date start) {
+        this.start = start;
+    }
+
+    public Date getEnd() {
+        return end;
+    }
+
+    public void setEnd(Date end) {
+        this.end = end;
+    }
+
+    public String getWith() {
+        return with;
+    }
+
+    public void setWith(String with) {
+        this.with = with;
+    }
+
+    public Set getRsm() {
+        return rsm;
+    }
+
+    public void setRsm(Set rsm) {
+        this.rsm = rsm;
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.xmpp.mam;
+
+import com.xabber.xmpp.PacketExtension;
+import com.xabber.xmpp.SerializerUtils;
+import com.xabber.xmpp.carbon.Forwarded;
+
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.IOException;
+
+/**
+ * Archived message sent in response to the {@link Query}.
+ * <p/>
+ * http://xmpp.org/extensions/xep-0313.html
+ */
+public class Result extends PacketExtension {
+
+    public static final String ELEMENT_NAME = "result";
+
+    static final String QUERY_ID_ATTRIBUTE = "queryid";
+    static final String ID_ATTRIBUTE = "id";
+
+    private String queryId;
+    private String id;
+    private Forwarded forwarded;
+
+    @Override
+    public void serializeContent(XmlSerializer serializer) throws IOException {
+        if (queryId != null)
+            SerializerUtils.setTextAttribute(serializer, QUERY_ID_ATTRIBUTE, queryId);
+        if (id != null)
+            SerializerUtils.setTextAttribute(serializer, ID_ATTRIBUTE, id);
+    }
+
+    @Override
+    public boolean isValid() {
+        return id != null && forwarded != null && forwarded.isValid();
+    }
+
+    @Override
+    public String getElementName() {
+        return ELEMENT_NAME;
+    }
+
+    @Override
+    public String getNamespace() {
+        return Query.NAMESPACE;
+    }
+
+    public String getQueryId() {
+        return queryId;
+    }
+
+    public void setQueryId(String queryId) {
+        this.queryId = queryId;
+    }
+
+    /**
+     * @return Archive id of the message.
+     */
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Forwarded getForwarded() {
+        return forwarded;
+    }
+
+    public void setForwarded(Forwarded forwarded) {
+        this.forwarded = forwarded;
+    }
+
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2013, Redsolution LTD. All rights reserved.
+ *
+ * This file is part of Xabber project; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License, Version 3.
+ *
+ * Xabber is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * along with this program. If not, see http://www.gnu.org/licenses/.
+ */
+package com.xabber.xmpp.mam;
+
+import com.xabber.xmpp.AbstractExtensionProvider;
+import com.xabber.xmpp.carbon.Forwarded;
+
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+
+public class ResultProvider extends AbstractExtensionProvider<Result> {
+
+    @Override
+    protected Result createInstance(XmlPullParser parser) {
+        return new Result();
+    }
+
+    @Override
+    protected Result preProcess(XmlPullParser parser, Result instance) {
+        instance.setQueryId(parser.getAttributeValue(null, Result.QUERY_ID_ATTRIBUTE));
+        instance.setId(parser.getAttributeValue(null, Result.ID_ATTRIBUTE));
+        return super.preProcess(parser, instance);
+    }
+
+    @Override
+    protected boolean parseInner(XmlPullParser parser, Result instance) throws XmlPullParserException, IOException, SmackException {
+        if (super.parseInner(parser, instance))
+            return true;
+        if (Forwarded.ELEMENT_NAME.equals(parser.getName())
+                && Forwarded.NAMESPACE.equals(parser.getNamespace())) {
+            ExtensionElement packetExtension = PacketParserUtils
+                    .parseExtensionElement(Forwarded.ELEMENT_NAME, Forwarded.NAMESPACE, parser);
+            if (packetExtension instanceof Forwarded)
+                instance.setForwarded((Forwarded) packetExtension);
+            return true;
+        }
+        return false;
+    }
+
+}